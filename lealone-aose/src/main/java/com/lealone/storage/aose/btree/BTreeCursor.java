@@ -8,10 +8,12 @@ package com.lealone.storage.aose.btree;
 import com.lealone.storage.CursorParameters;
 import com.lealone.storage.StorageMapCursor;
 import com.lealone.storage.aose.btree.page.Page;
+import com.lealone.storage.aose.btree.page.PageReference;
 import com.lealone.storage.page.IPage;
 
 /**
- * A cursor to iterate over elements in ascending order.
+ * A cursor to iterate over elements in ascending order,
+ * or in descending order if CursorParameters.reverse is true.
  * 
  * @param <K> the key type
  * @param <V> the value type
@@ -31,8 +33,13 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
     public BTreeCursor(BTreeMap<K, ?> map, CursorParameters<K> parameters) {
         this.map = map;
         this.parameters = parameters;
-        // 定位到>=from的第一个leaf page
-        min(map.getRootPage(), parameters.from);
+        if (parameters.reverse) {
+            // 定位到<=to的最后一个leaf page
+            max(map.getRootPage(), parameters.to);
+        } else {
+            // 定位到>=from的第一个leaf page
+            min(map.getRootPage(), parameters.from);
+        }
     }
 
     @Override
@@ -53,21 +60,62 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
     @Override
     @SuppressWarnings("unchecked")
     public boolean next() {
-        if (hasNext()) {
-            int index = pos.index++;
-            key = (K) pos.page.getKey(index);
-            if (parameters.allColumns)
-                value = (V) pos.page.getValue(index, true);
-            else
-                value = (V) pos.page.getValue(index, parameters.columnIndexes);
+        while (true) {
+            if (parameters.reverse ? !hasPrevious() : !hasNext())
+                return false;
+            Page p = pos.page;
+            long stamp = p.beginRead();
+            if (stamp != pos.stamp) {
+                relocate(pos);
+                continue;
+            }
+            int index = pos.index;
+            K k = null;
+            V v = null;
+            boolean end = false;
+            try {
+                if (index >= 0 && index < p.getKeyCount()) {
+                    k = (K) p.getKey(index);
+                    end = isEnd(k);
+                    if (!end) { // 超过边界就可以结束了，不用再读取value
+                        if (parameters.allColumns)
+                            v = (V) p.getValue(index, true);
+                        else
+                            v = (V) p.getValue(index, parameters.columnIndexes);
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (p.validateRead(stamp))
+                    throw e;
+                continue;
+            }
+            if (!p.validateRead(stamp))
+                continue;
+            if (k == null) { // 当前page已经遍历完了
+                pos.index = parameters.reverse ? -1 : Integer.MAX_VALUE;
+                continue;
+            }
+            pos.index = parameters.reverse ? index - 1 : index + 1;
+            key = k;
+            if (end) {
+                pos = null;
+                return false;
+            }
+            value = v;
             return true;
         }
-        return false;
+    }
+
+    private boolean isEnd(K k) {
+        if (parameters.reverse) // 倒序遍历时小于from就可以结束了
+            return parameters.from != null && map.getKeyType().compare(k, parameters.from) < 0;
+        else
+            return parameters.to != null && map.getKeyType().compare(k, parameters.to) > 0;
     }
 
     private boolean hasNext() {
         while (pos != null) {
-            if (pos.index < pos.page.getKeyCount()) {
+            if (hasRemaining(pos)) {
                 return true;
             }
             pos = pos.parent;
@@ -81,6 +129,46 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
         return false;
     }
 
+    private boolean hasPrevious() {
+        while (pos != null) {
+            if (hasRemaining(pos)) {
+                return true;
+            }
+            pos = pos.parent;
+            if (pos == null) {
+                return false;
+            }
+            if (pos.index >= 0) {
+                max(pos.page.getChildPage(pos.index--), null);
+            }
+        }
+        return false;
+    }
+
+    // 当前page中是否还有没遍历的记录，leaf page被原地修改过时要先重新定位，
+    // 否则删除了前面的记录后keyCount变小，会漏掉后面的记录
+    private boolean hasRemaining(CursorPos pos) {
+        Page p = pos.page;
+        while (true) {
+            long stamp = p.beginRead();
+            if (stamp != pos.stamp) {
+                relocate(pos);
+                continue;
+            }
+            boolean remaining = parameters.reverse ? pos.index >= 0 : pos.index < p.getKeyCount();
+            if (p.validateRead(stamp))
+                return remaining;
+        }
+    }
+
+    // leaf page被原地修改过了，从上一次返回的key之后重新定位
+    private void relocate(CursorPos pos) {
+        if (key != null)
+            locate(pos, key, true);
+        else
+            locate(pos, parameters.reverse ? parameters.to : parameters.from, false);
+    }
+
     /**
      * Fetch the next entry that is equal or larger than the given key, starting
      * from the given page. This method retains the stack.
@@ -91,11 +179,9 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
     private void min(Page p, K from) {
         while (true) {
             if (p.isLeaf()) {
-                int x = from == null ? 0 : p.binarySearch(from);
-                if (x < 0) {
-                    x = -x - 1;
-                }
-                pos = new CursorPos(p, x, pos);
+                pos = new CursorPos(p, 0, pos);
+                locate(pos, from, false);
+                readAhead(pos.parent);
                 break;
             }
             int x = from == null ? 0 : p.getPageIndex(from);
@@ -104,6 +190,77 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
         }
     }
 
+    /**
+     * Fetch the last entry that is equal or smaller than the given key, starting
+     * from the given page. This method retains the stack.
+     * 
+     * @param p the page to start
+     * @param to the key to search
+     */
+    private void max(Page p, K to) {
+        while (true) {
+            if (p.isLeaf()) {
+                pos = new CursorPos(p, 0, pos);
+                locate(pos, to, false);
+                readAhead(pos.parent);
+                break;
+            }
+            int x = to == null ? map.getChildPageCount(p) - 1 : p.getPageIndex(to);
+            pos = new CursorPos(p, x - 1, pos);
+            p = p.getChildPage(x);
+        }
+    }
+
+    /**
+     * 在leaf page中定位到第一个>=key的位置，倒序遍历时是最后一个<=key的位置，
+     * excluding为true时不包括key本身，key为null时定位到第一个或最后一个位置。
+     * 同时记下leaf page的版本号，之后读到的版本号不同时说明leaf page被原地修改过了。
+     */
+    private void locate(CursorPos pos, K key, boolean excluding) {
+        Page p = pos.page;
+        boolean reverse = parameters.reverse;
+        while (true) {
+            long stamp = p.beginRead();
+            try {
+                int x;
+                if (key == null) {
+                    x = reverse ? p.getKeyCount() - 1 : 0;
+                } else {
+                    x = p.binarySearch(key);
+                    if (x < 0) {
+                        x = reverse ? -x - 2 : -x - 1;
+                    } else if (excluding) {
+                        x += reverse ? -1 : 1;
+                    }
+                }
+                if (p.validateRead(stamp)) {
+                    pos.index = x;
+                    pos.stamp = stamp;
+                    return;
+                }
+            } catch (RuntimeException e) {
+                if (p.validateRead(stamp))
+                    throw e;
+            }
+        }
+    }
+
+    // 进入一个新的leaf page时预读下一个要遍历的兄弟leaf page
+    private void readAhead(CursorPos parent) {
+        if (parent == null)
+            return;
+        int index = parent.index;
+        if (index < 0 || index >= map.getChildPageCount(parent.page))
+            return;
+        // 在正向遍历时超过to的page不需要预读
+        if (!parameters.reverse && parameters.to != null && index > 0
+                && map.getKeyType().compare(parent.page.getKey(index - 1), parameters.to) > 0)
+            return;
+        PageReference ref = parent.page.getChildPageReference(index);
+        if (ref != null && ref.isLeafPage())
+            ref.readAhead();
+    }
+
     private static class CursorPos {
         /**
          * The current page.
@@ -120,6 +277,11 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
          */
         final CursorPos parent;
 
+        /**
+         * The version stamp of the leaf page when the index was located.
+         */
+        long stamp;
+
         CursorPos(Page page, int index, CursorPos parent) {
             this.page = page;
             this.index = index;
@@ -6,10 +6,14 @@
 package com.lealone.storage.aose.btree;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 import com.lealone.common.util.DataUtils;
 import com.lealone.db.DbSetting;
@@ -29,6 +33,7 @@ import com.lealone.storage.aose.btree.chunk.Chunk;
 import com.lealone.storage.aose.btree.chunk.ChunkManager;
 import com.lealone.storage.aose.btree.page.LeafPage;
 import com.lealone.storage.aose.btree.page.Page;
+import com.lealone.storage.aose.btree.page.PageBulkLoader;
 import com.lealone.storage.aose.btree.page.PageReference;
 import com.lealone.storage.aose.btree.page.PageStorageMode;
 import com.lealone.storage.aose.btree.page.PageUtils;
@@ -177,23 +182,40 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
     @Override
     public Object[] getObjects(K key, int[] columnIndexes) {
         Page p = getRootPage().gotoLeafPage(key);
-        int index = p.binarySearch(key);
-        Object v = index >= 0 ? p.getValue(index, columnIndexes) : null;
+        Object v = binarySearch(p, key, false, columnIndexes);
         return new Object[] { p, v };
     }
 
     @SuppressWarnings("unchecked")
     private V binarySearch(Object key, boolean allColumns) {
-        Page p = getRootPage().gotoLeafPage(key);
-        int index = p.binarySearch(key);
-        return index >= 0 ? (V) p.getValue(index, allColumns) : null;
+        return (V) binarySearch(getRootPage().gotoLeafPage(key), key, allColumns, null);
     }
 
     @SuppressWarnings("unchecked")
     private V binarySearch(Object key, int[] columnIndexes) {
-        Page p = getRootPage().gotoLeafPage(key);
-        int index = p.binarySearch(key);
-        return index >= 0 ? (V) p.getValue(index, columnIndexes) : null;
+        return (V) binarySearch(getRootPage().gotoLeafPage(key), key, false, columnIndexes);
+    }
+
+    // leaf page可能正在被原地修改，读到不一致的数据时重新读
+    private static Object binarySearch(Page p, Object key, boolean allColumns, int[] columnIndexes) {
+        while (true) {
+            long stamp = p.beginRead();
+            try {
+                int index = p.binarySearch(key);
+                Object v = null;
+                if (index >= 0) {
+                    if (columnIndexes != null)
+                        v = p.getValue(index, columnIndexes);
+                    else
+                        v = p.getValue(index, allColumns);
+                }
+                if (p.validateRead(stamp))
+                    return v;
+            } catch (RuntimeException e) {
+                if (p.validateRead(stamp))
+                    throw e;
+            }
+        }
     }
 
     @Override
@@ -220,7 +242,17 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         Page p = getRootPage();
         while (true) {
             if (p.isLeaf()) {
-                return (K) p.getKey(first ? 0 : p.getKeyCount() - 1);
+                while (true) {
+                    long stamp = p.beginRead();
+                    try {
+                        K k = (K) p.getKey(first ? 0 : p.getKeyCount() - 1);
+                        if (p.validateRead(stamp))
+                            return k;
+                    } catch (RuntimeException e) {
+                        if (p.validateRead(stamp))
+                            throw e;
+                    }
+                }
             }
             p = p.getChildPage(first ? 0 : getChildPageCount(p) - 1);
         }
@@ -261,16 +293,23 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
     @SuppressWarnings("unchecked")
     private K getMinMax(Page p, K key, boolean min, boolean excluding) {
         if (p.isLeaf()) {
-            int x = p.binarySearch(key);
-            if (x < 0) {
-                x = -x - (min ? 2 : 1);
-            } else if (excluding) {
-                x += min ? -1 : 1;
-            }
-            if (x < 0 || x >= p.getKeyCount()) {
-                return null;
+            while (true) {
+                long stamp = p.beginRead();
+                try {
+                    int x = p.binarySearch(key);
+                    if (x < 0) {
+                        x = -x - (min ? 2 : 1);
+                    } else if (excluding) {
+                        x += min ? -1 : 1;
+                    }
+                    K k = x < 0 || x >= p.getKeyCount() ? null : (K) p.getKey(x);
+                    if (p.validateRead(stamp))
+                        return k;
+                } catch (RuntimeException e) {
+                    if (p.validateRead(stamp))
+                        throw e;
+                }
             }
-            return (K) p.getKey(x);
         }
         int x = p.getPageIndex(key);
         while (true) {
@@ -324,6 +363,41 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         return inMemory;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<K> getSplitKeys(int count) {
+        ArrayList<K> keys = new ArrayList<>();
+        if (count <= 1)
+            return keys;
+        // 从root page开始一层层往下找，node page中的key就是子page的边界，
+        // 直到边界足够分成count段或者下一层已经是leaf page
+        ArrayList<Page> pages = new ArrayList<>();
+        pages.add(getRootPage());
+        while (!pages.isEmpty() && pages.get(0).isNode() && keys.size() < count - 1) {
+            ArrayList<Page> children = new ArrayList<>();
+            for (Page p : pages) {
+                for (int i = 0, size = p.getKeyCount(); i < size; i++) {
+                    keys.add((K) p.getKey(i));
+                }
+                if (keys.size() < count - 1) {
+                    for (int i = 0, size = getChildPageCount(p); i < size; i++) {
+                        children.add(p.getChildPage(i));
+                    }
+                }
+            }
+            pages = children;
+        }
+        keys.sort((a, b) -> keyType.compare(a, b));
+        if (keys.size() <= count - 1)
+            return keys;
+        // 边界太多时均匀地选出count-1个
+        ArrayList<K> splitKeys = new ArrayList<>(count - 1);
+        for (int i = 1; i < count; i++) {
+            splitKeys.add(keys.get((int) ((long) i * keys.size() / count)));
+        }
+        return splitKeys;
+    }
+
     public boolean isReadOnly() {
         return readOnly;
     }
@@ -347,6 +421,35 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         }
     }
 
+    @Override
+    public boolean bulkLoad(Iterator<K> keys, Function<K, V> valueFunction) {
+        if (pageStorageMode != PageStorageMode.ROW_STORAGE)
+            return false;
+        lock.lock();
+        try {
+            checkWrite();
+            // 锁住root page，并发的写操作发现root page变成node page后会重新定位leaf page
+            Scheduler scheduler = SchedulerThread.currentScheduler(schedulerFactory);
+            if (scheduler != null && !rootRef.tryLock(scheduler, false))
+                return false;
+            try {
+                if (!isEmpty() || !getRootPage().isEmpty())
+                    return false;
+                PageBulkLoader<K, V> loader = new PageBulkLoader<>(this);
+                Page root = loader.load(keys, valueFunction);
+                newRoot(root);
+                size.set(loader.getCount());
+                setMaxKey(lastKey());
+                return true;
+            } finally {
+                if (scheduler != null)
+                    rootRef.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public void remove() {
         lock.lock();
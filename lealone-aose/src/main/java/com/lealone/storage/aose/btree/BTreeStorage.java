@@ -23,6 +23,8 @@ import com.lealone.storage.aose.btree.chunk.Chunk;
 import com.lealone.storage.aose.btree.chunk.ChunkCompactor;
 import com.lealone.storage.aose.btree.chunk.ChunkManager;
 import com.lealone.storage.aose.btree.page.Page;
+import com.lealone.storage.aose.btree.page.PageCache;
+import com.lealone.storage.aose.btree.page.PageReadAhead;
 import com.lealone.storage.aose.btree.page.PageInfo;
 import com.lealone.storage.aose.btree.page.PageUtils;
 import com.lealone.storage.fs.FilePath;
@@ -43,9 +45,18 @@ public class BTreeStorage {
     private final int pageSize;
     private final int minFillRate;
     private final int maxChunkSize;
+    private final boolean mmapRead;
+    private final boolean inPlaceLeafWrite;
+    private final int leafMergeFillRate;
 
     private final BTreeGC bgc;
 
+    // 所有BTreeMap共享的堆外page缓存，没有启用时为null
+    private final PageCache pageCache = PageCache.getInstance();
+    private final int pageCacheId = PageCache.nextStorageId();
+
+    private final PageReadAhead readAhead;
+
     /**
      * The compression level for new pages (0 for disabled, 1 for fast, 2 for high).
      * Even if disabled, the storage may contain (old) compressed pages.
@@ -77,6 +88,7 @@ public class BTreeStorage {
         if (cacheSize > 0 && cacheSize < pageSize)
             cacheSize = pageSize * 2;
         bgc = new BTreeGC(map, cacheSize);
+        readAhead = new PageReadAhead(map.getName());
 
         // 默认256M
         int maxChunkSize = getIntValue(StorageSetting.MAX_CHUNK_SIZE.name(), 256 * 1024 * 1024);
@@ -84,6 +96,17 @@ public class BTreeStorage {
             maxChunkSize = Chunk.MAX_SIZE;
         this.maxChunkSize = maxChunkSize;
 
+        Object mmapRead = map.getConfig(StorageSetting.MMAP_READ.name());
+        this.mmapRead = mmapRead != null && Boolean.parseBoolean(mmapRead.toString());
+        // 跟MIN_FILL_RATE无关，MIN_FILL_RATE是ChunkCompactor用的，默认不合并leaf page
+        int leafMergeFillRate = getIntValue(StorageSetting.LEAF_MERGE_FILL_RATE.name(), 0);
+        if (leafMergeFillRate > 50) // 超过50时合并后的page马上又要分割
+            leafMergeFillRate = 50;
+        this.leafMergeFillRate = leafMergeFillRate;
+        Object inPlaceLeafWrite = map.getConfig(StorageSetting.IN_PLACE_LEAF_WRITE.name());
+        this.inPlaceLeafWrite = inPlaceLeafWrite != null
+                && Boolean.parseBoolean(inPlaceLeafWrite.toString());
+
         chunkManager = new ChunkManager(this);
         if (map.isInMemory()) {
             mapBaseDir = null;
@@ -166,30 +189,87 @@ public class BTreeStorage {
     }
 
     public PageInfo readPage(long pos) {
+        Chunk c = getChunk(pos);
+        ByteBuffer buff = readPageBuffer(c, pos);
+        return readPage(pos, buff, c.getPageLength(pos), isMapped(c, buff));
+    }
+
+    /**
+     * 只读取page的字节数据，不做反序列化，
+     * 内存映射读到的字节数据不能保存下来，此时返回null
+     *
+     * @param pos the page position
+     * @return the page data, or null if it is a slice of a memory mapped file
+     */
+    public ByteBuffer readPageBuffer(long pos) {
+        Chunk c = getChunk(pos);
+        ByteBuffer buff = readPageBuffer(c, pos);
+        return isMapped(c, buff) ? null : buff;
+    }
+
+    // 只有内存映射读返回的是直接内存的buff，启用内存映射读时不使用堆外page缓存
+    private static boolean isMapped(Chunk c, ByteBuffer buff) {
+        return buff.isDirect() && c.fileStorage.isMmapRead();
+    }
+
+    public int getPageLength(long pos) {
+        return getChunk(pos).getPageLength(pos);
+    }
+
+    private Chunk getChunk(long pos) {
         if (pos == 0) {
             throw DataUtils.newIllegalStateException(DataUtils.ERROR_FILE_CORRUPT, "Position 0");
         }
-        Chunk c = chunkManager.getChunk(pos);
+        return chunkManager.getChunk(pos);
+    }
+
+    private ByteBuffer readPageBuffer(Chunk c, long pos) {
         long filePos = Chunk.getFilePos(PageUtils.getPageOffset(pos));
         int pageLength = c.getPageLength(pos);
         if (pageLength < 0) {
             throw DataUtils.newIllegalStateException(DataUtils.ERROR_FILE_CORRUPT,
                     "Illegal page length {0} reading at {1} ", pageLength, filePos);
         }
-        ByteBuffer buff = c.fileStorage.readFully(filePos, pageLength);
-        return readPage(pos, buff, pageLength);
+        ByteBuffer buff;
+        // 内存映射读到的buff已经在操作系统的page cache中了
+        if (pageCache != null && !c.fileStorage.isMmapRead()) {
+            buff = pageCache.get(pageCacheId, pos);
+            if (buff == null) {
+                buff = c.fileStorage.readFully(filePos, pageLength);
+                buff = pageCache.put(pageCacheId, pos, buff);
+            }
+        } else {
+            buff = c.fileStorage.readFully(filePos, pageLength);
+        }
+        return buff;
     }
 
     public PageInfo readPage(long pos, ByteBuffer buff, int pageLength) {
+        return readPage(pos, buff, pageLength, false);
+    }
+
+    // 内存映射文件的slice只用来反序列化，不保存到PageInfo中，下次用到时再从映射区域读，
+    // 否则chunk文件被截断或删除后，还在引用映射区域的page在读取时会导致进程崩溃(SIGBUS)
+    private PageInfo readPage(long pos, ByteBuffer buff, int pageLength, boolean mapped) {
         int type = PageUtils.getPageType(pos);
         int chunkId = PageUtils.getPageChunkId(pos);
         int offset = PageUtils.getPageOffset(pos);
+        // column page会一直引用它的buff，所以要复制到堆中
+        if (mapped && type == PageUtils.PAGE_TYPE_COLUMN) {
+            ByteBuffer copy = ByteBuffer.allocate(buff.remaining());
+            copy.put(buff.duplicate());
+            copy.flip();
+            buff = copy;
+            mapped = false;
+        }
         Page p = Page.create(map, type);
         // buff要复用，并且要支持多线程同时读，所以直接用slice
         p.read(buff.slice(), chunkId, offset, pageLength);
 
         PageInfo pInfo = new PageInfo(p, pos);
-        if (!p.isNode() || BTreeGC.gcNodePages) {
+        if (mapped) {
+            pInfo.pageLength = pageLength;
+        } else if (!p.isNode() || BTreeGC.gcNodePages) {
             pInfo.buff = buff;
             pInfo.pageLength = pageLength;
         }
@@ -200,6 +280,10 @@ public class BTreeStorage {
         return bgc;
     }
 
+    public PageReadAhead getPageReadAhead() {
+        return readAhead;
+    }
+
     public int getCompressionLevel() {
         return compressionLevel;
     }
@@ -226,6 +310,14 @@ public class BTreeStorage {
         return minFillRate;
     }
 
+    public int getLeafMergeFillRate() {
+        return leafMergeFillRate;
+    }
+
+    public boolean isInPlaceLeafWrite() {
+        return inPlaceLeafWrite;
+    }
+
     /**
      * Get the maximum cache size, in MB.
      * 
@@ -257,6 +349,17 @@ public class BTreeStorage {
             return;
         bgc.close();
         chunkManager.close();
+        removeCachedPages(-1);
+    }
+
+    // chunkId为-1时删除所有缓存的page
+    public void removeCachedPages(int chunkId) {
+        if (pageCache != null) {
+            if (chunkId < 0)
+                pageCache.removeStorage(pageCacheId);
+            else
+                pageCache.removeChunk(pageCacheId, chunkId);
+        }
     }
 
     /**
@@ -302,7 +405,9 @@ public class BTreeStorage {
             chunkManager.close();
             closed = true;
         } finally {
+            readAhead.close();
             bgc.close();
+            removeCachedPages(-1);
         }
     }
 
@@ -391,7 +496,10 @@ public class BTreeStorage {
     }
 
     private FileStorage openFileStorage(String chunkFileName) {
-        return FileStorage.open(chunkFileName, map.getConfig());
+        FileStorage fileStorage = FileStorage.open(chunkFileName, map.getConfig());
+        if (mmapRead)
+            fileStorage.setMmapRead(true);
+        return fileStorage;
     }
 
     InputStream getInputStream(FilePath file) {
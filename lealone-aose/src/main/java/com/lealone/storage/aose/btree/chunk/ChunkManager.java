@@ -160,6 +160,7 @@ public class ChunkManager {
         removedPages.removeAll(c.pagePositionToLengthMap.keySet());
         if (c == lastChunk)
             lastChunk = null;
+        btreeStorage.removeCachedPages(c.id);
     }
 
     List<Chunk> readChunks(HashSet<Integer> chunkIds) {
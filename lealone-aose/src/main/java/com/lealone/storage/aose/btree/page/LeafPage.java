@@ -6,6 +6,8 @@
 package com.lealone.storage.aose.btree.page;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
 
 import com.lealone.common.util.DataUtils;
 import com.lealone.db.DataBuffer;
@@ -19,8 +21,14 @@ public class LeafPage extends LocalPage {
     private PageReference[] columnPages;
     private boolean isAllColumnPagesRead;
 
+    // 原地插入和删除时keys和values数组会预留一些空位，所以数组的长度可能比keyCount大，
+    // 读操作不加锁，用StampedLock的乐观读检查读到的数据是否一致，没有启用原地写时为null
+    private final StampedLock lock;
+    private int keyCount;
+
     public LeafPage(BTreeMap<?, ?> map) {
         super(map);
+        lock = map.getBTreeStorage().isInPlaceLeafWrite() ? new StampedLock() : null;
     }
 
     @Override
@@ -30,7 +38,32 @@ public class LeafPage extends LocalPage {
 
     @Override
     public boolean isEmpty() {
-        return values == null || values.length == 0;
+        return keyCount == 0;
+    }
+
+    @Override
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    @Override
+    public boolean isInPlaceWritable() {
+        return lock != null;
+    }
+
+    @Override
+    public long beginRead() {
+        if (lock == null)
+            return 0;
+        long stamp;
+        while ((stamp = lock.tryOptimisticRead()) == 0) // 正在修改
+            Thread.yield();
+        return stamp;
+    }
+
+    @Override
+    public boolean validateRead(long stamp) {
+        return lock == null || lock.validate(stamp);
     }
 
     @Override
@@ -107,7 +140,7 @@ public class LeafPage extends LocalPage {
 
     @Override
     LeafPage split(int at) { // 小于split key的放在左边，大于等于split key放在右边
-        int a = at, b = keys.length - a;
+        int a = at, b = keyCount - a;
         Object[] aKeys = new Object[a];
         Object[] bKeys = new Object[b];
         System.arraycopy(keys, 0, aKeys, 0, a);
@@ -119,6 +152,7 @@ public class LeafPage extends LocalPage {
         System.arraycopy(values, 0, aValues, 0, a);
         System.arraycopy(values, a, bValues, 0, b);
         values = aValues;
+        keyCount = a;
 
         LeafPage newPage = create(map, bKeys, bValues, 0);
         recalculateMemory();
@@ -129,6 +163,10 @@ public class LeafPage extends LocalPage {
     public Page copyAndInsertLeaf(int index, Object key, Object value) {
         if (columnPages != null)
             markAllColumnPagesDirty();
+        if (lock != null) {
+            insert(index, key, value);
+            return this;
+        }
         int len = keys.length + 1;
         Object[] newKeys = new Object[len];
         DataUtils.copyWithGap(keys, newKeys, len - 1, index);
@@ -142,10 +180,63 @@ public class LeafPage extends LocalPage {
         return p;
     }
 
+    @Override
+    LeafPage copyAndMerge(Object key, Page right) { // leaf page不需要保存两个page之间的key
+        LeafPage r = (LeafPage) right;
+        if (columnPages != null)
+            markAllColumnPagesDirty();
+        if (r.columnPages != null)
+            r.markAllColumnPagesDirty();
+        int a = keyCount, b = r.keyCount;
+        Object[] newKeys = new Object[a + b];
+        System.arraycopy(keys, 0, newKeys, 0, a);
+        System.arraycopy(r.keys, 0, newKeys, a, b);
+        Object[] newValues = new Object[a + b];
+        System.arraycopy(values, 0, newValues, 0, a);
+        System.arraycopy(r.values, 0, newValues, a, b);
+        return create(map, newKeys, newValues, memory + r.memory - PageUtils.PAGE_MEMORY);
+    }
+
+    // 有空位时只需要移动index之后的记录，没有空位时按1.5倍扩容，
+    // 新数组在加锁前就准备好，读操作只在移动记录和替换数组时需要重试
+    private void insert(int index, Object key, Object value) {
+        int count = keyCount;
+        Object[] newKeys = null;
+        Object[] newValues = null;
+        if (count == keys.length) {
+            int capacity = count + (count >> 1) + 1;
+            newKeys = new Object[capacity];
+            DataUtils.copyWithGap(keys, newKeys, count, index);
+            newValues = new Object[capacity];
+            DataUtils.copyWithGap(values, newValues, count, index);
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (newKeys == null) {
+                System.arraycopy(keys, index, keys, index + 1, count - index);
+                System.arraycopy(values, index, values, index + 1, count - index);
+            } else {
+                keys = newKeys;
+                values = newValues;
+            }
+            keys[index] = key;
+            values[index] = value;
+            keyCount = count + 1;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        addMemory(map.getKeyType().getMemory(key) + map.getValueType().getMemory(value));
+        map.incrementSize();
+    }
+
     @Override
     public void remove(int index) {
         if (columnPages != null)
             markAllColumnPagesDirty();
+        if (lock != null) {
+            removeInPlace(index);
+            return;
+        }
         int keyLength = keys.length;
         super.remove(index);
         Object old = values[index];
@@ -153,9 +244,28 @@ public class LeafPage extends LocalPage {
         Object[] newValues = new Object[keyLength - 1];
         DataUtils.copyExcept(values, newValues, keyLength, index);
         values = newValues;
+        keyCount = keyLength - 1;
         map.decrementSize(); // 递减全局计数器
     }
 
+    private void removeInPlace(int index) {
+        int count = keyCount;
+        Object oldKey = keys[index];
+        Object old = values[index];
+        long stamp = lock.writeLock();
+        try {
+            System.arraycopy(keys, index + 1, keys, index, count - index - 1);
+            System.arraycopy(values, index + 1, values, index, count - index - 1);
+            keys[count - 1] = null;
+            values[count - 1] = null;
+            keyCount = count - 1;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        addMemory(-map.getKeyType().getMemory(oldKey) - map.getValueType().getMemory(old));
+        map.decrementSize();
+    }
+
     @Override
     public void read(ByteBuffer buff, int chunkId, int offset, int expectedPageLength) {
         int mode = buff.get(buff.position() + 4);
@@ -183,6 +293,7 @@ public class LeafPage extends LocalPage {
         map.getKeyType().read(buff, keys, keyLength);
         values = new Object[keyLength];
         map.getValueType().read(buff, values, keyLength);
+        keyCount = keyLength;
         buff.getInt(); // replicationHostIds
         recalculateMemory();
     }
@@ -211,6 +322,7 @@ public class LeafPage extends LocalPage {
         for (int row = 0; row < keyLength; row++) {
             values[row] = valueType.readMeta(buff, columnCount);
         }
+        keyCount = keyLength;
         buff.getInt(); // replicationHostIds
         recalculateMemory();
         // 延迟加载列
@@ -219,15 +331,29 @@ public class LeafPage extends LocalPage {
     @Override
     public long writeUnsavedRecursive(PageInfo pInfoOld, Chunk chunk, DataBuffer buff) {
         beforeWrite(pInfoOld);
+        Object[] keys = this.keys;
+        Object[] values = this.values;
+        // 刷脏页时写线程可能正在原地修改，先复制出一份一致的数据
+        if (lock != null) {
+            while (true) {
+                long stamp = beginRead();
+                int count = keyCount;
+                keys = Arrays.copyOf(this.keys, count);
+                values = Arrays.copyOf(this.values, count);
+                if (validateRead(stamp))
+                    break;
+            }
+        }
         switch (map.getPageStorageMode()) {
         case COLUMN_STORAGE:
-            return writeColumnStorage(pInfoOld, chunk, buff);
+            return writeColumnStorage(pInfoOld, chunk, buff, keys, values);
         default:
-            return writeRowStorage(pInfoOld, chunk, buff);
+            return writeRowStorage(pInfoOld, chunk, buff, keys, values);
         }
     }
 
-    private long writeRowStorage(PageInfo pInfoOld, Chunk chunk, DataBuffer buff) {
+    private long writeRowStorage(PageInfo pInfoOld, Chunk chunk, DataBuffer buff, Object[] keys,
+            Object[] values) {
         int start = buff.position();
         int keyLength = keys.length;
         int type = PageUtils.PAGE_TYPE_LEAF;
@@ -251,7 +377,8 @@ public class LeafPage extends LocalPage {
         return updateChunkAndPage(pInfoOld, chunk, start, pageLength, type);
     }
 
-    private long writeColumnStorage(PageInfo pInfoOld, Chunk chunk, DataBuffer buff) {
+    private long writeColumnStorage(PageInfo pInfoOld, Chunk chunk, DataBuffer buff, Object[] keys,
+            Object[] values) {
         int start = buff.position();
         int keyLength = keys.length;
         int type = PageUtils.PAGE_TYPE_LEAF;
@@ -300,7 +427,7 @@ public class LeafPage extends LocalPage {
     protected void recalculateMemory() {
         int mem = recalculateKeysMemory();
         StorageDataType valueType = map.getValueType();
-        for (int i = 0; i < keys.length; i++) {
+        for (int i = 0; i < keyCount; i++) {
             mem += valueType.getMemory(values[i]);
         }
         addMemory(mem - memory, false);
@@ -308,6 +435,9 @@ public class LeafPage extends LocalPage {
 
     @Override
     public LeafPage copy() {
+        // 原地修改时不能和copy出来的page共用数组
+        if (lock != null)
+            return copy(Arrays.copyOf(keys, keyCount), Arrays.copyOf(values, keyCount));
         return copy(keys, values);
     }
 
@@ -334,11 +464,12 @@ public class LeafPage extends LocalPage {
         return create(map, new Object[0], new Object[0], PageUtils.PAGE_MEMORY);
     }
 
-    private static LeafPage create(BTreeMap<?, ?> map, Object[] keys, Object[] values, int memory) {
+    static LeafPage create(BTreeMap<?, ?> map, Object[] keys, Object[] values, int memory) {
         LeafPage p = new LeafPage(map);
         // the position is 0
         p.keys = keys;
         p.values = values;
+        p.keyCount = keys.length;
         if (memory == 0) {
             p.recalculateMemory();
         } else {
@@ -55,7 +55,9 @@ public abstract class LocalPage extends Page {
      */
     @Override
     public int binarySearch(Object key) {
-        int low = 0, high = keys.length - 1;
+        // 原地修改的leaf page中keys数组的长度可能比keyCount大
+        Object[] k = keys;
+        int low = 0, high = Math.min(getKeyCount(), k.length) - 1;
         // the cached index minus one, so that
         // for the first time (when cachedCompare is 0),
         // the default value is used
@@ -63,7 +65,6 @@ public abstract class LocalPage extends Page {
         if (x < 0 || x > high) {
             x = high >>> 1;
         }
-        Object[] k = keys;
         StorageDataType keyType = map.getKeyType();
         while (low <= high) {
             int compare = keyType.compare(key, k[x]);
@@ -83,7 +84,14 @@ public abstract class LocalPage extends Page {
 
     @Override
     boolean needSplit() {
-        return memory > map.getBTreeStorage().getPageSize() && keys.length > 1;
+        return memory > map.getBTreeStorage().getPageSize() && getKeyCount() > 1;
+    }
+
+    // 使用的内存不到page size的leafMergeFillRate%时，需要跟相邻的page合并，leafMergeFillRate <= 0时不合并
+    @Override
+    boolean needMerge() {
+        int fillRate = map.getBTreeStorage().getLeafMergeFillRate();
+        return fillRate > 0 && memory < (long) map.getBTreeStorage().getPageSize() * fillRate / 100;
     }
 
     @Override
@@ -102,7 +110,7 @@ public abstract class LocalPage extends Page {
     protected int recalculateKeysMemory() {
         int mem = PageUtils.PAGE_MEMORY;
         StorageDataType keyType = map.getKeyType();
-        for (int i = 0, len = keys.length; i < len; i++) {
+        for (int i = 0, len = getKeyCount(); i < len; i++) {
             mem += keyType.getMemory(keys[i]);
         }
         return mem;
@@ -100,6 +100,44 @@ public class NodePage extends LocalPage {
         return p;
     }
 
+    @Override
+    NodePage copyAndMerge(Object key, Page right) { // 两个page之间的key要放回合并后的page中
+        NodePage r = (NodePage) right;
+        int a = keys.length, b = r.keys.length;
+        Object[] newKeys = new Object[a + b + 1];
+        System.arraycopy(keys, 0, newKeys, 0, a);
+        newKeys[a] = key;
+        System.arraycopy(r.keys, 0, newKeys, a + 1, b);
+        PageReference[] newChildren = new PageReference[a + b + 2];
+        System.arraycopy(children, 0, newChildren, 0, a + 1);
+        System.arraycopy(r.children, 0, newChildren, a + 1, b + 1);
+        return create(map, newKeys, newChildren, 0);
+    }
+
+    @Override
+    NodePage copyAndMergeChildren(int index, PageReference ref) {
+        Object[] newKeys = new Object[keys.length - 1];
+        DataUtils.copyExcept(keys, newKeys, keys.length, index);
+        PageReference[] newChildren = new PageReference[children.length - 1];
+        DataUtils.copyExcept(children, newChildren, children.length, index + 1);
+        newChildren[index] = ref;
+        NodePage p = copy(newKeys, newChildren);
+        p.recalculateMemory();
+        return p;
+    }
+
+    @Override
+    NodePage copyAndReplaceChildren(int index, PageReference left, PageReference right, Object key) {
+        Object[] newKeys = keys.clone();
+        newKeys[index] = key;
+        PageReference[] newChildren = children.clone();
+        newChildren[index] = left;
+        newChildren[index + 1] = right;
+        NodePage p = copy(newKeys, newChildren);
+        p.recalculateMemory();
+        return p;
+    }
+
     @Override
     public void remove(int index) {
         if (keys.length > 0) // 删除最后一个children时，keys已经空了
@@ -137,6 +137,30 @@ public class Page implements IPage {
         return false;
     }
 
+    /**
+     * 是否直接在当前page上插入和删除记录，而不是先copy
+     *
+     * @return true if the page is modified in place
+     */
+    public boolean isInPlaceWritable() {
+        return false;
+    }
+
+    /**
+     * 读操作不加锁，原地修改的leaf page用版本号检查读到的数据是否一致，
+     * 先调用beginRead得到版本号，读完后再用validateRead检查，返回false就要重新读。
+     * 不会原地修改的page总是返回0。
+     *
+     * @return the version stamp
+     */
+    public long beginRead() {
+        return 0;
+    }
+
+    public boolean validateRead(long stamp) {
+        return true;
+    }
+
     public int binarySearch(Object key) {
         throw ie();
     }
@@ -155,6 +179,10 @@ public class Page implements IPage {
         throw ie();
     }
 
+    boolean needMerge() {
+        throw ie();
+    }
+
     /**
      * Split the page. This modifies the current page.
      * 
@@ -180,6 +208,27 @@ public class Page implements IPage {
         throw ie();
     }
 
+    /**
+     * 把当前page和右边相邻的page合并成一个新的page，两个page都不会被修改
+     * 
+     * @param key the key between the two pages in the parent page
+     * @param right the right sibling page
+     * @return the merged page
+     */
+    Page copyAndMerge(Object key, Page right) {
+        throw ie();
+    }
+
+    // 子page index和index+1合并后用ref代替它们
+    Page copyAndMergeChildren(int index, PageReference ref) {
+        throw ie();
+    }
+
+    // 子page index和index+1重新分配记录后用left和right代替它们，它们之间的key也换成新的
+    Page copyAndReplaceChildren(int index, PageReference left, PageReference right, Object key) {
+        throw ie();
+    }
+
     public Page copyAndInsertLeaf(int index, Object key, Object value) {
         throw ie();
     }
@@ -0,0 +1,147 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.aose.btree.page;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.function.Function;
+
+import com.lealone.common.util.DataUtils;
+import com.lealone.storage.aose.btree.BTreeGC;
+import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.BTreeStorage;
+import com.lealone.storage.type.StorageDataType;
+
+/**
+ * 把已经排好序的key自底向上直接构建成btree，不需要从root开始一次次定位leaf page和切割page。
+ *
+ * 先按顺序把key填满一个个leaf page，再用每个子page的第一个key一层层往上构建node page，
+ * 所有page都尽量填到page size，新page的pos都是0，保存map时会写到新的chunk中。
+ */
+public class PageBulkLoader<K, V> {
+
+    private final BTreeMap<K, V> map;
+    private final BTreeStorage bs;
+    private final BTreeGC bgc;
+    private final int pageSize;
+    private final StorageDataType keyType;
+    private final StorageDataType valueType;
+
+    private long count;
+
+    public PageBulkLoader(BTreeMap<K, V> map) {
+        this.map = map;
+        bs = map.getBTreeStorage();
+        bgc = bs.getBTreeGC();
+        pageSize = bs.getPageSize();
+        keyType = map.getKeyType();
+        valueType = map.getValueType();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 构建btree，返回新的root page，调用者负责替换原来的root page
+     *
+     * @param keys the keys in ascending order, without duplicates
+     * @param valueFunction creates the value of a key
+     * @return the new root page
+     */
+    public Page load(Iterator<K> keys, Function<K, V> valueFunction) {
+        ArrayList<Object> firstKeys = new ArrayList<>(); // 每个page的第一个key
+        ArrayList<PageReference> refs = new ArrayList<>();
+        ArrayList<Object> pageKeys = new ArrayList<>();
+        ArrayList<Object> pageValues = new ArrayList<>();
+        int memory = PageUtils.PAGE_MEMORY;
+        Object last = null;
+        while (keys.hasNext()) {
+            K key = keys.next();
+            if (last != null && keyType.compare(last, key) >= 0) {
+                throw DataUtils.newIllegalArgumentException("Keys are not sorted: {0} >= {1}", last,
+                        key);
+            }
+            last = key;
+            V value = valueFunction.apply(key);
+            int mem = keyType.getMemory(key) + valueType.getMemory(value);
+            if (!pageKeys.isEmpty() && memory + mem > pageSize) {
+                addLeafPage(firstKeys, refs, pageKeys, pageValues, memory);
+                memory = PageUtils.PAGE_MEMORY;
+            }
+            pageKeys.add(key);
+            pageValues.add(value);
+            memory += mem;
+            count++;
+        }
+        if (!pageKeys.isEmpty() || refs.isEmpty()) {
+            addLeafPage(firstKeys, refs, pageKeys, pageValues, memory);
+        }
+        // 一层层往上构建node page，直到只剩一个page
+        while (refs.size() > 1) {
+            ArrayList<Object> parentFirstKeys = new ArrayList<>();
+            ArrayList<PageReference> parentRefs = new ArrayList<>();
+            int start = 0;
+            int size = refs.size();
+            while (start < size) {
+                int end = start + 1;
+                memory = PageUtils.PAGE_MEMORY + PageUtils.PAGE_MEMORY_CHILD;
+                while (end < size) {
+                    int mem = keyType.getMemory(firstKeys.get(end)) + PageUtils.PAGE_MEMORY_CHILD;
+                    if (end - start >= 2 && memory + mem > pageSize)
+                        break;
+                    memory += mem;
+                    end++;
+                }
+                // 最后只剩一个子page时并到前一个node page中
+                if (size - end == 1)
+                    end = size;
+                addNodePage(parentFirstKeys, parentRefs, firstKeys, refs, start, end);
+                start = end;
+            }
+            firstKeys = parentFirstKeys;
+            refs = parentRefs;
+        }
+        return refs.get(0).getPage();
+    }
+
+    private void addLeafPage(ArrayList<Object> firstKeys, ArrayList<PageReference> refs,
+            ArrayList<Object> pageKeys, ArrayList<Object> pageValues, int memory) {
+        Object[] keys = pageKeys.toArray();
+        Object[] values = pageValues.toArray();
+        pageKeys.clear();
+        pageValues.clear();
+        LeafPage p = LeafPage.create(map, keys, values, memory);
+        firstKeys.add(keys.length > 0 ? keys[0] : null);
+        refs.add(createPageReference(p));
+    }
+
+    private void addNodePage(ArrayList<Object> parentFirstKeys, ArrayList<PageReference> parentRefs,
+            ArrayList<Object> firstKeys, ArrayList<PageReference> refs, int start, int end) {
+        int childCount = end - start;
+        Object[] keys = new Object[childCount - 1];
+        PageReference[] children = new PageReference[childCount];
+        for (int i = 0; i < childCount; i++) {
+            children[i] = refs.get(start + i);
+            if (i > 0)
+                keys[i - 1] = firstKeys.get(start + i);
+        }
+        NodePage p = NodePage.create(map, keys, children, 0);
+        PageReference ref = createPageReference(p);
+        for (PageReference child : children) {
+            child.setParentRef(ref);
+        }
+        parentFirstKeys.add(firstKeys.get(start));
+        parentRefs.add(ref);
+    }
+
+    private PageReference createPageReference(Page p) {
+        PageReference ref = new PageReference(bs, p);
+        p.setRef(ref);
+        bgc.addUsedMemory(p.getMemory());
+        return ref;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.aose.btree.page;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lealone.common.util.SystemPropertyUtils;
+
+/**
+ * 所有BTreeMap共享的堆外page缓存，缓存的是从chunk文件读出的page字节数据。
+ *
+ * key是(storageId, pos)，value是直接内存的ByteBuffer，
+ * 分成多个segment减少锁竞争，每个segment用CLOCK算法淘汰。
+ * 返回的buff被PageInfo引用时由BTreeGC计入已使用的内存，淘汰后由BTreeGC负责释放。
+ */
+public class PageCache {
+
+    private static final long MAX_SIZE = SystemPropertyUtils
+            .getLong("lealone.memory.pageCacheSize", 0); // 单位是字节，默认不启用
+    private static final int SEGMENT_COUNT = Math.max(1,
+            SystemPropertyUtils.getInt("lealone.memory.pageCacheSegments", 16));
+
+    private static final PageCache instance = MAX_SIZE > 0 ? new PageCache(MAX_SIZE, SEGMENT_COUNT)
+            : null;
+
+    private static final AtomicInteger nextStorageId = new AtomicInteger();
+
+    // 返回null表示没有启用
+    public static PageCache getInstance() {
+        return instance;
+    }
+
+    public static int nextStorageId() {
+        return nextStorageId.incrementAndGet();
+    }
+
+    private final Segment[] segments;
+
+    public PageCache(long maxSize, int segmentCount) {
+        segments = new Segment[segmentCount];
+        long segmentSize = Math.max(1, maxSize / segmentCount);
+        for (int i = 0; i < segmentCount; i++)
+            segments[i] = new Segment(segmentSize);
+    }
+
+    private Segment getSegment(int storageId, long pos) {
+        int hash = PageKey.hashCode(storageId, pos);
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /**
+     * 返回缓存的page字节数据，不存在时返回null
+     */
+    public ByteBuffer get(int storageId, long pos) {
+        return getSegment(storageId, pos).get(new PageKey(storageId, pos));
+    }
+
+    /**
+     * 把page字节数据复制到直接内存中，返回直接内存的ByteBuffer，
+     * page太大放不进缓存时返回原来的buff
+     */
+    public ByteBuffer put(int storageId, long pos, ByteBuffer buff) {
+        return getSegment(storageId, pos).put(new PageKey(storageId, pos), buff);
+    }
+
+    // chunk文件删除后它的id会被重用，所以要删除这个chunk的所有page
+    public void removeChunk(int storageId, int chunkId) {
+        for (Segment s : segments)
+            s.remove(storageId, chunkId);
+    }
+
+    public void removeStorage(int storageId) {
+        for (Segment s : segments)
+            s.remove(storageId, -1);
+    }
+
+    public long getUsedMemory() {
+        long used = 0;
+        for (Segment s : segments)
+            used += s.usedMemory;
+        return used;
+    }
+
+    public long getHits() {
+        long hits = 0;
+        for (Segment s : segments)
+            hits += s.hits;
+        return hits;
+    }
+
+    public long getMisses() {
+        long misses = 0;
+        for (Segment s : segments)
+            misses += s.misses;
+        return misses;
+    }
+
+    private static class PageKey {
+
+        final int storageId;
+        final long pos;
+
+        PageKey(int storageId, long pos) {
+            this.storageId = storageId;
+            this.pos = pos;
+        }
+
+        static int hashCode(int storageId, long pos) {
+            return 31 * storageId + (int) (pos ^ (pos >>> 32));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode(storageId, pos);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PageKey))
+                return false;
+            PageKey k = (PageKey) obj;
+            return storageId == k.storageId && pos == k.pos;
+        }
+    }
+
+    private static class Entry {
+
+        final PageKey key;
+        final ByteBuffer buff;
+        boolean referenced;
+
+        Entry(PageKey key, ByteBuffer buff) {
+            this.key = key;
+            this.buff = buff;
+        }
+    }
+
+    private static class Segment {
+
+        private final long maxMemory;
+        private final HashMap<PageKey, Entry> map = new HashMap<>();
+        private final ArrayList<Entry> clock = new ArrayList<>();
+        private int hand;
+        // 只用于统计，不需要精确
+        private volatile long usedMemory;
+        private volatile long hits;
+        private volatile long misses;
+
+        Segment(long maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        synchronized ByteBuffer get(PageKey key) {
+            Entry e = map.get(key);
+            if (e == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            e.referenced = true;
+            return e.buff.duplicate();
+        }
+
+        synchronized ByteBuffer put(PageKey key, ByteBuffer buff) {
+            Entry e = map.get(key);
+            if (e != null) {
+                e.referenced = true;
+                return e.buff.duplicate();
+            }
+            int len = buff.remaining();
+            if (len > maxMemory)
+                return buff;
+            while (usedMemory + len > maxMemory)
+                evict();
+            ByteBuffer direct = ByteBuffer.allocateDirect(len);
+            direct.put(buff.duplicate());
+            direct.flip();
+            e = new Entry(key, direct.asReadOnlyBuffer());
+            map.put(key, e);
+            clock.add(e);
+            usedMemory += len;
+            return e.buff.duplicate();
+        }
+
+        // 最近访问过的page有第二次机会，没有访问过的直接淘汰
+        private void evict() {
+            while (true) {
+                if (hand >= clock.size())
+                    hand = 0;
+                Entry e = clock.get(hand);
+                if (e.referenced) {
+                    e.referenced = false;
+                    hand++;
+                } else {
+                    removeAt(hand);
+                    return;
+                }
+            }
+        }
+
+        private void removeAt(int index) {
+            Entry e = clock.get(index);
+            int last = clock.size() - 1;
+            clock.set(index, clock.get(last));
+            clock.remove(last);
+            map.remove(e.key);
+            usedMemory -= e.buff.capacity();
+        }
+
+        // chunkId为-1时删除整个storage的page
+        synchronized void remove(int storageId, int chunkId) {
+            Iterator<Entry> it = map.values().iterator();
+            while (it.hasNext()) {
+                Entry e = it.next();
+                if (e.key.storageId == storageId
+                        && (chunkId < 0 || PageUtils.getPageChunkId(e.key.pos) == chunkId)) {
+                    it.remove();
+                    usedMemory -= e.buff.capacity();
+                }
+            }
+            if (clock.size() != map.size()) {
+                clock.clear();
+                clock.addAll(map.values());
+                hand = 0;
+            }
+        }
+    }
+}
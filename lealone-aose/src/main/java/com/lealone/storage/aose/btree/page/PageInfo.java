@@ -51,6 +51,8 @@ public class PageInfo {
         return page == null ? 0 : page.getMemory();
     }
 
+    // 堆外page缓存返回的直接内存也要计入，它被淘汰后只要还被PageInfo引用就不会释放，
+    // 内存映射文件的slice不会保存在PageInfo中
     public int getBuffMemory() {
         return buff == null ? 0 : buff.limit();
     }
@@ -12,6 +12,7 @@ import com.lealone.db.session.Session;
 import com.lealone.db.value.ValueLong;
 import com.lealone.storage.aose.btree.BTreeGC;
 import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.BTreeStorage;
 import com.lealone.storage.page.PageOperation;
 import com.lealone.storage.page.PageOperation.PageOperationResult;
 
@@ -128,9 +129,18 @@ public abstract class PageOperations {
 
         protected void insertLeaf(int index, V value) {
             index = -index - 1;
-            p = p.copyAndInsertLeaf(index, key, value); // copy之后Ref还是一样的
+            // copy之后Ref还是一样的，启用原地写时返回的还是当前page
+            replacePage(p.copyAndInsertLeaf(index, key, value));
             map.setMaxKey(key);
-            pRef.replacePage(p);
+        }
+
+        protected void replacePage(Page newPage) {
+            if (newPage == p) {
+                pRef.markDirtyInPlacePage(p);
+            } else {
+                p = newPage;
+                pRef.replacePage(p);
+            }
         }
 
         // 以下两个API允许子类覆盖，比如Append操作可以做自己的特殊优化
@@ -255,11 +265,15 @@ public abstract class PageOperations {
                 return null;
             }
             Object oldValue = p.getValue(index);
-            Page newPage = p.copy(); // 删除元素需要先copy，否则会产生get和remove的并发问题
+            // 删除元素需要先copy，否则会产生get和remove的并发问题，
+            // 原地删除时读操作会通过版本号检查发现并发的修改
+            Page newPage = p.isInPlaceWritable() ? p : p.copy();
             newPage.remove(index);
-            pRef.replacePage(newPage);
+            replacePage(newPage);
             if (newPage.isEmpty() && !pRef.isRoot()) { // 删除leaf page，但是root leaf page除外
                 asyncRemovePage(scheduler, true, currentSession, pRef, key);
+            } else if (!pRef.isRoot() && newPage.needMerge()) { // 记录太少时跟相邻的leaf page合并
+                asyncMergePage(scheduler, true, currentSession, pRef);
             }
             return oldValue;
         }
@@ -279,6 +293,13 @@ public abstract class PageOperations {
             scheduler.handlePageOperation(sp);
     }
 
+    private static void asyncMergePage(Scheduler scheduler, boolean waitingIfLocked, Session session,
+            PageReference pRef) {
+        MergePage mp = new MergePage(session, pRef);
+        if (mp.runLocked(scheduler, waitingIfLocked) != PageOperationResult.SUCCEEDED)
+            scheduler.handlePageOperation(mp);
+    }
+
     private static abstract class ChildOperation implements PageOperation {
 
         protected final PageReference pRef;
@@ -352,6 +373,8 @@ public abstract class PageOperations {
                 // 先看看父节点是否需要删除
                 if (parent.isEmpty()) {
                     asyncRemovePage(scheduler, waitingIfLocked, null, parentRef, key);
+                } else if (parent.needMerge()) {
+                    asyncMergePage(scheduler, waitingIfLocked, null, parentRef);
                 }
                 // 非root page被删除后，原有的ref被废弃
                 pRef.setDataStructureChanged(true);
@@ -447,6 +470,150 @@ public abstract class PageOperations {
         }
     }
 
+    // 把使用的内存不到page size的minFillRate%的page跟相邻的page合并，
+    // 合并后仍然太大时只能是leaf page，那就在两个leaf page之间重新分配记录。
+    // root node page只剩一个子page时，用这个子page当新的root，树的高度减1。
+    // 合并和重新分配都会产生新的page和ref，原有的ref被废弃，写操作会从root开始重试。
+    private static class MergePage extends ChildOperation {
+
+        public MergePage(Session session, PageReference pRef) {
+            super(session, pRef);
+        }
+
+        @Override
+        protected PageOperationResult runLocked(Scheduler scheduler, boolean waitingIfLocked) {
+            Page p = pRef.getOrReadPage(); // 获得最新的
+            if (pRef.isRoot())
+                return collapseRoot(scheduler, waitingIfLocked, p);
+            // 空的page由RemovePage删除
+            if (p.isEmpty() || !p.needMerge())
+                return PageOperationResult.SUCCEEDED;
+            if (!tryLockParentRef(pRef, scheduler, waitingIfLocked))
+                return PageOperationResult.LOCKED;
+            PageReference parentRef = pRef.getParentRef();
+            try {
+                Page parent = parentRef.getOrReadPage();
+                int index = indexOf(parent, pRef);
+                if (index < 0)
+                    return PageOperationResult.SUCCEEDED;
+                // 没有相邻的page，先合并父节点
+                if (parent.getRawChildPageCount() < 2) {
+                    if (parent.needMerge())
+                        asyncMergePage(scheduler, waitingIfLocked, null, parentRef);
+                    return PageOperationResult.SUCCEEDED;
+                }
+                // 优先跟右边的page合并
+                int li = index + 1 < parent.getRawChildPageCount() ? index : index - 1;
+                PageReference siblingRef = parent.getChildPageReference(li == index ? li + 1 : li);
+                if (!siblingRef.tryLock(scheduler, waitingIfLocked))
+                    return PageOperationResult.LOCKED;
+                try {
+                    merge(scheduler, waitingIfLocked, parentRef, parent, li);
+                } finally {
+                    siblingRef.unlock();
+                }
+                return PageOperationResult.SUCCEEDED;
+            } finally {
+                parentRef.unlock();
+            }
+        }
+
+        private static int indexOf(Page parent, PageReference ref) {
+            PageReference[] children = parent.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == ref)
+                    return i;
+            }
+            return -1;
+        }
+
+        private static void merge(Scheduler scheduler, boolean waitingIfLocked, PageReference parentRef,
+                Page parent, int li) {
+            // 用getChildPage读取，确保子page的parentRef已经设置
+            Page left = parent.getChildPage(li);
+            Page right = parent.getChildPage(li + 1);
+            PageReference leftRef = left.getRef();
+            PageReference rightRef = right.getRef();
+            BTreeStorage bs = parent.map.getBTreeStorage();
+            boolean fits = left.getMemory() + right.getMemory() - PageUtils.PAGE_MEMORY <= bs
+                    .getPageSize();
+            if (!fits && left.isNode()) // node page太大时不做合并，也不重新分配
+                return;
+            Page merged = left.copyAndMerge(parent.getKey(li), right);
+            Page newRight = null;
+            Page newParent;
+            if (fits) {
+                PageReference ref = createRef(bs, merged, parentRef, leftRef);
+                if (merged.isNode()) {
+                    for (PageReference r : merged.getChildren())
+                        r.setParentRef(ref);
+                }
+                newParent = parent.copyAndMergeChildren(li, ref);
+            } else {
+                // 合并后的page变成左边的新page，小于split key的放在左边，大于等于split key的放在右边
+                newRight = merged.split(merged.getKeyCount() / 2);
+                PageReference lRef = createRef(bs, merged, parentRef, leftRef);
+                PageReference rRef = createRef(bs, newRight, parentRef, rightRef);
+                newParent = parent.copyAndReplaceChildren(li, lRef, rRef, newRight.getKey(0));
+            }
+            BTreeGC bgc = bs.getBTreeGC();
+            bgc.addUsedMemory(merged.getMemory() - left.getMemory() - right.getMemory());
+            if (newRight != null)
+                bgc.addUsedMemory(newRight.getMemory());
+            bgc.addUsedMemory(newParent.getMemory() - parent.getMemory());
+            parentRef.replacePage(newParent);
+
+            // 原有的ref被废弃，它们在chunk中的page也要标记为删除
+            leftRef.setDataStructureChanged(true);
+            rightRef.setDataStructureChanged(true);
+            leftRef.markDirtyPage();
+            rightRef.markDirtyPage();
+            merged.markDirtyBottomUp(); // 新page的pos是0，刷脏页时父节点会把它们都写出
+
+            // 父节点少了一个子page，看看是否也需要合并
+            if (fits && newParent.needMerge()) {
+                asyncMergePage(scheduler, waitingIfLocked, null, parentRef);
+            }
+        }
+
+        private static PageReference createRef(BTreeStorage bs, Page page, PageReference parentRef,
+                PageReference oldRef) {
+            PageReference ref = new PageReference(bs, page);
+            page.setRef(ref);
+            ref.setParentRef(parentRef);
+            ref.getPageInfo().updateTime(oldRef.getPageInfo());
+            return ref;
+        }
+
+        // root node page只有一个子page时，用这个子page的copy当新的root
+        private PageOperationResult collapseRoot(Scheduler scheduler, boolean waitingIfLocked, Page p) {
+            while (p.isNode() && p.getRawChildPageCount() == 1) {
+                PageReference childRef = p.getChildPageReference(0);
+                if (!childRef.tryLock(scheduler, waitingIfLocked))
+                    return PageOperationResult.LOCKED;
+                try {
+                    Page child = p.getChildPage(0);
+                    Page newRoot = child.copy();
+                    if (newRoot.isNode()) {
+                        // 还没有读取的子page也要设置，否则它们的parentRef会指向废弃的ref
+                        for (PageReference ref : newRoot.getChildren())
+                            ref.setParentRef(pRef);
+                    }
+                    BTreeGC bgc = p.map.getBTreeStorage().getBTreeGC();
+                    bgc.addUsedMemory(newRoot.getMemory() - p.getMemory() - child.getMemory());
+                    p.map.newRoot(newRoot);
+                    childRef.setDataStructureChanged(true);
+                    childRef.markDirtyPage();
+                    newRoot.markDirty();
+                    p = newRoot;
+                } finally {
+                    childRef.unlock();
+                }
+            }
+            return PageOperationResult.SUCCEEDED;
+        }
+    }
+
     public static class TmpNodePage {
         final Page parent;
         final PageReference left;
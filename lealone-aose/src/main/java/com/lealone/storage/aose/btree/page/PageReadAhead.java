@@ -0,0 +1,102 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.aose.btree.page;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.lealone.common.util.SystemPropertyUtils;
+
+/**
+ * 异步预读page的字节数据，每个BTreeStorage有自己的预读队列和线程。
+ *
+ * 游标进入一个新的leaf page时把下一个兄弟leaf page交给预读线程，
+ * 预读线程只从chunk文件中读出page的字节数据，反序列化还是在游标真正用到时执行。
+ * 队列满了就直接放弃预读，不会阻塞游标。
+ * 预读线程在有page需要预读时才启动，空闲一段时间后就退出，BTreeStorage关闭时也会停止。
+ */
+public class PageReadAhead {
+
+    private static final boolean ENABLED = SystemPropertyUtils.getBoolean("lealone.storage.readAhead",
+            true);
+    private static final int QUEUE_SIZE = Math.max(1,
+            SystemPropertyUtils.getInt("lealone.storage.readAheadQueueSize", 64));
+    private static final long IDLE_TIME = 1000; // 毫秒
+
+    private final String name;
+    private final ArrayBlockingQueue<PageReference> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private volatile Thread thread;
+    private volatile boolean closed;
+
+    public PageReadAhead(String name) {
+        this.name = name;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    public void submit(PageReference ref) {
+        if (!ENABLED || closed)
+            return;
+        if (queue.offer(ref) && thread == null)
+            start();
+    }
+
+    private synchronized void start() {
+        if (closed || thread != null)
+            return;
+        Thread t = new Thread(this::run, "PageReadAheadThread-" + name);
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    private void run() {
+        while (!closed) {
+            PageReference ref;
+            try {
+                ref = queue.poll(IDLE_TIME, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (ref == null) {
+                // 在锁中检查，避免submit刚放入队列却以为线程还在运行
+                synchronized (this) {
+                    if (queue.isEmpty()) {
+                        thread = null;
+                        return;
+                    }
+                }
+                continue;
+            }
+            try {
+                ref.readBuffer();
+            } catch (Throwable t) {
+                // 预读失败不影响正常读，比如chunk文件已经被Compact删除了
+            }
+        }
+        synchronized (this) {
+            if (thread == Thread.currentThread())
+                thread = null;
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        Thread t = thread;
+        if (t != null) {
+            t.interrupt();
+            thread = null;
+        }
+    }
+
+    // 只用于测试
+    public boolean isRunning() {
+        return thread != null;
+    }
+}
@@ -200,6 +200,29 @@ public class PageReference {
         }
     }
 
+    // 还没有读取过的page才需要预读
+    public void readAhead() {
+        PageInfo pInfo = this.pInfo;
+        if (inMemory || pInfo.isSplitted() || pInfo.page != null || pInfo.buff != null || pInfo.pos == 0)
+            return;
+        bs.getPageReadAhead().submit(this);
+    }
+
+    // 由预读线程调用，只读取字节数据，getOrReadPage时再反序列化
+    void readBuffer() {
+        PageInfo pInfoOld = this.pInfo;
+        if (pInfoOld.isSplitted() || pInfoOld.page != null || pInfoOld.buff != null || pInfoOld.pos == 0)
+            return;
+        ByteBuffer buff = bs.readPageBuffer(pInfoOld.pos);
+        if (buff == null) // 内存映射读不需要预读
+            return;
+        PageInfo pInfoNew = pInfoOld.copy(false);
+        pInfoNew.buff = buff;
+        pInfoNew.pageLength = bs.getPageLength(pInfoOld.pos);
+        if (replacePage(pInfoOld, pInfoNew))
+            bs.getBTreeGC().addUsedMemory(pInfoNew.getBuffMemory());
+    }
+
     private boolean replacePage(PageInfo expect, PageInfo update) {
         return pageInfoUpdater.compareAndSet(this, expect, update);
     }
@@ -237,6 +260,28 @@ public class PageReference {
         }
     }
 
+    // 原地修改page后调用，page没有变，只需要让pos失效，并且递增markDirtyCount，
+    // 这样正在刷脏页的线程就知道刚写出去的page已经过期了。
+    // 如果GC线程刚好把page释放了，还要把修改过的page放回来
+    public void markDirtyInPlacePage(Page page) {
+        while (true) {
+            PageInfo pInfoOld = this.pInfo;
+            PageInfo pInfoNew = pInfoOld.copy(0);
+            pInfoNew.page = page;
+            pInfoNew.buff = null;
+            pInfoNew.markDirtyCount++;
+            if (replacePage(pInfoOld, pInfoNew)) {
+                if (pInfoOld.page == null)
+                    bs.getBTreeGC().addUsedMemory(page.getMemory());
+                if (pInfoOld.getPos() != 0) {
+                    addRemovedPage(pInfoOld.getPos());
+                    bs.getBTreeGC().addUsedMemory(-pInfoOld.getBuffMemory());
+                }
+                return;
+            }
+        }
+    }
+
     private void checkPageInfo(PageInfo pInfoNew) {
         if (pInfoNew.page == null && pInfoNew.pos == 0) {
             DbException.throwInternalError();
@@ -270,6 +270,14 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
         return logSyncService;
     }
 
+    @Override
+    public Map<String, String> getRedoLogStatistics() {
+        LogSyncService logSyncService = this.logSyncService;
+        if (logSyncService == null)
+            return Collections.emptyMap();
+        return logSyncService.getRedoLogStatistics().getStatistics();
+    }
+
     private void initCheckpointService() {
         SchedulerFactory sf = SchedulerFactory.getDefaultSchedulerFactory();
         if (sf == null) {
@@ -5,6 +5,10 @@
  */
 package com.lealone.transaction.aote;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
 import com.lealone.common.util.DataUtils;
 import com.lealone.db.async.AsyncCallback;
 import com.lealone.db.async.AsyncHandler;
@@ -275,6 +279,17 @@ public class AOTransactionMap<K, V> implements TransactionMap<K, V> {
         return map.isInMemory();
     }
 
+    @Override
+    public List<K> getSplitKeys(int count) {
+        return map.getSplitKeys(count); // 只是page的边界，不需要考虑事务
+    }
+
+    @Override
+    public boolean bulkLoad(Iterator<K> keys, Function<K, V> valueFunction) {
+        // 批量加载的记录不写undo和redo日志，直接当成已经提交的记录
+        return map.bulkLoad(keys, k -> TransactionalValue.createCommitted(valueFunction.apply(k)));
+    }
+
     @Override
     public boolean isClosed() {
         return map.isClosed();
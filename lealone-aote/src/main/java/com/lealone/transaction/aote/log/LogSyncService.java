@@ -27,15 +27,20 @@ public abstract class LogSyncService extends Thread {
     public static final String LOG_SYNC_TYPE_INSTANT = "instant";
     public static final String LOG_SYNC_TYPE_NO_SYNC = "no_sync";
 
-    private final Awaiter awaiter = new Awaiter(logger);
-    private final AtomicLong asyncLogQueueSize = new AtomicLong();
     private final AtomicLong lastLogId = new AtomicLong();
 
     private final Scheduler[] waitingSchedulers;
 
+    // 为true时每个scheduler写自己的redo log流(独立的文件和同步线程)，否则所有scheduler共用一个流
+    private final boolean perSchedulerStream;
+    private final Awaiter[] awaiters;
+    private final AtomicLong[] asyncLogQueueSizes;
+    private Thread[] streamThreads;
+
     // 只要达到一定的阈值就可以立即同步了
     private final int redoLogRecordSyncThreshold;
     private final RedoLog redoLog;
+    private final RedoLogStatistics redoLogStatistics = new RedoLogStatistics();
 
     private volatile boolean running;
     private volatile CountDownLatch latchOnClose;
@@ -50,6 +55,14 @@ public abstract class LogSyncService extends Thread {
         int schedulerCount = MapUtils.getSchedulerCount(config) + 1;
         waitingSchedulers = new Scheduler[schedulerCount];
         redoLogRecordSyncThreshold = MapUtils.getInt(config, "redo_log_record_sync_threshold", 100);
+        perSchedulerStream = MapUtils.getBoolean(config, "redo_log_per_scheduler", false);
+        int streamCount = perSchedulerStream ? schedulerCount : 1;
+        awaiters = new Awaiter[streamCount];
+        asyncLogQueueSizes = new AtomicLong[streamCount];
+        for (int i = 0; i < streamCount; i++) {
+            awaiters[i] = new Awaiter(logger);
+            asyncLogQueueSizes[i] = new AtomicLong();
+        }
         redoLog = new RedoLog(config, this);
     }
 
@@ -57,12 +70,38 @@ public abstract class LogSyncService extends Thread {
         return redoLog;
     }
 
+    public RedoLogStatistics getRedoLogStatistics() {
+        return redoLogStatistics;
+    }
+
     public long nextLogId() {
         return lastLogId.incrementAndGet();
     }
 
+    // 重启后logId要接着上次的最大值递增，这样多个redo log流才能按logId正确合并
+    void setLastLogId(long logId) {
+        if (logId > lastLogId.get())
+            lastLogId.set(logId);
+    }
+
     public AtomicLong getAsyncLogQueueSize() {
-        return asyncLogQueueSize;
+        return asyncLogQueueSizes[0];
+    }
+
+    AtomicLong getAsyncLogQueueSize(int streamId) {
+        return asyncLogQueueSizes[streamId];
+    }
+
+    public boolean isPerSchedulerStream() {
+        return perSchedulerStream;
+    }
+
+    public int getStreamCount() {
+        return asyncLogQueueSizes.length;
+    }
+
+    private int getStreamId(Scheduler scheduler) {
+        return perSchedulerStream ? scheduler.getId() : 0;
     }
 
     public Scheduler[] getWaitingSchedulers() {
@@ -84,9 +123,40 @@ public abstract class LogSyncService extends Thread {
     @Override
     public void run() {
         running = true;
+        int streamCount = getStreamCount();
+        if (streamCount > 1) {
+            // 当前线程负责0号流，其他流各用一个线程
+            streamThreads = new Thread[streamCount - 1];
+            for (int i = 1; i < streamCount; i++) {
+                int streamId = i;
+                Thread t = new Thread(() -> run(streamId), getName() + "-" + i);
+                t.setDaemon(isDaemon());
+                t.start();
+                streamThreads[i - 1] = t;
+            }
+        }
+        run(0);
+        if (streamThreads != null) {
+            for (Thread t : streamThreads) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+        // 放在最后，让线程退出后再关闭
+        redoLog.close();
+        if (latchOnClose != null) {
+            latchOnClose.countDown();
+        }
+    }
+
+    private void run(int streamId) {
+        Awaiter awaiter = awaiters[streamId];
+        AtomicLong asyncLogQueueSize = asyncLogQueueSizes[streamId];
         while (running) {
             long syncStarted = System.currentTimeMillis();
-            sync();
+            sync(streamId);
             lastSyncedAt = syncStarted;
             if (!isPeriodic()) {
                 // 如果是instant sync，只要一有redo log就接着马上同步，无需等待
@@ -103,28 +173,26 @@ public abstract class LogSyncService extends Thread {
             awaiter.doAwait(sleep);
         }
         // 结束前最后sync一次
-        sync();
-        // 放在最后，让线程退出后再关闭
-        redoLog.close();
-        if (latchOnClose != null) {
-            latchOnClose.countDown();
-        }
+        sync(streamId);
     }
 
-    private void sync() {
+    private void sync(int streamId) {
         try {
-            redoLog.save();
+            redoLog.save(streamId);
         } catch (Exception e) {
             logger.error("Failed to sync redo log", e);
         }
     }
 
     public void wakeUp() {
-        awaiter.wakeUp();
+        for (Awaiter awaiter : awaiters)
+            awaiter.wakeUp();
     }
 
+    // 每个流都要处理checkpoint
     public void asyncWakeUp() {
-        asyncLogQueueSize.getAndIncrement();
+        for (AtomicLong asyncLogQueueSize : asyncLogQueueSizes)
+            asyncLogQueueSize.getAndIncrement();
         wakeUp();
     }
 
@@ -147,8 +215,9 @@ public abstract class LogSyncService extends Thread {
         Scheduler scheduler = pt.getScheduler();
         scheduler.addPendingTransaction(pt);
         waitingSchedulers[scheduler.getId()] = scheduler;
-        asyncLogQueueSize.getAndIncrement();
-        wakeUp();
+        int streamId = getStreamId(scheduler);
+        asyncLogQueueSizes[streamId].getAndIncrement();
+        awaiters[streamId].wakeUp();
     }
 
     public void syncWrite(AOTransaction t, RedoLogRecord r, long logId) {
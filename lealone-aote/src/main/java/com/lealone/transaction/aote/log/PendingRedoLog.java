@@ -0,0 +1,149 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.transaction.aote.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.storage.fs.FileUtils;
+
+// 恢复时还没有打开底层存储的map，所以先按mapName把key/value字节数组缓存起来，
+// 缓存的字节数超过maxMemory后把所有map的缓存按原来的顺序追加到各自的临时文件中
+class PendingRedoLog {
+
+    private final HashMap<String, MapRedoLog> maps = new HashMap<>();
+    private final String dir;
+    private final long maxMemory;
+    private long memory;
+    private int nextFileId;
+
+    PendingRedoLog(String dir, long maxMemory) {
+        this.dir = dir;
+        this.maxMemory = maxMemory;
+        // 上次恢复时没有删除的临时文件已经没用了
+        FileUtils.deleteRecursive(dir, true);
+    }
+
+    int size() {
+        return maps.size();
+    }
+
+    void add(String mapName, ByteBuffer keyValue) {
+        MapRedoLog log = maps.get(mapName);
+        if (log == null) {
+            log = new MapRedoLog();
+            maps.put(mapName, log);
+        }
+        log.keyValues.add(keyValue);
+        memory += keyValue.remaining();
+        if (memory > maxMemory)
+            spill();
+    }
+
+    // 遇到checkpoint时，之前的记录都不需要redo了
+    void clear() {
+        for (MapRedoLog log : maps.values())
+            log.delete();
+        maps.clear();
+        memory = 0;
+    }
+
+    // map被删除了，之前的记录都不需要redo了
+    void clear(String mapName) {
+        MapRedoLog log = maps.remove(mapName);
+        if (log != null) {
+            memory -= log.delete();
+        }
+    }
+
+    MapRedoLog remove(String mapName) {
+        MapRedoLog log = maps.remove(mapName);
+        if (log != null)
+            memory -= log.memory();
+        return log;
+    }
+
+    private void spill() {
+        if (!FileUtils.exists(dir))
+            FileUtils.createDirectories(dir);
+        for (MapRedoLog log : maps.values())
+            log.spill();
+        memory = 0;
+    }
+
+    class MapRedoLog {
+
+        private ArrayList<ByteBuffer> keyValues = new ArrayList<>();
+        private String fileName;
+
+        private long memory() {
+            long m = 0;
+            for (ByteBuffer kv : keyValues)
+                m += kv.remaining();
+            return m;
+        }
+
+        private void spill() {
+            if (keyValues.isEmpty())
+                return;
+            if (fileName == null)
+                fileName = dir + File.separator + (nextFileId++) + ".tmp";
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(FileUtils.newOutputStream(fileName, true)))) {
+                for (ByteBuffer kv : keyValues) {
+                    out.writeInt(kv.remaining());
+                    out.write(kv.array(), kv.arrayOffset() + kv.position(), kv.remaining());
+                }
+            } catch (IOException e) {
+                throw DbException.convertIOException(e, fileName);
+            }
+            keyValues = new ArrayList<>();
+        }
+
+        // 先读临时文件中的记录，再读内存中的记录，读完后删除临时文件
+        void forEach(Consumer<ByteBuffer> consumer) {
+            try {
+                if (fileName != null) {
+                    try (DataInputStream in = new DataInputStream(
+                            new BufferedInputStream(FileUtils.newInputStream(fileName)))) {
+                        long size = FileUtils.size(fileName);
+                        for (long pos = 0; pos < size;) {
+                            byte[] keyValue = new byte[in.readInt()];
+                            in.readFully(keyValue);
+                            pos += 4 + keyValue.length;
+                            consumer.accept(ByteBuffer.wrap(keyValue));
+                        }
+                    } catch (IOException e) {
+                        throw DbException.convertIOException(e, fileName);
+                    }
+                }
+                for (ByteBuffer kv : keyValues)
+                    consumer.accept(kv);
+            } finally {
+                delete();
+            }
+        }
+
+        private long delete() {
+            long m = memory();
+            keyValues = new ArrayList<>();
+            if (fileName != null) {
+                FileUtils.tryDelete(fileName);
+                fileName = null;
+            }
+            return m;
+        }
+    }
+}
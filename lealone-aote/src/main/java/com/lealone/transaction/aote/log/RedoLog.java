@@ -6,13 +6,15 @@
 package com.lealone.transaction.aote.log;
 
 import java.io.File;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
+import com.lealone.common.logging.Logger;
+import com.lealone.common.logging.LoggerFactory;
 import com.lealone.common.util.MapUtils;
 import com.lealone.db.async.AsyncHandler;
 import com.lealone.db.async.AsyncResult;
@@ -29,12 +31,14 @@ import com.lealone.transaction.aote.TransactionalValueType;
 
 public class RedoLog {
 
-    // key: mapName, value: map key/value ByteBuffer list
-    private final HashMap<String, List<ByteBuffer>> pendingRedoLog = new HashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(RedoLog.class);
+
+    private final PendingRedoLog pendingRedoLog;
     private final Map<String, String> config;
     private final LogSyncService logSyncService;
 
-    private RedoLogChunk currentChunk;
+    // 每个redo log流一个，0号流的chunk文件放在redo log根目录，其他流放在各自的子目录
+    private RedoLogChunk[] chunks;
 
     RedoLog(Map<String, String> config, LogSyncService logSyncService) {
         this.config = config;
@@ -47,12 +51,14 @@ public class RedoLog {
 
         if (!FileUtils.exists(storagePath))
             FileUtils.createDirectories(storagePath);
-    }
 
-    private List<Integer> getAllChunkIds() {
-        return getAllChunkIds(config.get(StorageSetting.STORAGE_PATH.name()));
+        // 单位是字节，默认最多缓存64M，超过后把还没有redo的记录写到临时文件
+        long maxPendingSize = MapUtils.getLong(config, "redo_log_max_pending_size", 64 * 1024 * 1024);
+        pendingRedoLog = new PendingRedoLog(storagePath + File.separator + "pending", maxPendingSize);
     }
 
+    private static final String STREAM_DIR_PREFIX = "stream_";
+
     static List<Integer> getAllChunkIds(String dirStr) {
         ArrayList<Integer> ids = new ArrayList<>();
         int prefixLength = RedoLogChunk.CHUNK_FILE_NAME_PREFIX.length();
@@ -69,28 +75,175 @@ public class RedoLog {
     }
 
     public void init() {
-        List<Integer> ids = getAllChunkIds();
+        int streamCount = logSyncService.getStreamCount();
+        chunks = new RedoLogChunk[streamCount];
+        String storagePath = config.get(StorageSetting.STORAGE_PATH.name());
+        // 上次运行时使用过的流也要读，即使这次不再写入它们
+        HashMap<Integer, String> storagePaths = new HashMap<>();
+        storagePaths.put(0, storagePath);
+        for (FilePath fp : FilePath.get(storagePath).newDirectoryStream()) {
+            String name = fp.getName();
+            if (fp.isDirectory() && name.startsWith(STREAM_DIR_PREFIX)) {
+                int streamId = Integer.parseInt(name.substring(STREAM_DIR_PREFIX.length()));
+                storagePaths.put(streamId, fp.toString());
+            }
+        }
+        for (int i = 1; i < streamCount; i++) {
+            if (!storagePaths.containsKey(i)) {
+                String path = storagePath + File.separator + STREAM_DIR_PREFIX + i;
+                FileUtils.createDirectories(path);
+                storagePaths.put(i, path);
+            }
+        }
+        ArrayList<StreamReader> streams = new ArrayList<>(storagePaths.size());
+        ArrayList<String> inactiveStoragePaths = new ArrayList<>();
+        for (Map.Entry<Integer, String> e : storagePaths.entrySet()) {
+            int streamId = e.getKey();
+            StreamReader reader = openStream(streamId, e.getValue(), streamCount);
+            if (streamId >= streamCount && !getAllChunkIds(e.getValue()).isEmpty())
+                inactiveStoragePaths.add(e.getValue());
+            if (reader != null)
+                streams.add(reader);
+        }
+        if (!inactiveStoragePaths.isEmpty())
+            chunks[0].setInactiveStoragePaths(inactiveStoragePaths);
+        initPendingRedoLog(streams);
+    }
+
+    private Map<String, String> getStreamConfig(int streamId, String storagePath) {
+        if (streamId == 0)
+            return config;
+        HashMap<String, String> streamConfig = new HashMap<>(config);
+        streamConfig.put(StorageSetting.STORAGE_PATH.name(), storagePath);
+        return streamConfig;
+    }
+
+    // 先从后往前找到这个流的最后一个checkpoint，返回从它之后开始读记录的StreamReader
+    private StreamReader openStream(int streamId, String storagePath, int streamCount) {
+        Map<String, String> streamConfig = getStreamConfig(streamId, storagePath);
+        boolean active = streamId < streamCount;
+        List<Integer> ids = getAllChunkIds(storagePath);
         if (ids.isEmpty()) {
-            currentChunk = new RedoLogChunk(0, config, logSyncService);
-        } else {
-            int lastId = ids.get(ids.size() - 1);
-            for (int id : ids) {
-                RedoLogChunk chunk = null;
-                try {
-                    chunk = new RedoLogChunk(id, config, logSyncService);
-                    for (RedoLogRecord r : chunk.readRedoLogRecords()) {
-                        r.initPendingRedoLog(pendingRedoLog);
-                    }
-                } finally {
-                    // 注意一定要关闭，否则对应的chunk文件将无法删除，
-                    // 内部会打开一个FileStorage，不会因为没有引用到了而自动关闭
-                    if (id == lastId)
-                        currentChunk = chunk;
-                    else if (chunk != null)
-                        chunk.close();
+            if (active)
+                chunks[streamId] = new RedoLogChunk(0, streamConfig, logSyncService, streamId);
+            return null;
+        }
+        int lastIndex = ids.size() - 1;
+        RedoLogChunk lastChunk = null;
+        if (active) {
+            lastChunk = new RedoLogChunk(ids.get(lastIndex), streamConfig, logSyncService, streamId);
+            chunks[streamId] = lastChunk;
+        }
+        int startIndex = 0;
+        long startPos = 0;
+        for (int i = lastIndex; i >= 0; i--) {
+            RedoLogChunk chunk = null;
+            try {
+                chunk = i == lastIndex && active ? lastChunk
+                        : new RedoLogChunk(ids.get(i), streamConfig, logSyncService, streamId);
+                long pos = chunk.getLastCheckpointEnd();
+                if (pos >= 0) {
+                    startIndex = i;
+                    startPos = pos;
+                    break;
                 }
+            } finally {
+                // 注意一定要关闭，否则对应的chunk文件将无法删除，
+                // 内部会打开一个FileStorage，不会因为没有引用到了而自动关闭
+                if (chunk != null && chunk != lastChunk)
+                    chunk.close();
             }
         }
+        return new StreamReader(streamId, streamConfig, ids.subList(startIndex, ids.size()), startPos,
+                lastChunk);
+    }
+
+    // 同一个流中的记录是按logId从小到大写入的，多个流按logId归并后再按mapName分区，
+    // logId相同时保持流内的顺序，每个流同时只有一个块在内存中，
+    // 分区后的记录在内存中超过redo_log_max_pending_size时会写到临时文件
+    private void initPendingRedoLog(List<StreamReader> streams) {
+        long startTime = System.currentTimeMillis();
+        PriorityQueue<StreamReader> queue = new PriorityQueue<>(Math.max(1, streams.size()),
+                (a, b) -> {
+                    int c = Long.compare(a.current.getLogId(), b.current.getLogId());
+                    return c != 0 ? c : Integer.compare(a.streamId, b.streamId);
+                });
+        for (StreamReader reader : streams) {
+            if (reader.next())
+                queue.add(reader);
+        }
+        long count = 0;
+        while (!queue.isEmpty()) {
+            StreamReader reader = queue.poll();
+            reader.current.initPendingRedoLog(pendingRedoLog);
+            if ((++count & 0xFFFFF) == 0)
+                logger.info("Read {} redo log records", count);
+            if (reader.next())
+                queue.add(reader);
+            else
+                logSyncService.setLastLogId(reader.logId);
+        }
+        if (count > 0) {
+            logger.info("Read {} redo log records of {} maps in {} ms", count, pendingRedoLog.size(),
+                    System.currentTimeMillis() - startTime);
+        }
+    }
+
+    // 按顺序读取一个流在最后一个checkpoint之后的所有记录
+    private class StreamReader {
+
+        private final int streamId;
+        private final Map<String, String> config;
+        private final List<Integer> ids;
+        private final RedoLogChunk lastChunk; // 继续写入的chunk，读完后不关闭
+        private long startPos;
+        private int index;
+        private RedoLogChunk chunk;
+        private RedoLogReader reader;
+        private RedoLogRecord current;
+        private long logId;
+
+        StreamReader(int streamId, Map<String, String> config, List<Integer> ids, long startPos,
+                RedoLogChunk lastChunk) {
+            this.streamId = streamId;
+            this.config = config;
+            this.ids = ids;
+            this.startPos = startPos;
+            this.lastChunk = lastChunk;
+        }
+
+        boolean next() {
+            while (true) {
+                if (reader != null && reader.hasNext()) {
+                    current = reader.next();
+                    // 没有logId的记录(比如DroppedMapRLR和老版本的记录)使用前一条记录的logId
+                    if (current.getLogId() > 0)
+                        logId = current.getLogId();
+                    else
+                        current.setLogId(logId);
+                    return true;
+                }
+                closeChunk();
+                if (index >= ids.size()) {
+                    current = null;
+                    return false;
+                }
+                if (index == ids.size() - 1 && lastChunk != null)
+                    chunk = lastChunk;
+                else
+                    chunk = new RedoLogChunk(ids.get(index), config, logSyncService, streamId);
+                reader = chunk.getReader(startPos);
+                startPos = 0;
+                index++;
+            }
+        }
+
+        private void closeChunk() {
+            if (chunk != null && chunk != lastChunk)
+                chunk.close();
+            chunk = null;
+            reader = null;
+        }
     }
 
     // 重新执行一次上次已经成功并且在检查点之后的事务操作
@@ -99,7 +252,7 @@ public class RedoLog {
         // java的泛型很烂，这里做一下强制转换，否则后续的代码有编译错误
         final StorageMap<Object, Object> map = (StorageMap<Object, Object>) map0;
         final List<StorageMap<Object, Object>> indexMaps;
-        final List<ByteBuffer> pendingKeyValues;
+        final PendingRedoLog.MapRedoLog pendingKeyValues;
         // 多个线程打开不同数据库时会同时调用redo，所以需要加synchronized
         synchronized (pendingRedoLog) {
             pendingKeyValues = pendingRedoLog.remove(map.getName());
@@ -107,20 +260,20 @@ public class RedoLog {
                 indexMaps = new ArrayList<>(indexMaps0.size());
                 // <=lealone 6.0.1的版本对index修改时也写redo log，现在可以直接忽略了
                 for (StorageMap<?, ?> im : indexMaps0) {
-                    pendingRedoLog.remove(im.getName());
+                    pendingRedoLog.clear(im.getName());
                     indexMaps.add((StorageMap<Object, Object>) im);
                 }
             } else {
                 indexMaps = null;
             }
         }
-        if (pendingKeyValues != null && !pendingKeyValues.isEmpty()) {
+        if (pendingKeyValues != null) {
             StorageDataType kt = map.getKeyType();
             StorageDataType vt = ((TransactionalValueType) map.getValueType()).valueType;
             // 异步redo，忽略操作结果
             AsyncHandler<AsyncResult<Object>> handler = ar -> {
             };
-            for (ByteBuffer kv : pendingKeyValues) {
+            pendingKeyValues.forEach(kv -> {
                 Object key = kt.read(kv);
                 if (kv.get() == 0) {
                     map.remove(key, ar -> {
@@ -147,27 +300,35 @@ public class RedoLog {
                         }
                     }
                 }
-            }
+            });
         }
     }
 
     void close() {
-        currentChunk.close();
+        for (RedoLogChunk chunk : chunks)
+            chunk.close();
+        // 没有redo的map(比如已经删除的表)留下的临时文件也要删除
+        synchronized (pendingRedoLog) {
+            pendingRedoLog.clear();
+        }
     }
 
-    void save() {
-        currentChunk.save();
+    void save(int streamId) {
+        chunks[streamId].save();
     }
 
     public void ignoreCheckpoint() {
-        currentChunk.ignoreCheckpoint();
+        for (RedoLogChunk chunk : chunks)
+            chunk.ignoreCheckpoint();
     }
 
     public void setCheckpointService(CheckpointService checkpointService) {
-        currentChunk.setCheckpointService(checkpointService);
+        for (RedoLogChunk chunk : chunks)
+            chunk.setCheckpointService(checkpointService);
     }
 
+    // 刷脏页产生的fsync任务统一由0号流的线程执行
     public void addFsyncTask(FsyncTask task) {
-        currentChunk.addFsyncTask(task);
+        chunks[0].addFsyncTask(task);
     }
 }
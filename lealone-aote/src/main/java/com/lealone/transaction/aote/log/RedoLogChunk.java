@@ -7,12 +7,14 @@ package com.lealone.transaction.aote.log;
 
 import java.io.File;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.lealone.common.compress.CompressTool;
+import com.lealone.common.compress.Compressor;
 import com.lealone.common.logging.Logger;
 import com.lealone.common.logging.LoggerFactory;
 import com.lealone.common.util.MapUtils;
@@ -26,6 +28,7 @@ import com.lealone.transaction.PendingTransaction;
 import com.lealone.transaction.aote.CheckpointService;
 import com.lealone.transaction.aote.CheckpointService.FsyncTask;
 import com.lealone.transaction.aote.log.RedoLogRecord.CheckpointRLR;
+import com.lealone.transaction.aote.log.RedoLogRecord.CompressedBatchRLR;
 import com.lealone.transaction.aote.log.RedoLogRecord.PendingCheckpoint;
 
 class RedoLogChunk {
@@ -72,12 +75,27 @@ class RedoLogChunk {
 
     private final long logChunkSize;
 
+    // 为null时不压缩，否则每次写入的一批记录先压缩再写入
+    private final String compressAlgorithm;
+    private final CompressTool compressTool;
+    private final RedoLogStatistics statistics;
+    private long unsyncedBytes;
+
     private final ConcurrentLinkedQueue<FsyncTask> fsyncTasks = new ConcurrentLinkedQueue<>();
 
+    private final int streamId;
+    // 不再写入的redo log流所在的目录，完成下一次checkpoint后归档它们的chunk文件
+    private List<String> inactiveStoragePaths;
+
     RedoLogChunk(int id, Map<String, String> config, LogSyncService logSyncService) {
+        this(id, config, logSyncService, 0);
+    }
+
+    RedoLogChunk(int id, Map<String, String> config, LogSyncService logSyncService, int streamId) {
         this.id = id;
         this.config = config;
         this.logSyncService = logSyncService;
+        this.streamId = streamId;
         fileStorage = getFileStorage(id, config);
         pos = fileStorage.size();
 
@@ -86,6 +104,16 @@ class RedoLogChunk {
         archiveDir = getArchiveDir(config);
 
         logChunkSize = MapUtils.getLong(config, "log_chunk_size", 32 * 1024 * 1024); // 默认32M
+
+        String algorithm = MapUtils.getString(config, "redo_log_compress", "no");
+        if (CompressTool.getCompressAlgorithm(algorithm) == Compressor.NO) {
+            compressAlgorithm = null;
+            compressTool = null;
+        } else {
+            compressAlgorithm = algorithm;
+            compressTool = CompressTool.getInstance();
+        }
+        statistics = logSyncService.getRedoLogStatistics();
     }
 
     private static FileStorage getFileStorage(int id, Map<String, String> config) {
@@ -93,19 +121,20 @@ class RedoLogChunk {
         return FileStorage.open(chunkFileName, config);
     }
 
-    // 第一次打开时只有一个线程读，所以用LinkedList即可
-    LinkedList<RedoLogRecord> readRedoLogRecords() {
-        LinkedList<RedoLogRecord> list = new LinkedList<>();
-        if (pos <= 0)
-            return list;
-        ByteBuffer buffer = fileStorage.readFully(0, (int) pos);
-        while (buffer.remaining() > 0) {
-            RedoLogRecord r = RedoLogRecord.read(buffer);
-            if (r.isCheckpoint())
-                list = new LinkedList<>();// 丢弃之前的
-            list.add(r);
+    // 从start开始按块读取，不会一次性把整个文件读到内存中
+    RedoLogReader getReader(long start) {
+        return new RedoLogReader(fileStorage, start, pos);
+    }
+
+    // 返回最后一个checkpoint之后的位置，没有checkpoint时返回-1
+    long getLastCheckpointEnd() {
+        long checkpointEnd = -1;
+        RedoLogReader reader = getReader(0);
+        while (reader.hasNext()) {
+            if (reader.skip())
+                checkpointEnd = reader.getPosition();
         }
-        return list;
+        return checkpointEnd;
     }
 
     void close() {
@@ -114,6 +143,9 @@ class RedoLogChunk {
     }
 
     void save() {
+        // 上次运行时使用过、这次不再写入的流
+        if (streamId >= logSyncService.getStreamCount())
+            return;
         FsyncTask ft = fsyncTasks.poll();
         while (ft != null) {
             ft.getFsyncingFileStorage().sync();
@@ -122,12 +154,19 @@ class RedoLogChunk {
         }
         Scheduler[] waitingSchedulers = logSyncService.getWaitingSchedulers();
         int waitingQueueSize = waitingSchedulers.length;
-        AtomicLong logQueueSize = logSyncService.getAsyncLogQueueSize();
+        // 每个scheduler一个流时只处理自己对应的scheduler
+        int first = 0;
+        int last = waitingQueueSize - 1;
+        if (logSyncService.isPerSchedulerStream()) {
+            first = last = streamId;
+        }
+        AtomicLong logQueueSize = logSyncService.getAsyncLogQueueSize(streamId);
         long chunkLength = 0;
         while (logQueueSize.get() > 0) {
+            int batchSize = 0;
             PendingTransaction[] lastPts = new PendingTransaction[waitingQueueSize];
             PendingTransaction[] pts = new PendingTransaction[waitingQueueSize];
-            for (int i = 0; i < waitingQueueSize; i++) {
+            for (int i = first; i <= last; i++) {
                 lastPts[i] = null;
                 Scheduler scheduler = waitingSchedulers[i];
                 if (scheduler == null) {
@@ -151,10 +190,12 @@ class RedoLogChunk {
                     if (pendingCheckpoint == null
                             || pt.getLogId() < pendingCheckpoint.getCheckpointId()) {
                         RedoLogRecord r = (RedoLogRecord) pt.getRedoLogRecord();
+                        r.setLogId(pt.getLogId());
                         r.write(buff);
                         if (buff.position() > BUFF_SIZE)
                             chunkLength += write(buff);
                         logQueueSize.decrementAndGet();
+                        batchSize++;
                         // 提前设置已经同步完成，让调度线程及时回收PendingTransaction
                         if (logSyncService.isPeriodic())
                             pt.setSynced(true);
@@ -174,12 +215,13 @@ class RedoLogChunk {
                 }
             }
             chunkLength += write(buff);
+            statistics.addBatch(batchSize);
 
             if (chunkLength > 0 && !logSyncService.isPeriodic()) {
                 chunkLength = 0;
-                fileStorage.sync();
+                sync();
             }
-            for (int i = 0; i < waitingQueueSize; i++) {
+            for (int i = first; i <= last; i++) {
                 Scheduler scheduler = waitingSchedulers[i];
                 if (scheduler == null || lastPts[i] == null) { // 没有同步过任何RedoLogRecord
                     continue;
@@ -203,10 +245,17 @@ class RedoLogChunk {
                 nextChunk(true);
         }
         if (chunkLength > 0 && logSyncService.isPeriodic()) {
-            fileStorage.sync();
+            sync();
         }
     }
 
+    private void sync() {
+        long start = System.nanoTime();
+        fileStorage.sync();
+        statistics.addFsync(unsyncedBytes, System.nanoTime() - start);
+        unsyncedBytes = 0;
+    }
+
     private PendingTransaction nextPendingTransaction(PendingTransaction[] pts) {
         PendingTransaction minPendingTransaction = null;
         long minCommitTimestamp = Long.MAX_VALUE;
@@ -230,7 +279,7 @@ class RedoLogChunk {
 
     private PendingCheckpoint nextPendingCheckpoint(PendingCheckpoint pc) {
         while (pc != null) {
-            if (pc.isSynced()) {
+            if (pc.isSynced(streamId)) {
                 pc = pc.getNext();
                 continue;
             }
@@ -240,15 +289,35 @@ class RedoLogChunk {
     }
 
     private int write(DataBuffer buff) {
-        int length = buff.position();
+        int rawLength = buff.position();
+        int length = rawLength;
         if (length > 0) {
-            fileStorage.writeFully(pos, buff.getAndFlipBuffer());
+            ByteBuffer bb = buff.getAndFlipBuffer();
+            if (compressTool != null) {
+                bb = compress(bb);
+                length = bb.remaining();
+            }
+            fileStorage.writeFully(pos, bb);
             pos += length;
+            unsyncedBytes += length;
             buff.clear(); // flip后要clear，避免grow时导致OOM问题
+            statistics.addWrite(rawLength, length);
         }
         return length;
     }
 
+    // 压缩后没有变小就写入原来的记录
+    private ByteBuffer compress(ByteBuffer bb) {
+        int length = bb.remaining();
+        byte[] bytes = new byte[length];
+        bb.get(bytes);
+        bb.position(bb.position() - length);
+        byte[] compressed = compressTool.compress(bytes, compressAlgorithm);
+        if (compressed.length + 5 >= length)
+            return bb;
+        return CompressedBatchRLR.create(compressed);
+    }
+
     // 写满一个RedoLogChunk后不必创建新的RedoLogChunk实例，创建FileStorage实例即可
     // 这样可以有效避免不必要的并发问题
     private void nextChunk(boolean closeFileStorage) {
@@ -278,8 +347,9 @@ class RedoLogChunk {
             checkpointChunkId = id;
             nextChunk(false);
         }
-        pendingCheckpoint.setSynced(true);
-        checkpointService.wakeUp();
+        // 所有的redo log流都切换文件(或写入checkpoint)后才能通知checkpoint服务
+        if (pendingCheckpoint.setSynced(streamId, logSyncService.getStreamCount()))
+            checkpointService.wakeUp();
         return cp.isSaved();
     }
 
@@ -295,10 +365,30 @@ class RedoLogChunk {
             logger.error("Failed to archive files", e);
         }
         if (archiveMaxFiles > 0)
-            deleteOldArchiveFiles();
+            deleteOldArchiveFiles(archiveDir);
+        if (inactiveStoragePaths != null) {
+            for (String storagePath : inactiveStoragePaths)
+                archiveInactiveChunkFiles(storagePath);
+            inactiveStoragePaths = null;
+        }
     }
 
-    private void deleteOldArchiveFiles() {
+    private void archiveInactiveChunkFiles(String storagePath) {
+        HashMap<String, String> config = new HashMap<>(this.config);
+        config.put(StorageSetting.STORAGE_PATH.name(), storagePath);
+        String archiveDir = getArchiveDir(config);
+        try {
+            for (int i : RedoLog.getAllChunkIds(storagePath)) {
+                FileUtils.move(getChunkFileName(config, i), getArchiveFileName(archiveDir, i));
+            }
+        } catch (Exception e) {
+            logger.error("Failed to archive files", e);
+        }
+        if (archiveMaxFiles > 0)
+            deleteOldArchiveFiles(archiveDir);
+    }
+
+    private void deleteOldArchiveFiles(String archiveDir) {
         try {
             List<Integer> ids = RedoLog.getAllChunkIds(archiveDir);
             if (ids.size() > archiveMaxFiles) {
@@ -321,6 +411,10 @@ class RedoLogChunk {
         }
     }
 
+    void setInactiveStoragePaths(List<String> inactiveStoragePaths) {
+        this.inactiveStoragePaths = inactiveStoragePaths;
+    }
+
     void setCheckpointService(CheckpointService checkpointService) {
         this.checkpointService = checkpointService;
     }
@@ -0,0 +1,120 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.transaction.aote.log;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.util.DataUtils;
+import com.lealone.common.util.SystemPropertyUtils;
+import com.lealone.storage.fs.FileStorage;
+import com.lealone.transaction.aote.log.RedoLogRecord.CompressedBatchRLR;
+
+/**
+ * 按块顺序读取一个redo log chunk文件中的记录。
+ *
+ * 内存中只保留一个块，读到块的末尾时从当前记录的开始位置重新读下一块，
+ * 只有单条记录比块还大时才扩大块，所以恢复时不需要把整个chunk文件读到内存中。
+ */
+class RedoLogReader {
+
+    static final int BLOCK_SIZE = Math.max(1024,
+            SystemPropertyUtils.getInt("lealone.redoLog.readBlockSize", 1024 * 1024));
+
+    private final FileStorage fileStorage;
+    private final long end;
+    private ByteBuffer block;
+    private long blockPos; // block在文件中的开始位置
+    private ByteBuffer batch; // 正在展开的压缩记录
+
+    RedoLogReader(FileStorage fileStorage, long start, long end) {
+        this.fileStorage = fileStorage;
+        this.end = end;
+        blockPos = start;
+        block = ByteBuffer.allocate(0);
+    }
+
+    // 下一条记录在文件中的位置
+    long getPosition() {
+        return blockPos + block.position();
+    }
+
+    boolean hasNext() {
+        return (batch != null && batch.hasRemaining()) || getPosition() < end;
+    }
+
+    RedoLogRecord next() {
+        if (batch != null) {
+            if (batch.hasRemaining())
+                return RedoLogRecord.read(batch);
+            batch = null;
+        }
+        while (true) {
+            int start = block.position();
+            RedoLogRecord r;
+            try {
+                r = RedoLogRecord.read(block);
+            } catch (BufferUnderflowException e) {
+                block.position(start);
+                readNextBlock();
+                continue;
+            }
+            if (r instanceof CompressedBatchRLR) {
+                batch = ((CompressedBatchRLR) r).getRecords();
+                return next();
+            }
+            return r;
+        }
+    }
+
+    /**
+     * 跳过下一条记录，事务记录和压缩过的记录只解析头部，不复制后面的数据
+     *
+     * @return true if the skipped record is a checkpoint
+     */
+    boolean skip() {
+        while (true) {
+            int start = block.position();
+            try {
+                byte type = block.get();
+                if (type == RedoLogRecord.TYPE_LOCAL_TRANSACTION
+                        || type == RedoLogRecord.TYPE_COMPRESSED_BATCH) {
+                    if (type == RedoLogRecord.TYPE_LOCAL_TRANSACTION)
+                        DataUtils.readVarLong(block);
+                    int len = block.getInt();
+                    if (len > block.remaining()) {
+                        // 不读后面的数据，直接从下一条记录的位置开始读
+                        long pos = blockPos + block.position() + len;
+                        blockPos = pos;
+                        block = ByteBuffer.allocate(0);
+                    } else {
+                        block.position(block.position() + len);
+                    }
+                    return false;
+                }
+                block.position(start);
+                return RedoLogRecord.read(block).isCheckpoint();
+            } catch (BufferUnderflowException e) {
+                block.position(start);
+                readNextBlock();
+            }
+        }
+    }
+
+    private void readNextBlock() {
+        long pos = getPosition();
+        int remaining = block.remaining();
+        if (pos + remaining >= end)
+            throw DbException.getInternalError(
+                    "Incomplete redo log record at " + pos + " in " + fileStorage.getFileName());
+        // 块里剩下的不是一条完整的记录，如果它占满了整个块就需要更大的块
+        int size = Math.max(BLOCK_SIZE, remaining * 2);
+        size = (int) Math.min(size, end - pos);
+        blockPos = pos;
+        block = fileStorage.readFully(pos, size);
+    }
+}
@@ -6,10 +6,10 @@
 package com.lealone.transaction.aote.log;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.lealone.common.compress.CompressTool;
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.DataUtils;
 import com.lealone.db.DataBuffer;
@@ -19,11 +19,23 @@ import com.lealone.transaction.aote.AOTransactionEngine;
 
 public abstract class RedoLogRecord {
 
-    private static byte TYPE_CHECKPOINT = 0;
-    private static byte TYPE_DROPPED_MAP = 1;
-    private static byte TYPE_LOCAL_TRANSACTION = 2;
+    static final byte TYPE_CHECKPOINT = 0;
+    static final byte TYPE_DROPPED_MAP = 1;
+    static final byte TYPE_LOCAL_TRANSACTION = 2;
+    static final byte TYPE_COMPRESSED_BATCH = 3;
 
-    public void initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog) {
+    // 只在写入和恢复时使用，多个redo log流恢复时按logId合并
+    private long logId;
+
+    long getLogId() {
+        return logId;
+    }
+
+    void setLogId(long logId) {
+        this.logId = logId;
+    }
+
+    public void initPendingRedoLog(PendingRedoLog pendingRedoLog) {
     }
 
     boolean isCheckpoint() {
@@ -40,6 +52,8 @@ public abstract class RedoLogRecord {
             return DroppedMapRLR.read(buff);
         } else if (type == TYPE_LOCAL_TRANSACTION) {
             return LocalTransactionRLR.read(buff);
+        } else if (type == TYPE_COMPRESSED_BATCH) {
+            return CompressedBatchRLR.read(buff);
         } else {
             throw DbException.getInternalError("unknow type: " + type);
         }
@@ -63,6 +77,8 @@ public abstract class RedoLogRecord {
         private final CheckpointRLR checkpoint;
         private boolean synced;
         private boolean force;
+        // 每个scheduler一个redo log流时，记录已经处理过这个checkpoint的流
+        private final Set<Integer> syncedStreams = ConcurrentHashMap.newKeySet();
 
         public PendingCheckpoint(CheckpointRLR checkpoint, boolean force) {
             this.checkpoint = checkpoint;
@@ -91,6 +107,20 @@ public abstract class RedoLogRecord {
         public void setSynced(boolean synced) {
             this.synced = synced;
         }
+
+        boolean isSynced(int streamId) {
+            return synced || syncedStreams.contains(streamId);
+        }
+
+        // 所有的流都处理完后才算同步完成，返回true
+        boolean setSynced(int streamId, int streamCount) {
+            syncedStreams.add(streamId);
+            if (syncedStreams.size() >= streamCount) {
+                synced = true;
+                return true;
+            }
+            return false;
+        }
     }
 
     static class CheckpointRLR extends RedoLogRecord {
@@ -117,7 +147,7 @@ public abstract class RedoLogRecord {
         }
 
         @Override
-        public void initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog) {
+        public void initPendingRedoLog(PendingRedoLog pendingRedoLog) {
             pendingRedoLog.clear();
         }
 
@@ -143,12 +173,8 @@ public abstract class RedoLogRecord {
         }
 
         @Override
-        public void initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog) {
-            List<ByteBuffer> logs = pendingRedoLog.get(mapName);
-            if (logs != null) {
-                logs = new LinkedList<>();
-                pendingRedoLog.put(mapName, logs);
-            }
+        public void initPendingRedoLog(PendingRedoLog pendingRedoLog) {
+            pendingRedoLog.clear(mapName);
         }
 
         @Override
@@ -163,6 +189,40 @@ public abstract class RedoLogRecord {
         }
     }
 
+    // 一次写入的多条记录压缩后作为一条记录，读取时再展开成原来的记录
+    static class CompressedBatchRLR extends RedoLogRecord {
+
+        private final ByteBuffer records;
+
+        CompressedBatchRLR(ByteBuffer records) {
+            this.records = records;
+        }
+
+        ByteBuffer getRecords() {
+            return records;
+        }
+
+        @Override
+        void write(DataBuffer buff) {
+            throw DbException.getInternalError();
+        }
+
+        // 格式: type + 压缩后的长度 + CompressTool.compress的结果
+        static ByteBuffer create(byte[] compressed) {
+            ByteBuffer buff = ByteBuffer.allocate(1 + 4 + compressed.length);
+            buff.put(TYPE_COMPRESSED_BATCH).putInt(compressed.length).put(compressed);
+            buff.flip();
+            return buff;
+        }
+
+        public static RedoLogRecord read(ByteBuffer buff) {
+            byte[] compressed = new byte[buff.getInt()];
+            buff.get(compressed);
+            byte[] records = CompressTool.getInstance().expand(compressed);
+            return new CompressedBatchRLR(ByteBuffer.wrap(records));
+        }
+    }
+
     static class TransactionRLR extends RedoLogRecord {
 
         protected ByteBuffer operations;
@@ -185,21 +245,16 @@ public abstract class RedoLogRecord {
         }
 
         @Override
-        public void initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog) {
+        public void initPendingRedoLog(PendingRedoLog pendingRedoLog) {
             ByteBuffer buff = operations;
             while (buff.hasRemaining()) {
                 // 此时还没有打开底层存储的map，所以只预先解析出mapName和keyValue字节数组
                 // 写时格式参照UndoLogRecord.writeForRedo()
                 String mapName = ValueString.type.read(buff);
-                List<ByteBuffer> keyValues = pendingRedoLog.get(mapName);
-                if (keyValues == null) {
-                    keyValues = new LinkedList<>();
-                    pendingRedoLog.put(mapName, keyValues);
-                }
                 int len = buff.getInt();
                 byte[] keyValue = new byte[len];
                 buff.get(keyValue);
-                keyValues.add(ByteBuffer.wrap(keyValue));
+                pendingRedoLog.add(mapName, ByteBuffer.wrap(keyValue));
             }
         }
 
@@ -210,7 +265,7 @@ public abstract class RedoLogRecord {
 
         public void write(DataBuffer buff, byte type) {
             buff.put(type);
-            buff.putVarLong(0); // transactionId兼容老版本
+            buff.putVarLong(getLogId()); // 老版本写的是transactionId(总是0)，现在写logId
             writeOperations(buff);
             release();
         }
@@ -238,9 +293,11 @@ public abstract class RedoLogRecord {
         }
 
         public static LocalTransactionRLR read(ByteBuffer buff) {
-            DataUtils.readVarLong(buff); // transactionId兼容老版本
+            long logId = DataUtils.readVarLong(buff); // 老版本是transactionId(总是0)
             ByteBuffer operations = readOperations(buff);
-            return new LocalTransactionRLR(operations);
+            LocalTransactionRLR r = new LocalTransactionRLR(operations);
+            r.setLogId(logId);
+            return r;
         }
     }
 
@@ -279,7 +336,13 @@ public abstract class RedoLogRecord {
         }
 
         @Override
-        public void initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog) {
+        public void initPendingRedoLog(PendingRedoLog pendingRedoLog) {
+        }
+
+        @Override
+        void setLogId(long logId) {
+            super.setLogId(logId);
+            r.setLogId(logId);
         }
 
         @Override
@@ -0,0 +1,78 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.transaction.aote.log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 统计redo log的写入情况，用来调整redo_log_record_sync_threshold和是否压缩。
+ *
+ * 每次从队列中取出一批事务的redo log记录写入就算一批，多个redo log流共用一个实例。
+ */
+public class RedoLogStatistics {
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong(); // 压缩前的字节数
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong fsyncCount = new AtomicLong();
+    private final AtomicLong fsyncBytes = new AtomicLong();
+    private final AtomicLong fsyncNanos = new AtomicLong();
+    private final AtomicLong maxFsyncNanos = new AtomicLong();
+
+    void addBatch(int records) {
+        if (records <= 0)
+            return;
+        batchCount.incrementAndGet();
+        recordCount.addAndGet(records);
+        updateMax(maxBatchSize, records);
+    }
+
+    void addWrite(int rawLength, int writtenLength) {
+        rawBytes.addAndGet(rawLength);
+        writtenBytes.addAndGet(writtenLength);
+    }
+
+    void addFsync(long bytes, long nanos) {
+        fsyncCount.incrementAndGet();
+        fsyncBytes.addAndGet(bytes);
+        fsyncNanos.addAndGet(nanos);
+        updateMax(maxFsyncNanos, nanos);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long old = max.get();
+        while (value > old && !max.compareAndSet(old, value))
+            old = max.get();
+    }
+
+    private static double avg(long sum, long count) {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public Map<String, String> getStatistics() {
+        long batches = batchCount.get();
+        long fsyncs = fsyncCount.get();
+        long raw = rawBytes.get();
+        long written = writtenBytes.get();
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("BATCH_COUNT", "" + batches);
+        map.put("RECORD_COUNT", "" + recordCount.get());
+        map.put("AVERAGE_BATCH_SIZE", "" + avg(recordCount.get(), batches));
+        map.put("MAX_BATCH_SIZE", "" + maxBatchSize.get());
+        map.put("RAW_BYTES", "" + raw);
+        map.put("WRITTEN_BYTES", "" + written);
+        map.put("COMPRESSION_RATIO", "" + (written == 0 ? 1 : (double) raw / written));
+        map.put("FSYNC_COUNT", "" + fsyncs);
+        map.put("AVERAGE_BYTES_PER_FSYNC", "" + avg(fsyncBytes.get(), fsyncs));
+        map.put("AVERAGE_FSYNC_TIME", "" + avg(fsyncNanos.get(), fsyncs) / 1000d / 1000);
+        map.put("MAX_FSYNC_TIME", "" + maxFsyncNanos.get() / 1000d / 1000);
+        return map;
+    }
+}
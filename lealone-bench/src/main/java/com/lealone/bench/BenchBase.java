@@ -0,0 +1,58 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lealone.common.logging.LoggerFactory;
+import com.lealone.common.logging.impl.ConsoleLoggerFactory;
+import com.lealone.db.SysProperties;
+import com.lealone.storage.fs.FileUtils;
+
+/**
+ * 所有JMH基准测试的基类，统一测试模式和数据目录。
+ * 
+ * <p>
+ * 打包后运行: java -jar lealone-bench/target/benchmarks.jar -prof gc -rf json
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public abstract class BenchBase {
+
+    public static final String BENCH_BASE_DIR = "." + File.separatorChar + "target" + File.separatorChar
+            + "bench-data";
+
+    static {
+        System.setProperty(LoggerFactory.LOGGER_FACTORY_CLASS_NAME,
+                ConsoleLoggerFactory.class.getName());
+        SysProperties.setBaseDir(BENCH_BASE_DIR);
+    }
+
+    public static String joinDirs(String... dirs) {
+        StringBuilder s = new StringBuilder(BENCH_BASE_DIR);
+        for (String dir : dirs)
+            s.append(File.separatorChar).append(dir);
+        return s.toString();
+    }
+
+    // 每次fork都从空目录开始，避免上一轮的数据影响测试结果
+    public static String cleanDir(String... dirs) {
+        String dir = joinDirs(dirs);
+        FileUtils.deleteRecursive(dir, true);
+        return dir;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.bench.aose;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.lealone.bench.BenchBase;
+import com.lealone.storage.StorageMapCursor;
+import com.lealone.storage.aose.AOStorage;
+import com.lealone.storage.aose.AOStorageBuilder;
+import com.lealone.storage.aose.btree.BTreeMap;
+
+// BTreeMap的put/get/cursor
+@State(Scope.Benchmark)
+public class BTreeMapBench extends BenchBase {
+
+    @Param({ "100000" })
+    public int rowCount;
+
+    @Param({ "16384" })
+    public int pageSize;
+
+    @Param({ "100" })
+    public int scanRows;
+
+    private AOStorage storage;
+    private BTreeMap<Integer, String> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.storagePath(cleanDir("aose")).pageSize(pageSize);
+        storage = builder.openStorage();
+        map = storage.openBTreeMap(getClass().getSimpleName());
+        for (int i = 0; i < rowCount; i++) {
+            map.put(i, "value" + i);
+        }
+        map.save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.close();
+    }
+
+    private int randomKey() {
+        return ThreadLocalRandom.current().nextInt(rowCount);
+    }
+
+    @Benchmark
+    public Object put() {
+        int key = randomKey();
+        return map.put(key, "value" + key);
+    }
+
+    @Benchmark
+    public Object get() {
+        return map.get(randomKey());
+    }
+
+    @Benchmark
+    public void cursor(Blackhole bh) {
+        StorageMapCursor<Integer, String> cursor = map.cursor(randomKey());
+        for (int i = 0; i < scanRows && cursor.next(); i++) {
+            bh.consume(cursor.getValue());
+        }
+    }
+}
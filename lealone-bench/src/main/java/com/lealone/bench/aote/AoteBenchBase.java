@@ -0,0 +1,63 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.bench.aote;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.lealone.bench.BenchBase;
+import com.lealone.storage.Storage;
+import com.lealone.storage.StorageBuilder;
+import com.lealone.storage.StorageEngine;
+import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionEngine;
+import com.lealone.transaction.TransactionMap;
+import com.lealone.transaction.aote.log.LogSyncService;
+
+public abstract class AoteBenchBase extends BenchBase {
+
+    protected TransactionEngine te;
+    protected Storage storage;
+
+    // JMH为每组参数单独fork一个JVM，所以TransactionEngine只会按当前的log_sync_type初始化一次
+    protected void init() {
+        init(LogSyncService.LOG_SYNC_TYPE_PERIODIC);
+    }
+
+    protected void init(String logSyncType) {
+        String baseDir = cleanDir("aote");
+        Map<String, String> config = new HashMap<>();
+        config.put("base_dir", baseDir);
+        config.put("redo_log_dir", "redo_log");
+        config.put("log_sync_type", logSyncType);
+        config.put("embedded", "true");
+        te = TransactionEngine.getDefaultTransactionEngine();
+        te.init(config);
+
+        StorageBuilder storageBuilder = StorageEngine.getDefaultStorageEngine().getStorageBuilder();
+        storageBuilder.storagePath(baseDir + "/data");
+        storage = storageBuilder.openStorage();
+    }
+
+    protected TransactionMap<Integer, String> openMap(int rowCount) {
+        Transaction t = te.beginTransaction();
+        TransactionMap<Integer, String> map = t.openMap(getClass().getSimpleName(), storage);
+        for (int i = 0; i < rowCount; i++) {
+            map.put(i, "value" + i);
+        }
+        t.commit();
+        return map;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.close();
+        te.close();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.bench.aote;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionMap;
+import com.lealone.transaction.aote.log.LogSyncService;
+
+/**
+ * 每次提交都会生成一条RedoLogRecord，由LogSyncService线程调用RedoLogChunk.save()写入redo log，
+ * 所以提交的吞吐量就是RedoLogChunk.save()在三种同步模式下的吞吐量。
+ * 
+ * <p>
+ * 用-t参数增加并发的提交线程数，可以观察group commit的效果。
+ */
+@State(Scope.Benchmark)
+public class RedoLogBench extends AoteBenchBase {
+
+    @Param({ LogSyncService.LOG_SYNC_TYPE_INSTANT, LogSyncService.LOG_SYNC_TYPE_PERIODIC,
+            LogSyncService.LOG_SYNC_TYPE_NO_SYNC })
+    public String logSyncType;
+
+    @Param({ "10000" })
+    public int rowCount;
+
+    private TransactionMap<Integer, String> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        init(logSyncType);
+        map = openMap(rowCount);
+    }
+
+    @Benchmark
+    public void commit() {
+        Transaction t = te.beginTransaction();
+        int key = ThreadLocalRandom.current().nextInt(rowCount);
+        map.getInstance(t).put(key, "value" + key);
+        t.commit();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.bench.aote;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionMap;
+
+// AOTransactionMap在不同隔离级别下的读写
+@State(Scope.Benchmark)
+public class TransactionMapBench extends AoteBenchBase {
+
+    @Param({ "READ_UNCOMMITTED", "READ_COMMITTED", "REPEATABLE_READ", "SERIALIZABLE" })
+    public String isolationLevel;
+
+    @Param({ "100000" })
+    public int rowCount;
+
+    private int il;
+    private TransactionMap<Integer, String> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        il = getIsolationLevel(isolationLevel);
+        init();
+        map = openMap(rowCount);
+    }
+
+    private static int getIsolationLevel(String name) {
+        switch (name) {
+        case "READ_UNCOMMITTED":
+            return Transaction.IL_READ_UNCOMMITTED;
+        case "READ_COMMITTED":
+            return Transaction.IL_READ_COMMITTED;
+        case "REPEATABLE_READ":
+            return Transaction.IL_REPEATABLE_READ;
+        case "SERIALIZABLE":
+            return Transaction.IL_SERIALIZABLE;
+        default:
+            throw new IllegalArgumentException("Unknow isolation level: " + name);
+        }
+    }
+
+    private int randomKey() {
+        return ThreadLocalRandom.current().nextInt(rowCount);
+    }
+
+    @Benchmark
+    public Object read() {
+        Transaction t = te.beginTransaction(il);
+        try {
+            return map.getInstance(t).get(randomKey());
+        } finally {
+            t.commit();
+        }
+    }
+
+    @Benchmark
+    public Object write() {
+        Transaction t = te.beginTransaction(il);
+        int key = randomKey();
+        Object old = map.getInstance(t).put(key, "value" + key);
+        t.commit();
+        return old;
+    }
+}
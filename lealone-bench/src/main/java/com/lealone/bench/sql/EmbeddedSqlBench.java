@@ -0,0 +1,100 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.bench.sql;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.lealone.bench.BenchBase;
+import com.lealone.db.Constants;
+import com.lealone.db.result.Result;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.ServerSessionFactory;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueInt;
+import com.lealone.db.value.ValueString;
+import com.lealone.sql.PreparedSQLStatement;
+
+// 通过ServerSession在嵌入模式下执行INSERT、点查和范围扫描，覆盖从SQL解析到存储层的完整路径
+@State(Scope.Benchmark)
+public class EmbeddedSqlBench extends BenchBase {
+
+    @Param({ "100000" })
+    public int rowCount;
+
+    @Param({ "100" })
+    public int scanRows;
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private ServerSession session;
+    private PreparedSQLStatement insert;
+    private PreparedSQLStatement pointSelect;
+    private PreparedSQLStatement rangeScan;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String url = Constants.URL_PREFIX + Constants.URL_EMBED + joinDirs("sql")
+                + "/bench;user=root;password=";
+        session = (ServerSession) ServerSessionFactory.getInstance().createSession(url).get();
+        session.executeUpdateLocal("DROP TABLE IF EXISTS bench_sql");
+        session.executeUpdateLocal("CREATE TABLE bench_sql"
+                + "(id int PRIMARY KEY, f1 int, f2 varchar)");
+        insert = session.prepareStatementLocal("INSERT INTO bench_sql(id, f1, f2) VALUES(?, ?, ?)");
+        for (int i = 0; i < rowCount; i++) {
+            insert(i);
+        }
+        nextId.set(rowCount);
+        pointSelect = session.prepareStatementLocal("SELECT f1, f2 FROM bench_sql WHERE id = ?");
+        rangeScan = session
+                .prepareStatementLocal("SELECT f1, f2 FROM bench_sql WHERE id >= ? AND id < ?");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+    }
+
+    private int insert(int id) {
+        Value[] values = { ValueInt.get(id), ValueInt.get(id * 10), ValueString.get("value" + id) };
+        return insert.executeUpdate(values).get();
+    }
+
+    private static void consume(Result result, Blackhole bh) {
+        while (result.next()) {
+            bh.consume(result.currentRow());
+        }
+        result.close();
+    }
+
+    @Benchmark
+    public int insert() {
+        return insert(nextId.getAndIncrement());
+    }
+
+    @Benchmark
+    public void pointSelect(Blackhole bh) {
+        int id = ThreadLocalRandom.current().nextInt(rowCount);
+        pointSelect.getParameters().get(0).setValue(ValueInt.get(id));
+        consume(pointSelect.executeQuery(-1).get(), bh);
+    }
+
+    @Benchmark
+    public void rangeScan(Blackhole bh) {
+        int from = ThreadLocalRandom.current().nextInt(rowCount - scanRows);
+        rangeScan.getParameters().get(0).setValue(ValueInt.get(from));
+        rangeScan.getParameters().get(1).setValue(ValueInt.get(from + scanRows));
+        consume(rangeScan.executeQuery(-1).get(), bh);
+    }
+}
@@ -15,14 +15,18 @@ import com.lealone.db.session.Session;
 
 public class JdbcAsyncCallback<T> implements Future<T> {
 
+    private final Session session;
     private AsyncCallback<T> ac;
 
-    private JdbcAsyncCallback(boolean isSingleThread) {
-        ac = AsyncCallback.create(isSingleThread);
+    private JdbcAsyncCallback(Session session) {
+        this.session = session;
+        // JDBC使用阻塞IO时使用SingleThreadAsyncCallback
+        ac = AsyncCallback.create(session.isBio());
     }
 
     public T get(JdbcWrapper jw) throws SQLException {
         try {
+            session.flush();
             return ac.get();
         } catch (Exception e) {
             throw jw.logAndConvert(e); // 抛出SQLException
@@ -31,11 +35,13 @@ public class JdbcAsyncCallback<T> implements Future<T> {
 
     @Override
     public T get() {
+        session.flush(); // 等待结果前要把pipeline中的协议包发出去
         return ac.get();
     }
 
     @Override
     public T get(long timeoutMillis) {
+        session.flush();
         return ac.get(timeoutMillis);
     }
 
@@ -67,7 +73,6 @@ public class JdbcAsyncCallback<T> implements Future<T> {
     }
 
     public static <T> JdbcAsyncCallback<T> create(Session session) {
-        // JDBC使用阻塞IO时使用SingleThreadAsyncCallback
-        return new JdbcAsyncCallback<>(session.isBio());
+        return new JdbcAsyncCallback<>(session);
     }
 }
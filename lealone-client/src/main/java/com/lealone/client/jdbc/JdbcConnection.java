@@ -399,6 +399,20 @@ public class JdbcConnection extends JdbcWrapper implements Connection {
         return session;
     }
 
+    /**
+     * 使用pipeline模式时(设置了PIPELINE_SIZE)，异步执行的语句会先缓存起来，
+     * 调用这个方法把它们一次性发给服务器，等待任何一个结果时也会自动调用。
+     */
+    public void flush() throws SQLException {
+        try {
+            debugCodeCall("flush");
+            checkClosed();
+            session.flush();
+        } catch (Exception e) {
+            throw logAndConvert(e);
+        }
+    }
+
     /**
      * Closes this connection. All open statements, prepared statements and
      * result sets that where created by this connection become invalid after
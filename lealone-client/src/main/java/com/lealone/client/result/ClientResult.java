@@ -5,6 +5,7 @@
  */
 package com.lealone.client.result;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -32,6 +33,9 @@ import com.lealone.server.protocol.result.ResultReset;
  */
 public abstract class ClientResult implements Result {
 
+    // 预取一批记录最多占用的字节数，按已经读到的记录的平均大小估算
+    private static final int MAX_PREFETCH_BYTES = 1024 * 1024;
+
     protected int fetchSize;
     protected ClientSession session;
     protected TransferInputStream in;
@@ -42,6 +46,15 @@ public abstract class ClientResult implements Result {
     protected int rowId, rowOffset;
     protected ArrayList<Value[]> result;
 
+    // 当前这一批记录用掉一半时就异步取下一批，这样读完当前这一批时下一批可能已经到了
+    private JdbcAsyncCallback<TransferInputStream> prefetch;
+    private TransferInputStream prefetchIn;
+    private volatile boolean prefetchDone;
+    private int prefetchCount;
+    private int prefetchSize; // 下一次预取的记录数，不会小于fetchSize
+    private long readBytes;
+    private long readRowCount;
+
     public ClientResult(ClientSession session, TransferInputStream in, int resultId, int columnCount,
             int rowCount, int fetchSize) throws IOException {
         this.session = session;
@@ -55,6 +68,7 @@ public abstract class ClientResult implements Result {
         rowId = -1;
         result = Utils.newSmallArrayList();
         this.fetchSize = fetchSize;
+        prefetchSize = fetchSize;
         fetchRows(false);
     }
 
@@ -63,6 +77,14 @@ public abstract class ClientResult implements Result {
 
     protected abstract void fetchRows(boolean sendFetch);
 
+    // 服务器端是否还有没取过来的记录
+    protected abstract boolean hasMoreRows();
+
+    // 下一批最多能取多少条记录
+    protected int getFetchCount(int fetchSize) {
+        return fetchSize;
+    }
+
     @Override
     public String getAlias(int i) {
         return columns[i].alias;
@@ -115,6 +137,7 @@ public abstract class ClientResult implements Result {
 
     @Override
     public void reset() {
+        discardPrefetch();
         rowId = -1;
         currentRow = null;
         if (session == null) {
@@ -173,9 +196,111 @@ public abstract class ClientResult implements Result {
         }
     }
 
-    protected void sendFetch(int fetchSize) throws IOException {
+    /**
+     * 读取一批记录
+     *
+     * @param fetch 最多读取的记录数
+     * @return 如果读到了结束标记返回false
+     */
+    protected boolean readRows(int fetch) throws IOException {
+        DataInputStream dis = in.getDataInputStream();
+        int available = dis.available();
+        int len = columns.length;
+        boolean hasMore = true;
+        for (int r = 0; r < fetch; r++) {
+            boolean row = in.readBoolean();
+            if (!row) {
+                hasMore = false;
+                break;
+            }
+            Value[] values = new Value[len];
+            for (int i = 0; i < len; i++) {
+                Value v = in.readValue();
+                values[i] = v;
+            }
+            result.add(values);
+        }
+        readBytes += available - dis.available();
+        readRowCount += result.size();
+        return hasMore;
+    }
+
+    protected void prefetchIfNeeded() {
+        if (prefetch != null || session == null || !hasMoreRows()
+                || rowId - rowOffset < result.size() / 2)
+            return;
+        int count = getFetchCount(prefetchSize);
+        if (count <= 0)
+            return;
+        JdbcAsyncCallback<TransferInputStream> ac = JdbcAsyncCallback.create(session);
+        prefetch = ac;
+        prefetchDone = false;
+        prefetchCount = count;
+        session.<ResultFetchRowsAck> send(new ResultFetchRows(resultId, count)).onComplete(ar -> {
+            if (ar.isSucceeded()) {
+                TransferInputStream in = (TransferInputStream) ar.getResult().in;
+                synchronized (this) {
+                    // 结果集已经关闭或重置了，直接释放buffer
+                    if (prefetch != ac) {
+                        in.closeInputStream();
+                        return;
+                    }
+                    prefetchIn = in;
+                }
+                prefetchDone = true;
+                ac.setAsyncResult(in);
+            } else {
+                prefetchDone = true;
+                ac.setAsyncResult(ar.getCause());
+            }
+        });
+        session.flush();
+    }
+
+    private synchronized void discardPrefetch() {
+        prefetch = null;
+        if (prefetchIn != null) {
+            prefetchIn.closeInputStream();
+            prefetchIn = null;
+        }
+    }
+
+    // 如果需要等预取的结果就说明消费得比取得快，下一批多取一些，但一批记录不能占用太多内存
+    private void adjustPrefetchSize(boolean waited) {
+        int size = prefetchSize;
+        if (waited && size < Integer.MAX_VALUE / 2)
+            size *= 2;
+        if (readRowCount > 0) {
+            long rowSize = Math.max(1, readBytes / readRowCount);
+            size = (int) Math.min(size, MAX_PREFETCH_BYTES / rowSize);
+        }
+        prefetchSize = Math.max(size, fetchSize);
+    }
+
+    /**
+     * 取下一批记录，如果已经预取了就等预取的结果
+     *
+     * @param fetchSize 没有预取时要取的记录数
+     * @return 能从in中读取的记录数
+     */
+    protected int sendFetch(int fetchSize) throws IOException {
         // 释放buffer
         in.closeInputStream();
+        JdbcAsyncCallback<TransferInputStream> pf = prefetch;
+        if (pf != null) {
+            boolean waited = !prefetchDone;
+            int count = prefetchCount;
+            try {
+                in = pf.get();
+            } finally {
+                synchronized (this) {
+                    prefetch = null;
+                    prefetchIn = null;
+                }
+            }
+            adjustPrefetchSize(waited);
+            return count;
+        }
         JdbcAsyncCallback<Boolean> ac = JdbcAsyncCallback.create(session);
         session.<ResultFetchRowsAck> send(new ResultFetchRows(resultId, fetchSize)).onComplete(ar -> {
             if (ar.isSucceeded()) {
@@ -186,11 +311,13 @@ public abstract class ClientResult implements Result {
             }
         });
         ac.get();
+        return fetchSize;
     }
 
     @Override
     public void close() {
         result = null;
+        discardPrefetch();
         sendClose();
     }
 
@@ -224,6 +351,7 @@ public abstract class ClientResult implements Result {
     @Override
     public void setFetchSize(int fetchSize) {
         this.fetchSize = fetchSize;
+        prefetchSize = Math.max(prefetchSize, fetchSize);
     }
 
     @Override
@@ -9,7 +9,6 @@ import java.io.IOException;
 
 import com.lealone.client.session.ClientSession;
 import com.lealone.common.exceptions.DbException;
-import com.lealone.db.value.Value;
 import com.lealone.net.TransferInputStream;
 
 public class RowCountDeterminedClientResult extends ClientResult {
@@ -29,6 +28,7 @@ public class RowCountDeterminedClientResult extends ClientResult {
                     fetchRows(true);
                 }
                 currentRow = result.get(rowId - rowOffset);
+                prefetchIfNeeded();
                 return true;
             }
             currentRow = null;
@@ -36,6 +36,16 @@ public class RowCountDeterminedClientResult extends ClientResult {
         return false;
     }
 
+    @Override
+    protected boolean hasMoreRows() {
+        return rowOffset + result.size() < rowCount;
+    }
+
+    @Override
+    protected int getFetchCount(int fetchSize) {
+        return Math.min(fetchSize, rowCount - rowOffset - result.size());
+    }
+
     @Override
     protected void fetchRows(boolean sendFetch) {
         session.checkClosed();
@@ -44,21 +54,9 @@ public class RowCountDeterminedClientResult extends ClientResult {
             result.clear();
             int fetch = Math.min(fetchSize, rowCount - rowOffset);
             if (sendFetch) {
-                sendFetch(fetch);
-            }
-            for (int r = 0; r < fetch; r++) {
-                boolean row = in.readBoolean();
-                if (!row) {
-                    break;
-                }
-                int len = columns.length;
-                Value[] values = new Value[len];
-                for (int i = 0; i < len; i++) {
-                    Value v = in.readValue();
-                    values[i] = v;
-                }
-                result.add(values);
+                fetch = sendFetch(fetch);
             }
+            readRows(fetch);
             if (rowOffset + result.size() >= rowCount) {
                 sendClose();
             }
@@ -9,7 +9,6 @@ import java.io.IOException;
 
 import com.lealone.client.session.ClientSession;
 import com.lealone.common.exceptions.DbException;
-import com.lealone.db.value.Value;
 import com.lealone.net.TransferInputStream;
 
 public class RowCountUndeterminedClientResult extends ClientResult {
@@ -42,6 +41,8 @@ public class RowCountUndeterminedClientResult extends ClientResult {
             }
         }
         currentRow = result.get(rowId - rowOffset);
+        if (!isEnd)
+            prefetchIfNeeded();
         return true;
 
     }
@@ -51,29 +52,23 @@ public class RowCountUndeterminedClientResult extends ClientResult {
         return Integer.MAX_VALUE; // 不能返回-1，JdbcResultSet那边会抛异常
     }
 
+    @Override
+    protected boolean hasMoreRows() {
+        return !isEnd;
+    }
+
     @Override
     protected void fetchRows(boolean sendFetch) {
         session.checkClosed();
         try {
             rowOffset += result.size();
             result.clear();
+            int fetch = fetchSize;
             if (sendFetch) {
-                sendFetch(fetchSize);
-            }
-            for (int r = 0; r < fetchSize; r++) {
-                boolean row = in.readBoolean();
-                if (!row) {
-                    isEnd = true;
-                    break;
-                }
-                int len = columns.length;
-                Value[] values = new Value[len];
-                for (int i = 0; i < len; i++) {
-                    Value v = in.readValue();
-                    values[i] = v;
-                }
-                result.add(values);
+                fetch = sendFetch(fetch);
             }
+            if (!readRows(fetch))
+                isEnd = true;
 
             if (isEnd)
                 sendClose();
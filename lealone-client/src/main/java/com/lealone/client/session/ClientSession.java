@@ -14,6 +14,7 @@ import com.lealone.common.exceptions.DbException;
 import com.lealone.common.trace.Trace;
 import com.lealone.common.trace.TraceModuleType;
 import com.lealone.db.ConnectionInfo;
+import com.lealone.db.ConnectionSetting;
 import com.lealone.db.DataHandler;
 import com.lealone.db.DbSetting;
 import com.lealone.db.LocalDataHandler;
@@ -22,6 +23,7 @@ import com.lealone.db.async.AsyncCallback;
 import com.lealone.db.async.ConcurrentAsyncCallback;
 import com.lealone.db.async.Future;
 import com.lealone.db.async.SingleThreadAsyncCallback;
+import com.lealone.db.scheduler.SchedulerThread;
 import com.lealone.db.session.SessionBase;
 import com.lealone.net.NetInputStream;
 import com.lealone.net.TcpClientConnection;
@@ -51,8 +53,13 @@ import com.lealone.storage.lob.LobLocalStorage;
 // 同JdbcConnection一样，每个ClientSession对象也不是线程安全的，只能在单线程中使用。
 // 另外，每个ClientSession只对应一个server，
 // 虽然ConnectionInfo允许在JDBC URL中指定多个server，但是放在ClientSessionFactory中处理了。
+//
+// 设置了PIPELINE_SIZE后，应用线程发送的需要响应的协议包会先写到同一个buffer中，
+// 攒够PIPELINE_SIZE个或者等待任何一个结果时才一次性发出去，响应还是按packetId分发给对应的回调。
 public class ClientSession extends SessionBase implements LobLocalStorage.LobReader {
 
+    private static final int MAX_PIPELINE_BUFFER_SIZE = 64 * 1024;
+
     private final TcpClientConnection tcpConnection;
     private final ConnectionInfo ci;
     private final String server;
@@ -60,6 +67,10 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
     private final LocalDataHandler dataHandler;
     private final Trace trace;
     private final boolean isBio;
+    private final int pipelineSize;
+    private TransferOutputStream pipelineOut; // 还没发出去的协议包
+    private int pipelinePacketCount;
+    private int[] pipelinePacketIds; // 缓存的协议包对应的回调，发送失败时要让它们都失败
 
     ClientSession(TcpClientConnection tcpConnection, ConnectionInfo ci, String server, int id) {
         this.tcpConnection = tcpConnection;
@@ -74,6 +85,9 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
         initTraceSystem(ci);
         trace = traceSystem == null ? Trace.NO_TRACE : traceSystem.getTrace(TraceModuleType.JDBC);
         isBio = tcpConnection.getWritableChannel().isBio();
+        pipelineSize = ci.getProperty(ConnectionSetting.PIPELINE_SIZE, 0);
+        if (pipelineSize > 1)
+            pipelinePacketIds = new int[pipelineSize];
     }
 
     @Override
@@ -270,6 +284,12 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
                     public void runInternal(NetInputStream in) throws Exception {
                         handleAsyncCallback(in, packet.getAckType(), ackPacketHandler, this);
                     }
+
+                    @Override
+                    protected R await(long timeoutMillis) {
+                        flush();
+                        return super.await(timeoutMillis);
+                    }
                 };
             } else {
                 ac = new ConcurrentAsyncCallback<R>() {
@@ -277,6 +297,12 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
                     public void runInternal(NetInputStream in) throws Exception {
                         handleAsyncCallback(in, packet.getAckType(), ackPacketHandler, this);
                     }
+
+                    @Override
+                    protected R await(long timeoutMillis) {
+                        flush();
+                        return super.await(timeoutMillis);
+                    }
                 };
             }
             ac.setPacket(packet);
@@ -288,12 +314,17 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
         }
         try {
             checkClosed();
-            TransferOutputStream out = tcpConnection.createTransferOutputStream(this);
-            out.writeRequestHeader(packetId, packet.getType());
-            packet.encode(out, getProtocolVersion());
-            out.flush();
-            if (ac != null && isBio)
-                tcpConnection.getWritableChannel().read();
+            if (ac != null && isPipelined()) {
+                writePipeline(packet, packetId);
+            } else {
+                flush(); // 保证前面缓存的协议包先发出去
+                TransferOutputStream out = tcpConnection.createTransferOutputStream(this);
+                out.writeRequestHeader(packetId, packet.getType());
+                packet.encode(out, getProtocolVersion());
+                out.flush();
+                if (ac != null && isBio)
+                    tcpConnection.getWritableChannel().read();
+            }
         } catch (Throwable e) {
             if (ac != null) {
                 removeAsyncCallback(packetId);
@@ -305,6 +336,62 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
         return ac;
     }
 
+    // 只缓存应用线程发送的协议包，在回调中(运行在调度线程中)发送的协议包直接发出去，
+    // 因为应用线程此时可能正在等待结果，不会再flush了
+    private boolean isPipelined() {
+        return pipelineSize > 1 && SchedulerThread.currentScheduler() == null;
+    }
+
+    private void writePipeline(Packet packet, int packetId) throws IOException {
+        TransferOutputStream out = pipelineOut;
+        if (out == null) {
+            out = tcpConnection.createTransferOutputStream(this);
+            pipelineOut = out;
+        }
+        try {
+            out.writeRequestHeader(packetId, packet.getType());
+            packet.encode(out, getProtocolVersion());
+        } catch (Throwable e) {
+            out.discardPacket();
+            throw e;
+        }
+        out.startNextPacket();
+        pipelinePacketIds[pipelinePacketCount] = packetId;
+        if (++pipelinePacketCount >= pipelineSize || out.length() >= MAX_PIPELINE_BUFFER_SIZE)
+            flush();
+    }
+
+    /**
+     * 把pipeline中缓存的协议包合并成一次写操作发出去
+     */
+    @Override
+    public void flush() {
+        // 使用阻塞IO时，读响应时触发的回调可能又发送了新的协议包，所以要循环
+        while (pipelineOut != null) {
+            TransferOutputStream out = pipelineOut;
+            int count = pipelinePacketCount;
+            int[] packetIds = pipelinePacketIds;
+            pipelineOut = null;
+            pipelinePacketCount = 0;
+            pipelinePacketIds = new int[pipelineSize];
+            try {
+                out.flush();
+                if (isBio) {
+                    for (int i = 0; i < count; i++)
+                        tcpConnection.getWritableChannel().read();
+                }
+            } catch (Throwable e) {
+                // 这一批中还没有收到响应的协议包都不会再有响应了，否则等待它们的线程会一直等
+                for (int i = 0; i < count; i++) {
+                    AsyncCallback<?> ac = tcpConnection.removeAsyncCallback(packetIds[i]);
+                    if (ac != null)
+                        ac.setAsyncResult(e);
+                }
+                handleException(e);
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private <R, P extends AckPacket> void handleAsyncCallback(NetInputStream in, PacketType packetType,
             AckPacketHandler<R, P> ackPacketHandler, AsyncCallback<R> ac) throws IOException {
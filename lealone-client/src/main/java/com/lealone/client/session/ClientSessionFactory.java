@@ -24,6 +24,7 @@ import com.lealone.net.NetEventLoop;
 import com.lealone.net.NetFactory;
 import com.lealone.net.NetNode;
 import com.lealone.net.TcpClientConnection;
+import com.lealone.net.bio.BioWritableChannel;
 import com.lealone.server.protocol.AckPacketHandler;
 import com.lealone.server.protocol.session.SessionInit;
 import com.lealone.server.protocol.session.SessionInitAck;
@@ -140,9 +141,14 @@ public class ClientSessionFactory extends SessionFactoryBase {
                     clientSession.setRunMode(ack.runMode);
                     clientSession.setInvalid(ack.invalid);
                     clientSession.setConsistencyLevel(ack.consistencyLevel);
+                    clientSession.setNetCompressThreshold(ack.compressThreshold);
+                    if (ack.compressThreshold > 0)
+                        tcpConnection.enableCompress(BioWritableChannel.getMaxPacketSize(config));
                     return clientSession;
                 };
                 Future<ClientSession> f = clientSession.send(packet, ackPacketHandler);
+                // 使用pipeline模式时SessionInit也不能缓存，要马上发出去
+                clientSession.flush();
                 f.onComplete(ar2 -> {
                     ac.setAsyncResult(ar2);
                 });
@@ -443,6 +443,7 @@ public class ConnectionInfo implements Cloneable {
             prop.remove(ConnectionSetting.IS_SHARED.name());
             prop.remove(ConnectionSetting.MAX_SHARED_SIZE.name());
             prop.remove(ConnectionSetting.NET_CLIENT_COUNT.name());
+            prop.remove(ConnectionSetting.PIPELINE_SIZE.name());
         }
         String[] keys = new String[prop.size()];
         prop.keySet().toArray(keys);
@@ -21,6 +21,8 @@ public enum ConnectionSetting {
     SOCKET_RECV_BUFFER_SIZE,
     SOCKET_SEND_BUFFER_SIZE,
     MAX_PACKET_SIZE,
+    PIPELINE_SIZE,
+    NET_COMPRESS_THRESHOLD,
 
     SESSION_FACTORY_NAME,
     AUTO_RECONNECT,
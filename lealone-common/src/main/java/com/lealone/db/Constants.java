@@ -62,6 +62,12 @@ public class Constants {
      */
     public static final int TCP_PROTOCOL_VERSION_6 = 6;
 
+    /**
+     * The TCP protocol version number 7.
+     * 支持压缩协议包
+     */
+    public static final int TCP_PROTOCOL_VERSION_7 = 7;
+
     /**
      * The min TCP protocol version number.
      */
@@ -70,12 +76,12 @@ public class Constants {
     /**
      * The max TCP protocol version number.
      */
-    public static final int TCP_PROTOCOL_VERSION_MAX = TCP_PROTOCOL_VERSION_6;
+    public static final int TCP_PROTOCOL_VERSION_MAX = TCP_PROTOCOL_VERSION_7;
 
     /**
      * The current TCP protocol version number.
      */
-    public static final int TCP_PROTOCOL_VERSION_CURRENT = TCP_PROTOCOL_VERSION_6;
+    public static final int TCP_PROTOCOL_VERSION_CURRENT = TCP_PROTOCOL_VERSION_7;
 
     /**
      * Constant meaning both numbers and text is allowed in SQL statements.
@@ -33,6 +33,7 @@ public enum DbSetting {
     OPTIMIZE_OR,
     OPTIMIZE_TWO_EQUALS,
     QUERY_CACHE_SIZE,
+    SHARED_QUERY_CACHE_SIZE,
     RECOMPILE_ALWAYS,
     ROWID,
     DEFAULT_STORAGE_ENGINE,
@@ -59,6 +60,7 @@ public enum DbSetting {
     MAX_OPERATION_MEMORY,
     MODE,
     OPTIMIZE_REUSE_RESULTS,
+    SHARED_RESULT_CACHE_SIZE,
     REFERENTIAL_INTEGRITY,
     QUERY_STATISTICS,
     QUERY_STATISTICS_MAX_ENTRIES,
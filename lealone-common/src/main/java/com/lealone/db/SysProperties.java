@@ -195,6 +195,13 @@ public class SysProperties {
      */
     public static final boolean SORT_NULLS_HIGH = getProperty("sort.nulls.high", false);
 
+    /**
+     * System property <code>sort.max.fan.in</code> (default: 64).<br />
+     * The maximum number of sorted runs that are merged in one pass when a
+     * large result is sorted on disk. Each run keeps one 64 KB block in memory.
+     */
+    public static final int SORT_MAX_FAN_IN = Math.max(2, getProperty("sort.max.fan.in", 64));
+
     /**
      * System property <code>sync.method</code> (default: sync).<br />
      * What method to call when closing the database, on checkpoint, and on
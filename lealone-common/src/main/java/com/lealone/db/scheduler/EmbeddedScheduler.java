@@ -17,6 +17,7 @@ import com.lealone.db.ConnectionInfo;
 import com.lealone.db.async.AsyncTask;
 import com.lealone.db.link.LinkableBase;
 import com.lealone.db.link.LinkableList;
+import com.lealone.db.scheduler.SchedulerStatistics.Phase;
 import com.lealone.db.session.Session;
 import com.lealone.db.session.SessionInfo;
 import com.lealone.sql.PreparedSQLStatement;
@@ -48,6 +49,15 @@ public class EmbeddedScheduler extends SchedulerBase {
         return pageOperationSize.get() + miscTasks.size();
     }
 
+    @Override
+    protected Map<String, Integer> getQueueSizes() {
+        Map<String, Integer> map = super.getQueueSizes();
+        map.put("session", sessions.size());
+        map.put("misc_task", miscTasks.size());
+        map.put("page_operation", (int) pageOperationSize.get());
+        return map;
+    }
+
     @Override
     public void handle(AsyncTask task) {
         miscTasks.add(task);
@@ -62,13 +72,21 @@ public class EmbeddedScheduler extends SchedulerBase {
     @Override
     public void run() {
         while (!stopped) {
+            long t = statistics.startLoop();
             runMiscTasks();
+            t = statistics.endPhase(Phase.MISC_TASK, t);
             runSessionTasks();
+            t = statistics.endPhase(Phase.SESSION_TASK, t);
             runPageOperationTasks();
+            t = statistics.endPhase(Phase.PAGE_OPERATION, t);
             runPendingTransactions();
+            t = statistics.endPhase(Phase.PENDING_TRANSACTION, t);
             executeNextStatement();
+            t = statistics.endPhase(Phase.STATEMENT, t);
             runPeriodicTasks();
+            t = statistics.endPhase(Phase.PERIODIC_TASK, t);
             doAwait();
+            statistics.endPhase(Phase.EVENT_LOOP, t);
         }
         onStopped();
     }
@@ -123,9 +141,11 @@ public class EmbeddedScheduler extends SchedulerBase {
             try {
                 PageOperationResult result = po.run(this);
                 if (result == PageOperationResult.LOCKED) {
+                    statistics.onLockedRetry();
                     lockedPageOperation = po;
                     break;
                 } else if (result == PageOperationResult.RETRY) {
+                    statistics.onRetry();
                     continue;
                 }
             } catch (Throwable e) {
@@ -277,9 +297,18 @@ public class EmbeddedScheduler extends SchedulerBase {
         runMiscTasks();
         runSessionTasks();
 
+        // 如果为null说明当前执行的任务优先级很低，比如正在为一个现有的表创建新的索引
+        if (current == null) {
+            int priority = PreparedSQLStatement.MIN_PRIORITY - 1;
+            nextBestCommand = getNextBestCommand(null, priority, false);
+            return nextBestCommand != null;
+        }
+
         // 至少有两个session才需要yield
-        if (sessions.size() < 2)
+        if (sessions.size() < 2) {
+            statistics.onYieldCheck(false);
             return false;
+        }
 
         // 如果来了更高优化级的命令，那么当前正在执行的语句就让出当前线程，
         // 当前线程转去执行高优先级的命令
@@ -287,8 +316,10 @@ public class EmbeddedScheduler extends SchedulerBase {
         nextBestCommand = getNextBestCommand(current.getSession(), priority, false);
         if (nextBestCommand != null) {
             current.setPriority(priority + 1);
+            statistics.onYieldCheck(true);
             return true;
         }
+        statistics.onYieldCheck(false);
         return false;
     }
 
@@ -94,4 +94,6 @@ public interface Scheduler extends AsyncTaskHandler, Runnable, SchedulerListener
     boolean yieldIfNeeded(PreparedSQLStatement current);
 
     void wakeUp();
+
+    SchedulerStatistics getStatistics();
 }
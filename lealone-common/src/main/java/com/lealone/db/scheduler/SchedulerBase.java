@@ -8,6 +8,7 @@ package com.lealone.db.scheduler;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -46,6 +47,8 @@ public abstract class SchedulerBase implements Scheduler {
     // 用LinkableList是安全的，所有的初始PeriodicTask都在main线程中注册，新的PeriodicTask在当前调度线程中注册
     protected final LinkableList<AsyncPeriodicTask> periodicTasks = new LinkableList<>();
 
+    protected final SchedulerStatistics statistics;
+
     public SchedulerBase(int id, String name, int schedulerCount, Map<String, String> config) {
         this.id = id;
         this.name = name;
@@ -57,6 +60,9 @@ public abstract class SchedulerBase implements Scheduler {
         thread = new SchedulerThread(this);
         thread.setName(name);
         thread.setDaemon(RunMode.isEmbedded(config));
+
+        statistics = new SchedulerStatistics(this,
+                MapUtils.getBoolean(config, "scheduler_statistics", true));
     }
 
     @Override
@@ -94,10 +100,24 @@ public abstract class SchedulerBase implements Scheduler {
         this.schedulerFactory = schedulerFactory;
     }
 
+    @Override
+    public SchedulerStatistics getStatistics() {
+        return statistics;
+    }
+
+    // 各种任务队列当前的长度，读的时候调度线程可能正在修改，只是一个近似值
+    protected Map<String, Integer> getQueueSizes() {
+        LinkedHashMap<String, Integer> map = new LinkedHashMap<>();
+        map.put("pending_transaction", pendingTransactions.size());
+        map.put("periodic_task", periodicTasks.size());
+        return map;
+    }
+
     @Override
     public synchronized void start() {
         if (started)
             return;
+        statistics.registerMBean();
         thread.start();
         started = true;
         stopped = false;
@@ -112,6 +132,7 @@ public abstract class SchedulerBase implements Scheduler {
 
     protected void onStopped() {
         thread = null;
+        statistics.unregisterMBean();
     }
 
     @Override
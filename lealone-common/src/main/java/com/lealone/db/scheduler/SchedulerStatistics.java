@@ -0,0 +1,252 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.lealone.db.stats.LatencyHistogram;
+
+/**
+ * 调度器每一轮循环中各个阶段的耗时、让出调度线程的次数和PageOperation被锁住后重试的次数等统计数据。
+ *
+ * 只有调度线程会更新计数器，所以不需要加锁也不需要原子变量，
+ * 其他线程通过PERFORMANCE_SCHEMA.SCHEDULER_STATISTICS或JMX读取时不要求是最新的值。
+ */
+public class SchedulerStatistics implements SchedulerStatisticsMBean {
+
+    public static enum Phase {
+        SESSION_INIT,
+        MISC_TASK,
+        PAGE_OPERATION,
+        SESSION_TASK,
+        PENDING_TRANSACTION,
+        STATEMENT,
+        PERIODIC_TASK,
+        EVENT_LOOP
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    // 当前注册的每个ObjectName对应的实例，只能注销自己注册的，避免把同名的新调度器的MBean注销掉
+    private static final HashMap<ObjectName, SchedulerStatistics> REGISTERED = new HashMap<>();
+
+    private final SchedulerBase scheduler;
+    private final boolean enabled;
+    private final long[] phaseCounts = new long[PHASES.length];
+    private final long[] phaseTimes = new long[PHASES.length];
+    private final LatencyHistogram[] phaseHistograms = new LatencyHistogram[PHASES.length];
+
+    private long loopCount;
+    private long yieldCheckCount;
+    private long yieldCount;
+    private long lockedRetryCount;
+    private long retryCount;
+    private long lockedMaxSize;
+
+    // lockedPageOperationTasks从非空到变空持续的时间
+    private long lockedStartTime;
+    private long lockedTime;
+    private LatencyHistogram lockedHistogram;
+
+    private ObjectName objectName;
+
+    public SchedulerStatistics(SchedulerBase scheduler, boolean enabled) {
+        this.scheduler = scheduler;
+        this.enabled = enabled;
+        init();
+    }
+
+    private void init() {
+        for (int i = 0; i < PHASES.length; i++)
+            phaseHistograms[i] = new LatencyHistogram();
+        lockedHistogram = new LatencyHistogram();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // 返回的时间作为第一个阶段的开始时间
+    public long startLoop() {
+        if (!enabled)
+            return 0;
+        loopCount++;
+        return System.nanoTime();
+    }
+
+    /**
+     * 记录一个阶段的耗时
+     *
+     * @param phase 刚执行完的阶段
+     * @param startTime 阶段的开始时间
+     * @return 当前时间，可以直接作为下一个阶段的开始时间
+     */
+    public long endPhase(Phase phase, long startTime) {
+        if (!enabled)
+            return 0;
+        long now = System.nanoTime();
+        long time = now - startTime;
+        int i = phase.ordinal();
+        phaseCounts[i]++;
+        phaseTimes[i] += time;
+        phaseHistograms[i].record(time);
+        return now;
+    }
+
+    public void onYieldCheck(boolean yield) {
+        if (!enabled)
+            return;
+        yieldCheckCount++;
+        if (yield)
+            yieldCount++;
+    }
+
+    public void onLockedRetry() {
+        if (enabled)
+            lockedRetryCount++;
+    }
+
+    public void onRetry() {
+        if (enabled)
+            retryCount++;
+    }
+
+    public void onLockedPageOperationAdded(int size) {
+        if (!enabled)
+            return;
+        if (size > lockedMaxSize)
+            lockedMaxSize = size;
+        if (size == 1)
+            lockedStartTime = System.nanoTime();
+    }
+
+    public void onLockedPageOperationsEmpty() {
+        if (lockedStartTime != 0) {
+            long time = System.nanoTime() - lockedStartTime;
+            lockedStartTime = 0;
+            lockedTime += time;
+            lockedHistogram.record(time);
+        }
+    }
+
+    @Override
+    public long getLoopCount() {
+        return loopCount;
+    }
+
+    @Override
+    public long getYieldCheckCount() {
+        return yieldCheckCount;
+    }
+
+    @Override
+    public long getYieldCount() {
+        return yieldCount;
+    }
+
+    @Override
+    public long getLockedPageOperationRetryCount() {
+        return lockedRetryCount;
+    }
+
+    @Override
+    public long getPageOperationRetryCount() {
+        return retryCount;
+    }
+
+    @Override
+    public long getLockedPageOperationMaxSize() {
+        return lockedMaxSize;
+    }
+
+    @Override
+    public long getLockedPageOperationTimeMillis() {
+        return lockedTime / 1000 / 1000;
+    }
+
+    @Override
+    public Map<String, String> getStatistics() {
+        LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        map.put("loop_count", Long.toString(loopCount));
+        for (int i = 0; i < PHASES.length; i++) {
+            String name = PHASES[i].name().toLowerCase();
+            LatencyHistogram h = phaseHistograms[i];
+            map.put(name + "_count", Long.toString(phaseCounts[i]));
+            map.put(name + "_time_ms", Long.toString(phaseTimes[i] / 1000 / 1000));
+            map.put(name + "_p50_us", Long.toString(h.getValueAtPercentile(50) / 1000));
+            map.put(name + "_p99_us", Long.toString(h.getValueAtPercentile(99) / 1000));
+            map.put(name + "_p999_us", Long.toString(h.getValueAtPercentile(99.9) / 1000));
+        }
+        map.put("yield_check_count", Long.toString(yieldCheckCount));
+        map.put("yield_count", Long.toString(yieldCount));
+        map.put("page_operation_locked_count", Long.toString(lockedRetryCount));
+        map.put("page_operation_retry_count", Long.toString(retryCount));
+        map.put("locked_page_operation_max_size", Long.toString(lockedMaxSize));
+        map.put("locked_page_operation_time_ms", Long.toString(lockedTime / 1000 / 1000));
+        map.put("locked_page_operation_p99_us",
+                Long.toString(lockedHistogram.getValueAtPercentile(99) / 1000));
+        for (Map.Entry<String, Integer> e : scheduler.getQueueSizes().entrySet())
+            map.put(e.getKey() + "_queue_size", e.getValue().toString());
+        return map;
+    }
+
+    // 由其他线程调用，直接换成新的直方图，调度线程正在累加的值可能会丢掉一点
+    @Override
+    public void reset() {
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseCounts[i] = 0;
+            phaseTimes[i] = 0;
+        }
+        init();
+        loopCount = 0;
+        yieldCheckCount = 0;
+        yieldCount = 0;
+        lockedRetryCount = 0;
+        retryCount = 0;
+        lockedMaxSize = 0;
+        lockedTime = 0;
+    }
+
+    void registerMBean() {
+        if (!enabled)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.lealone:type=Scheduler,name=" + scheduler.getName());
+            synchronized (REGISTERED) {
+                // 同一个JVM中可能先后创建多个同名的调度器
+                if (server.isRegistered(name))
+                    server.unregisterMBean(name);
+                server.registerMBean(this, name);
+                REGISTERED.put(name, this);
+            }
+            objectName = name;
+        } catch (Throwable t) {
+            scheduler.getLogger().warn("Failed to register scheduler mbean", t);
+        }
+    }
+
+    void unregisterMBean() {
+        if (objectName == null)
+            return;
+        try {
+            synchronized (REGISTERED) {
+                // 已经被同名的调度器替换了就不能再注销
+                if (REGISTERED.remove(objectName, this))
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+        } catch (Throwable t) {
+            scheduler.getLogger().warn("Failed to unregister scheduler mbean", t);
+        }
+        objectName = null;
+    }
+}
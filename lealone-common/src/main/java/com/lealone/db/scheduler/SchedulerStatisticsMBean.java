@@ -0,0 +1,32 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.scheduler;
+
+import java.util.Map;
+
+/**
+ * 通过JMX查看调度器的统计数据，ObjectName是com.lealone:type=Scheduler,name=调度器的名称
+ */
+public interface SchedulerStatisticsMBean {
+
+    long getLoopCount();
+
+    long getYieldCheckCount();
+
+    long getYieldCount();
+
+    long getLockedPageOperationRetryCount();
+
+    long getPageOperationRetryCount();
+
+    long getLockedPageOperationMaxSize();
+
+    long getLockedPageOperationTimeMillis();
+
+    Map<String, String> getStatistics();
+
+    void reset();
+}
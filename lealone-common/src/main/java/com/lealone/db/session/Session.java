@@ -149,6 +149,14 @@ public interface Session extends Closeable {
         return Constants.TCP_PROTOCOL_VERSION_CURRENT;
     }
 
+    // 协议包的内容超过这个字节数时使用LZF压缩，0表示不压缩，在SessionInit时协商
+    default void setNetCompressThreshold(int threshold) {
+    }
+
+    default int getNetCompressThreshold() {
+        return 0;
+    }
+
     default int getLockTimeout() {
         return Integer.MAX_VALUE;
     }
@@ -172,6 +180,12 @@ public interface Session extends Closeable {
     <R, P extends AckPacket> Future<R> send(Packet packet, int packetId,
             AckPacketHandler<R, P> ackPacketHandler);
 
+    /**
+     * 发送还在缓冲区中的协议包，只有客户端的pipeline模式会缓存协议包
+     */
+    default void flush() {
+    }
+
     void setSingleThreadCallback(boolean singleThreadCallback);
 
     boolean isSingleThreadCallback();
@@ -33,6 +33,7 @@ public abstract class SessionBase implements Session {
     protected String targetNodes;
     protected RunMode runMode;
     protected int consistencyLevel;
+    protected int netCompressThreshold;
 
     protected TraceSystem traceSystem;
 
@@ -93,6 +94,16 @@ public abstract class SessionBase implements Session {
         return targetNodes;
     }
 
+    @Override
+    public void setNetCompressThreshold(int threshold) {
+        netCompressThreshold = threshold;
+    }
+
+    @Override
+    public int getNetCompressThreshold() {
+        return netCompressThreshold;
+    }
+
     public void setConsistencyLevel(int consistencyLevel) {
         this.consistencyLevel = consistencyLevel;
     }
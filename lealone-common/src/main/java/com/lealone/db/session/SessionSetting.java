@@ -23,7 +23,9 @@ public enum SessionSetting {
     EXPRESSION_COMPILE_THRESHOLD,
     OLAP_OPERATOR_FACTORY_NAME,
     OLAP_THRESHOLD,
-    OLAP_BATCH_SIZE;
+    OLAP_BATCH_SIZE,
+    OLAP_PARALLELISM,
+    LAZY_QUERY_EXECUTION;
 
     public String getName() {
         if (this == VARIABLE)
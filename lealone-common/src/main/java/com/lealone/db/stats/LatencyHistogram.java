@@ -0,0 +1,87 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按HDR Histogram的思路用对数分桶记录延迟，单位是纳秒。
+ *
+ * 每个2的幂次区间再均分成8个子桶，所以任何值的相对误差都不超过12.5%，
+ * 最大能记录到2^47纳秒(约39小时)，更大的值都算在最后一个桶中。
+ * 记录时只对一个桶做原子加法，不需要加锁。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 46;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    public void record(long value) {
+        counts.incrementAndGet(getBucketIndex(value));
+    }
+
+    // 把当前直方图的计数加到target中，合并时其他线程还可以继续记录
+    public void addTo(LatencyHistogram target) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = counts.get(i);
+            if (c != 0)
+                target.counts.addAndGet(i, c);
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * 返回百分位数对应的值
+     *
+     * @param percentile 0到100之间的百分位，比如99.9
+     * @return 所在桶的中间值，没有记录时返回0
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+        rank = Math.max(1, rank);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return getBucketMiddleValue(i);
+        }
+        return getBucketMiddleValue(BUCKET_COUNT - 1);
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return value < 0 ? 0 : (int) value;
+        if (value > MAX_VALUE)
+            value = MAX_VALUE;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long getBucketMiddleValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long lowest = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + ((1L << shift) >>> 1);
+    }
+}
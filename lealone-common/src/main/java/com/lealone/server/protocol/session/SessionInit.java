@@ -77,6 +77,9 @@ public class SessionInit implements Packet {
             int maxClientVersion = in.readInt();
             if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_MAX) {
                 clientVersion = Constants.TCP_PROTOCOL_VERSION_CURRENT;
+            } else if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_6) {
+                // 老版本的client不支持新的协议，使用它能支持的最高版本
+                clientVersion = maxClientVersion;
             } else {
                 clientVersion = minClientVersion;
             }
@@ -23,15 +23,17 @@ public class SessionInitAck implements AckPacket {
     public final RunMode runMode;
     public final boolean invalid;
     public final int consistencyLevel;
+    public final int compressThreshold; // server同意的压缩阈值，0表示不压缩
 
     public SessionInitAck(int clientVersion, boolean autoCommit, String targetNodes, RunMode runMode,
-            boolean invalid, int consistencyLevel) {
+            boolean invalid, int consistencyLevel, int compressThreshold) {
         this.clientVersion = clientVersion;
         this.autoCommit = autoCommit;
         this.targetNodes = targetNodes;
         this.runMode = runMode;
         this.invalid = invalid;
         this.consistencyLevel = consistencyLevel;
+        this.compressThreshold = compressThreshold;
     }
 
     @Override
@@ -49,6 +51,9 @@ public class SessionInitAck implements AckPacket {
             out.writeBoolean(invalid);
             out.writeInt(consistencyLevel);
         }
+        if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_7) {
+            out.writeInt(compressThreshold);
+        }
     }
 
     public static final Decoder decoder = new Decoder();
@@ -63,11 +68,14 @@ public class SessionInitAck implements AckPacket {
                 RunMode runMode = RunMode.valueOf(in.readString());
                 boolean invalid = in.readBoolean();
                 int consistencyLevel = in.readInt();
+                int compressThreshold = 0;
+                if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_7)
+                    compressThreshold = in.readInt();
                 return new SessionInitAck(clientVersion, autoCommit, targetNodes, runMode, invalid,
-                        consistencyLevel);
+                        consistencyLevel, compressThreshold);
             } else {
                 return new SessionInitAck(clientVersion, autoCommit, null, RunMode.CLIENT_SERVER, false,
-                        0);
+                        0, 0);
             }
         }
     }
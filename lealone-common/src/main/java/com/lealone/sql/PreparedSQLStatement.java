@@ -43,6 +43,15 @@ public interface PreparedSQLStatement extends SQLStatement, ManualCloseable {
         return false;
     }
 
+    // 是否可以放到数据库级的缓存中给其他session复用，一次只能被一个session使用
+    default boolean isShareable() {
+        return false;
+    }
+
+    // 把从数据库级的缓存中取出的语句绑定到新的session
+    default void bindSession(Session session) {
+    }
+
     default boolean isDDL() {
         return false;
     }
@@ -11,20 +11,30 @@ public class CursorParameters<K> {
     public final K to;
     public final int[] columnIndexes;
     public final boolean allColumns;
+    public final boolean reverse; // 为true时从to开始往from的方向倒序遍历
 
     public CursorParameters(K from, K to, int[] columnIndexes) {
         this(from, to, columnIndexes, false);
     }
 
     public CursorParameters(K from, K to, int[] columnIndexes, boolean allColumns) {
+        this(from, to, columnIndexes, allColumns, false);
+    }
+
+    public CursorParameters(K from, K to, int[] columnIndexes, boolean allColumns, boolean reverse) {
         this.from = from;
         this.to = to;
         this.columnIndexes = columnIndexes;
         this.allColumns = allColumns;
+        this.reverse = reverse;
     }
 
     public <K2> CursorParameters<K2> copy(K2 from, K2 to) {
-        return new CursorParameters<>(from, to, columnIndexes, allColumns);
+        return new CursorParameters<>(from, to, columnIndexes, allColumns, reverse);
+    }
+
+    public CursorParameters<K> reverse() {
+        return new CursorParameters<>(from, to, columnIndexes, allColumns, true);
     }
 
     public static <K> CursorParameters<K> create(K from) {
@@ -142,6 +142,21 @@ public abstract class StorageBuilder {
         return set(StorageSetting.MIN_FILL_RATE.name(), minFillRate);
     }
 
+    // 用内存映射的方式读chunk文件，page的字节数据由操作系统的page cache缓存
+    public StorageBuilder mmapRead(boolean mmapRead) {
+        return set(StorageSetting.MMAP_READ.name(), mmapRead);
+    }
+
+    // 在leaf page中原地插入和删除记录，不再每次都复制整个page
+    public StorageBuilder inPlaceLeafWrite(boolean inPlaceLeafWrite) {
+        return set(StorageSetting.IN_PLACE_LEAF_WRITE.name(), inPlaceLeafWrite);
+    }
+
+    // 删除记录后leaf page使用的内存不到page size的百分之几时跟相邻的page合并，默认是0，不合并
+    public StorageBuilder leafMergeFillRate(int leafMergeFillRate) {
+        return set(StorageSetting.LEAF_MERGE_FILL_RATE.name(), leafMergeFillRate);
+    }
+
     public StorageBuilder schedulerFactory(SchedulerFactory schedulerFactory) {
         return set(StorageSetting.SCHEDULER_FACTORY.name(), schedulerFactory);
     }
@@ -5,8 +5,12 @@
  */
 package com.lealone.storage;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import com.lealone.db.async.AsyncHandler;
 import com.lealone.db.async.AsyncResult;
@@ -186,6 +190,27 @@ public interface StorageMap<K, V> {
      */
     boolean isInMemory();
 
+    /**
+     * 按page的边界把map分成最多count段，返回除了第一段之外每一段的第一个key，用于并行扫描
+     *
+     * @param count the maximum number of ranges
+     * @return the split keys in ascending order, empty if the map can not be split
+     */
+    default List<K> getSplitKeys(int count) {
+        return new ArrayList<>(0);
+    }
+
+    /**
+     * 把已经按key升序排好的记录自底向上直接构建成page，只能用于空的map
+     *
+     * @param keys the keys in ascending order, without duplicates
+     * @param valueFunction creates the value of a key
+     * @return false if the map is not empty or bulk loading is not supported
+     */
+    default boolean bulkLoad(Iterator<K> keys, Function<K, V> valueFunction) {
+        return false;
+    }
+
     /**
      * Get a cursor to iterate over a number of keys and values.
      *
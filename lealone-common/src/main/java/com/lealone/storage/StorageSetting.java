@@ -15,6 +15,9 @@ public enum StorageSetting {
     SCHEDULER_FACTORY,
     USE_TABLE_LOB_STORAGE,
     MAX_CHUNK_SIZE,
+    MMAP_READ,
+    IN_PLACE_LEAF_WRITE,
+    LEAF_MERGE_FILL_RATE,
 
     RUN_MODE
 }
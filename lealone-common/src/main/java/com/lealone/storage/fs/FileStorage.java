@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.Reference;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
@@ -140,6 +141,16 @@ public class FileStorage {
      */
     private FileLock fileLock;
 
+    /**
+     * Whether readFully returns slices of a memory mapped view of the file.
+     */
+    private boolean mmapRead;
+
+    /**
+     * The memory mapped view of the file (if mmapRead is enabled).
+     */
+    private volatile MappedByteBuffer mappedBuffer;
+
     protected FileStorage(String fileName, Map<String, ?> config) {
         this.fileName = fileName;
         Object encryptionKey = config.get("encryptionKey");
@@ -294,6 +305,7 @@ public class FileStorage {
                 FileUtils.writeFully(file, ByteBuffer.wrap(new byte[1]));
                 file.position(pos);
             } else {
+                mappedBuffer = null;
                 file.truncate(newLength);
             }
             fileSize = newLength;
@@ -424,6 +436,7 @@ public class FileStorage {
             throw newISE(DataUtils.ERROR_WRITING_FAILED, "Closing failed for file {0}", fileName, e);
         } finally {
             file = null;
+            mappedBuffer = null;
         }
     }
 
@@ -466,6 +479,18 @@ public class FileStorage {
      * @return the byte buffer
      */
     public ByteBuffer readFully(long pos, int len) {
+        if (mmapRead && len > 0) {
+            ByteBuffer mapped = getMappedBuffer(pos + len);
+            if (mapped != null) {
+                // 不复制数据，直接返回映射区域的slice，内存由操作系统的page cache管理
+                ByteBuffer dst = mapped.duplicate();
+                dst.limit((int) (pos + len));
+                dst.position((int) pos);
+                readCount++;
+                readBytes += len;
+                return dst.slice();
+            }
+        }
         ByteBuffer dst = ByteBuffer.allocate(len);
         if (len > 0) {
             DataUtils.readFully(file, pos, dst);
@@ -475,6 +500,47 @@ public class FileStorage {
         return dst;
     }
 
+    /**
+     * Enable or disable memory mapped reads. Only useful for files that are
+     * mostly read, the file must not be truncated while it is mapped.
+     *
+     * @param mmapRead whether to enable memory mapped reads
+     */
+    public void setMmapRead(boolean mmapRead) {
+        // 加密文件不能直接映射
+        this.mmapRead = mmapRead && encryptedFile == null;
+        if (!this.mmapRead)
+            mappedBuffer = null;
+    }
+
+    public boolean isMmapRead() {
+        return mmapRead;
+    }
+
+    // 文件变大后要重新映射，超过2G的文件或者不支持映射时还是用FileChannel读
+    private ByteBuffer getMappedBuffer(long end) {
+        MappedByteBuffer mapped = mappedBuffer;
+        if (mapped != null && end <= mapped.capacity())
+            return mapped;
+        synchronized (this) {
+            mapped = mappedBuffer;
+            if (mapped != null && end <= mapped.capacity())
+                return mapped;
+            FileChannel file = this.file;
+            long size = fileSize;
+            if (file == null || end > size || size > Integer.MAX_VALUE)
+                return null;
+            try {
+                mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (Exception e) {
+                mmapRead = false;
+                return null;
+            }
+            mappedBuffer = mapped;
+            return mapped;
+        }
+    }
+
     /**
      * Write to the file.
      *
@@ -497,6 +563,7 @@ public class FileStorage {
     public void truncate(long size) {
         try {
             writeCount++;
+            mappedBuffer = null;
             file.truncate(size);
             fileSize = Math.min(fileSize, size);
         } catch (IOException e) {
@@ -9,6 +9,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
@@ -59,6 +60,11 @@ class FileDisk extends FileBase {
         return this;
     }
 
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        return file.getChannel().map(mode, position, size);
+    }
+
     @Override
     public synchronized FileLock tryLock(long position, long size, boolean shared) throws IOException {
         return file.getChannel().tryLock(position, size, shared);
@@ -5,7 +5,9 @@
  */
 package com.lealone.transaction;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import com.lealone.db.Constants;
 import com.lealone.db.PluggableEngine;
@@ -50,6 +52,11 @@ public interface TransactionEngine extends PluggableEngine {
         return null;
     }
 
+    // redo log的写入统计，key是统计项的名称
+    default Map<String, String> getRedoLogStatistics() {
+        return Collections.emptyMap();
+    }
+
     default boolean containsRepeatableReadTransactions() {
         return false;
     }
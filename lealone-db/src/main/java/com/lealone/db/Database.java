@@ -44,6 +44,7 @@ import com.lealone.db.index.IndexColumn;
 import com.lealone.db.index.IndexType;
 import com.lealone.db.lock.DbObjectLock;
 import com.lealone.db.result.Row;
+import com.lealone.db.result.SharedResultCache;
 import com.lealone.db.scheduler.Scheduler;
 import com.lealone.db.scheduler.SchedulerLock;
 import com.lealone.db.scheduler.SchedulerThread;
@@ -52,6 +53,7 @@ import com.lealone.db.schema.SchemaObject;
 import com.lealone.db.schema.Sequence;
 import com.lealone.db.schema.TriggerObject;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.SharedQueryCache;
 import com.lealone.db.session.Session;
 import com.lealone.db.session.SessionStatus;
 import com.lealone.db.stats.QueryStatisticsData;
@@ -161,6 +163,8 @@ public class Database extends DbObjectBase implements DataHandler {
 
     private final AtomicLong modificationDataId = new AtomicLong();
     private final AtomicLong modificationMetaId = new AtomicLong();
+    private final SharedQueryCache sharedQueryCache = new SharedQueryCache(this);
+    private final SharedResultCache sharedResultCache = new SharedResultCache(this);
 
     private Table meta;
     private String metaStorageEngineName;
@@ -181,7 +185,7 @@ public class Database extends DbObjectBase implements DataHandler {
 
     private SourceCompiler compiler;
     private DatabaseEventListener eventListener;
-    private QueryStatisticsData queryStatisticsData;
+    private volatile QueryStatisticsData queryStatisticsData;
 
     private final boolean persistent;
     private final Map<String, String> parameters;
@@ -473,10 +477,12 @@ public class Database extends DbObjectBase implements DataHandler {
     }
 
     private void recover() {
+        ArrayList<Table> tables = new ArrayList<>();
         for (Table table : getAllTablesAndViews(false)) {
             if (table != meta)
-                table.recover();
+                tables.add(table);
         }
+        new TableRecoverer(this, tables).recover(systemSession.getScheduler());
     }
 
     private void openDatabase() {
@@ -1594,6 +1600,14 @@ public class Database extends DbObjectBase implements DataHandler {
         }
     }
 
+    public SharedQueryCache getSharedQueryCache() {
+        return sharedQueryCache;
+    }
+
+    public SharedResultCache getSharedResultCache() {
+        return sharedResultCache;
+    }
+
     public QueryStatisticsData getQueryStatisticsData() {
         if (!dbSettings.queryStatistics) {
             return null;
@@ -226,6 +226,15 @@ public class DbSettings extends SettingsBase {
      */
     public final int queryCacheSize = get(DbSetting.QUERY_CACHE_SIZE, 8);
 
+    /**
+     * Database setting <code>SHARED_QUERY_CACHE_SIZE</code> (default: 256).<br />
+     * The size of the database level query cache, in number of idle statements.
+     * When a session closes, its cached statements that don't depend on the
+     * session are moved to this cache, so that new sessions can reuse them
+     * without parsing and optimizing the same SQL statement again.
+     */
+    public final int sharedQueryCacheSize = get(DbSetting.SHARED_QUERY_CACHE_SIZE, 256);
+
     /**
      * Database setting <code>RECOMPILE_ALWAYS</code> (default: false).<br />
      * Always recompile prepared statements.
@@ -310,6 +319,8 @@ public class DbSettings extends SettingsBase {
             Constants.DEFAULT_MAX_OPERATION_MEMORY);
 
     public final boolean optimizeReuseResults = get(DbSetting.OPTIMIZE_REUSE_RESULTS, true);
+    // 数据库级的查询结果缓存最多占用多少KB内存，为0时只在每个语句中缓存上一次的结果
+    public final int sharedResultCacheSize = get(DbSetting.SHARED_RESULT_CACHE_SIZE, 4096);
     public final boolean referentialIntegrity = get(DbSetting.REFERENTIAL_INTEGRITY, true);
 
     public final boolean queryStatistics = get(DbSetting.QUERY_STATISTICS, false);
@@ -0,0 +1,88 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.api.DatabaseEventListener;
+import com.lealone.db.scheduler.Scheduler;
+import com.lealone.db.table.Table;
+
+/**
+ * 打开数据库时按表redo。
+ *
+ * 每个表的redo log已经按mapName分好区了，表之间互不影响，
+ * 所以当前调度器和其他调度器一起领取表来redo，当前调度器等待其他调度器完成它们领取的表。
+ * 其他调度器一直没有执行领取任务时，当前调度器会自己redo完所有的表。
+ */
+class TableRecoverer {
+
+    private final Database database;
+    private final List<Table> tables;
+    private final AtomicInteger nextTable = new AtomicInteger();
+    private final AtomicInteger finishedTables = new AtomicInteger();
+    private volatile Throwable error;
+    private volatile Thread waiter;
+
+    TableRecoverer(Database database, List<Table> tables) {
+        this.database = database;
+        this.tables = tables;
+    }
+
+    void recover(Scheduler current) {
+        int count = tables.size();
+        if (count > 1 && current != null && current.getSchedulerFactory() != null) {
+            Scheduler[] schedulers = current.getSchedulerFactory().getSchedulers();
+            int helpers = schedulers == null ? 0 : Math.min(schedulers.length, count) - 1;
+            for (int i = 0; helpers > 0 && i < schedulers.length; i++) {
+                Scheduler s = schedulers[i];
+                if (s == current || s == null || !s.isStarted() || s.isStopped())
+                    continue;
+                helpers--;
+                s.handle(() -> {
+                    while (recoverNextTable()) {
+                    }
+                });
+            }
+        }
+        while (recoverNextTable()) {
+        }
+        // 最后一个完成的表会唤醒当前线程，先设置waiter再检查，避免漏掉唤醒
+        waiter = Thread.currentThread();
+        while (finishedTables.get() < count) {
+            LockSupport.park(this);
+        }
+        if (error != null)
+            throw DbException.convert(error);
+    }
+
+    // 领取并redo下一个表，没有可以领取的表时返回false
+    private boolean recoverNextTable() {
+        int i = nextTable.getAndIncrement();
+        if (i >= tables.size())
+            return false;
+        Table table = tables.get(i);
+        try {
+            if (error == null)
+                table.recover();
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            int finished = finishedTables.incrementAndGet();
+            database.setProgress(DatabaseEventListener.STATE_RECOVER, table.getName(), finished,
+                    tables.size());
+            if (finished == tables.size()) {
+                Thread t = waiter;
+                if (t != null)
+                    LockSupport.unpark(t);
+            }
+        }
+        return true;
+    }
+}
@@ -168,6 +168,13 @@ public interface Index extends SchemaObject {
      */
     boolean canScan();
 
+    /**
+     * Can this index iterate over the rows in descending order?
+     *
+     * @return true if it can
+     */
+    boolean canScanReverse();
+
     /**
      * Does this index support lookup by row id?
      *
@@ -161,6 +161,11 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
         return true;
     }
 
+    @Override
+    public boolean canScanReverse() {
+        return false;
+    }
+
     @Override
     public boolean isRowIdIndex() {
         return false;
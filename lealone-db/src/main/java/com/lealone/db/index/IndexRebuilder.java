@@ -11,6 +11,8 @@ import com.lealone.common.util.MathUtils;
 import com.lealone.db.Database;
 import com.lealone.db.api.DatabaseEventListener;
 import com.lealone.db.async.AsyncPeriodicTask;
+import com.lealone.db.index.standard.IndexKeySorter;
+import com.lealone.db.index.standard.StandardSecondaryIndex;
 import com.lealone.db.result.Row;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Table;
@@ -25,6 +27,10 @@ public class IndexRebuilder implements Runnable {
     private Cursor cursor;
     private AsyncPeriodicTask task;
 
+    // 批量构建二级索引时不为null，先收集所有的key排好序，最后自底向上直接构建page
+    private StandardSecondaryIndex bulkIndex;
+    private IndexKeySorter sorter;
+
     public IndexRebuilder(ServerSession session, Table table, Index index) {
         this.session = session;
         this.table = table;
@@ -35,12 +41,23 @@ public class IndexRebuilder implements Runnable {
         index.setBuilding(true);
         Index scan = table.getScanIndex(session);
         rowCount = MathUtils.convertLongToInt(scan.getRowCount(session));
+        // 在扫描之前开始记录并发的删除操作
+        if (rowCount > 0 && index instanceof StandardSecondaryIndex) {
+            bulkIndex = (StandardSecondaryIndex) index;
+            sorter = bulkIndex.createKeySorter();
+            bulkIndex.setBulkBuilding(true);
+        }
         cursor = scan.find(session, null, null);
         task = new AsyncPeriodicTask(0, 100, this);
         session.getScheduler().addPeriodicTask(task);
     }
 
     private void onComplete() {
+        if (sorter != null) {
+            sorter.close();
+            sorter = null;
+            bulkIndex.setBulkBuilding(false);
+        }
         index.setBuilding(false);
         index.setLastIndexedRowKey(null);
         task.cancel();
@@ -56,8 +73,12 @@ public class IndexRebuilder implements Runnable {
             Database database = table.getSchema().getDatabase();
             while (!index.isClosed() && cursor.next()) {
                 Row row = cursor.get();
-                index.add(session, row);
-                index.setLastIndexedRowKey(row.getKey());
+                if (sorter != null) {
+                    sorter.add(bulkIndex.convertToKey(row));
+                } else {
+                    index.add(session, row);
+                    index.setLastIndexedRowKey(row.getKey());
+                }
                 if ((++i & 127) == 0) {
                     database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n,
                             MathUtils.convertLongToInt(i), rowCount);
@@ -65,6 +86,9 @@ public class IndexRebuilder implements Runnable {
                         return;
                 }
             }
+            if (sorter != null && !index.isClosed()) {
+                bulkIndex.bulkLoad(session, sorter.sort());
+            }
             onComplete();
         } catch (DbException e) {
             onComplete();
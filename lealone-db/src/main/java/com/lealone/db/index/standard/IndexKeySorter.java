@@ -0,0 +1,219 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.index.standard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.Constants;
+import com.lealone.db.DataBuffer;
+import com.lealone.db.Database;
+import com.lealone.db.SysProperties;
+import com.lealone.storage.fs.FileStorage;
+import com.lealone.storage.fs.FileUtils;
+
+/**
+ * 对批量构建索引时收集到的IndexKey做外部排序。
+ *
+ * 内存中的key超过maxMemoryRows个时，先排好序再按块写到临时文件中成为一段，
+ * 最后对临时文件中的所有段和内存中剩下的key做多路归并，每一段只需要在内存中保留一个块。
+ */
+public class IndexKeySorter {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final Database database;
+    private final IndexKeyType keyType;
+    private final Comparator<IndexKey> comparator;
+    private final int maxMemoryRows;
+    private final ArrayList<long[]> runs = new ArrayList<>(); // 每一段在临时文件中的开始和结束位置
+
+    private ArrayList<IndexKey> keys = new ArrayList<>();
+    private FileStorage file;
+    private long filePos;
+
+    public IndexKeySorter(Database database, IndexKeyType keyType) {
+        this.database = database;
+        this.keyType = keyType;
+        comparator = (a, b) -> keyType.compare(a, b);
+        maxMemoryRows = Math.max(1, database.getMaxMemoryRows());
+    }
+
+    public void add(IndexKey key) {
+        keys.add(key);
+        if (keys.size() >= maxMemoryRows) {
+            writeRun();
+        }
+    }
+
+    /**
+     * 有多少段已经写到了临时文件中
+     *
+     * @return the number of runs in the temp file
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * 返回按keyType排好序的所有key，只能调用一次
+     *
+     * @return the sorted keys
+     */
+    public Iterator<IndexKey> sort() {
+        keys.sort(comparator);
+        if (runs.isEmpty()) {
+            return keys.iterator();
+        }
+        PriorityQueue<Run> queue = new PriorityQueue<>(runs.size() + 1,
+                (a, b) -> keyType.compare(a.current, b.current));
+        for (long[] run : runs) {
+            Run r = new FileRun(run[0], run[1]);
+            if (r.next())
+                queue.add(r);
+        }
+        Run r = new MemoryRun(keys.iterator());
+        if (r.next())
+            queue.add(r);
+        return new MergeIterator(queue);
+    }
+
+    public void close() {
+        keys = null;
+        if (file != null) {
+            file.closeAndDeleteSilently();
+            file = null;
+        }
+    }
+
+    private void writeRun() {
+        keys.sort(comparator);
+        if (file == null) {
+            file = openTempFile();
+        }
+        long start = filePos;
+        DataBuffer buff = DataBuffer.create(database, BLOCK_SIZE);
+        buff.putInt(0);
+        for (IndexKey key : keys) {
+            keyType.write(buff, key);
+            if (buff.position() >= BLOCK_SIZE) {
+                writeBlock(buff);
+                buff.putInt(0);
+            }
+        }
+        if (buff.position() > 4) {
+            writeBlock(buff);
+        }
+        runs.add(new long[] { start, filePos });
+        keys = new ArrayList<>();
+    }
+
+    // 每个块的前4个字节是块的长度
+    private void writeBlock(DataBuffer buff) {
+        buff.putInt(0, buff.position() - 4);
+        ByteBuffer b = buff.getAndFlipBuffer();
+        int len = b.remaining();
+        file.writeFully(filePos, b);
+        filePos += len;
+        buff.clear();
+    }
+
+    private FileStorage openTempFile() {
+        String path = database.getDatabasePath();
+        if (path.isEmpty()) {
+            path = SysProperties.PREFIX_TEMP_FILE;
+        }
+        try {
+            String fileName = FileUtils.createTempFile(path, Constants.SUFFIX_TEMP_FILE, true, true);
+            FileStorage file = database.openFile(fileName, "rw", false);
+            file.autoDelete();
+            return file;
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, null);
+        }
+    }
+
+    private static abstract class Run {
+
+        IndexKey current;
+
+        abstract boolean next();
+    }
+
+    private static class MemoryRun extends Run {
+
+        private final Iterator<IndexKey> iterator;
+
+        MemoryRun(Iterator<IndexKey> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        boolean next() {
+            if (iterator.hasNext()) {
+                current = iterator.next();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private class FileRun extends Run {
+
+        private long pos;
+        private final long end;
+        private ByteBuffer block;
+
+        FileRun(long start, long end) {
+            this.pos = start;
+            this.end = end;
+        }
+
+        @Override
+        boolean next() {
+            if (block == null || !block.hasRemaining()) {
+                if (pos >= end)
+                    return false;
+                int len = file.readFully(pos, 4).getInt();
+                block = file.readFully(pos + 4, len);
+                pos += 4 + len;
+            }
+            current = (IndexKey) keyType.read(block);
+            return true;
+        }
+    }
+
+    private static class MergeIterator implements Iterator<IndexKey> {
+
+        private final PriorityQueue<Run> queue;
+
+        MergeIterator(PriorityQueue<Run> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public IndexKey next() {
+            Run r = queue.poll();
+            if (r == null)
+                throw new NoSuchElementException();
+            IndexKey key = r.current;
+            if (r.next())
+                queue.add(r);
+            return key;
+        }
+    }
+}
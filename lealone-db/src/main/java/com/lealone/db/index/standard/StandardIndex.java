@@ -23,6 +23,11 @@ public abstract class StandardIndex extends IndexBase {
         return true;
     }
 
+    @Override
+    public boolean canScanReverse() {
+        return true;
+    }
+
     @Override
     public void close(ServerSession session) {
         // nothing to do
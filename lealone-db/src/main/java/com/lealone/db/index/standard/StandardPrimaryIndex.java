@@ -6,6 +6,7 @@
 package com.lealone.db.index.standard;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.Constants;
@@ -317,6 +318,31 @@ public class StandardPrimaryIndex extends StandardIndex {
         return new StandardPrimaryIndexCursor(session, table, this, getMap(session).cursor(first), last);
     }
 
+    /**
+     * Search for a set of rows, only the given columns are read.
+     *
+     * @param session the session
+     * @param first the key of the first row, or null
+     * @param last the key of the last row, or null
+     * @param columnIndexes the columns to read, or null for all columns
+     * @return the cursor
+     */
+    public Cursor find(ServerSession session, ValueLong first, ValueLong last, int[] columnIndexes) {
+        CursorParameters<Value> parameters = CursorParameters.create(first, last, columnIndexes);
+        return new StandardPrimaryIndexCursor(session, table, this, getMap(session).cursor(parameters),
+                last);
+    }
+
+    /**
+     * 按page的边界把记录分成最多count段，返回除了第一段之外每一段的第一个key
+     *
+     * @param count the maximum number of ranges
+     * @return the split keys in ascending order
+     */
+    public List<Value> getSplitKeys(int count) {
+        return dataMap.getSplitKeys(count);
+    }
+
     @Override
     public SearchRow findFirstOrLast(ServerSession session, boolean first) {
         TransactionMap<Value, VersionedValue> map = getMap(session);
@@ -6,7 +6,11 @@
 package com.lealone.db.index.standard;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.api.ErrorCode;
@@ -26,8 +30,10 @@ import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueEnum;
 import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
+import com.lealone.storage.CursorParameters;
 import com.lealone.storage.Storage;
 import com.lealone.storage.StorageSetting;
+import com.lealone.storage.type.StorageDataType;
 import com.lealone.transaction.Transaction;
 import com.lealone.transaction.TransactionMap;
 import com.lealone.transaction.TransactionMapCursor;
@@ -45,6 +51,9 @@ public class StandardSecondaryIndex extends StandardIndex {
 
     private Long lastIndexedRowKey;
     private boolean building;
+    private boolean bulkBuilding; // 批量构建时扫描到的记录最后才一次性加到索引中
+    // 批量构建时被并发删除或更新过的记录的row key，这些记录在扫描时得到的key可能已经过时了
+    private volatile Set<Long> removedRowKeys;
 
     public StandardSecondaryIndex(ServerSession session, StandardTable table, int id, String indexName,
             IndexType indexType, IndexColumn[] indexColumns) {
@@ -127,11 +136,127 @@ public class StandardSecondaryIndex extends StandardIndex {
         return building;
     }
 
+    // 构建过程中的游标要合并primary index中的记录，返回的记录不是按索引排好序的
+    @Override
+    public boolean canScanReverse() {
+        return !building;
+    }
+
+    public void setBulkBuilding(boolean bulkBuilding) {
+        removedRowKeys = bulkBuilding ? ConcurrentHashMap.newKeySet() : null;
+        this.bulkBuilding = bulkBuilding;
+    }
+
+    public IndexKeySorter createKeySorter() {
+        return new IndexKeySorter(database, (IndexKeyType) dataMap.getKeyType());
+    }
+
+    /**
+     * 把排好序的key批量加到索引中。
+     * 如果map已经不为空了，比如构建过程中有并发的写操作，就退化成逐个加入。
+     * 扫描之后被并发删除或更新过的记录不用扫描时得到的key，而是最后按primary index中的记录重新加入，
+     * 否则删除操作在key加到索引之前就执行了，索引中会留下已经不存在的key。
+     *
+     * @param session the session
+     * @param keys the keys sorted by the key type of this index
+     */
+    public void bulkLoad(ServerSession session, Iterator<IndexKey> keys) {
+        TransactionMap<IndexKey, Value> map = getMap(session);
+        Set<Long> removed = removedRowKeys;
+        if (removed != null) {
+            keys = new RemovedKeyFilter(keys, removed);
+        }
+        if (indexType.isUnique()) {
+            keys = new UniqueKeyIterator(keys, map.getKeyType());
+        }
+        if (!map.bulkLoad(keys, k -> ValueNull.INSTANCE)) {
+            while (keys.hasNext()) {
+                addIfAbsent(session, map, keys.next());
+            }
+        }
+        if (removed != null) {
+            for (Long rowKey : removed) {
+                Row row = table.getRow(session, rowKey);
+                if (row != null) // 删除操作被回滚了或者是更新操作
+                    addIfAbsent(session, map, convertToKey(row));
+            }
+        }
+    }
+
+    // 并发的写操作可能已经把相同的key加到索引中了
+    private void addIfAbsent(ServerSession session, TransactionMap<IndexKey, Value> map,
+            IndexKey key) {
+        if (map.getTransactionalValue(key) == null)
+            add(session, map, key);
+    }
+
+    // 过滤掉被并发删除或更新过的记录的key
+    private class RemovedKeyFilter implements Iterator<IndexKey> {
+
+        private final Iterator<IndexKey> keys;
+        private final Set<Long> removed;
+        private IndexKey next;
+
+        RemovedKeyFilter(Iterator<IndexKey> keys, Set<Long> removed) {
+            this.keys = keys;
+            this.removed = removed;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && keys.hasNext()) {
+                IndexKey key = keys.next();
+                if (!removed.contains(key.columns[keyColumns - 1].getLong()))
+                    next = key;
+            }
+            return next != null;
+        }
+
+        @Override
+        public IndexKey next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            IndexKey key = next;
+            next = null;
+            return key;
+        }
+    }
+
+    // 唯一索引的key在排好序后相邻的key相同就说明违反了唯一性
+    private class UniqueKeyIterator implements Iterator<IndexKey> {
+
+        private final Iterator<IndexKey> keys;
+        private final StorageDataType keyType;
+        private IndexKey last;
+
+        UniqueKeyIterator(Iterator<IndexKey> keys, StorageDataType keyType) {
+            this.keys = keys;
+            this.keyType = keyType;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return keys.hasNext();
+        }
+
+        @Override
+        public IndexKey next() {
+            IndexKey key = keys.next();
+            if (last != null && keyType.compare(last, key) == 0) {
+                throw getDuplicateKeyException(key.toString());
+            }
+            last = key;
+            return key;
+        }
+    }
+
     @Override
     public Future<Integer> add(ServerSession session, Row row) {
-        final TransactionMap<IndexKey, Value> map = getMap(session);
-        final IndexKey key = convertToKey(row);
+        return add(session, getMap(session), convertToKey(row));
+    }
 
+    private Future<Integer> add(ServerSession session, TransactionMap<IndexKey, Value> map,
+            IndexKey key) {
         AsyncCallback<Integer> ac = session.createCallback();
         map.addIfAbsent(key, ValueNull.INSTANCE, false).onComplete(ar -> {
             if (ar.isSucceeded() && ar.getResult().intValue() == Transaction.OPERATION_DATA_DUPLICATE) {
@@ -163,6 +288,9 @@ public class StandardSecondaryIndex extends StandardIndex {
 
     @Override
     public Future<Integer> remove(ServerSession session, Row row, boolean isLockedBySelf) {
+        Set<Long> removed = removedRowKeys;
+        if (removed != null)
+            removed.add(row.getKey());
         TransactionMap<IndexKey, Value> map = getMap(session);
         IndexKey key = convertToKey(row);
         Object tv = map.getTransactionalValue(key);
@@ -180,6 +308,12 @@ public class StandardSecondaryIndex extends StandardIndex {
         }
         TransactionMap<IndexKey, ?> map = getMap(session);
         if (isBuilding()) {
+            // 批量构建时扫描到的记录还没有加到索引中，索引中只有新增的记录，直接从头扫描primary index
+            if (bulkBuilding) {
+                Index scan = table.getScanIndex(session);
+                Cursor cursor = scan.find(session, null, null);
+                return new StandardSecondaryIndexBuildingCursor(session, null, last, cursor);
+            }
             TransactionMapCursor<IndexKey, ?> tmCursor;
             Long lastKey = lastIndexedRowKey;
             // 这个循环确保tmCursor的快照跟lastIndexedRowKey一致，
@@ -205,6 +339,33 @@ public class StandardSecondaryIndex extends StandardIndex {
         }
     }
 
+    @Override
+    public Cursor find(ServerSession session, CursorParameters<SearchRow> parameters) {
+        // 构建过程中只能用能看到所有记录的游标，此时不能保证顺序，
+        // 不过canScanReverse()返回false，查询计划不会依赖倒序遍历索引
+        if (!parameters.reverse || isBuilding())
+            return find(session, parameters.from, parameters.to);
+        IndexKey min = convertToKey(parameters.from);
+        if (min != null) {
+            min.columns[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
+        }
+        // 索引字段都有值时才能用to定位，否则没有值的字段是null，比所有的值都小，只能从最后开始往前找
+        IndexKey max = convertToKey(parameters.to);
+        if (max != null) {
+            for (int i = 0; i < columns.length; i++) {
+                if (max.columns[i] == null) {
+                    max = null;
+                    break;
+                }
+            }
+            if (max != null)
+                max.columns[keyColumns - 1] = ValueLong.get(Long.MAX_VALUE);
+        }
+        TransactionMap<IndexKey, ?> map = getMap(session);
+        CursorParameters<IndexKey> p = new CursorParameters<>(min, max, null, false, true);
+        return new StandardSecondaryIndexReverseCursor(session, map.cursor(p), parameters.to);
+    }
+
     public IndexKey convertToKey(SearchRow r) {
         if (r == null) {
             return null;
@@ -425,6 +586,32 @@ public class StandardSecondaryIndex extends StandardIndex {
         }
     }
 
+    private class StandardSecondaryIndexReverseCursor extends StandardSecondaryIndexCursor {
+
+        private final TransactionMapCursor<IndexKey, ?> tmCursor;
+        private final SearchRow last;
+
+        public StandardSecondaryIndexReverseCursor(ServerSession session,
+                TransactionMapCursor<IndexKey, ?> tmCursor, SearchRow last) {
+            super(session);
+            this.tmCursor = tmCursor;
+            this.last = last;
+        }
+
+        @Override
+        protected SearchRow nextSearchRow() {
+            // 下界由tmCursor检查，大于last的记录要跳过
+            while (tmCursor.next()) {
+                SearchRow searchRow = createSearchRow(tmCursor.getKey());
+                if (searchRow != null && last != null && compareRows(searchRow, last) > 0) {
+                    continue;
+                }
+                return searchRow;
+            }
+            return null;
+        }
+    }
+
     private class StandardSecondaryIndexBuildingCursor extends StandardSecondaryIndexCursor {
 
         private TransactionMapCursor<IndexKey, ?> tmCursor;
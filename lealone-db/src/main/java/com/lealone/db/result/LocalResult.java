@@ -9,9 +9,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.Utils;
+import com.lealone.db.Constants;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.util.ValueHashMap;
 import com.lealone.db.value.DataType;
@@ -43,6 +45,8 @@ public class LocalResult implements Result, ResultTarget {
     private int diskOffset;
     private boolean distinct;
     private boolean closed;
+    private int topN;
+    private PriorityQueue<Value[]> topRows; // 按排序规则排在最后的记录在堆顶
 
     /**
      * Construct a local result object.
@@ -124,6 +128,21 @@ public class LocalResult implements Result, ResultTarget {
         this.sort = sort;
     }
 
+    /**
+     * 只保留排序后最前面的n条记录，用于ORDER BY ... LIMIT，
+     * 排在后面的记录在addRow时就丢掉了，所以不需要把所有记录都放到内存或临时表中。
+     * 必须在setSortOrder之后、addRow之前调用，n超过maxMemoryRows时不起作用。
+     *
+     * @param n limit加offset
+     */
+    public void setTopN(int n) {
+        if (sort == null || distinct || n <= 0 || n > maxMemoryRows) {
+            return;
+        }
+        topN = n;
+        topRows = new PriorityQueue<>(Math.min(n, 1024) + 1, sort.reversed());
+    }
+
     /**
      * Remove duplicate rows.
      */
@@ -238,17 +257,40 @@ public class LocalResult implements Result, ResultTarget {
             }
             return false;
         }
+        if (topRows != null) {
+            if (topRows.size() < topN) {
+                topRows.add(values);
+            } else if (sort.compare(values, topRows.peek()) < 0) {
+                topRows.poll();
+                topRows.add(values);
+            }
+            rowCount = topRows.size();
+            return false;
+        }
         rows.add(values);
         rowCount++;
         if (rows.size() > maxMemoryRows) {
             if (external == null) {
-                external = new ResultTempTable(session, expressions, false, sort);
+                external = createExternal();
             }
             addRowsToDisk();
         }
         return false;
     }
 
+    // 不需要去重时按段写到临时文件中，读取时再做多路归并，含有LOB时还是用临时表
+    private ResultExternal createExternal() {
+        if (expressions != null) {
+            for (IExpression e : expressions) {
+                int type = e.getType();
+                if (type == Value.CLOB || type == Value.BLOB) {
+                    return new ResultTempTable(session, expressions, false, sort);
+                }
+            }
+        }
+        return new ResultDiskBuffer(session, sort);
+    }
+
     private void addRowsToDisk() {
         rowCount = external.addRows(rows);
         rows.clear();
@@ -280,7 +322,8 @@ public class LocalResult implements Result, ResultTarget {
                             break;
                         }
                         if (external == null) {
-                            external = new ResultTempTable(session, expressions, true, sort);
+                            // 已经去重了，只需要排序
+                            external = createExternal();
                         }
                         rows.add(list);
                         if (rows.size() > maxMemoryRows) {
@@ -294,7 +337,11 @@ public class LocalResult implements Result, ResultTarget {
                 }
             }
         }
-        if (external != null) {
+        if (topRows != null) {
+            rows = new ArrayList<>(topRows);
+            topRows = null;
+            sort.sort(rows);
+        } else if (external != null) {
             addRowsToDisk();
             external.done();
         } else {
@@ -341,6 +388,24 @@ public class LocalResult implements Result, ResultTarget {
         }
     }
 
+    /**
+     * 估算内存中的记录占用的内存，有记录写到外部文件时返回-1
+     *
+     * @return the estimated memory used in bytes
+     */
+    public long getMemory() {
+        if (external != null || rows == null || rows.size() < rowCount)
+            return -1;
+        long memory = Constants.MEMORY_OBJECT;
+        for (int i = 0, size = rows.size(); i < size; i++) {
+            Value[] row = rows.get(i);
+            memory += Constants.MEMORY_ROW;
+            for (Value v : row)
+                memory += Constants.MEMORY_POINTER + v.getMemory();
+        }
+        return memory;
+    }
+
     @Override
     public boolean needToClose() {
         return external != null;
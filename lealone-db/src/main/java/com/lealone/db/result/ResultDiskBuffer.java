@@ -0,0 +1,386 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.result;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.util.DataUtils;
+import com.lealone.db.Constants;
+import com.lealone.db.DataBuffer;
+import com.lealone.db.Database;
+import com.lealone.db.SysProperties;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.storage.fs.FileStorage;
+import com.lealone.storage.fs.FileUtils;
+
+/**
+ * 不需要去重的大结果集的外部排序。
+ *
+ * 每次addRows时先在内存中排好序，再按块写到临时文件中成为一段(run)，
+ * 读取时用败者树对所有段做多路归并，每一段只需要在内存中保留一个块。
+ * 段数超过SysProperties.SORT_MAX_FAN_IN时先分多趟归并成较少的段，避免同时打开太多的块。
+ * 没有排序时直接按写入的顺序依次读取每一段。
+ *
+ * 不支持removeRow和contains，需要按值查找记录的distinct结果集还是用ResultTempTable。
+ */
+class ResultDiskBuffer implements ResultExternal {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_FAN_IN = SysProperties.SORT_MAX_FAN_IN;
+
+    private final Database database;
+    private final SortOrder sort;
+    private final int maxBufferRows;
+    private final ResultDiskBuffer parent;
+    private final FileStorage file;
+    private final ArrayList<long[]> runs; // 每一段在临时文件中的开始和结束位置
+
+    private ArrayList<Value[]> buffer; // addRow时先放在这里，攒够了再写成一段
+    private long filePos;
+    private int rowCount;
+    private boolean closed;
+    private int childCount;
+
+    private Run[] readers;
+    private LoserTree tree;
+    private int readerIndex; // 没有排序时当前正在读的段
+
+    ResultDiskBuffer(ServerSession session, SortOrder sort) {
+        this.database = session.getDatabase();
+        this.sort = sort;
+        this.maxBufferRows = Math.max(1, database.getMaxMemoryRows());
+        file = openTempFile(database);
+        runs = new ArrayList<>();
+        buffer = new ArrayList<>();
+        parent = null;
+    }
+
+    private ResultDiskBuffer(ResultDiskBuffer parent) {
+        this.database = parent.database;
+        this.sort = parent.sort;
+        this.maxBufferRows = parent.maxBufferRows;
+        this.parent = parent;
+        this.file = parent.file;
+        this.runs = parent.runs;
+        this.rowCount = parent.rowCount;
+        reset();
+    }
+
+    private static FileStorage openTempFile(Database database) {
+        String path = database.getDatabasePath();
+        if (path.isEmpty()) {
+            path = SysProperties.PREFIX_TEMP_FILE;
+        }
+        try {
+            String fileName = FileUtils.createTempFile(path, Constants.SUFFIX_TEMP_FILE, true, true);
+            FileStorage file = database.openFile(fileName, "rw", false);
+            file.autoDelete();
+            return file;
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, null);
+        }
+    }
+
+    @Override
+    public ResultExternal createShallowCopy() {
+        if (parent != null) {
+            return parent.createShallowCopy();
+        }
+        if (closed) {
+            return null;
+        }
+        childCount++;
+        return new ResultDiskBuffer(this);
+    }
+
+    @Override
+    public int addRow(Value[] values) {
+        buffer.add(values);
+        rowCount++;
+        if (buffer.size() >= maxBufferRows) {
+            writeRun(buffer);
+            buffer.clear();
+        }
+        return rowCount;
+    }
+
+    @Override
+    public int addRows(ArrayList<Value[]> rows) {
+        if (!rows.isEmpty()) {
+            writeRun(rows);
+            rowCount += rows.size();
+        }
+        return rowCount;
+    }
+
+    private void writeRun(ArrayList<Value[]> rows) {
+        if (sort != null) {
+            sort.sort(rows);
+        }
+        long start = filePos;
+        DataBuffer buff = newBlock();
+        for (int i = 0, size = rows.size(); i < size; i++) {
+            writeRow(buff, rows.get(i));
+        }
+        runs.add(finishRun(buff, start));
+    }
+
+    private DataBuffer newBlock() {
+        DataBuffer buff = DataBuffer.create(database, BLOCK_SIZE);
+        buff.putInt(0);
+        return buff;
+    }
+
+    private void writeRow(DataBuffer buff, Value[] row) {
+        buff.putVarInt(row.length);
+        for (Value v : row) {
+            buff.writeValue(v);
+        }
+        if (buff.position() >= BLOCK_SIZE) {
+            writeBlock(buff);
+            buff.putInt(0);
+        }
+    }
+
+    private long[] finishRun(DataBuffer buff, long start) {
+        if (buff.position() > 4) {
+            writeBlock(buff);
+        }
+        return new long[] { start, filePos };
+    }
+
+    // 每个块的前4个字节是块的长度
+    private void writeBlock(DataBuffer buff) {
+        buff.putInt(0, buff.position() - 4);
+        ByteBuffer b = buff.getAndFlipBuffer();
+        int len = b.remaining();
+        file.writeFully(filePos, b);
+        filePos += len;
+        buff.clear();
+    }
+
+    @Override
+    public void done() {
+        if (buffer != null) {
+            if (!buffer.isEmpty()) {
+                writeRun(buffer);
+            }
+            buffer = null;
+            if (sort != null) {
+                mergeRuns();
+            }
+        }
+    }
+
+    // 段太多时先把相邻的每MAX_FAN_IN段归并成一段写到临时文件的末尾，重复直到段数不超过MAX_FAN_IN，
+    // 这样读取时最多只有MAX_FAN_IN个块在内存中，被归并掉的段占用的文件空间等到关闭时才释放
+    private void mergeRuns() {
+        while (runs.size() > MAX_FAN_IN) {
+            int size = runs.size();
+            ArrayList<long[]> merged = new ArrayList<>((size + MAX_FAN_IN - 1) / MAX_FAN_IN);
+            for (int i = 0; i < size; i += MAX_FAN_IN) {
+                int end = Math.min(size, i + MAX_FAN_IN);
+                if (end - i == 1) {
+                    merged.add(runs.get(i));
+                    continue;
+                }
+                Run[] group = new Run[end - i];
+                for (int j = i; j < end; j++) {
+                    long[] run = runs.get(j);
+                    group[j - i] = new Run(run[0], run[1]);
+                }
+                LoserTree t = new LoserTree(group, sort);
+                long start = filePos;
+                DataBuffer buff = newBlock();
+                for (Value[] row = t.next(); row != null; row = t.next()) {
+                    writeRow(buff, row);
+                }
+                merged.add(finishRun(buff, start));
+            }
+            // 浅拷贝共用runs，所以原地替换
+            runs.clear();
+            runs.addAll(merged);
+        }
+    }
+
+    @Override
+    public void reset() {
+        readers = null;
+        tree = null;
+        readerIndex = 0;
+    }
+
+    @Override
+    public Value[] next() {
+        if (readers == null) {
+            done();
+            int size = runs.size();
+            readers = new Run[size];
+            for (int i = 0; i < size; i++) {
+                long[] run = runs.get(i);
+                readers[i] = new Run(run[0], run[1]);
+            }
+            if (sort != null && size > 0) {
+                tree = new LoserTree(readers, sort);
+            }
+        }
+        if (tree != null) {
+            return tree.next();
+        }
+        while (readerIndex < readers.length) {
+            Run r = readers[readerIndex];
+            if (r.next()) {
+                return r.current;
+            }
+            readers[readerIndex++] = null;
+        }
+        return null;
+    }
+
+    private void closeChild() {
+        if (--childCount == 0 && closed) {
+            file.closeAndDeleteSilently();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        readers = null;
+        tree = null;
+        if (parent != null) {
+            parent.closeChild();
+        } else {
+            buffer = null;
+            if (childCount == 0) {
+                file.closeAndDeleteSilently();
+            }
+        }
+    }
+
+    @Override
+    public int removeRow(Value[] values) {
+        throw DbException.getInternalError();
+    }
+
+    @Override
+    public boolean contains(Value[] values) {
+        throw DbException.getInternalError();
+    }
+
+    private class Run {
+
+        private long pos;
+        private final long end;
+        private ByteBuffer block;
+        Value[] current;
+
+        Run(long start, long end) {
+            this.pos = start;
+            this.end = end;
+        }
+
+        boolean next() {
+            if (block == null || !block.hasRemaining()) {
+                if (pos >= end) {
+                    current = null;
+                    block = null;
+                    return false;
+                }
+                int len = file.readFully(pos, 4).getInt();
+                block = file.readFully(pos + 4, len);
+                pos += 4 + len;
+            }
+            int len = DataUtils.readVarInt(block);
+            Value[] row = new Value[len];
+            for (int i = 0; i < len; i++) {
+                row[i] = DataBuffer.readValue(block);
+            }
+            current = row;
+            return true;
+        }
+    }
+
+    /**
+     * 败者树，k个段放在叶子节点k..2k-1上，内部节点1..k-1记录每一场比赛的败者，tree[0]是最终的胜者。
+     * 每输出一条记录只需要沿着胜者所在的叶子到根的路径重新比较log(k)次，
+     * 而用PriorityQueue做归并时poll加add差不多要比较两倍的次数。
+     * 读完的段当成无穷大，相等时段号小的胜出，这样先写入的记录排在前面。
+     */
+    static class LoserTree {
+
+        private final Run[] runs;
+        private final SortOrder sort;
+        private final int k;
+        private final int[] tree;
+
+        LoserTree(Run[] runs, SortOrder sort) {
+            this.runs = runs;
+            this.sort = sort;
+            k = runs.length;
+            tree = new int[k];
+            for (Run r : runs) {
+                r.next();
+            }
+            tree[0] = build(1);
+        }
+
+        // 返回以node为根的子树的胜者
+        private int build(int node) {
+            if (node >= k) {
+                return node - k;
+            }
+            int a = build(2 * node);
+            int b = build(2 * node + 1);
+            if (less(b, a)) {
+                tree[node] = a;
+                return b;
+            } else {
+                tree[node] = b;
+                return a;
+            }
+        }
+
+        private boolean less(int a, int b) {
+            Value[] x = runs[a].current;
+            Value[] y = runs[b].current;
+            if (x == null) {
+                return false;
+            }
+            if (y == null) {
+                return true;
+            }
+            int c = sort.compare(x, y);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        Value[] next() {
+            int winner = tree[0];
+            Run r = runs[winner];
+            Value[] row = r.current;
+            if (row == null) {
+                return null;
+            }
+            r.next();
+            for (int node = (winner + k) >> 1; node > 0; node >>= 1) {
+                if (less(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+            return row;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.lealone.db.Database;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
+
+/**
+ * 数据库级的查询结果缓存，多个session执行同样的查询时可以共用上一次的结果。
+ *
+ * 每个结果都记录了执行查询时数据库的modification data id，
+ * 只有查询读过的表在这之后被修改了，结果才会失效，其他表的修改不影响它。
+ * 按LRU淘汰，所有结果估算出的内存不超过SHARED_RESULT_CACHE_SIZE。
+ */
+public class SharedResultCache {
+
+    private static class ResultKey {
+
+        private final String sql;
+        private final ValueArray params;
+        private final int limit;
+        private final int hash;
+
+        ResultKey(String sql, Value[] params, int limit) {
+            this.sql = sql;
+            this.params = params == null ? null : ValueArray.get(params);
+            this.limit = limit;
+            int h = sql.hashCode() * 31 + limit;
+            if (this.params != null)
+                h = h * 31 + this.params.hashCode();
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ResultKey))
+                return false;
+            ResultKey k = (ResultKey) o;
+            if (hash != k.hash || limit != k.limit || !sql.equals(k.sql))
+                return false;
+            return params == null ? k.params == null : params.equals(k.params);
+        }
+    }
+
+    private static class CachedResult {
+
+        private final LocalResult result;
+        private final long evaluated;
+        private final long memory;
+
+        CachedResult(LocalResult result, long evaluated, long memory) {
+            this.result = result;
+            this.evaluated = evaluated;
+            this.memory = memory;
+        }
+    }
+
+    private final LinkedHashMap<ResultKey, CachedResult> results = new LinkedHashMap<>(16, 0.75f,
+            true);
+    private final Database database;
+    private long memory;
+    private long modificationMetaId;
+
+    public SharedResultCache(Database database) {
+        this.database = database;
+        modificationMetaId = database.getModificationMetaId();
+    }
+
+    private long getMaxMemory() {
+        return database.getSettings().sharedResultCacheSize * 1024L;
+    }
+
+    public boolean isEnabled() {
+        return database.getSettings().sharedResultCacheSize > 0;
+    }
+
+    public synchronized long getMemory() {
+        return memory;
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * 查找同样的查询上一次的结果
+     *
+     * @param sql 包含了用户和schema的SQL
+     * @param params 参数值
+     * @param limit 最多返回的记录数
+     * @param maxDataModificationId 查询读取的表的最大modification id
+     * @param session 当前session
+     * @return 结果的浅拷贝，没有可用的结果时返回null
+     */
+    public synchronized LocalResult get(String sql, Value[] params, int limit,
+            long maxDataModificationId, ServerSession session) {
+        if (!checkModificationMetaId())
+            return null;
+        ResultKey key = new ResultKey(sql, params, limit);
+        CachedResult cr = results.get(key);
+        if (cr == null)
+            return null;
+        // 读过的表在执行查询之后又被修改了
+        if (maxDataModificationId > cr.evaluated) {
+            remove(key);
+            return null;
+        }
+        LocalResult r = cr.result.createShallowCopy(session);
+        if (r == null) {
+            remove(key);
+            return null;
+        }
+        r.reset();
+        return r;
+    }
+
+    public synchronized void put(String sql, Value[] params, int limit, long evaluated,
+            LocalResult result) {
+        if (!checkModificationMetaId())
+            return;
+        long max = getMaxMemory();
+        long m = result.getMemory();
+        // 太大的结果或写到外部文件的结果不缓存
+        if (m < 0 || m > max / 4)
+            return;
+        ResultKey key = new ResultKey(sql, params, limit);
+        CachedResult old = results.put(key, new CachedResult(result, evaluated, m));
+        if (old != null)
+            memory -= old.memory;
+        memory += m;
+        Iterator<CachedResult> it = results.values().iterator();
+        while (memory > max && it.hasNext()) {
+            memory -= it.next().memory;
+            it.remove();
+        }
+    }
+
+    private void remove(ResultKey key) {
+        CachedResult cr = results.remove(key);
+        if (cr != null)
+            memory -= cr.memory;
+    }
+
+    public synchronized void clear() {
+        results.clear();
+        memory = 0;
+    }
+
+    // 表结构有变化时，上一次的结果可能跟新的表结构不匹配，所以全部清空
+    private boolean checkModificationMetaId() {
+        long id = database.getModificationMetaId();
+        if (id == modificationMetaId)
+            return true;
+        clear();
+        modificationMetaId = id;
+        return false;
+    }
+}
@@ -97,6 +97,7 @@ public class ServerSession extends SessionBase {
     private int throttle;
     private long lastThrottle;
     private PreparedSQLStatement currentCommand;
+    private long currentCommandId; // 每开始执行一条顶层语句就加1
     private int currentCommandSavepointId;
     private int currentCommandLockIndex; // 执行当前命令过程中会占用各种锁，记下在locks中的开始位置
     private boolean allowLiterals;
@@ -117,6 +118,8 @@ public class ServerSession extends SessionBase {
     private long currentCommandStart;
     private HashMap<String, Value> variables;
     private HashSet<Result> temporaryResults;
+    private ArrayList<ManualCloseable> temporaryResources;
+    private ArrayList<ManualCloseable> transactionResources;
     private int queryTimeout;
     private boolean commitOrRollbackDisabled;
     private int modificationId;
@@ -456,7 +459,9 @@ public class ServerSession extends SessionBase {
             throw DbException.get(ErrorCode.CONNECTION_BROKEN_1, "session closed");
         }
         PreparedSQLStatement ps;
+        String key = null;
         if (queryCacheSize > 0) {
+            key = getQueryCacheKey(sql);
             if (queryCache == null) {
                 queryCache = SmallLRUCache.newInstance(queryCacheSize);
                 modificationMetaID = database.getModificationMetaId();
@@ -466,19 +471,29 @@ public class ServerSession extends SessionBase {
                     queryCache.clear();
                     modificationMetaID = newModificationMetaID;
                 } else {
-                    ps = queryCache.get(sql);
+                    ps = queryCache.get(key);
                     if (ps != null && ps.canReuse()) {
                         ps.reuse();
                         return ps;
                     }
                 }
             }
+            // 其他session关闭时留下的语句，重新绑定到当前session就能用
+            ps = database.getSharedQueryCache().poll(key);
+            if (ps != null) {
+                ps.bindSession(this);
+                ps.reuse();
+                queryCache.put(key, ps);
+                if (fetchSize != -1)
+                    ps.setFetchSize(fetchSize);
+                return ps;
+            }
         }
         SQLParser parser = createParser();
         ps = parser.parse(sql).prepare();
         if (queryCache != null) {
             if (ps.isCacheable()) {
-                queryCache.put(sql, ps);
+                queryCache.put(key, ps);
             }
         }
         if (fetchSize != -1)
@@ -486,6 +501,33 @@ public class ServerSession extends SessionBase {
         return ps;
     }
 
+    // 解析和权限检查跟用户、当前schema和allowLiterals有关，所以它们也是key的一部分
+    public String getQueryCacheKey(String sql) {
+        StringBuilder buff = new StringBuilder(sql.length() + 32);
+        buff.append(user.getId()).append(':').append(currentSchemaName).append(':');
+        if (schemaSearchPath != null) {
+            for (String s : schemaSearchPath)
+                buff.append(s).append(',');
+        }
+        buff.append(':').append(allowLiterals).append(':').append(sql);
+        return buff.toString();
+    }
+
+    // 把不依赖当前session的空闲语句放到数据库级的缓存中，给新的session用
+    private void moveQueryCacheToDatabase() {
+        if (queryCache == null || queryCache.isEmpty())
+            return;
+        if (modificationMetaID == database.getModificationMetaId()) {
+            SharedQueryCache sharedQueryCache = database.getSharedQueryCache();
+            for (Map.Entry<String, PreparedSQLStatement> e : queryCache.entrySet()) {
+                PreparedSQLStatement ps = e.getValue();
+                if (ps.canReuse() && ps.isShareable())
+                    sharedQueryCache.offer(e.getKey(), ps, modificationMetaID);
+            }
+        }
+        queryCache.clear();
+    }
+
     private short executingStatements;
     private boolean isForUpdate; // 记录当前事务执行过的语句是否带有更新语句(含select for update)
 
@@ -496,6 +538,7 @@ public class ServerSession extends SessionBase {
         }
         if (executingStatements++ == 0) {
             currentCommand = statement;
+            currentCommandId++;
             if (queryTimeout > 0) {
                 long now = System.currentTimeMillis();
                 currentCommandStart = now;
@@ -607,7 +650,6 @@ public class ServerSession extends SessionBase {
     private void beforeCommit() {
         addLobTask();
         checkCommitRollback();
-        checkDataModification();
         sessionStatus = SessionStatus.TRANSACTION_COMMITTING;
     }
 
@@ -617,13 +659,41 @@ public class ServerSession extends SessionBase {
         }
     }
 
-    private void checkDataModification() {
-        // 手动提交时，如果更新了数据，让缓存失效，这样其他还没结束的事务就算开启了缓存也能读到新数据
-        if (!isAutoCommit() && transaction.getSavepointId() > 0)
-            database.getNextModificationDataId();
+    private ArrayList<Table> modifiedTables; // 当前事务修改过的表
+
+    // 写记录时不更新表的modification id，避免所有写操作都去修改数据库的同一个计数器，
+    // 等事务结束时(此时其他事务已经能读到新数据了)每个表只更新一次，让读过这些表的查询结果缓存失效
+    public void addModifiedTable(Table table) {
+        if (modifiedTables == null) {
+            modifiedTables = new ArrayList<>(2);
+        } else {
+            int size = modifiedTables.size();
+            if (modifiedTables.get(size - 1) == table)
+                return;
+            for (int i = 0; i < size - 1; i++) {
+                if (modifiedTables.get(i) == table)
+                    return;
+            }
+        }
+        modifiedTables.add(table);
+    }
+
+    // 当前事务修改过的表的缓存还没失效，所以当前session不能使用查询结果缓存
+    public boolean containsModifiedTables() {
+        return modifiedTables != null;
+    }
+
+    private void updateModifiedTables() {
+        if (modifiedTables != null) {
+            for (Table table : modifiedTables)
+                table.updateMaxDataModificationId();
+            modifiedTables = null;
+        }
     }
 
     private void endTransaction() {
+        closeTransactionResources();
+        updateModifiedTables();
         containsDDL = false;
         containsDatabaseStatement = false;
         isForUpdate = false;
@@ -783,6 +853,9 @@ public class ServerSession extends SessionBase {
             try {
                 database.checkPowerOff();
                 closeAllCache();
+                closeTemporaryResults();
+                closeTransactionResources();
+                moveQueryCacheToDatabase();
                 cleanTempTables(true);
                 database.removeSession(this);
                 if (getScheduler() != null)
@@ -950,6 +1023,15 @@ public class ServerSession extends SessionBase {
         return currentCommand;
     }
 
+    /**
+     * 用来判断在语句执行过程中缓存的中间结果是否还属于当前正在执行的语句
+     *
+     * @return the id of the current top level statement
+     */
+    public long getCurrentCommandId() {
+        return currentCommandId;
+    }
+
     public long getCurrentCommandStart() {
         return currentCommandStart;
     }
@@ -1188,6 +1270,53 @@ public class ServerSession extends SessionBase {
         }
     }
 
+    /**
+     * 当前语句结束时(包括出错和被取消)需要释放的资源，比如hash join溢出时创建的临时表
+     *
+     * @param resource the resource
+     */
+    public void addTemporaryResource(ManualCloseable resource) {
+        if (temporaryResources == null) {
+            temporaryResources = new ArrayList<>(1);
+        }
+        temporaryResources.add(resource);
+    }
+
+    public void removeTemporaryResource(ManualCloseable resource) {
+        if (temporaryResources != null) {
+            temporaryResources.remove(resource);
+        }
+    }
+
+    /**
+     * 当前事务结束时(提交或回滚)需要释放的资源，比如还没有读完的流式结果集
+     *
+     * @param resource the resource
+     */
+    public void addTransactionResource(ManualCloseable resource) {
+        if (transactionResources == null) {
+            transactionResources = new ArrayList<>(1);
+        }
+        transactionResources.add(resource);
+    }
+
+    public void removeTransactionResource(ManualCloseable resource) {
+        if (transactionResources != null) {
+            transactionResources.remove(resource);
+        }
+    }
+
+    private void closeTransactionResources() {
+        if (transactionResources != null) {
+            // 释放资源时会调用removeTransactionResource，所以先置null
+            ArrayList<ManualCloseable> resources = transactionResources;
+            transactionResources = null;
+            for (ManualCloseable resource : resources) {
+                resource.close();
+            }
+        }
+    }
+
     /**
      * Close all temporary result set. This also deletes all temporary files
      * held by the result sets.
@@ -1199,6 +1328,14 @@ public class ServerSession extends SessionBase {
             }
             temporaryResults = null;
         }
+        if (temporaryResources != null) {
+            // 释放资源时会调用removeTemporaryResource，所以先置null
+            ArrayList<ManualCloseable> resources = temporaryResources;
+            temporaryResources = null;
+            for (ManualCloseable resource : resources) {
+                resource.close();
+            }
+        }
     }
 
     public void setQueryTimeout(int queryTimeout) {
@@ -1566,6 +1703,28 @@ public class ServerSession extends SessionBase {
         this.olapBatchSize = olapBatchSize;
     }
 
+    // 按批执行的聚合查询最多可以用几个调度器并行扫描，小于等于1时不并行
+    private int olapParallelism;
+
+    public int getOlapParallelism() {
+        return olapParallelism;
+    }
+
+    public void setOlapParallelism(int olapParallelism) {
+        this.olapParallelism = olapParallelism;
+    }
+
+    // 简单的查询不把结果全放到LocalResult中，客户端取下一批记录时才继续执行
+    private boolean lazyQueryExecution;
+
+    public boolean isLazyQueryExecution() {
+        return lazyQueryExecution;
+    }
+
+    public void setLazyQueryExecution(boolean lazyQueryExecution) {
+        this.lazyQueryExecution = lazyQueryExecution;
+    }
+
     public Map<String, String> getSettings() {
         Map<String, String> settings = new LinkedHashMap<>(SessionSetting.values().length);
         for (SessionSetting setting : SessionSetting.values()) {
@@ -1606,6 +1765,12 @@ public class ServerSession extends SessionBase {
             case OLAP_BATCH_SIZE:
                 v = olapBatchSize;
                 break;
+            case OLAP_PARALLELISM:
+                v = olapParallelism;
+                break;
+            case LAZY_QUERY_EXECUTION:
+                v = lazyQueryExecution;
+                break;
             }
             settings.put(setting.name(), v == null ? "null" : v.toString());
         }
@@ -0,0 +1,91 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.session;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lealone.db.Database;
+import com.lealone.sql.PreparedSQLStatement;
+
+/**
+ * 数据库级的语句缓存，存放session关闭时留下的空闲语句。
+ *
+ * 语句在执行时会引用session，所以不能同时给多个session用，
+ * 这里的语句一次只会被一个session取走，重新绑定session后放到它自己的queryCache中，
+ * session关闭时再放回来，这样新的session就不用再解析和优化同样的SQL了。
+ * 数据库的元数据有变化时(比如执行了DDL)整个缓存都会清空。
+ */
+public class SharedQueryCache {
+
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<PreparedSQLStatement>> statements;
+    private final AtomicInteger size = new AtomicInteger();
+    private final Database database;
+    private volatile long modificationMetaId;
+
+    public SharedQueryCache(Database database) {
+        this.database = database;
+        statements = new ConcurrentHashMap<>();
+        modificationMetaId = database.getModificationMetaId();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public PreparedSQLStatement poll(String key) {
+        if (!checkModificationMetaId())
+            return null;
+        ConcurrentLinkedQueue<PreparedSQLStatement> queue = statements.get(key);
+        if (queue == null)
+            return null;
+        PreparedSQLStatement ps = queue.poll();
+        if (ps != null)
+            size.decrementAndGet();
+        return ps;
+    }
+
+    /**
+     * 放回一个空闲的语句
+     *
+     * @param key 包含了用户和schema的SQL
+     * @param ps 空闲的语句
+     * @param modificationMetaId 编译语句时数据库的元数据版本
+     */
+    public void offer(String key, PreparedSQLStatement ps, long modificationMetaId) {
+        // 语句是在旧的元数据上编译的，不能再给其他session用了
+        if (!checkModificationMetaId() || modificationMetaId != this.modificationMetaId)
+            return;
+        if (size.incrementAndGet() > database.getSettings().sharedQueryCacheSize) {
+            size.decrementAndGet();
+            return;
+        }
+        statements.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(ps);
+    }
+
+    public synchronized void clear() {
+        statements.clear();
+        size.set(0);
+    }
+
+    // 元数据有变化时清空缓存，返回false
+    // 清空后还可能有个别旧语句放进来，执行时needRecompile会重新编译它们
+    private boolean checkModificationMetaId() {
+        long id = database.getModificationMetaId();
+        if (id == modificationMetaId)
+            return true;
+        synchronized (this) {
+            id = database.getModificationMetaId();
+            if (id != modificationMetaId) {
+                statements.clear();
+                size.set(0);
+                modificationMetaId = id;
+            }
+        }
+        return false;
+    }
+}
@@ -6,37 +6,68 @@
 package com.lealone.db.stats;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongBinaryOperator;
+
+import com.lealone.db.scheduler.Scheduler;
+import com.lealone.db.scheduler.SchedulerThread;
 
 /**
  * Maintains query statistics.
+ *
+ * 每个调度器线程把统计数据记到自己的分片中，分片中的计数器都是原子变量，不需要加锁，
+ * 读PERFORMANCE_SCHEMA.QUERY_STATISTICS时才把所有分片中同一条SQL的统计数据合并起来。
+ * 所有分片的记录数合起来计算，超过上限时从所有分片中淘汰最老的记录。
  */
 public class QueryStatisticsData {
 
     private static final Comparator<QueryEntry> QUERY_ENTRY_COMPARATOR = Comparator
             .comparingLong(q -> q.lastUpdateTime);
 
-    private final HashMap<String, QueryEntry> map = new HashMap<>();
-
-    private int maxQueryEntries;
+    private final Stripe[] stripes;
+    private final AtomicInteger entryCount = new AtomicInteger(); // 所有分片的记录数
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private volatile int maxQueryEntries;
 
     public QueryStatisticsData(int maxQueryEntries) {
         this.maxQueryEntries = maxQueryEntries;
+        int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe();
     }
 
-    public synchronized void setMaxQueryEntries(int maxQueryEntries) {
+    public void setMaxQueryEntries(int maxQueryEntries) {
         this.maxQueryEntries = maxQueryEntries;
     }
 
-    public synchronized List<QueryEntry> getQueries() {
-        // return a copy of the map so we don't have to
-        // worry about external synchronization
-        ArrayList<QueryEntry> list = new ArrayList<>(map.values());
+    public List<QueryEntry> getQueries() {
+        HashMap<String, QueryEntry> map = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            for (Entry<String, Accumulator> e : stripe.map.entrySet()) {
+                QueryEntry entry = map.get(e.getKey());
+                if (entry == null) {
+                    entry = new QueryEntry(e.getKey());
+                    map.put(e.getKey(), entry);
+                }
+                entry.add(e.getValue());
+            }
+        }
+        ArrayList<QueryEntry> list = new ArrayList<>(map.size());
+        for (QueryEntry entry : map.values()) {
+            if (entry.count > 0) {
+                entry.complete();
+                list.add(entry);
+            }
+        }
         // only return the newest 100 entries
         list.sort(QUERY_ENTRY_COMPARATOR);
         return list.subList(0, Math.min(list.size(), maxQueryEntries));
@@ -50,30 +81,124 @@ public class QueryStatisticsData {
      *            to execute
      * @param rowCount the query or update row count
      */
-    public synchronized void update(String sqlStatement, long executionTimeNanos, long rowCount) {
-        QueryEntry entry = map.get(sqlStatement);
-        if (entry == null) {
-            entry = new QueryEntry(sqlStatement);
-            map.put(sqlStatement, entry);
+    public void update(String sqlStatement, long executionTimeNanos, long rowCount) {
+        Stripe stripe = getStripe();
+        Accumulator a = stripe.map.get(sqlStatement);
+        boolean added = false;
+        if (a == null) {
+            Accumulator newAccumulator = new Accumulator();
+            a = stripe.map.putIfAbsent(sqlStatement, newAccumulator);
+            if (a == null) {
+                a = newAccumulator;
+                added = true;
+            }
         }
-        entry.update(executionTimeNanos, rowCount);
-
-        // Age-out the oldest entries if the map gets too big.
-        // Test against 1.5 x max-size so we don't do this too often
-        if (map.size() > maxQueryEntries * 1.5f) {
-            // Sort the entries by age
-            ArrayList<QueryEntry> list = new ArrayList<>(map.values());
-            list.sort(QUERY_ENTRY_COMPARATOR);
-            // Create a set of the oldest 1/3 of the entries
-            HashSet<QueryEntry> oldestSet = new HashSet<>(list.subList(0, list.size() / 3));
-            // Loop over the map using the set and remove
-            // the oldest 1/3 of the entries.
-            for (Iterator<Entry<String, QueryEntry>> it = map.entrySet().iterator(); it.hasNext();) {
-                Entry<String, QueryEntry> mapEntry = it.next();
-                if (oldestSet.contains(mapEntry.getValue())) {
-                    it.remove();
+        a.update(executionTimeNanos, rowCount);
+        // 先更新再淘汰，否则新加入的记录会被当成最老的
+        if (added && entryCount.incrementAndGet() > maxQueryEntries * 1.5f)
+            evict();
+    }
+
+    // 所有分片中的记录数
+    public int getEntryCount() {
+        return entryCount.get();
+    }
+
+    // Age-out the oldest entries if the maps get too big.
+    // Test against 1.5 x max-size so we don't do this too often
+    private void evict() {
+        if (!evicting.compareAndSet(false, true))
+            return;
+        try {
+            int n = 0;
+            long[] times = new long[entryCount.get()];
+            for (Stripe stripe : stripes) {
+                for (Accumulator a : stripe.map.values()) {
+                    if (n == times.length)
+                        times = Arrays.copyOf(times, n * 2 + 1);
+                    times[n++] = a.lastUpdateTime;
                 }
             }
+            // remove the oldest 1/3 of the entries
+            int remove = n / 3;
+            if (remove == 0)
+                return;
+            Arrays.sort(times, 0, n);
+            long maxTime = times[remove - 1];
+            // 先删比maxTime老的，同一时间的记录可能有很多，只删到够数为止
+            remove -= removeOlderThan(maxTime, false, remove);
+            if (remove > 0)
+                removeOlderThan(maxTime, true, remove);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private int removeOlderThan(long time, boolean inclusive, int max) {
+        int removed = 0;
+        for (Stripe stripe : stripes) {
+            for (Entry<String, Accumulator> e : stripe.map.entrySet()) {
+                if (removed >= max)
+                    return removed;
+                long t = e.getValue().lastUpdateTime;
+                if ((t < time || inclusive && t == time)
+                        && stripe.map.remove(e.getKey(), e.getValue())) {
+                    entryCount.decrementAndGet();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private Stripe getStripe() {
+        Scheduler scheduler = SchedulerThread.currentScheduler();
+        long id = scheduler != null ? scheduler.getId() : Thread.currentThread().getId();
+        return stripes[(int) (id & (stripes.length - 1))];
+    }
+
+    private static class Stripe {
+        private final ConcurrentHashMap<String, Accumulator> map = new ConcurrentHashMap<>();
+    }
+
+    // 一条SQL在一个分片中的统计数据，方差用平方和来算，这样不同分片的数据可以直接相加
+    private static class Accumulator {
+
+        private static final LongBinaryOperator MIN = Math::min;
+        private static final LongBinaryOperator MAX = Math::max;
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong executionTimeMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong executionTimeMax = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong executionTimeSum = new AtomicLong();
+        private final AtomicLong executionTimeSquareSum = new AtomicLong(); // double的二进制位
+        private final AtomicLong rowCountMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong rowCountMax = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong rowCountSum = new AtomicLong();
+        private final AtomicLong rowCountSquareSum = new AtomicLong();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private volatile long lastUpdateTime;
+
+        void update(long timeNanos, long rows) {
+            executionTimeMin.accumulateAndGet(timeNanos, MIN);
+            executionTimeMax.accumulateAndGet(timeNanos, MAX);
+            executionTimeSum.addAndGet(timeNanos);
+            addDouble(executionTimeSquareSum, (double) timeNanos * timeNanos);
+            rowCountMin.accumulateAndGet(rows, MIN);
+            rowCountMax.accumulateAndGet(rows, MAX);
+            rowCountSum.addAndGet(rows);
+            addDouble(rowCountSquareSum, (double) rows * rows);
+            histogram.record(timeNanos);
+            lastUpdateTime = System.currentTimeMillis();
+            count.incrementAndGet(); // 最后加，合并时count为0的可以直接跳过
+        }
+
+        private static void addDouble(AtomicLong bits, double delta) {
+            long old;
+            do {
+                old = bits.get();
+            } while (!bits.compareAndSet(old,
+                    Double.doubleToRawLongBits(Double.longBitsToDouble(old) + delta)));
         }
     }
 
@@ -101,12 +226,12 @@ public class QueryStatisticsData {
         /**
          * The minimum execution time, in nanoseconds.
          */
-        public long executionTimeMinNanos;
+        public long executionTimeMinNanos = Long.MAX_VALUE;
 
         /**
          * The maximum execution time, in nanoseconds.
          */
-        public long executionTimeMaxNanos;
+        public long executionTimeMaxNanos = Long.MIN_VALUE;
 
         /**
          * The total execution time.
@@ -116,12 +241,12 @@ public class QueryStatisticsData {
         /**
          * The minimum number of rows.
          */
-        public long rowCountMin;
+        public long rowCountMin = Long.MAX_VALUE;
 
         /**
          * The maximum number of rows.
          */
-        public long rowCountMax;
+        public long rowCountMax = Long.MIN_VALUE;
 
         /**
          * The total number of rows.
@@ -138,51 +263,73 @@ public class QueryStatisticsData {
          */
         public double rowCountMean;
 
-        // Using Welford's method, see also
-        // https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
-        // https://www.johndcook.com/blog/standard_deviation/
+        /**
+         * The median execution time, in nanoseconds.
+         */
+        public long executionTimeP50Nanos;
+
+        /**
+         * The 99th percentile execution time, in nanoseconds.
+         */
+        public long executionTimeP99Nanos;
+
+        /**
+         * The 99.9th percentile execution time, in nanoseconds.
+         */
+        public long executionTimeP999Nanos;
 
-        private double executionTimeM2Nanos;
-        private double rowCountM2;
+        private double executionTimeSquareSum;
+        private double rowCountSquareSum;
+        private final LatencyHistogram histogram = new LatencyHistogram();
 
         public QueryEntry(String sql) {
             this.sqlStatement = sql;
         }
 
-        /**
-         * Update the statistics entry.
-         *
-         * @param timeNanos the execution time in nanos
-         * @param rows the number of rows
-         */
-        void update(long timeNanos, long rows) {
-            count++;
-            executionTimeMinNanos = Math.min(timeNanos, executionTimeMinNanos);
-            executionTimeMaxNanos = Math.max(timeNanos, executionTimeMaxNanos);
-            rowCountMin = Math.min(rows, rowCountMin);
-            rowCountMax = Math.max(rows, rowCountMax);
-
-            double rowDelta = rows - rowCountMean;
-            rowCountMean += rowDelta / count;
-            rowCountM2 += rowDelta * (rows - rowCountMean);
-
-            double timeDelta = timeNanos - executionTimeMeanNanos;
-            executionTimeMeanNanos += timeDelta / count;
-            executionTimeM2Nanos += timeDelta * (timeNanos - executionTimeMeanNanos);
-
-            executionTimeCumulativeNanos += timeNanos;
-            rowCountCumulative += rows;
-            lastUpdateTime = System.currentTimeMillis();
+        // 合并一个分片的数据，读的时候可能还在更新，所以各个值之间不保证完全一致
+        void add(Accumulator a) {
+            long n = a.count.get();
+            if (n == 0)
+                return;
+            count += (int) n;
+            lastUpdateTime = Math.max(lastUpdateTime, a.lastUpdateTime);
+            executionTimeMinNanos = Math.min(executionTimeMinNanos, a.executionTimeMin.get());
+            executionTimeMaxNanos = Math.max(executionTimeMaxNanos, a.executionTimeMax.get());
+            executionTimeCumulativeNanos += a.executionTimeSum.get();
+            executionTimeSquareSum += Double.longBitsToDouble(a.executionTimeSquareSum.get());
+            rowCountMin = Math.min(rowCountMin, a.rowCountMin.get());
+            rowCountMax = Math.max(rowCountMax, a.rowCountMax.get());
+            rowCountCumulative += a.rowCountSum.get();
+            rowCountSquareSum += Double.longBitsToDouble(a.rowCountSquareSum.get());
+            a.histogram.addTo(histogram);
+        }
+
+        void complete() {
+            executionTimeMeanNanos = (double) executionTimeCumulativeNanos / count;
+            rowCountMean = (double) rowCountCumulative / count;
+            executionTimeP50Nanos = getValueAtPercentile(50);
+            executionTimeP99Nanos = getValueAtPercentile(99);
+            executionTimeP999Nanos = getValueAtPercentile(99.9);
+        }
+
+        // 桶的中间值可能超出实际的范围
+        private long getValueAtPercentile(double percentile) {
+            long v = histogram.getValueAtPercentile(percentile);
+            return Math.min(executionTimeMaxNanos, Math.max(executionTimeMinNanos, v));
         }
 
         public double getExecutionTimeStandardDeviation() {
             // population standard deviation
-            return Math.sqrt(executionTimeM2Nanos / count);
+            return getStandardDeviation(executionTimeSquareSum, executionTimeMeanNanos);
         }
 
         public double getRowCountStandardDeviation() {
             // population standard deviation
-            return Math.sqrt(rowCountM2 / count);
+            return getStandardDeviation(rowCountSquareSum, rowCountMean);
+        }
+
+        private double getStandardDeviation(double squareSum, double mean) {
+            return Math.sqrt(Math.max(0, squareSum / count - mean * mean));
         }
     }
 }
@@ -6,11 +6,15 @@
 package com.lealone.db.table;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.Utils;
 import com.lealone.db.result.Row;
 import com.lealone.db.result.SearchRow;
+import com.lealone.db.scheduler.Scheduler;
+import com.lealone.db.scheduler.SchedulerFactory;
+import com.lealone.db.scheduler.SchedulerStatistics;
 import com.lealone.db.schema.Schema;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.stats.QueryStatisticsData;
@@ -21,9 +25,11 @@ import com.lealone.db.stats.QueryStatisticsData;
 public class PerfMetaTable extends MetaTable {
 
     private static final int QUERY_STATISTICS = 0;
+    private static final int REDO_LOG_STATISTICS = 1;
+    private static final int SCHEDULER_STATISTICS = 2;
 
     public static int getMetaTableTypeCount() {
-        return QUERY_STATISTICS + 1;
+        return SCHEDULER_STATISTICS + 1;
     }
 
     public PerfMetaTable(Schema schema, int id, int type) {
@@ -41,7 +47,19 @@ public class PerfMetaTable extends MetaTable {
                     "MAX_EXECUTION_TIME DOUBLE", "CUMULATIVE_EXECUTION_TIME DOUBLE",
                     "AVERAGE_EXECUTION_TIME DOUBLE", "STD_DEV_EXECUTION_TIME DOUBLE",
                     "MIN_ROW_COUNT INT", "MAX_ROW_COUNT INT", "CUMULATIVE_ROW_COUNT LONG",
-                    "AVERAGE_ROW_COUNT DOUBLE", "STD_DEV_ROW_COUNT DOUBLE");
+                    "AVERAGE_ROW_COUNT DOUBLE", "STD_DEV_ROW_COUNT DOUBLE",
+                    "P50_EXECUTION_TIME DOUBLE", "P99_EXECUTION_TIME DOUBLE",
+                    "P999_EXECUTION_TIME DOUBLE");
+            break;
+        }
+        case REDO_LOG_STATISTICS: {
+            setObjectName("REDO_LOG_STATISTICS");
+            cols = createColumns("NAME", "VALUE");
+            break;
+        }
+        case SCHEDULER_STATISTICS: {
+            setObjectName("SCHEDULER_STATISTICS");
+            cols = createColumns("SCHEDULER", "NAME", "VALUE");
             break;
         }
         default:
@@ -83,7 +101,46 @@ public class PerfMetaTable extends MetaTable {
                             // AVERAGE_ROW_COUNT
                             "" + entry.rowCountMean,
                             // STD_DEV_ROW_COUNT
-                            "" + entry.getRowCountStandardDeviation());
+                            "" + entry.getRowCountStandardDeviation(),
+                            // P50_EXECUTION_TIME
+                            "" + entry.executionTimeP50Nanos / 1000d / 1000,
+                            // P99_EXECUTION_TIME
+                            "" + entry.executionTimeP99Nanos / 1000d / 1000,
+                            // P999_EXECUTION_TIME
+                            "" + entry.executionTimeP999Nanos / 1000d / 1000);
+                }
+            }
+            break;
+        }
+        case REDO_LOG_STATISTICS: {
+            for (Map.Entry<String, String> e : database.getTransactionEngine().getRedoLogStatistics()
+                    .entrySet()) {
+                add(rows,
+                        // NAME
+                        e.getKey(),
+                        // VALUE
+                        e.getValue());
+            }
+            break;
+        }
+        case SCHEDULER_STATISTICS: {
+            Scheduler current = session.getScheduler();
+            SchedulerFactory sf = current != null ? current.getSchedulerFactory()
+                    : SchedulerFactory.getDefaultSchedulerFactory();
+            if (sf == null)
+                break;
+            for (Scheduler scheduler : sf.getSchedulers()) {
+                SchedulerStatistics stats = scheduler.getStatistics();
+                if (stats == null)
+                    continue;
+                for (Map.Entry<String, String> e : stats.getStatistics().entrySet()) {
+                    add(rows,
+                            // SCHEDULER
+                            scheduler.getName(),
+                            // NAME
+                            e.getKey(),
+                            // VALUE
+                            e.getValue());
                 }
             }
             break;
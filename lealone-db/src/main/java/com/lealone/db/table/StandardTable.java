@@ -68,7 +68,7 @@ public class StandardTable extends Table {
     private final boolean globalTemporary;
     private final TableAnalyzer tableAnalyzer;
 
-    private long lastModificationId;
+    private volatile long lastModificationId;
     private Column rowIdColumn;
     private int[] largeObjectColumns;
     private DataHandler dataHandler;
@@ -389,7 +389,7 @@ public class StandardTable extends Table {
     @Override
     public Future<Integer> addRow(ServerSession session, Row row) {
         row.setVersion(getVersion());
-        lastModificationId = database.getNextModificationDataId();
+        session.addModifiedTable(this);
         AsyncCallback<Integer> ac = createAsyncCallbackForAddRow(session, row);
         ArrayList<Index> oldIndexes = indexesExcludeDelegate;
         int size = oldIndexes.size();
@@ -434,7 +434,7 @@ public class StandardTable extends Table {
     public Future<Integer> updateRow(ServerSession session, Row oldRow, Row newRow, int[] updateColumns,
             boolean isLockedBySelf) {
         newRow.setVersion(getVersion());
-        lastModificationId = database.getNextModificationDataId();
+        session.addModifiedTable(this);
         AsyncCallback<Integer> ac = session.createCallback();
         ArrayList<Index> oldIndexes = indexesExcludeDelegate;
         int size = oldIndexes.size();
@@ -459,7 +459,7 @@ public class StandardTable extends Table {
 
     @Override
     public Future<Integer> removeRow(ServerSession session, Row row, boolean isLockedBySelf) {
-        lastModificationId = database.getNextModificationDataId();
+        session.addModifiedTable(this);
         AsyncCallback<Integer> ac = session.createCallback();
         ArrayList<Index> oldIndexes = indexesExcludeDelegate;
         int size = oldIndexes.size();
@@ -554,6 +554,11 @@ public class StandardTable extends Table {
         return lastModificationId;
     }
 
+    @Override
+    public void updateMaxDataModificationId() {
+        lastModificationId = database.getNextModificationDataId();
+    }
+
     @Override
     public boolean containsLargeObject() {
         return largeObjectColumns != null;
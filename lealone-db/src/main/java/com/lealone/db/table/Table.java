@@ -297,6 +297,12 @@ public abstract class Table extends SchemaObjectBase {
      */
     public abstract long getMaxDataModificationId();
 
+    /**
+     * 修改过这个表的事务结束时调用，让读过这个表的查询结果缓存失效。
+     */
+    public void updateMaxDataModificationId() {
+    }
+
     /**
      * Check if the table is deterministic.
      *
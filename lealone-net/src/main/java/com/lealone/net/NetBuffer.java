@@ -73,6 +73,12 @@ public class NetBuffer {
         return this;
     }
 
+    // 只用于写，丢弃length之后的内容
+    public NetBuffer truncate(int length) {
+        dataBuffer.position(length);
+        return this;
+    }
+
     public boolean isOnlyOnePacket() {
         return onlyOnePacket;
     }
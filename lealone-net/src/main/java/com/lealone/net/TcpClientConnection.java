@@ -59,8 +59,8 @@ public class TcpClientConnection extends TransferConnection {
         callbackMap.put(packetId, ac);
     }
 
-    public void removeAsyncCallback(int packetId) {
-        callbackMap.remove(packetId);
+    public AsyncCallback<?> removeAsyncCallback(int packetId) {
+        return callbackMap.remove(packetId);
     }
 
     @Override
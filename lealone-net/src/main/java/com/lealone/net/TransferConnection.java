@@ -11,10 +11,12 @@ import java.io.StringWriter;
 import java.nio.ByteBuffer;
 import java.sql.SQLException;
 
+import com.lealone.common.compress.CompressLZF;
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.exceptions.JdbcSQLException;
 import com.lealone.common.logging.Logger;
 import com.lealone.common.logging.LoggerFactory;
+import com.lealone.db.DataBuffer;
 import com.lealone.db.DataBufferFactory;
 import com.lealone.db.api.ErrorCode;
 import com.lealone.db.async.AsyncCallback;
@@ -27,6 +29,10 @@ public abstract class TransferConnection extends AsyncConnection {
     protected final ByteBuffer packetLengthByteBuffer = ByteBuffer
             .allocate(getPacketLengthByteBufferCapacity());
 
+    // 在SessionInit时协商好压缩之后才能接收压缩过的协议包，解压后的长度也不能超过maxPacketSize
+    private volatile boolean compressEnabled;
+    private volatile int maxPacketSize;
+
     public TransferConnection(WritableChannel writableChannel, boolean isServer) {
         super(writableChannel, isServer);
     }
@@ -35,6 +41,11 @@ public abstract class TransferConnection extends AsyncConnection {
         return writableChannel.getDataBufferFactory();
     }
 
+    public void enableCompress(int maxPacketSize) {
+        this.maxPacketSize = maxPacketSize;
+        compressEnabled = true;
+    }
+
     public int getPacketLengthByteBufferCapacity() {
         return 4;
     }
@@ -118,6 +129,25 @@ public abstract class TransferConnection extends AsyncConnection {
         }
     }
 
+    // 解压第一个字节之后的内容，返回一个新的TransferInputStream
+    private TransferInputStream expand(TransferInputStream in, int length) throws IOException {
+        if (!compressEnabled)
+            throw new IOException("Compression is not negotiated");
+        int len = in.readInt();
+        // 原始长度是对端发来的，检查之后才能分配内存
+        if (length < 4 || len < 0 || len > maxPacketSize)
+            throw new IOException("Invalid compressed packet, maxPacketSize: " + maxPacketSize
+                    + ", length: " + len);
+        byte[] compressed = new byte[length - 4];
+        in.getDataInputStream().readFully(compressed);
+        in.closeInputStream();
+        DataBuffer dataBuffer = DataBuffer.create(null, len, false);
+        ByteBuffer bb = dataBuffer.getBuffer();
+        new CompressLZF().expand(compressed, 0, compressed.length, bb.array(), bb.arrayOffset(), len);
+        dataBuffer.limit(len);
+        return new TransferInputStream(new NetBuffer(dataBuffer, true));
+    }
+
     @Override
     public void handle(NetBuffer buffer) {
         if (!buffer.isOnlyOnePacket()) {
@@ -125,7 +155,20 @@ public abstract class TransferConnection extends AsyncConnection {
         }
         try {
             TransferInputStream in = new TransferInputStream(buffer);
-            boolean isRequest = in.readByte() == TransferOutputStream.REQUEST;
+            byte type = in.readByte();
+            if ((type & TransferOutputStream.COMPRESSED) != 0) {
+                try {
+                    in = expand(in, buffer.length() - 1);
+                } catch (IOException e) {
+                    // 不合法的压缩包无法跳过，后续的协议包也不可信了，直接断开连接
+                    logger.error("Failed to expand packet, close connection", e);
+                    handleException(e);
+                    close();
+                    return;
+                }
+                type &= ~TransferOutputStream.COMPRESSED;
+            }
+            boolean isRequest = type == TransferOutputStream.REQUEST;
             int packetId = in.readInt();
             if (isRequest) {
                 int packetType = in.readInt();
@@ -17,6 +17,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import com.lealone.common.compress.CompressLZF;
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.IOUtils;
 import com.lealone.common.util.Utils;
@@ -52,6 +53,8 @@ public class TransferOutputStream implements NetOutputStream {
 
     public static final byte REQUEST = 1;
     public static final byte RESPONSE = 2;
+    // 跟REQUEST或RESPONSE组合，表示协议包第一个字节之后的内容是压缩过的
+    public static final byte COMPRESSED = 0x10;
 
     private final Session session;
     private final DataOutputStream out;
@@ -62,6 +65,8 @@ public class TransferOutputStream implements NetOutputStream {
         this.session = session;
         resettableOutputStream = new ResettableBufferOutputStream(writableChannel, BUFFER_SIZE,
                 dataBufferFactory);
+        if (session != null)
+            resettableOutputStream.compressThreshold = session.getNetCompressThreshold();
         out = new DataOutputStream(resettableOutputStream);
     }
 
@@ -109,6 +114,26 @@ public class TransferOutputStream implements NetOutputStream {
         resettableOutputStream.reset();
     }
 
+    /**
+     * 结束当前协议包，在同一个buffer中接着写下一个协议包，
+     * 这样多个协议包可以合并到一次flush中发出去，接收端还是按包的长度一个个读。
+     */
+    public void startNextPacket() {
+        resettableOutputStream.startNextPacket();
+    }
+
+    /**
+     * 丢弃当前还没写完的协议包，前面已经结束的协议包不受影响
+     */
+    public void discardPacket() {
+        resettableOutputStream.discardPacket();
+    }
+
+    // 包括所有协议包的长度
+    public int length() {
+        return resettableOutputStream.length();
+    }
+
     public Session getSession() {
         return session;
     }
@@ -495,6 +520,10 @@ public class TransferOutputStream implements NetOutputStream {
 
     private static class ResettableBufferOutputStream extends NetBufferOutputStream {
 
+        private int packetStart; // 当前协议包在buffer中的开始位置
+        private int compressThreshold;
+        private CompressLZF compress;
+
         ResettableBufferOutputStream(WritableChannel writableChannel, int initialSizeHint,
                 DataBufferFactory dataBufferFactory) {
             super(writableChannel, initialSizeHint, dataBufferFactory);
@@ -502,7 +531,11 @@ public class TransferOutputStream implements NetOutputStream {
 
         @Override
         public void flush() throws IOException {
-            writePacketLength();
+            // 最后一个协议包是空的，不需要发送
+            if (packetStart > 0 && buffer.length() == packetStart + 4)
+                buffer.truncate(packetStart);
+            else
+                endPacket();
             buffer.flip();
             writableChannel.write(buffer);
         }
@@ -510,21 +543,64 @@ public class TransferOutputStream implements NetOutputStream {
         @Override
         protected void reset() {
             super.reset();
+            packetStart = 0;
             // 协议包头占4个字节，最后flush时再回填
             buffer.appendInt(0);
         }
 
+        void startNextPacket() {
+            endPacket();
+            packetStart = buffer.length();
+            buffer.appendInt(0);
+        }
+
+        void discardPacket() {
+            buffer.truncate(packetStart + 4);
+        }
+
+        int length() {
+            return buffer.length();
+        }
+
+        private void endPacket() {
+            compressPacket();
+            writePacketLength();
+        }
+
+        // 协议包的内容超过阈值时，把第一个字节之后的内容换成: 原始长度 + LZF压缩后的内容
+        private void compressPacket() {
+            int start = packetStart + 5; // 4个字节的长度 + 1个字节的类型
+            int len = buffer.length() - start;
+            if (compressThreshold <= 0 || len <= compressThreshold)
+                return;
+            byte[] in = new byte[len];
+            ByteBuffer bb = buffer.getByteBuffer().duplicate();
+            bb.position(start);
+            bb.get(in);
+            byte[] out = new byte[len * 2];
+            if (compress == null)
+                compress = new CompressLZF();
+            int compressedLen = compress.compress(in, len, out, 0);
+            if (compressedLen + 4 >= len) // 压缩效果不好就发原始内容
+                return;
+            byte type = (byte) (buffer.getUnsignedByte(packetStart + 4) | COMPRESSED);
+            buffer.setByte(packetStart + 4, type);
+            buffer.truncate(start);
+            buffer.appendInt(len);
+            buffer.appendBytes(out, 0, compressedLen);
+        }
+
         // 按java.io.DataInputStream.readInt()的格式写
         private void writePacketLength() {
-            int v = buffer.length() - 4;
-            buffer.setByte(0, (byte) ((v >>> 24) & 0xFF));
-            buffer.setByte(1, (byte) ((v >>> 16) & 0xFF));
-            buffer.setByte(2, (byte) ((v >>> 8) & 0xFF));
-            buffer.setByte(3, (byte) (v & 0xFF));
+            int v = buffer.length() - packetStart - 4;
+            buffer.setByte(packetStart, (byte) ((v >>> 24) & 0xFF));
+            buffer.setByte(packetStart + 1, (byte) ((v >>> 16) & 0xFF));
+            buffer.setByte(packetStart + 2, (byte) ((v >>> 8) & 0xFF));
+            buffer.setByte(packetStart + 3, (byte) (v & 0xFF));
         }
 
         public void setPayloadSize(int payloadStartPos, int size) {
-            payloadStartPos += 4;
+            payloadStartPos += packetStart + 4;
             int v = size;
             buffer.setByte(payloadStartPos, (byte) ((v >>> 24) & 0xFF));
             buffer.setByte(payloadStartPos + 1, (byte) ((v >>> 16) & 0xFF));
@@ -12,6 +12,8 @@ import com.lealone.common.exceptions.DbException;
 import com.lealone.common.logging.Logger;
 import com.lealone.common.logging.LoggerFactory;
 import com.lealone.common.util.ExpiringMap;
+import com.lealone.db.ConnectionSetting;
+import com.lealone.db.Constants;
 import com.lealone.db.DataBufferFactory;
 import com.lealone.db.api.ErrorCode;
 import com.lealone.db.scheduler.Scheduler;
@@ -20,6 +22,7 @@ import com.lealone.db.session.Session;
 import com.lealone.net.TransferInputStream;
 import com.lealone.net.TransferOutputStream;
 import com.lealone.net.WritableChannel;
+import com.lealone.net.bio.BioWritableChannel;
 import com.lealone.server.protocol.Packet;
 import com.lealone.server.protocol.PacketType;
 import com.lealone.server.protocol.session.SessionInit;
@@ -121,7 +124,14 @@ public class TcpServerConnection extends AsyncServerConnection {
             addSession(session, sessionId);
             scheduler.validateSession(true);
             session.setProtocolVersion(packet.clientVersion);
-            sendSessionInitAck(packet, packetId, session);
+            int compressThreshold = 0;
+            if (packet.clientVersion >= Constants.TCP_PROTOCOL_VERSION_7)
+                compressThreshold = packet.ci.getProperty(ConnectionSetting.NET_COMPRESS_THRESHOLD, 0);
+            sendSessionInitAck(packet, packetId, session, compressThreshold);
+            // 响应发出去之后才开始压缩，老版本的client不认识压缩过的协议包
+            session.setNetCompressThreshold(compressThreshold);
+            if (compressThreshold > 0)
+                enableCompress(BioWritableChannel.getMaxPacketSize(tcpServer.getConfig()));
         } catch (Throwable e) {
             if (DbException.convert(e).getErrorCode() == ErrorCode.WRONG_USER_OR_PASSWORD) {
                 scheduler.validateSession(false);
@@ -162,12 +172,13 @@ public class TcpServerConnection extends AsyncServerConnection {
         }
     }
 
-    private void sendSessionInitAck(SessionInit packet, int packetId, ServerSession session)
-            throws Exception {
+    private void sendSessionInitAck(SessionInit packet, int packetId, ServerSession session,
+            int compressThreshold) throws Exception {
         TransferOutputStream out = createTransferOutputStream(session);
         out.writeResponseHeader(packetId, Session.STATUS_OK);
         SessionInitAck ack = new SessionInitAck(packet.clientVersion, session.isAutoCommit(),
-                session.getTargetNodes(), session.getRunMode(), session.isInvalid(), 0);
+                session.getTargetNodes(), session.getRunMode(), session.isInvalid(), 0,
+                compressThreshold);
         ack.encode(out, packet.clientVersion);
         out.flush();
     }
@@ -16,6 +16,7 @@ import com.lealone.db.MemoryManager;
 import com.lealone.db.async.AsyncTask;
 import com.lealone.db.link.LinkableBase;
 import com.lealone.db.link.LinkableList;
+import com.lealone.db.scheduler.SchedulerStatistics.Phase;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.session.Session;
 import com.lealone.net.NetScheduler;
@@ -59,19 +60,38 @@ public class GlobalScheduler extends NetScheduler {
     @Override
     public void run() {
         while (!stopped) {
+            long t = statistics.startLoop();
             runRegisterAccepterTasks();
             runSessionInitTasks();
+            t = statistics.endPhase(Phase.SESSION_INIT, t);
             runMiscTasks();
+            t = statistics.endPhase(Phase.MISC_TASK, t);
             runPageOperationTasks();
+            t = statistics.endPhase(Phase.PAGE_OPERATION, t);
             runSessionTasks();
+            t = statistics.endPhase(Phase.SESSION_TASK, t);
             runPendingTransactions();
+            t = statistics.endPhase(Phase.PENDING_TRANSACTION, t);
             executeNextStatement();
+            t = statistics.endPhase(Phase.STATEMENT, t);
             runPeriodicTasks();
+            t = statistics.endPhase(Phase.PERIODIC_TASK, t);
             runEventLoop();
+            statistics.endPhase(Phase.EVENT_LOOP, t);
         }
         onStopped();
     }
 
+    @Override
+    protected Map<String, Integer> getQueueSizes() {
+        Map<String, Integer> map = super.getQueueSizes();
+        map.put("session_init_task", sessionInitTasks.size());
+        map.put("session", sessions.size());
+        map.put("misc_task", miscTasks.size());
+        map.put("locked_page_operation", lockedPageOperationTasks.size());
+        return map;
+    }
+
     @Override
     public void handle(AsyncTask task) {
         LinkableTask ltask = new LinkableTask() {
@@ -290,8 +310,10 @@ public class GlobalScheduler extends NetScheduler {
         }
 
         // 至少有两个session才需要yield
-        if (sessions.size() < 2)
+        if (sessions.size() < 2) {
+            statistics.onYieldCheck(false);
             return false;
+        }
 
         // 如果来了更高优化级的命令，那么当前正在执行的语句就让出当前线程，
         // 当前线程转去执行高优先级的命令
@@ -299,8 +321,10 @@ public class GlobalScheduler extends NetScheduler {
         nextBestCommand = getNextBestCommand(current.getSession(), priority, false);
         if (nextBestCommand != null) {
             current.setPriority(priority + 1);
+            statistics.onYieldCheck(true);
             return true;
         }
+        statistics.onYieldCheck(false);
         return false;
     }
 
@@ -343,6 +367,7 @@ public class GlobalScheduler extends NetScheduler {
     @Override
     public void handlePageOperation(PageOperation po) {
         lockedPageOperationTasks.add(new LinkablePageOperation(po));
+        statistics.onLockedPageOperationAdded(lockedPageOperationTasks.size());
     }
 
     @Override
@@ -359,10 +384,12 @@ public class GlobalScheduler extends NetScheduler {
                 try {
                     PageOperationResult result = task.po.run(this);
                     if (result == PageOperationResult.LOCKED) {
+                        statistics.onLockedRetry();
                         last = task;
                         task = task.next;
                         continue;
                     } else if (result == PageOperationResult.RETRY) {
+                        statistics.onRetry();
                         continue;
                     }
                     task = task.next;
@@ -377,10 +404,12 @@ public class GlobalScheduler extends NetScheduler {
                 }
                 lockedPageOperationTasks.decrementSize();
             }
-            if (lockedPageOperationTasks.getHead() == null)
+            if (lockedPageOperationTasks.getHead() == null) {
                 lockedPageOperationTasks.setTail(null);
-            else
+                statistics.onLockedPageOperationsEmpty();
+            } else {
                 lockedPageOperationTasks.setTail(last);
+            }
 
             // 全都锁住了，没必要再试了
             if (size == lockedPageOperationTasks.size())
@@ -22,6 +22,7 @@ import com.lealone.db.async.AsyncTask;
 import com.lealone.db.async.Future;
 import com.lealone.db.result.Result;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.Session;
 import com.lealone.db.session.SessionStatus;
 import com.lealone.db.value.Value;
 import com.lealone.sql.executor.YieldableBase;
@@ -93,6 +94,11 @@ public abstract class StatementBase implements PreparedSQLStatement, ParsedSQLSt
         this.session = currentSession;
     }
 
+    @Override
+    public void bindSession(Session session) {
+        setSession((ServerSession) session);
+    }
+
     /**
      * Get the SQL statement.
      *
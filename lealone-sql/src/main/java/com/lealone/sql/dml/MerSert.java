@@ -19,6 +19,7 @@ import com.lealone.db.result.Result;
 import com.lealone.db.result.ResultTarget;
 import com.lealone.db.result.Row;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.Session;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
 import com.lealone.db.value.Value;
@@ -27,6 +28,8 @@ import com.lealone.sql.executor.YieldableBase;
 import com.lealone.sql.executor.YieldableLoopUpdateBase;
 import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.Parameter;
+import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
+import com.lealone.sql.expression.visitor.ShareableVisitor;
 import com.lealone.sql.query.Query;
 
 // merge和insert的基类
@@ -48,6 +51,26 @@ public abstract class MerSert extends ManipulationStatement {
         return true;
     }
 
+    // 只有VALUES子句的才能给其他session用
+    @Override
+    public boolean isShareable() {
+        if (query != null || !ShareableVisitor.isShareable(table))
+            return false;
+        for (Expression[] expr : list) {
+            for (Expression e : expr) {
+                if (e != null && !e.accept(ExpressionVisitorFactory.getShareableVisitor()))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void bindSession(Session session) {
+        super.bindSession(session);
+        batchParameterValues = null;
+    }
+
     public void setTable(Table table) {
         this.table = table;
     }
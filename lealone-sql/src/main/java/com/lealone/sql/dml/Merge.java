@@ -46,6 +46,12 @@ public class Merge extends MerSert {
         return SQLStatement.MERGE;
     }
 
+    // 内部的update语句也在session的queryCache中，会被单独复用
+    @Override
+    public boolean isShareable() {
+        return false;
+    }
+
     public void setKeys(Column[] keys) {
         this.keys = keys;
     }
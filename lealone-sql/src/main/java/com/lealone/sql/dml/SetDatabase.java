@@ -270,6 +270,12 @@ public class SetDatabase extends SetStatement {
             }
             break;
         }
+        case SHARED_QUERY_CACHE_SIZE: {
+            int value = getAndValidateIntValue();
+            setDbSetting(value);
+            database.getSharedQueryCache().clear();
+            break;
+        }
         default:
             if (DbSetting.contains(name)) {
                 setDbSetting(getStringValue());
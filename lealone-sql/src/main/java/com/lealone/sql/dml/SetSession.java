@@ -81,6 +81,12 @@ public class SetSession extends SetStatement {
         case OLAP_BATCH_SIZE:
             session.setOlapBatchSize(getIntValue());
             break;
+        case OLAP_PARALLELISM:
+            session.setOlapParallelism(getIntValue());
+            break;
+        case LAZY_QUERY_EXECUTION:
+            session.setLazyQueryExecution(getIntValue() == 1);
+            break;
         default:
             DbException.throwInternalError("unknown setting type: " + setting);
         }
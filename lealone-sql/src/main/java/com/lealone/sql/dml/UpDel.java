@@ -22,6 +22,8 @@ import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.evaluator.AlwaysTrueEvaluator;
 import com.lealone.sql.expression.evaluator.ExpressionEvaluator;
 import com.lealone.sql.expression.evaluator.ExpressionInterpreter;
+import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
+import com.lealone.sql.expression.visitor.ShareableVisitor;
 import com.lealone.sql.optimizer.TableFilter;
 import com.lealone.sql.optimizer.TableIterator;
 
@@ -45,6 +47,16 @@ public abstract class UpDel extends ManipulationStatement {
         return true;
     }
 
+    @Override
+    public boolean isShareable() {
+        return ShareableVisitor.isShareable(tableFilter.getTable()) && isShareable(condition)
+                && isShareable(limitExpr);
+    }
+
+    protected static boolean isShareable(Expression e) {
+        return e == null || e.accept(ExpressionVisitorFactory.getShareableVisitor());
+    }
+
     public void setTableFilter(TableFilter tableFilter) {
         this.tableFilter = tableFilter;
     }
@@ -46,6 +46,17 @@ public class Update extends UpDel {
         return SQLStatement.UPDATE;
     }
 
+    @Override
+    public boolean isShareable() {
+        if (!super.isShareable())
+            return false;
+        for (Expression e : expressionMap.values()) {
+            if (!isShareable(e))
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Add an assignment of the form column = expression.
      *
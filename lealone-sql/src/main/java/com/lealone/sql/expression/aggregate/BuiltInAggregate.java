@@ -65,6 +65,10 @@ public abstract class BuiltInAggregate extends Aggregate {
         return on;
     }
 
+    public boolean isDistinct() {
+        return distinct;
+    }
+
     @Override
     public int getScale() {
         return scale;
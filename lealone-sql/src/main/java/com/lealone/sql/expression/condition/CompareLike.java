@@ -385,6 +385,44 @@ public class CompareLike extends Condition {
         patternString = new String(patternChars, 0, patternLength);
     }
 
+    /**
+     * 模式是常量并且只在开头或结尾有%时才能编译执行，
+     * 返回值的第1位表示开头有%，第2位表示结尾有%，不能编译执行时返回-1
+     *
+     * @return the pattern type
+     */
+    public int getSimplePatternType() {
+        if (!isInit || regexp || !fastCompare || invalidPattern || patternTypes == null) {
+            return -1;
+        }
+        int type = 0;
+        for (int i = 0; i < patternLength; i++) {
+            if (patternTypes[i] == MATCH) {
+                continue;
+            }
+            if (patternTypes[i] == ANY && i == 0) {
+                type |= 1;
+            } else if (patternTypes[i] == ANY && i == patternLength - 1) {
+                type |= 2;
+            } else {
+                return -1;
+            }
+        }
+        return type;
+    }
+
+    /**
+     * 去掉开头和结尾的%之后的模式字符串
+     *
+     * @return the string to match
+     */
+    public String getSimplePatternString() {
+        int type = getSimplePatternType();
+        int start = (type & 1) != 0 ? 1 : 0;
+        int end = (type & 2) != 0 ? patternLength - 1 : patternLength;
+        return patternString.substring(start, end);
+    }
+
     private boolean isFullMatch() {
         if (patternTypes == null) {
             return false;
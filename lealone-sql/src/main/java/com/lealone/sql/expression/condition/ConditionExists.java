@@ -12,6 +12,7 @@ import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueBoolean;
 import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.visitor.ExpressionVisitor;
+import com.lealone.sql.optimizer.SemiJoin;
 import com.lealone.sql.query.Query;
 
 /**
@@ -20,6 +21,7 @@ import com.lealone.sql.query.Query;
 public class ConditionExists extends Condition {
 
     private final Query query;
+    private SemiJoin semiJoin;
 
     public ConditionExists(Query query) {
         this.query = query;
@@ -31,6 +33,11 @@ public class ConditionExists extends Condition {
 
     @Override
     public Value getValue(ServerSession session) {
+        if (semiJoin != null) {
+            Value v = semiJoin.getValue(session);
+            if (v != null)
+                return v;
+        }
         query.setSession(session);
         Result result = query.query(1);
         session.addTemporaryResult(result);
@@ -41,12 +48,17 @@ public class ConditionExists extends Condition {
     @Override
     public Expression optimize(ServerSession session) {
         query.prepare();
+        semiJoin = SemiJoin.create(session, query, null);
         return this;
     }
 
     @Override
     public String getSQL() {
-        return "EXISTS(\n" + StringUtils.indent(query.getPlanSQL(), 4, false) + ")";
+        String sql = query.getPlanSQL();
+        if (semiJoin != null) {
+            sql = "/* " + StringUtils.quoteRemarkSQL(semiJoin.getPlanSQL()) + " */\n" + sql;
+        }
+        return "EXISTS(\n" + StringUtils.indent(sql, 4, false) + ")";
     }
 
     @Override
@@ -20,6 +20,7 @@ import com.lealone.sql.expression.visitor.ExpressionVisitor;
 import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 import com.lealone.sql.expression.visitor.NotFromResolverVisitor;
 import com.lealone.sql.optimizer.IndexCondition;
+import com.lealone.sql.optimizer.SemiJoin;
 import com.lealone.sql.optimizer.TableFilter;
 import com.lealone.sql.query.Query;
 
@@ -34,6 +35,10 @@ public class ConditionInSelect extends Condition {
     private final boolean all;
     private final int compareType;
     private SubQueryResult rows;
+    private ServerSession rowsSession;
+    private long rowsCommandId;
+    private boolean rowsReusable; // 子查询不引用外层查询的字段时，同一条语句中可以重用结果
+    private SemiJoin semiJoin;
 
     public ConditionInSelect(Database database, Expression left, Query query, boolean all,
             int compareType) {
@@ -54,10 +59,19 @@ public class ConditionInSelect extends Condition {
 
     @Override
     public Value getValue(ServerSession session) {
-        if (rows == null) {
+        if (semiJoin != null) {
+            Value v = semiJoin.getValue(session);
+            if (v != null)
+                return v;
+        }
+        if (rows == null || !rowsReusable || rowsSession != session
+                || rowsCommandId != session.getCurrentCommandId()) {
             query.setSession(session);
             rows = new SubQueryResult(query, 0);
             session.addTemporaryResult(rows);
+            rowsSession = session;
+            rowsCommandId = session.getCurrentCommandId();
+            rowsReusable = query.accept(ExpressionVisitorFactory.getIndependentVisitor());
         } else {
             rows.reset();
         }
@@ -122,6 +136,9 @@ public class ConditionInSelect extends Condition {
         if (query.getColumnCount() != 1) {
             throw DbException.get(ErrorCode.SUBQUERY_IS_NOT_SINGLE_COLUMN);
         }
+        if (!all && compareType == Comparison.EQUAL) {
+            semiJoin = SemiJoin.create(session, query, left);
+        }
         // Can not optimize: the data may change
         return this;
     }
@@ -138,7 +155,11 @@ public class ConditionInSelect extends Condition {
             else
                 buff.append("IN");
         }
-        buff.append("(\n").append(StringUtils.indent(query.getPlanSQL(), 4, false)).append("))");
+        String sql = query.getPlanSQL();
+        if (semiJoin != null) {
+            sql = "/* " + StringUtils.quoteRemarkSQL(semiJoin.getPlanSQL()) + " */\n" + sql;
+        }
+        buff.append("(\n").append(StringUtils.indent(sql, 4, false)).append("))");
         return buff.toString();
     }
 
@@ -0,0 +1,59 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+
+//由ExpressionCompiler生成的类的父类
+//条件的值用int表示: 1是true，0是false，-1是null，跟ExpressionInterpreter的执行结果保持一致
+public abstract class CompiledExpressionEvaluator implements ExpressionEvaluator {
+
+    protected ServerSession session;
+    protected Expression[] e; // 生成的代码中引用到的表达式
+
+    public void init(Expression[] e, Object[] constants) {
+        this.e = e;
+        initConstants(constants);
+    }
+
+    // 生成的类把常量保存到自己的字段中
+    protected void initConstants(Object[] c) {
+    }
+
+    // 跟PreparedSQLStatement一起缓存，每次执行时的session可能不同
+    public void setSession(ServerSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public boolean getBooleanValue() {
+        return eval() == 1;
+    }
+
+    protected abstract int eval();
+
+    protected static int toInt(Value v) {
+        if (v == ValueNull.INSTANCE) {
+            return -1;
+        }
+        return v.getBoolean() ? 1 : 0;
+    }
+
+    protected static boolean isIntegerType(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
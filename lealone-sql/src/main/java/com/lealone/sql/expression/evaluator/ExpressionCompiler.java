@@ -0,0 +1,341 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.lealone.common.logging.Logger;
+import com.lealone.common.logging.LoggerFactory;
+import com.lealone.common.util.Utils;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.util.SourceCompiler;
+import com.lealone.db.value.CompareMode;
+import com.lealone.db.value.Value;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.condition.CompareLike;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.expression.condition.ConditionNot;
+
+/**
+ * 把where条件编译成java类，避免解释执行时的虚方法调用和为每个条件创建ValueBoolean。
+ *
+ * ConditionAndOr、ConditionNot、整数类型的Comparison、简单模式的CompareLike会生成对应的代码，
+ * 其他表达式还是调用它们的getValue。
+ * 常量不生成到代码中，而是通过字段传给生成的类，所以生成的类按条件的结构缓存，只是常量不同的条件共用同一个类。
+ * javac在单独的编译线程中执行，不会阻塞执行查询的调度线程，编译完成之前还是解释执行。
+ */
+public class ExpressionCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpressionCompiler.class);
+
+    private static final int MAX_CACHED_CLASSES = 1024;
+    private static final ConcurrentHashMap<String, CompletableFuture<Class<?>>> classes = //
+            new ConcurrentHashMap<>();
+    private static final AtomicInteger nextClassId = new AtomicInteger();
+    private static final ThreadPoolExecutor compileExecutor = createCompileExecutor();
+
+    private final ServerSession session;
+    private final boolean compareModeOff;
+    private final ArrayList<Expression> expressions = new ArrayList<>();
+    private final ArrayList<Object> constants = new ArrayList<>();
+    private final StringBuilder fields = new StringBuilder();
+    private final StringBuilder constantInits = new StringBuilder();
+    private final StringBuilder methods = new StringBuilder();
+    private int methodCount;
+    private int compiledCount; // 生成了代码的条件个数
+
+    private ExpressionCompiler(ServerSession session) {
+        this.session = session;
+        compareModeOff = CompareMode.OFF.equals(session.getDatabase().getCompareMode().getName());
+    }
+
+    private static ThreadPoolExecutor createCompileExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "ExpressionCompilerThread");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 异步编译条件，编译完成后在编译线程中调用callback，
+     * 类已经编译过时直接在当前线程中调用callback，
+     * 没有可以编译的条件或者编译失败时callback的参数为null
+     *
+     * @param session the session
+     * @param condition the condition
+     * @param callback the callback
+     */
+    public static void compileAsync(ServerSession session, Expression condition,
+            Consumer<CompiledExpressionEvaluator> callback) {
+        // 生成代码时会访问表达式，所以在当前线程中执行，只有javac在编译线程中执行
+        ExpressionCompiler compiler = new ExpressionCompiler(session);
+        String body = compiler.generate(condition);
+        if (body == null) {
+            callback.accept(null);
+            return;
+        }
+        getClass(body).whenComplete((clz, t) -> {
+            callback.accept(t == null ? compiler.newEvaluator(clz, condition) : null);
+        });
+    }
+
+    /**
+     * 同步编译条件，没有可以编译的条件或者编译失败时返回null
+     *
+     * @param session the session
+     * @param condition the condition
+     * @return the evaluator, or null
+     */
+    public static CompiledExpressionEvaluator compile(ServerSession session, Expression condition) {
+        CompletableFuture<CompiledExpressionEvaluator> future = new CompletableFuture<>();
+        compileAsync(session, condition, future::complete);
+        return future.join();
+    }
+
+    private static CompletableFuture<Class<?>> getClass(String body) {
+        CompletableFuture<Class<?>> future = classes.get(body);
+        if (future != null) {
+            return future;
+        }
+        if (classes.size() >= MAX_CACHED_CLASSES) {
+            classes.clear();
+        }
+        CompletableFuture<Class<?>> newFuture = new CompletableFuture<>();
+        future = classes.putIfAbsent(body, newFuture);
+        if (future != null) {
+            return future;
+        }
+        // 编译失败的结果也缓存，避免同样结构的条件反复编译
+        compileExecutor.execute(() -> {
+            try {
+                String className = ExpressionCompiler.class.getPackage().getName()
+                        + ".CompiledCondition" + nextClassId.incrementAndGet();
+                String source = getSource(className, body);
+                newFuture.complete(SourceCompiler.compileAsClass(
+                        ExpressionCompiler.class.getClassLoader(), className, source));
+            } catch (Throwable t) {
+                logger.warn("Failed to compile condition:\n" + body, t);
+                newFuture.completeExceptionally(t);
+            }
+        });
+        return newFuture;
+    }
+
+    private CompiledExpressionEvaluator newEvaluator(Class<?> clz, Expression condition) {
+        try {
+            CompiledExpressionEvaluator evaluator = Utils.newInstance(clz);
+            evaluator.init(expressions.toArray(new Expression[0]), constants.toArray());
+            evaluator.setSession(session);
+            return evaluator;
+        } catch (Throwable t) {
+            logger.warn("Failed to create evaluator: " + condition.getSQL(), t);
+            return null;
+        }
+    }
+
+    private static String getSource(String className, String body) {
+        int idx = className.lastIndexOf('.');
+        StringBuilder buff = new StringBuilder();
+        buff.append("package ").append(className, 0, idx).append(";\n\n");
+        buff.append("import com.lealone.db.value.*;\n\n");
+        buff.append("public class ").append(className.substring(idx + 1));
+        buff.append(" extends CompiledExpressionEvaluator {\n");
+        buff.append(body);
+        buff.append("}\n");
+        return buff.toString();
+    }
+
+    private String generate(Expression condition) {
+        String m = generateCondition(condition);
+        if (compiledCount == 0) {
+            return null; // 全部都是调用getValue，编译没有意义
+        }
+        StringBuilder buff = new StringBuilder();
+        if (!constants.isEmpty()) {
+            buff.append(fields).append('\n');
+            buff.append("    @Override\n");
+            buff.append("    protected void initConstants(Object[] c) {\n");
+            buff.append(constantInits);
+            buff.append("    }\n\n");
+        }
+        buff.append(methods);
+        buff.append("    @Override\n");
+        buff.append("    protected int eval() {\n");
+        buff.append("        return ").append(m).append("();\n");
+        buff.append("    }\n");
+        return buff.toString();
+    }
+
+    // 为每个条件生成一个返回int的方法，返回方法名
+    private String generateCondition(Expression e) {
+        StringBuilder buff = new StringBuilder();
+        if (e instanceof ConditionAndOr) {
+            ConditionAndOr c = (ConditionAndOr) e;
+            String left = generateCondition(c.getLeft());
+            String right = generateCondition(c.getRight());
+            buff.append("        int l = ").append(left).append("();\n");
+            if (c.getAndOrType() == ConditionAndOr.AND) {
+                buff.append("        if (l != 1) return l;\n");
+                buff.append("        int r = ").append(right).append("();\n");
+                buff.append("        if (r != 1) return r;\n");
+                buff.append("        return 1;\n");
+            } else {
+                buff.append("        if (l == 1) return 1;\n");
+                buff.append("        int r = ").append(right).append("();\n");
+                buff.append("        if (r == 1) return 1;\n");
+                buff.append("        return l == -1 || r == -1 ? -1 : 0;\n");
+            }
+            compiledCount++;
+        } else if (e instanceof ConditionNot) {
+            String m = generateCondition(((ConditionNot) e).getCondition());
+            buff.append("        int v = ").append(m).append("();\n");
+            buff.append("        return v == -1 ? -1 : 1 - v;\n");
+            compiledCount++;
+        } else if (e instanceof Comparison && generateComparison((Comparison) e, buff)) {
+            compiledCount++;
+        } else if (e instanceof CompareLike && generateLike((CompareLike) e, buff)) {
+            compiledCount++;
+        } else {
+            buff.append("        return toInt(").append(ref(e)).append(".getValue(session));\n");
+        }
+        return addMethod(buff);
+    }
+
+    private String addMethod(StringBuilder body) {
+        String name = "c" + methodCount++;
+        methods.append("    private int ").append(name).append("() {\n");
+        methods.append(body);
+        methods.append("    }\n\n");
+        return name;
+    }
+
+    private String ref(Expression e) {
+        expressions.add(e);
+        return "e[" + (expressions.size() - 1) + "]";
+    }
+
+    // 常量通过字段传给生成的类，生成的代码中只有字段名和类型，返回字段名
+    private String constant(String type, String wrapperType, Object value) {
+        int index = constants.size();
+        constants.add(value);
+        String name = "k" + index;
+        fields.append("    private ").append(type).append(' ').append(name).append(";\n");
+        constantInits.append("        ").append(name).append(" = (").append(wrapperType).append(") c[")
+                .append(index).append("];\n");
+        return name;
+    }
+
+    private boolean generateComparison(Comparison c, StringBuilder buff) {
+        Expression left = c.getLeft();
+        Expression right = c.getRight();
+        int compareType = c.getCompareType();
+        if (right == null) {
+            if (compareType != Comparison.IS_NULL && compareType != Comparison.IS_NOT_NULL)
+                return false;
+            buff.append("        boolean isNull = ").append(ref(left))
+                    .append(".getValue(session) == ValueNull.INSTANCE;\n");
+            buff.append("        return ").append(compareType == Comparison.IS_NULL ? "" : "!")
+                    .append("isNull ? 1 : 0;\n");
+            return true;
+        }
+        String op = getOperator(compareType);
+        if (op == null || !(left instanceof ExpressionColumn))
+            return false;
+        int leftType = left.getType();
+        boolean integerConstant = right.isConstant()
+                && CompiledExpressionEvaluator.isIntegerType(right.getType());
+        if (CompiledExpressionEvaluator.isIntegerType(leftType)
+                && (integerConstant || !right.isConstant())) {
+            buff.append("        Value l = ").append(ref(left)).append(".getValue(session);\n");
+            buff.append("        if (l == ValueNull.INSTANCE) return -1;\n");
+            if (integerConstant) {
+                String r = constant("long", "Long", right.getValue(session).getLong());
+                buff.append("        return l.getLong() ").append(op).append(' ').append(r)
+                        .append(" ? 1 : 0;\n");
+            } else {
+                String r = ref(right);
+                buff.append("        Value r = ").append(r).append(".getValue(session);\n");
+                buff.append("        if (r == ValueNull.INSTANCE) return -1;\n");
+                // 参数的类型在每次执行时都可能不同，不是整数类型时还是调用getValue
+                buff.append("        if (!isIntegerType(r.getType())) return toInt(").append(ref(c))
+                        .append(".getValue(session));\n");
+                buff.append("        return l.getLong() ").append(op).append(" r.getLong() ? 1 : 0;\n");
+            }
+            return true;
+        }
+        if (leftType == Value.STRING && compareModeOff && right.isConstant()
+                && right.getType() == Value.STRING
+                && (compareType == Comparison.EQUAL || compareType == Comparison.NOT_EQUAL)) {
+            String r = constant("String", "String", right.getValue(session).getString());
+            buff.append("        Value l = ").append(ref(left)).append(".getValue(session);\n");
+            buff.append("        if (l == ValueNull.INSTANCE) return -1;\n");
+            buff.append("        return ").append(compareType == Comparison.EQUAL ? "" : "!")
+                    .append(r).append(".equals(l.getString()) ? 1 : 0;\n");
+            return true;
+        }
+        return false;
+    }
+
+    private static String getOperator(int compareType) {
+        switch (compareType) {
+        case Comparison.EQUAL:
+            return "==";
+        case Comparison.NOT_EQUAL:
+            return "!=";
+        case Comparison.BIGGER_EQUAL:
+            return ">=";
+        case Comparison.BIGGER:
+            return ">";
+        case Comparison.SMALLER_EQUAL:
+            return "<=";
+        case Comparison.SMALLER:
+            return "<";
+        default:
+            return null;
+        }
+    }
+
+    private boolean generateLike(CompareLike like, StringBuilder buff) {
+        if (!(like.getLeft() instanceof ExpressionColumn))
+            return false;
+        int type = like.getSimplePatternType();
+        if (type < 0)
+            return false;
+        String p = constant("String", "String", like.getSimplePatternString());
+        String method;
+        switch (type) {
+        case 1:
+            method = "endsWith";
+            break;
+        case 2:
+            method = "startsWith";
+            break;
+        case 3:
+            method = "contains";
+            break;
+        default:
+            method = "equals";
+        }
+        buff.append("        Value l = ").append(ref(like.getLeft())).append(".getValue(session);\n");
+        buff.append("        if (l == ValueNull.INSTANCE) return -1;\n");
+        buff.append("        return l.getString().").append(method).append('(').append(p)
+                .append(") ? 1 : 0;\n");
+        return true;
+    }
+}
@@ -64,6 +64,15 @@ public class ExpressionVisitorFactory {
         return QUERY_COMPARABLE_VISITOR;
     }
 
+    private static final ShareableVisitor SHAREABLE_VISITOR = new ShareableVisitor();
+
+    /**
+     * Can the statement be reused by other sessions after it is bound to them?
+     */
+    public static ShareableVisitor getShareableVisitor() {
+        return SHAREABLE_VISITOR;
+    }
+
     /**
      * The visitor singleton for the type EVALUATABLE.
      */
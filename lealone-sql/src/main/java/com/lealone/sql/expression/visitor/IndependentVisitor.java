@@ -31,4 +31,10 @@ public class IndependentVisitor extends BooleanExpressionVisitor {
     public Boolean visitSequenceValue(SequenceValue e) {
         return false;
     }
+
+    // 不能修改单例的queryLevel，否则多次调用后子查询中引用外层查询的字段也会被当成是独立的
+    @Override
+    protected ExpressionVisitorBase<Boolean> copy() {
+        return new IndependentVisitor();
+    }
 }
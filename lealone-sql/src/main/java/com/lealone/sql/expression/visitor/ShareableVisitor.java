@@ -0,0 +1,59 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.visitor;
+
+import com.lealone.db.table.Table;
+import com.lealone.db.table.TableType;
+import com.lealone.sql.expression.condition.ConditionExists;
+import com.lealone.sql.expression.condition.ConditionInSelect;
+import com.lealone.sql.expression.function.TableFunction;
+import com.lealone.sql.expression.subquery.SubQuery;
+import com.lealone.sql.optimizer.TableFilter;
+import com.lealone.sql.query.Select;
+import com.lealone.sql.query.SelectUnion;
+
+// 检查语句在换成其他session后是否还能用，
+// 子查询和表函数在准备阶段就会生成跟session相关的对象，临时表和视图也是跟session相关的
+public class ShareableVisitor extends BooleanExpressionVisitor {
+
+    @Override
+    public Boolean visitSubQuery(SubQuery e) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitConditionExists(ConditionExists e) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitConditionInSelect(ConditionInSelect e) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitTableFunction(TableFunction e) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitSelect(Select s) {
+        for (TableFilter f : s.getFilters()) {
+            if (!isShareable(f.getTable()))
+                return false;
+        }
+        return super.visitSelect(s);
+    }
+
+    @Override
+    public Boolean visitSelectUnion(SelectUnion su) {
+        return false;
+    }
+
+    public static boolean isShareable(Table table) {
+        return table.getTableType() == TableType.STANDARD_TABLE && !table.isTemporary();
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.lealone.db.Constants;
+import com.lealone.db.ManualCloseable;
+import com.lealone.db.index.Cursor;
+import com.lealone.db.index.Index;
+import com.lealone.db.index.IndexColumn;
+import com.lealone.db.index.IndexType;
+import com.lealone.db.result.Row;
+import com.lealone.db.result.SearchRow;
+import com.lealone.db.schema.Schema;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.table.CreateTableData;
+import com.lealone.db.table.Table;
+import com.lealone.db.value.CompareMode;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueLong;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
+import com.lealone.sql.query.Select;
+import com.lealone.storage.CursorParameters;
+
+/**
+ * 用hash join的方式读取join中的内表。
+ *
+ * 第一次调用find时把内表的记录按join字段的值放到hash表中(build)，
+ * 之后外表的每条记录只需要计算join表达式的值，然后在hash表中查找匹配的记录(probe)。
+ * 记录数超过maxMemoryRows时，把记录转存到一个以join字段为索引的临时表中，
+ * BLOB和CLOB字段不保存到临时表，用记录的key到原表中读取。
+ *
+ * 其他的条件仍然由TableFilter在next时检查，所以这里只需要返回join字段相等的记录。
+ */
+public class HashJoinCursor implements Cursor {
+
+    private static final String COLUMN_NAME = "DATA";
+
+    private final TableFilter tableFilter;
+    private final IndexCondition condition;
+    private final int columnId;
+
+    private HashMap<Value, ArrayList<Row>> hashTable;
+    private int rowCount;
+    private boolean built;
+
+    private ArrayList<Row> matchedRows;
+    private int matchedIndex;
+    private Row current;
+
+    // 溢出到临时表时使用
+    private Table tempTable;
+    private Index tempIndex;
+    private Cursor tempCursor;
+    private boolean containsLob;
+    // 语句出错或被取消时不会调用close，由session在语句结束时删除临时表
+    private ManualCloseable tempTableCleaner;
+
+    public HashJoinCursor(TableFilter tableFilter, IndexCondition condition) {
+        this.tableFilter = tableFilter;
+        this.condition = condition;
+        this.columnId = condition.getColumn().getColumnId();
+    }
+
+    public IndexCondition getCondition() {
+        return condition;
+    }
+
+    /**
+     * 根据外表的当前记录查找匹配的记录，第一次调用时会先构建hash表
+     *
+     * @param session the session
+     */
+    public void find(ServerSession session) {
+        if (!built) {
+            build(session);
+        }
+        matchedRows = null;
+        matchedIndex = 0;
+        tempCursor = null;
+        current = null;
+        Value v = condition.getCurrentValue(session);
+        if (v == ValueNull.INSTANCE) {
+            return; // join字段是NULL时不会有匹配的记录
+        }
+        if (tempTable == null) {
+            matchedRows = hashTable.get(v);
+        } else {
+            SearchRow row = tempTable.getTemplateRow();
+            row.setValue(columnId, v);
+            tempCursor = tempIndex.find(session, row, row);
+        }
+    }
+
+    private void build(ServerSession session) {
+        hashTable = new HashMap<>();
+        rowCount = 0;
+        int maxMemoryRows = session.getDatabase().getMaxMemoryRows();
+        Table table = tableFilter.getTable();
+        Cursor cursor = table.getScanIndex(session).find(session,
+                CursorParameters.create(null, null, getColumnIndexes()));
+        while (cursor.next()) {
+            Row row = cursor.get();
+            Value key = row.getValue(columnId);
+            if (key == null || key == ValueNull.INSTANCE) {
+                continue;
+            }
+            if (tempTable != null) {
+                addTempRow(session, row);
+            } else {
+                ArrayList<Row> rows = hashTable.get(key);
+                if (rows == null) {
+                    rows = new ArrayList<>(1);
+                    hashTable.put(key, rows);
+                }
+                rows.add(row);
+                if (++rowCount > maxMemoryRows) {
+                    spill(session);
+                }
+            }
+        }
+        built = true;
+    }
+
+    // 只读取查询用到的字段，join字段不在其中时读取所有字段
+    private int[] getColumnIndexes() {
+        Select select = tableFilter.getSelect();
+        if (select == null)
+            return null;
+        int[] columnIndexes = tableFilter.createColumnIndexes(select.getReferencedColumns());
+        return Arrays.binarySearch(columnIndexes, columnId) >= 0 ? columnIndexes : null;
+    }
+
+    // 把内存中的记录转存到临时表，之后的记录也直接写到临时表
+    private void spill(ServerSession session) {
+        createTempTable(session);
+        rowCount = 0;
+        for (ArrayList<Row> rows : hashTable.values()) {
+            for (Row row : rows) {
+                addTempRow(session, row);
+            }
+        }
+        hashTable = null;
+    }
+
+    private void createTempTable(ServerSession session) {
+        Table table = tableFilter.getTable();
+        Column[] columns = table.getColumns();
+        Schema schema = session.getDatabase().getSchema(session, Constants.SCHEMA_MAIN);
+        CreateTableData data = new CreateTableData();
+        for (int i = 0; i < columns.length; i++) {
+            int type = columns[i].getType();
+            if (type == Value.CLOB || type == Value.BLOB) {
+                containsLob = true;
+            }
+            data.columns.add(new Column(COLUMN_NAME + i, type));
+        }
+        // 最后一个字段保存原始记录的key
+        data.columns.add(new Column(COLUMN_NAME + columns.length, Value.LONG));
+        data.id = session.getDatabase().allocateObjectId();
+        data.tableName = "TEMP_HASH_JOIN_" + data.id;
+        data.temporary = true;
+        data.persistIndexes = false;
+        data.persistData = true;
+        data.create = true;
+        data.session = session;
+        tempTable = schema.createTable(data);
+
+        IndexColumn indexColumn = new IndexColumn();
+        indexColumn.column = tempTable.getColumn(columnId);
+        indexColumn.columnName = COLUMN_NAME + columnId;
+        IndexColumn[] indexCols = { indexColumn };
+        String indexName = tempTable.getSchema().getUniqueIndexName(session, tempTable,
+                Constants.PREFIX_INDEX);
+        int indexId = session.getDatabase().allocateObjectId();
+        tempIndex = tempTable.addIndex(session, indexName, indexId, indexCols,
+                IndexType.createNonUnique(), true, null, null);
+        tempTableCleaner = () -> dropTempTable(session);
+        session.addTemporaryResource(tempTableCleaner);
+    }
+
+    private void addTempRow(ServerSession session, Row row) {
+        int columnCount = tableFilter.getTable().getColumns().length;
+        Value[] values = new Value[columnCount + 1];
+        for (int i = 0; i < columnCount; i++) {
+            Value v = row.getValue(i);
+            // 临时表中有BLOB和CLOB时就不能truncate了，否则原表的BLOB和CLOB也会被删除
+            if (v == null || v.getType() == Value.BLOB || v.getType() == Value.CLOB)
+                v = ValueNull.INSTANCE;
+            values[i] = v;
+        }
+        values[columnCount] = ValueLong.get(row.getKey());
+        // 写入临时表的记录不写undoLog
+        session.setUndoLogEnabled(false);
+        try {
+            tempTable.addRow(session, new Row(values));
+        } finally {
+            session.setUndoLogEnabled(true);
+        }
+        rowCount++;
+    }
+
+    /**
+     * 释放hash表和临时表，下次find时重新构建
+     *
+     * @param session the session
+     */
+    public void close(ServerSession session) {
+        hashTable = null;
+        matchedRows = null;
+        tempCursor = null;
+        current = null;
+        built = false;
+        dropTempTable(session);
+    }
+
+    private void dropTempTable(ServerSession session) {
+        if (tempTable == null)
+            return;
+        try {
+            tempTable.truncate(session);
+            tempTable.removeChildrenAndResources(session, null);
+            session.removeLocalTempTableIndex(tempIndex);
+        } finally {
+            tempTable = null;
+            tempIndex = null;
+            tempCursor = null;
+            session.removeTemporaryResource(tempTableCleaner);
+            tempTableCleaner = null;
+        }
+    }
+
+    public boolean isSpilled() {
+        return tempTable != null;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public boolean next() {
+        if (matchedRows != null) {
+            if (matchedIndex < matchedRows.size()) {
+                current = matchedRows.get(matchedIndex++);
+                return true;
+            }
+        } else if (tempCursor != null) {
+            while (tempCursor.next()) {
+                Row row = tempCursor.get();
+                int columnCount = row.getColumnCount() - 1;
+                long key = row.getValue(columnCount).getLong();
+                if (containsLob) {
+                    ServerSession session = tableFilter.getSession();
+                    current = tableFilter.getTable().getRow(session, key);
+                    if (current == null)
+                        continue;
+                    return true;
+                }
+                Value[] values = new Value[columnCount];
+                System.arraycopy(row.getValueList(), 0, values, 0, columnCount);
+                current = new Row(values);
+                current.setKey(key);
+                return true;
+            }
+        }
+        current = null;
+        return false;
+    }
+
+    @Override
+    public Row get() {
+        return current;
+    }
+
+    @Override
+    public SearchRow getSearchRow() {
+        return current;
+    }
+
+    /**
+     * 找出能用hash join的条件，只支持等值条件，
+     * 并且join表达式的值与字段类型相同，这样hash表中的值相等与比较相等是一致的
+     *
+     * @param session the session
+     * @param indexConditions the index conditions of the table filter
+     * @return the condition, or null if there is no such condition
+     */
+    public static IndexCondition getHashJoinCondition(ServerSession session,
+            ArrayList<IndexCondition> indexConditions) {
+        for (int i = 0, size = indexConditions.size(); i < size; i++) {
+            IndexCondition c = indexConditions.get(i);
+            if (c.getCompareType() != Comparison.EQUAL || !c.isEvaluatable())
+                continue;
+            Column column = c.getColumn();
+            Expression e = c.getExpression();
+            if (column.getColumnId() < 0 || e.getType() != column.getType())
+                continue;
+            if (!isHashable(session, column.getType()))
+                continue;
+            if (!e.accept(ExpressionVisitorFactory.getDeterministicVisitor()))
+                continue;
+            return c;
+        }
+        return null;
+    }
+
+    static boolean isHashable(ServerSession session, int type) {
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.UUID:
+            return true;
+        case Value.STRING:
+            // 使用了其他的比较规则时，字符串的equals和compareTo可能不一致
+            return CompareMode.OFF.equals(session.getDatabase().getCompareMode().getName());
+        default:
+            return false;
+        }
+    }
+}
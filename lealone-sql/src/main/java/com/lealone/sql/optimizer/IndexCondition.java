@@ -276,6 +276,10 @@ public class IndexCondition {
         }
     }
 
+    public Expression getExpression() {
+        return expression;
+    }
+
     public int getCompareType() {
         return compareType;
     }
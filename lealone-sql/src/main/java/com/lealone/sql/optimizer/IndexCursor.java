@@ -94,6 +94,8 @@ public class IndexCursor implements Cursor {
                 columnIndexes = tableFilter.getColumnIndexes(); // update和delete在prepare阶段就设置好了
             }
             CursorParameters<SearchRow> parameters = CursorParameters.create(start, end, columnIndexes);
+            if (tableFilter.isReverse())
+                parameters = parameters.reverse();
             cursor = index.find(tableFilter.getSession(), parameters);
         }
     }
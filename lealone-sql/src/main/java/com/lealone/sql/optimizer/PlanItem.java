@@ -23,6 +23,7 @@ public class PlanItem {
     private Index index;
     private PlanItem joinPlan;
     private PlanItem nestedJoinPlan;
+    private IndexCondition hashJoinCondition;
 
     public double getCost() {
         return cost;
@@ -51,4 +52,13 @@ public class PlanItem {
     PlanItem getNestedJoinPlan() {
         return nestedJoinPlan;
     }
+
+    void setHashJoinCondition(IndexCondition hashJoinCondition) {
+        this.hashJoinCondition = hashJoinCondition;
+    }
+
+    // 不为null时表示用hash join读取当前表
+    IndexCondition getHashJoinCondition() {
+        return hashJoinCondition;
+    }
 }
@@ -0,0 +1,368 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com.lealone.db.Command;
+import com.lealone.db.index.Cursor;
+import com.lealone.db.lock.DbObjectLock;
+import com.lealone.db.result.Row;
+import com.lealone.db.scheduler.Scheduler;
+import com.lealone.db.scheduler.SchedulerThread;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.SessionStatus;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
+import com.lealone.db.value.ValueBoolean;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.PreparedSQLStatement;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.Rownum;
+import com.lealone.sql.expression.SequenceValue;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.expression.visitor.BooleanExpressionVisitor;
+import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
+import com.lealone.sql.query.Query;
+import com.lealone.sql.query.Select;
+import com.lealone.storage.CursorParameters;
+
+/**
+ * 把带有等值关联条件的EXISTS、NOT EXISTS和IN(子查询)转成hash semi join(NOT时就是anti join)。
+ *
+ * 例如 WHERE EXISTS(SELECT 1 FROM orders o WHERE o.cust_id = c.id AND o.status = 1)，
+ * 原来外表的每条记录都要重新执行一次子查询，子查询的关联字段没有索引时就是全表扫描。
+ * 转换后，在当前语句第一次求值时扫描一次子查询的表，只用不含外表字段的条件(o.status = 1)过滤，
+ * 把关联表达式(o.cust_id)的值放到hash表中，之后外表的每条记录只需要计算c.id的值再到hash表中查找。
+ *
+ * 只处理单表、没有分组和聚合的子查询，WHERE中的每个AND条件要么只引用子查询的表，
+ * 要么是内外两边类型相同的等值比较。关联字段有索引时原来的执行方式已经够快了，不做转换。
+ * hash表中的记录数超过maxMemoryRows时，当前语句退回到原来的执行方式。
+ * 扫描子查询的表时也会检查是否需要让出调度线程，让出时保存游标，下次求值时接着扫描。
+ */
+public class SemiJoin {
+
+    private final Select select;
+    private final TableFilter filter;
+    private final Expression[] outerKeys;
+    private final Expression[] innerKeys;
+    private final Expression innerCondition;
+    private final Expression left; // IN左边的表达式，EXISTS时为null
+    private final Expression right; // 子查询的第一个字段，EXISTS时为null
+
+    // 关联字段的值 -> IN子查询的字段值，EXISTS时value为null
+    private HashMap<Value, HashSet<Value>> hashTable;
+    private ServerSession session;
+    private long commandId;
+    private boolean tooLarge;
+    private boolean built;
+    private Cursor cursor; // 还没有扫描完的子查询的表
+    private int rowCount;
+    private int scanCount;
+
+    private SemiJoin(Select select, Expression[] outerKeys, Expression[] innerKeys,
+            Expression innerCondition, Expression left, Expression right) {
+        this.select = select;
+        this.filter = select.getTopTableFilter();
+        this.outerKeys = outerKeys;
+        this.innerKeys = innerKeys;
+        this.innerCondition = innerCondition;
+        this.left = left;
+        this.right = right;
+    }
+
+    public String getPlanSQL() {
+        StringBuilder buff = new StringBuilder("hash semi join: ");
+        for (int i = 0; i < outerKeys.length; i++) {
+            if (i > 0)
+                buff.append(" AND ");
+            buff.append(outerKeys[i].getSQL()).append(" = ").append(innerKeys[i].getSQL());
+        }
+        return buff.toString();
+    }
+
+    /**
+     * 计算外表当前记录的EXISTS或IN的值
+     *
+     * @param session the session
+     * @return the value, or null if the subquery has to be executed the normal way
+     */
+    public Value getValue(ServerSession session) {
+        if (!isQuery(session)) {
+            return null;
+        }
+        if (this.session != session || commandId != session.getCurrentCommandId()) {
+            startBuild(session);
+        }
+        if (!built) {
+            build(session);
+        }
+        if (tooLarge) {
+            return null;
+        }
+        Value key = getKey(session, outerKeys);
+        if (left == null) {
+            return ValueBoolean.get(key != null && hashTable.containsKey(key));
+        }
+        HashSet<Value> values = key == null ? null : hashTable.get(key);
+        // 与ConditionInSelect的规则相同
+        if (values == null) {
+            return ValueBoolean.get(false);
+        }
+        Value l = left.getValue(session);
+        if (l == ValueNull.INSTANCE) {
+            return l;
+        }
+        if (values.contains(l)) {
+            return ValueBoolean.get(true);
+        }
+        if (values.contains(ValueNull.INSTANCE)) {
+            return ValueNull.INSTANCE;
+        }
+        return ValueBoolean.get(false);
+    }
+
+    // DML语句的WHERE中的子查询可能会读到当前语句修改过的记录，所以只用于查询语句
+    private static boolean isQuery(ServerSession session) {
+        Command c = session.getCurrentCommand();
+        return c instanceof PreparedSQLStatement && ((PreparedSQLStatement) c).isQuery();
+    }
+
+    // 任何一个字段是NULL时等值比较都不会成立，返回null
+    private static Value getKey(ServerSession session, Expression[] keys) {
+        if (keys.length == 1) {
+            Value v = keys[0].getValue(session);
+            return v == ValueNull.INSTANCE ? null : v;
+        }
+        Value[] values = new Value[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Value v = keys[i].getValue(session);
+            if (v == ValueNull.INSTANCE)
+                return null;
+            values[i] = v;
+        }
+        return ValueArray.get(values);
+    }
+
+    private void startBuild(ServerSession session) {
+        this.session = session;
+        this.commandId = session.getCurrentCommandId();
+        hashTable = new HashMap<>();
+        tooLarge = false;
+        built = false;
+        rowCount = 0;
+        select.setSession(session);
+        int[] columnIndexes = filter.createColumnIndexes(select.getReferencedColumns());
+        cursor = filter.getTable().getScanIndex(session).find(session,
+                CursorParameters.create(null, null, columnIndexes));
+    }
+
+    private void build(ServerSession session) {
+        int maxMemoryRows = session.getDatabase().getMaxMemoryRows();
+        boolean canYield = canYield(session);
+        try {
+            while (true) {
+                if (canYield && (++scanCount & 127) == 0) {
+                    yieldIfNeeded(session);
+                }
+                if (!cursor.next()) {
+                    break;
+                }
+                Row row = cursor.get();
+                filter.set(row);
+                if (innerCondition != null && !innerCondition.getBooleanValue(session)) {
+                    continue;
+                }
+                Value key = getKey(session, innerKeys);
+                if (key == null) {
+                    continue;
+                }
+                HashSet<Value> values = hashTable.get(key);
+                if (values == null) {
+                    values = right == null ? null : new HashSet<>();
+                    hashTable.put(key, values);
+                    rowCount++;
+                }
+                if (values != null && values.add(right.getValue(session))) {
+                    rowCount++;
+                }
+                if (rowCount > maxMemoryRows) {
+                    hashTable = null;
+                    tooLarge = true;
+                    break;
+                }
+            }
+            cursor = null;
+            built = true;
+        } finally {
+            filter.set(null);
+        }
+    }
+
+    // 跟Sequence被锁住时一样，抛出LOCKED_EXCEPTION后外表的当前记录会在下次执行时重新计算
+    private static void yieldIfNeeded(ServerSession session) {
+        PreparedSQLStatement current = (PreparedSQLStatement) session.getCurrentCommand();
+        if (session.getScheduler().yieldIfNeeded(current)) {
+            session.setStatus(SessionStatus.STATEMENT_YIELDED);
+            throw DbObjectLock.LOCKED_EXCEPTION;
+        }
+    }
+
+    // 只在调度线程中执行单表的普通查询时让出，外表的当前记录重新计算时不会重复输出记录，
+    // 有join或者聚合时重新计算当前记录可能会重复累加，并行聚合时也不在调度线程中
+    private static boolean canYield(ServerSession session) {
+        Scheduler scheduler = session.getScheduler();
+        if (scheduler == null || SchedulerThread.currentScheduler() != scheduler) {
+            return false;
+        }
+        Command c = session.getCurrentCommand();
+        if (!(c instanceof Select)) {
+            return false;
+        }
+        Select s = (Select) c;
+        TableFilter f = s.getTopTableFilter();
+        return !s.isGroupQuery() && s.getFilters().size() == 1 && f.getJoin() == null
+                && f.getNestedJoin() == null;
+    }
+
+    /**
+     * 判断能否把子查询转成semi join，不能转换时返回null
+     *
+     * @param session the session
+     * @param query the prepared subquery
+     * @param left the left side of IN(SELECT ...), or null for EXISTS
+     * @return the semi join, or null
+     */
+    public static SemiJoin create(ServerSession session, Query query, Expression left) {
+        if (!(query instanceof Select))
+            return null;
+        Select select = (Select) query;
+        if (select.isGroupQuery() || select.getHaving() != null || select.isForUpdate()
+                || query.getOffset() != null || query.getSampleSize() != null)
+            return null;
+        // EXISTS(SELECT ... LIMIT 1)这样的写法不影响结果
+        Expression limit = query.getLimit();
+        if (limit != null && (left != null || !limit.isConstant()
+                || limit.getValue(session).getInt() <= 0))
+            return null;
+        TableFilter filter = select.getTopTableFilter();
+        if (filter == null || select.getFilters().size() != 1 || filter.getJoin() != null
+                || filter.getNestedJoin() != null)
+            return null;
+        // 子查询能用索引时不需要转换
+        if (filter.getIndex() == null || !filter.getIndex().getIndexType().isScan())
+            return null;
+
+        InnerVisitor inner = new InnerVisitor(filter);
+        Expression right = null;
+        if (left != null) {
+            right = select.getExpressions().get(0);
+            if (!isHashable(session, left, right) || !isInner(inner, right))
+                return null;
+        }
+        ArrayList<Expression> conditions = new ArrayList<>();
+        addConditions(select.getCondition(), conditions);
+        ArrayList<Expression> outerKeys = new ArrayList<>();
+        ArrayList<Expression> innerKeys = new ArrayList<>();
+        Expression innerCondition = null;
+        for (Expression c : conditions) {
+            if (isInner(inner, c)) {
+                innerCondition = innerCondition == null ? c
+                        : new ConditionAndOr(ConditionAndOr.AND, innerCondition, c);
+                continue;
+            }
+            if (!(c instanceof Comparison))
+                return null;
+            Comparison comp = (Comparison) c;
+            if (comp.getCompareType() != Comparison.EQUAL)
+                return null;
+            Expression l = comp.getLeft();
+            Expression r = comp.getRight();
+            if (isOuter(filter, l) && isInner(inner, r)) {
+                outerKeys.add(l);
+                innerKeys.add(r);
+            } else if (isOuter(filter, r) && isInner(inner, l)) {
+                outerKeys.add(r);
+                innerKeys.add(l);
+            } else {
+                return null;
+            }
+            if (!isHashable(session, outerKeys.get(outerKeys.size() - 1),
+                    innerKeys.get(innerKeys.size() - 1)))
+                return null;
+        }
+        if (outerKeys.isEmpty())
+            return null;
+        return new SemiJoin(select, outerKeys.toArray(new Expression[0]),
+                innerKeys.toArray(new Expression[0]), innerCondition, left, right);
+    }
+
+    private static void addConditions(Expression condition, ArrayList<Expression> conditions) {
+        if (condition == null)
+            return;
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr c = (ConditionAndOr) condition;
+            if (c.getAndOrType() == ConditionAndOr.AND) {
+                addConditions(c.getLeft(), conditions);
+                addConditions(c.getRight(), conditions);
+                return;
+            }
+        }
+        conditions.add(condition);
+    }
+
+    // 不引用子查询的表并且在外表的同一条记录上多次计算的值是一样的
+    private static boolean isOuter(TableFilter filter, Expression e) {
+        return e.accept(ExpressionVisitorFactory.getNotFromResolverVisitor(filter))
+                && e.accept(ExpressionVisitorFactory.getDeterministicVisitor());
+    }
+
+    private static boolean isInner(InnerVisitor inner, Expression e) {
+        return e.accept(inner) && e.accept(ExpressionVisitorFactory.getDeterministicVisitor());
+    }
+
+    // 两边类型相同时hash表中的值相等与比较相等才是一致的
+    private static boolean isHashable(ServerSession session, Expression outer, Expression inner) {
+        int type = inner.getType();
+        return outer.getType() == type && HashJoinCursor.isHashable(session, type);
+    }
+
+    /**
+     * 检查表达式是否只引用了子查询的表，并且不包含嵌套的子查询和不确定的值
+     */
+    private static class InnerVisitor extends BooleanExpressionVisitor {
+
+        private final TableFilter filter;
+
+        InnerVisitor(TableFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public Boolean visitExpressionColumn(ExpressionColumn e) {
+            return e.getColumnResolver() == filter;
+        }
+
+        @Override
+        public Boolean visitRownum(Rownum e) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitSequenceValue(SequenceValue e) {
+            return false;
+        }
+
+        @Override
+        protected Boolean visitQuery(Query query) {
+            return false;
+        }
+    }
+}
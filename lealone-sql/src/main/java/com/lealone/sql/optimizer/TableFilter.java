@@ -14,6 +14,7 @@ import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.common.util.StringUtils;
 import com.lealone.common.util.Utils;
+import com.lealone.db.Constants;
 import com.lealone.db.SysProperties;
 import com.lealone.db.auth.Right;
 import com.lealone.db.index.Index;
@@ -24,6 +25,7 @@ import com.lealone.db.session.ServerSession;
 import com.lealone.db.session.Session;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
+import com.lealone.db.table.TableType;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
@@ -64,11 +66,21 @@ public class TableFilter extends ColumnResolverBase {
      */
     private boolean used;
 
+    /**
+     * 按索引倒序遍历，用于order by ... desc
+     */
+    private boolean reverse;
+
     /**
      * The filter used to walk through the index.
      */
     private final IndexCursor cursor;
 
+    /**
+     * 用hash join读取记录时不为null
+     */
+    private HashJoinCursor hashJoinCursor;
+
     /**
      * The index conditions used for direct index lookup (start or end).
      */
@@ -195,6 +207,9 @@ public class TableFilter extends ColumnResolverBase {
                 sortOrder = select.getSortOrder();
             }
             item = Optimizer.getBestPlanItem(s, masks, table, sortOrder);
+            if (level > 1 && masks != null) {
+                item = getHashJoinPlanItem(s, item);
+            }
             // The more index conditions, the earlier the table.
             // This is to ensure joins without indexes run quickly:
             // x (x.a=10); y (x.b=y.b) - see issue 113
@@ -217,6 +232,34 @@ public class TableFilter extends ColumnResolverBase {
         return item;
     }
 
+    // join字段上没有可用的索引时，如果用hash join的代价更小就用hash join
+    private PlanItem getHashJoinPlanItem(ServerSession s, PlanItem item) {
+        if (nestedJoin != null || table.getTableType() != TableType.STANDARD_TABLE
+                || (select != null && select.isForUpdate())) {
+            return item;
+        }
+        IndexCondition condition = HashJoinCursor.getHashJoinCondition(s, indexConditions);
+        if (condition == null) {
+            return item;
+        }
+        // build只需要执行一次，所以每次probe的代价跟非唯一索引的等值查找差不多，
+        // 只是多加1，这样有可用的索引时优先使用索引
+        long rowCount = table.getRowCountApproximation() + Constants.COST_ROW_OFFSET;
+        long distinctRows = rowCount * condition.getColumn().getSelectivity() / 100;
+        if (distinctRows <= 0) {
+            distinctRows = 1;
+        }
+        double cost = 3 + Math.max(rowCount / distinctRows, 1);
+        if (cost >= item.cost) {
+            return item;
+        }
+        PlanItem hashJoinItem = new PlanItem();
+        hashJoinItem.setIndex(table.getScanIndex(s));
+        hashJoinItem.cost = cost;
+        hashJoinItem.setHashJoinCondition(condition);
+        return hashJoinItem;
+    }
+
     /**
      * Set what plan item (index, cost) to use use.
      *
@@ -229,6 +272,8 @@ public class TableFilter extends ColumnResolverBase {
             return;
         }
         setIndex(item.getIndex());
+        IndexCondition condition = item.getHashJoinCondition();
+        hashJoinCursor = condition == null ? null : new HashJoinCursor(this, condition);
         if (nestedJoin != null && item.getNestedJoinPlan() != null) {
             nestedJoin.setPlanItem(item.getNestedJoinPlan());
         }
@@ -292,6 +337,9 @@ public class TableFilter extends ColumnResolverBase {
     public void startQuery(ServerSession s) {
         session = s;
         scanCount = 0;
+        if (hashJoinCursor != null) {
+            hashJoinCursor.close(s); // 表中的记录可能变了，需要重新build
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -300,6 +348,23 @@ public class TableFilter extends ColumnResolverBase {
         }
     }
 
+    /**
+     * Stop the query. This will release the hash tables built by hash joins.
+     *
+     * @param s the session
+     */
+    public void stopQuery(ServerSession s) {
+        if (hashJoinCursor != null) {
+            hashJoinCursor.close(s);
+        }
+        if (nestedJoin != null) {
+            nestedJoin.stopQuery(s);
+        }
+        if (join != null) {
+            join.stopQuery(s);
+        }
+    }
+
     /**
      * Reset to the current position.
      */
@@ -323,8 +388,12 @@ public class TableFilter extends ColumnResolverBase {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
-            cursor.find(session, indexConditions);
-            if (!cursor.isAlwaysFalse()) {
+            if (hashJoinCursor != null) {
+                hashJoinCursor.find(session);
+            } else {
+                cursor.find(session, indexConditions);
+            }
+            if (!isAlwaysFalse()) {
                 if (nestedJoin != null) {
                     nestedJoin.reset();
                 }
@@ -344,7 +413,7 @@ public class TableFilter extends ColumnResolverBase {
             if (state == NULL_ROW) {
                 break;
             }
-            if (cursor.isAlwaysFalse()) {
+            if (isAlwaysFalse()) {
                 state = AFTER_LAST;
             } else if (nestedJoin != null) {
                 if (state == BEFORE_FIRST) {
@@ -354,7 +423,14 @@ public class TableFilter extends ColumnResolverBase {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
+                if (hashJoinCursor != null) {
+                    if (hashJoinCursor.next()) {
+                        currentSearchRow = current = hashJoinCursor.get();
+                        state = FOUND;
+                    } else {
+                        state = AFTER_LAST;
+                    }
+                } else if (cursor.next()) {
                     currentSearchRow = cursor.getSearchRow();
                     current = null;
                     state = FOUND;
@@ -418,6 +494,10 @@ public class TableFilter extends ColumnResolverBase {
         }
     }
 
+    private boolean isAlwaysFalse() {
+        return hashJoinCursor == null && cursor.isAlwaysFalse();
+    }
+
     private void checkTimeout() {
         session.checkCanceled();
     }
@@ -627,7 +707,12 @@ public class TableFilter extends ColumnResolverBase {
         if (alias != null) {
             buff.append(' ').append(session.getDatabase().quoteIdentifier(alias));
         }
-        if (index != null) {
+        if (hashJoinCursor != null) {
+            buff.append('\n');
+            String plan = "hash join: " + hashJoinCursor.getCondition().getSQL();
+            plan = StringUtils.quoteRemarkSQL(plan);
+            buff.append(StringUtils.indent("/* " + plan + " */", 4, false));
+        } else if (index != null) {
             buff.append('\n');
             StatementBuilder planBuff = new StatementBuilder();
             planBuff.append(index.getPlanSQL());
@@ -696,6 +781,14 @@ public class TableFilter extends ColumnResolverBase {
         return used;
     }
 
+    public void setReverse(boolean reverse) {
+        this.reverse = reverse;
+    }
+
+    public boolean isReverse() {
+        return reverse;
+    }
+
     /**
      * Set the session of this table filter.
      *
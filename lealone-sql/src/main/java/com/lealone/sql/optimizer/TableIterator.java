@@ -38,6 +38,10 @@ public class TableIterator {
         tableFilter.reset();
     }
 
+    public void stop() {
+        tableFilter.stopQuery(session);
+    }
+
     public boolean next() {
         if (oldRow != null) {
             Row r = oldRow;
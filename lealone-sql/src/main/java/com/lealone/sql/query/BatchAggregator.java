@@ -0,0 +1,459 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.result.Row;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueDecimal;
+import com.lealone.db.value.ValueLong;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.aggregate.ACount.AggregateDataCount;
+import com.lealone.sql.expression.aggregate.ACountAll.AggregateDataCountAll;
+import com.lealone.sql.expression.aggregate.Aggregate;
+import com.lealone.sql.expression.aggregate.AggregateData;
+import com.lealone.sql.expression.aggregate.BuiltInAggregate;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.optimizer.TableFilter;
+
+/**
+ * 按批计算聚合函数的部分结果。
+ *
+ * 每次保存batchSize条记录，把用到的字段放到列向量中，整数字段的值保存为long数组。
+ * 由整数字段与整数常量的比较组成的AND条件直接在列向量上计算，得到一个选择向量。
+ * COUNT(*)、COUNT(x)和整数字段的SUM、MIN、MAX在选择向量上用循环计算，
+ * 结果先保存在PartialAggregate中，最后在执行查询的线程中合并到AggregateData。
+ *
+ * 只在add和flush中访问记录，不依赖TableFilter的状态，所以可以在其他线程中使用。
+ */
+class BatchAggregator {
+
+    private final ServerSession session;
+    private final Select select;
+    private final int batchSize;
+    private final BuiltInAggregate[] aggregates;
+    private final PartialAggregate[] partials;
+    private final ColumnVector[] vectors; // 按columnId存放，没用到的字段是null
+    private final ArrayList<ColumnVector> usedVectors = new ArrayList<>();
+    private final ArrayList<VectorComparison> vectorConditions; // 为null时由调用者逐行计算条件
+    private final int[] selection;
+    private final int[] tmpSelection;
+    private int size; // 当前这一批的记录数
+    private long rowCount; // 满足条件的记录数
+
+    BatchAggregator(Select select, int batchSize) {
+        this.session = select.getSession();
+        this.select = select;
+        this.batchSize = batchSize;
+        TableFilter tableFilter = select.getTopTableFilter();
+        vectors = new ColumnVector[tableFilter.getTable().getColumns().length];
+        selection = new int[batchSize];
+        tmpSelection = new int[batchSize];
+        int count = select.expressions.size();
+        aggregates = new BuiltInAggregate[count];
+        partials = new PartialAggregate[count];
+        for (int i = 0; i < count; i++) {
+            BuiltInAggregate a = getAggregate(select.expressions.get(i));
+            ColumnVector v = null;
+            if (a.getOn() != null)
+                v = getVector((ExpressionColumn) a.getOn());
+            aggregates[i] = a;
+            partials[i] = new PartialAggregate(a.getAType(), v);
+        }
+        vectorConditions = createVectorConditions(select.condition, tableFilter);
+    }
+
+    private ColumnVector getVector(ExpressionColumn c) {
+        int columnId = c.getColumn().getColumnId();
+        ColumnVector v = vectors[columnId];
+        if (v == null) {
+            v = new ColumnVector(columnId, c.getType(), batchSize);
+            vectors[columnId] = v;
+            usedVectors.add(v);
+        }
+        return v;
+    }
+
+    private ArrayList<VectorComparison> createVectorConditions(Expression condition,
+            TableFilter tableFilter) {
+        ArrayList<VectorComparison> list = new ArrayList<>();
+        if (condition != null && !addVectorConditions(condition, tableFilter, list))
+            return null;
+        return list;
+    }
+
+    private boolean addVectorConditions(Expression e, TableFilter tableFilter,
+            ArrayList<VectorComparison> list) {
+        if (e instanceof ConditionAndOr) {
+            ConditionAndOr c = (ConditionAndOr) e;
+            return c.getAndOrType() == ConditionAndOr.AND
+                    && addVectorConditions(c.getLeft(), tableFilter, list)
+                    && addVectorConditions(c.getRight(), tableFilter, list);
+        }
+        if (!(e instanceof Comparison))
+            return false;
+        Comparison c = (Comparison) e;
+        Expression left = c.getLeft();
+        Expression right = c.getRight();
+        if (right == null || !isColumnOf(left, tableFilter) || !isIntegerType(left.getType())
+                || !right.isConstant() || !isIntegerType(right.getType()))
+            return false;
+        int compareType = c.getCompareType();
+        switch (compareType) {
+        case Comparison.EQUAL:
+        case Comparison.NOT_EQUAL:
+        case Comparison.BIGGER_EQUAL:
+        case Comparison.BIGGER:
+        case Comparison.SMALLER_EQUAL:
+        case Comparison.SMALLER:
+            break;
+        default:
+            return false;
+        }
+        long value = right.getValue(session).getLong();
+        list.add(new VectorComparison(getVector((ExpressionColumn) left), compareType, value));
+        return true;
+    }
+
+    /**
+     * 查询条件是否都能在列向量上计算，不能时调用者需要先逐行计算条件，只把满足条件的记录传给add
+     *
+     * @return true if the condition is evaluated on the column vectors
+     */
+    boolean isConditionVectorized() {
+        return vectorConditions != null;
+    }
+
+    // 需要读取的字段
+    int[] getColumnIndexes() {
+        int[] columnIndexes = new int[usedVectors.size()];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            columnIndexes[i] = usedVectors.get(i).columnId;
+        }
+        Arrays.sort(columnIndexes);
+        return columnIndexes;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    void add(Row row) {
+        for (int i = 0, len = usedVectors.size(); i < len; i++) {
+            usedVectors.get(i).set(size, row);
+        }
+        if (++size == batchSize)
+            flush();
+    }
+
+    // 计算当前这一批记录
+    void flush() {
+        int count = size;
+        size = 0;
+        for (int i = 0; i < count; i++) {
+            selection[i] = i;
+        }
+        if (vectorConditions != null) {
+            for (int i = 0, len = vectorConditions.size(); i < len && count > 0; i++) {
+                count = vectorConditions.get(i).filter(count);
+            }
+        }
+        if (count == 0)
+            return;
+        rowCount += count;
+        for (int i = 0; i < partials.length; i++) {
+            partials[i].update(count);
+        }
+    }
+
+    /**
+     * 把部分结果合并到AggregateData中，只能在执行查询的线程中调用
+     */
+    void merge() {
+        flush();
+        select.currentGroupRowId++;
+        for (int i = 0; i < aggregates.length; i++) {
+            AggregateData data = aggregates[i].getAggregateData();
+            if (data != null)
+                partials[i].mergeTo(data);
+            partials[i].reset();
+        }
+    }
+
+    private class PartialAggregate {
+
+        final int type;
+        final ColumnVector vector;
+        long count;
+        long value; // SUM、MIN、MAX的值
+        boolean found;
+        Value overflow; // SUM溢出long时累加到这里
+
+        PartialAggregate(int type, ColumnVector vector) {
+            this.type = type;
+            this.vector = vector;
+        }
+
+        void reset() {
+            count = 0;
+            value = 0;
+            found = false;
+            overflow = null;
+        }
+
+        void update(int count) {
+            if (type == Aggregate.COUNT_ALL) {
+                this.count += count;
+                return;
+            }
+            boolean[] nulls = vector.nulls;
+            if (type == Aggregate.COUNT) {
+                long c = 0;
+                for (int i = 0; i < count; i++) {
+                    if (!nulls[selection[i]])
+                        c++;
+                }
+                this.count += c;
+                return;
+            }
+            long[] values = vector.values;
+            switch (type) {
+            case Aggregate.SUM: {
+                long sum = found ? value : 0;
+                for (int i = 0; i < count; i++) {
+                    int j = selection[i];
+                    if (nulls[j])
+                        continue;
+                    long x = values[j];
+                    long r = sum + x;
+                    if (((sum ^ r) & (x ^ r)) < 0) {
+                        addOverflow(sum);
+                        r = x;
+                    }
+                    sum = r;
+                    found = true;
+                }
+                value = sum;
+                break;
+            }
+            case Aggregate.MIN:
+            case Aggregate.MAX: {
+                boolean min = type == Aggregate.MIN;
+                long m = found ? value : (min ? Long.MAX_VALUE : Long.MIN_VALUE);
+                for (int i = 0; i < count; i++) {
+                    int j = selection[i];
+                    if (nulls[j])
+                        continue;
+                    long x = values[j];
+                    if (min ? x < m : x > m)
+                        m = x;
+                    found = true;
+                }
+                value = m;
+                break;
+            }
+            default:
+                throw DbException.getInternalError("type=" + type);
+            }
+        }
+
+        private void addOverflow(long sum) {
+            Value v = ValueDecimal.get(BigDecimal.valueOf(sum));
+            overflow = overflow == null ? v : overflow.add(v);
+        }
+
+        void mergeTo(AggregateData data) {
+            switch (type) {
+            case Aggregate.COUNT_ALL: {
+                AggregateDataCountAll d = (AggregateDataCountAll) data;
+                d.setCount(d.getCount() + count);
+                break;
+            }
+            case Aggregate.COUNT: {
+                AggregateDataCount d = (AggregateDataCount) data;
+                d.setCount(d.getCount() + count);
+                break;
+            }
+            case Aggregate.SUM:
+                // 由AggregateData转换成SUM的结果类型
+                if (overflow != null)
+                    data.add(session, overflow);
+                if (found)
+                    data.add(session, ValueLong.get(value));
+                break;
+            default:
+                if (found)
+                    data.add(session, ValueLong.get(value).convertTo(vector.type));
+            }
+        }
+    }
+
+    private static class ColumnVector {
+
+        final int columnId;
+        final int type;
+        final long[] values; // 只有整数字段才有
+        final boolean[] nulls;
+
+        ColumnVector(int columnId, int type, int batchSize) {
+            this.columnId = columnId;
+            this.type = type;
+            values = isIntegerType(type) ? new long[batchSize] : null;
+            nulls = new boolean[batchSize];
+        }
+
+        void set(int index, Row row) {
+            Value v = row.getValue(columnId);
+            if (v == null || v == ValueNull.INSTANCE) {
+                nulls[index] = true;
+            } else {
+                nulls[index] = false;
+                if (values != null)
+                    values[index] = v.getLong();
+            }
+        }
+    }
+
+    private class VectorComparison {
+
+        final ColumnVector vector;
+        final int compareType;
+        final long value;
+
+        VectorComparison(ColumnVector vector, int compareType, long value) {
+            this.vector = vector;
+            this.compareType = compareType;
+            this.value = value;
+        }
+
+        // 过滤选择向量，返回剩下的记录数，NULL不满足任何比较
+        int filter(int count) {
+            int[] sel = selection;
+            int[] out = tmpSelection;
+            long[] values = vector.values;
+            boolean[] nulls = vector.nulls;
+            long r = value;
+            int n = 0;
+            switch (compareType) {
+            case Comparison.EQUAL:
+                for (int i = 0; i < count; i++) {
+                    int j = sel[i];
+                    if (!nulls[j] && values[j] == r)
+                        out[n++] = j;
+                }
+                break;
+            case Comparison.NOT_EQUAL:
+                for (int i = 0; i < count; i++) {
+                    int j = sel[i];
+                    if (!nulls[j] && values[j] != r)
+                        out[n++] = j;
+                }
+                break;
+            case Comparison.BIGGER_EQUAL:
+                for (int i = 0; i < count; i++) {
+                    int j = sel[i];
+                    if (!nulls[j] && values[j] >= r)
+                        out[n++] = j;
+                }
+                break;
+            case Comparison.BIGGER:
+                for (int i = 0; i < count; i++) {
+                    int j = sel[i];
+                    if (!nulls[j] && values[j] > r)
+                        out[n++] = j;
+                }
+                break;
+            case Comparison.SMALLER_EQUAL:
+                for (int i = 0; i < count; i++) {
+                    int j = sel[i];
+                    if (!nulls[j] && values[j] <= r)
+                        out[n++] = j;
+                }
+                break;
+            case Comparison.SMALLER:
+                for (int i = 0; i < count; i++) {
+                    int j = sel[i];
+                    if (!nulls[j] && values[j] < r)
+                        out[n++] = j;
+                }
+                break;
+            }
+            System.arraycopy(out, 0, sel, 0, n);
+            return n;
+        }
+    }
+
+    private static BuiltInAggregate getAggregate(Expression e) {
+        return (BuiltInAggregate) e.getNonAliasExpression();
+    }
+
+    private static boolean isColumnOf(Expression e, TableFilter filter) {
+        return e instanceof ExpressionColumn && ((ExpressionColumn) e).getTableFilter() == filter
+                && ((ExpressionColumn) e).getColumn().getColumnId() >= 0;
+    }
+
+    private static boolean isIntegerType(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * 只有单表、没有group by、select列表中只有能按批计算的聚合函数时才能使用
+     *
+     * @param select the select statement
+     * @return true if BatchAggregator can be used
+     */
+    static boolean isSupported(Select select) {
+        TableFilter filter = select.getTopTableFilter();
+        if (select.isForUpdate || select.getFilters().size() != 1 || filter.getJoin() != null
+                || filter.getNestedJoin() != null || select.groupIndex != null)
+            return false;
+        int size = select.expressions.size();
+        if (size == 0)
+            return false;
+        for (int i = 0; i < size; i++) {
+            Expression e = select.expressions.get(i).getNonAliasExpression();
+            if (!(e instanceof BuiltInAggregate))
+                return false;
+            BuiltInAggregate a = (BuiltInAggregate) e;
+            if (a.isDistinct())
+                return false;
+            Expression on = a.getOn();
+            switch (a.getAType()) {
+            case Aggregate.COUNT_ALL:
+                break;
+            case Aggregate.COUNT:
+                if (!isColumnOf(on, filter))
+                    return false;
+                break;
+            case Aggregate.SUM:
+            case Aggregate.MIN:
+            case Aggregate.MAX:
+                if (!isColumnOf(on, filter) || !isIntegerType(on.getType()))
+                    return false;
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+}
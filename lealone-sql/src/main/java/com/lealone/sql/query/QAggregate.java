@@ -39,7 +39,11 @@ class QAggregate extends QOperator {
             if (yield)
                 return;
         }
-        // 最后把聚合后的结果增加到结果集中
+        addAggregateRow();
+    }
+
+    // 最后把聚合后的结果增加到结果集中
+    void addAggregateRow() {
         Value[] row = createRow();
         row = QGroup.toResultRow(row, columnCount, select.resultColumnCount);
         result.addRow(row);
@@ -0,0 +1,59 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import com.lealone.sql.optimizer.TableFilter;
+
+/**
+ * 按批执行的QAggregate，每次读取olapBatchSize条记录交给BatchAggregator计算。
+ *
+ * 能在列向量上计算的条件由BatchAggregator计算，其他条件还是在读取记录时逐行计算。
+ */
+class QAggregateBatch extends QAggregate {
+
+    protected final int batchSize;
+    protected final TableFilter tableFilter;
+    protected final BatchAggregator aggregator;
+
+    QAggregateBatch(Select select, int batchSize) {
+        super(select);
+        this.batchSize = batchSize;
+        tableFilter = select.getTopTableFilter();
+        aggregator = new BatchAggregator(select, batchSize);
+    }
+
+    @Override
+    public void run() {
+        // 采样时需要精确到行，还是逐行执行
+        if (sampleSize > 0) {
+            super.run();
+            return;
+        }
+        boolean conditionVectorized = aggregator.isConditionVectorized();
+        while (next()) {
+            boolean yield = yieldIfNeeded(++loopCount);
+            if (conditionVectorized || conditionEvaluator.getBooleanValue()) {
+                aggregator.add(tableFilter.get());
+            }
+            // 部分结果保存在aggregator中，让出执行权后可以接着算
+            if (yield)
+                return;
+        }
+        aggregator.merge();
+        rowCount = (int) aggregator.getRowCount();
+        addAggregateRow();
+    }
+
+    /**
+     * 只有单表、没有group by、select列表中只有能按批计算的聚合函数时才使用按批执行的方式
+     *
+     * @param select the select statement
+     * @return true if QAggregateBatch can be used
+     */
+    static boolean isSupported(Select select) {
+        return BatchAggregator.isSupported(select);
+    }
+}
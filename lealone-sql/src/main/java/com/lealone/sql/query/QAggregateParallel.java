@@ -0,0 +1,206 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.index.Cursor;
+import com.lealone.db.index.Index;
+import com.lealone.db.index.standard.StandardPrimaryIndex;
+import com.lealone.db.scheduler.Scheduler;
+import com.lealone.db.session.SessionStatus;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueLong;
+
+/**
+ * 用多个调度器并行扫描的QAggregateBatch。
+ *
+ * 按page的边界把主键分成多段，每一段用一个独立的BatchAggregator计算部分结果。
+ * 当前调度器和其他空闲的调度器都从同一个计数器中领取还没有扫描的段，
+ * 所以即使其他调度器一直没有执行扫描任务，当前调度器也能自己扫描完所有的段。
+ * 其他调度器的每个任务只扫描一段，还有段没有领取时再提交一个新任务，这样不会长时间占用其他调度器。
+ * 当前调度器等待其他调度器时把session设为WAITING，最后一段扫描完后再唤醒它，
+ * 然后在当前调度器中把部分结果合并到AggregateData。
+ *
+ * 只有查询条件能完全在列向量上计算时才能并行，因为其他线程不能使用TableFilter计算表达式。
+ */
+class QAggregateParallel extends QAggregateBatch {
+
+    private final int parallelism;
+    private ParallelScan scan;
+    private boolean serial; // 不能并行时按QAggregateBatch的方式执行
+
+    QAggregateParallel(Select select, int batchSize, int parallelism) {
+        super(select, batchSize);
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public void run() {
+        if (scan == null && !serial) {
+            scan = createParallelScan();
+            if (scan == null)
+                serial = true;
+        }
+        if (serial) {
+            super.run();
+            return;
+        }
+        while (scan.scanNextRange()) {
+            loopCount = scan.getScannedRowCount();
+            if (yieldIfNeeded(loopCount))
+                return;
+        }
+        // 等待其他调度器扫描完它们领取的段，扫描完最后一段的调度器会唤醒当前session
+        if (!scan.isFinished()) {
+            session.setStatus(SessionStatus.WAITING);
+            // 在设置WAITING之前最后一段可能已经扫描完了，谁把状态改回来谁就接着执行
+            if (!scan.isFinished()
+                    || !session.compareAndSet(SessionStatus.WAITING, SessionStatus.STATEMENT_RUNNING))
+                return;
+        }
+        loopCount = scan.getScannedRowCount();
+        scan.merge();
+        addAggregateRow();
+    }
+
+    @Override
+    public void stop() {
+        if (scan != null)
+            scan.cancel();
+        super.stop();
+    }
+
+    private ParallelScan createParallelScan() {
+        if (sampleSize > 0 || !aggregator.isConditionVectorized())
+            return null;
+        Scheduler current = session.getScheduler();
+        if (current == null || current.getSchedulerFactory() == null)
+            return null;
+        Scheduler[] schedulers = current.getSchedulerFactory().getSchedulers();
+        if (schedulers == null || schedulers.length <= 1)
+            return null;
+        Index index = tableFilter.getTable().getScanIndex(session);
+        if (!(index instanceof StandardPrimaryIndex))
+            return null;
+        // 分得比调度器多一些，先扫描完的调度器可以接着扫描其他段
+        List<Value> keys = ((StandardPrimaryIndex) index).getSplitKeys(parallelism * 4);
+        if (keys.isEmpty())
+            return null;
+
+        int rangeCount = keys.size() + 1;
+        Cursor[] cursors = new Cursor[rangeCount];
+        BatchAggregator[] aggregators = new BatchAggregator[rangeCount];
+        int[] columnIndexes = aggregator.getColumnIndexes();
+        ValueLong first = null;
+        for (int i = 0; i < rangeCount; i++) {
+            ValueLong last = null;
+            if (i < keys.size())
+                last = ValueLong.get(keys.get(i).getLong() - 1);
+            // 游标在当前调度器中创建好，其他调度器只需要读取记录
+            cursors[i] = ((StandardPrimaryIndex) index).find(session, first, last, columnIndexes);
+            aggregators[i] = new BatchAggregator(select, batchSize);
+            if (last != null)
+                first = ValueLong.get(last.getLong() + 1);
+        }
+        ParallelScan scan = new ParallelScan(cursors, aggregators, current);
+        int helpers = Math.min(parallelism, rangeCount) - 1;
+        for (int i = 0; i < schedulers.length && helpers > 0; i++) {
+            Scheduler s = schedulers[i];
+            if (s == current || s == null || !s.isStarted() || s.isStopped())
+                continue;
+            helpers--;
+            submitScanTask(s, scan);
+        }
+        return scan;
+    }
+
+    // 每个任务只扫描一段，扫描完后重新提交，让调度器在两段之间可以执行它自己的session
+    private static void submitScanTask(Scheduler s, ParallelScan scan) {
+        s.handle(() -> {
+            if (scan.scanNextRange() && scan.hasMoreRanges())
+                submitScanTask(s, scan);
+        });
+        s.wakeUp();
+    }
+
+    private class ParallelScan {
+
+        private final Cursor[] cursors;
+        private final BatchAggregator[] aggregators;
+        private final Scheduler coordinator;
+        private final AtomicInteger nextRange = new AtomicInteger();
+        private final AtomicInteger finishedRanges = new AtomicInteger();
+        private final AtomicInteger scannedRowCount = new AtomicInteger();
+        private volatile Throwable error;
+
+        ParallelScan(Cursor[] cursors, BatchAggregator[] aggregators, Scheduler coordinator) {
+            this.cursors = cursors;
+            this.aggregators = aggregators;
+            this.coordinator = coordinator;
+        }
+
+        // 领取并扫描下一段，没有可以领取的段时返回false
+        boolean scanNextRange() {
+            int i = nextRange.getAndIncrement();
+            if (i >= cursors.length)
+                return false;
+            int count = 0;
+            try {
+                Cursor cursor = cursors[i];
+                BatchAggregator aggregator = aggregators[i];
+                while (cursor.next()) {
+                    aggregator.add(cursor.get());
+                    count++;
+                }
+                aggregator.flush();
+            } catch (Throwable t) {
+                error = t;
+            } finally {
+                scannedRowCount.addAndGet(count);
+                if (finishedRanges.incrementAndGet() == cursors.length)
+                    onFinished();
+            }
+            return true;
+        }
+
+        // 当前session在等待时才需要唤醒，最后一段是当前调度器自己扫描的就什么都不用做
+        private void onFinished() {
+            if (session.compareAndSet(SessionStatus.WAITING, SessionStatus.STATEMENT_YIELDED))
+                coordinator.wakeUp();
+        }
+
+        boolean hasMoreRanges() {
+            return nextRange.get() < cursors.length;
+        }
+
+        int getScannedRowCount() {
+            return scannedRowCount.get();
+        }
+
+        boolean isFinished() {
+            return finishedRanges.get() >= cursors.length;
+        }
+
+        // 不再领取新的段
+        void cancel() {
+            nextRange.set(cursors.length);
+        }
+
+        void merge() {
+            if (error != null)
+                throw DbException.convert(error);
+            long rows = 0;
+            for (BatchAggregator a : aggregators) {
+                a.merge();
+                rows += a.getRowCount();
+            }
+            rowCount = (int) rows;
+        }
+    }
+}
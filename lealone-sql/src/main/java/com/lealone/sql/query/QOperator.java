@@ -53,6 +53,10 @@ public abstract class QOperator implements Operator {
 
     // 允许子类覆盖
     public ExpressionEvaluator createConditionEvaluator(Expression c) {
+        ExpressionEvaluator evaluator = select.getCompiledCondition();
+        if (evaluator != null) {
+            return evaluator;
+        }
         return new ExpressionInterpreter(session, c);
     }
 
@@ -110,6 +114,8 @@ public abstract class QOperator implements Operator {
 
     @Override
     public void stop() {
+        tableIterator.stop();
+        select.addConditionEvaluationCount(loopCount);
         if (select.offsetExpr != null) {
             localResult.setOffset(select.offsetExpr.getValue(session).getInt());
         }
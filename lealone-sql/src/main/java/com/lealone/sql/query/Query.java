@@ -284,6 +284,10 @@ public abstract class Query extends ManipulationStatement implements com.lealone
         this.sampleSizeExpr = sampleSize;
     }
 
+    public Expression getSampleSize() {
+        return sampleSizeExpr;
+    }
+
     /**
      * Get the sample size, if set.
      *
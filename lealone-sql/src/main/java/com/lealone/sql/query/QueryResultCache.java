@@ -5,10 +5,12 @@
  */
 package com.lealone.sql.query;
 
+import java.sql.Connection;
 import java.util.ArrayList;
 
 import com.lealone.db.Database;
 import com.lealone.db.result.LocalResult;
+import com.lealone.db.result.SharedResultCache;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.value.Value;
 import com.lealone.sql.expression.Parameter;
@@ -17,7 +19,6 @@ import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 class QueryResultCache {
 
     private final Select select;
-    private final ServerSession session;
 
     private boolean noCache;
     private int lastLimit;
@@ -25,10 +26,20 @@ class QueryResultCache {
     private Value[] lastParameters;
     private LocalResult lastResult;
     private boolean cacheableChecked;
+    private String sharedKey; // 在数据库级的结果缓存中的key，跟session的用户和schema有关
 
     QueryResultCache(Select select) {
         this.select = select;
-        session = select.getSession();
+    }
+
+    void clear() {
+        if (lastResult != null) {
+            lastResult.close();
+            lastResult = null;
+        }
+        lastParameters = null;
+        lastEvaluated = 0;
+        sharedKey = null;
     }
 
     void disable() {
@@ -36,27 +47,55 @@ class QueryResultCache {
     }
 
     boolean isNotCachable() {
-        return noCache || !session.getDatabase().getOptimizeReuseResults();
+        if (noCache)
+            return true;
+        ServerSession session = select.getSession();
+        // 当前事务修改过的表要等事务结束才会让缓存失效，读未提交时还可能读到其他事务的数据
+        return !session.getDatabase().getOptimizeReuseResults() || session.containsModifiedTables()
+                || session.getTransactionIsolationLevel() == Connection.TRANSACTION_READ_UNCOMMITTED;
+    }
+
+    // 只有读已提交的结果才能给其他session用，临时表和子查询这类跟session相关的查询也不行
+    private boolean isShared() {
+        ServerSession session = select.getSession();
+        if (select.getSQL() == null || !session.getDatabase().getSharedResultCache().isEnabled())
+            return false;
+        if (!session.isAutoCommit()
+                && session.getTransactionIsolationLevel() != Connection.TRANSACTION_READ_COMMITTED)
+            return false;
+        return select.isShareable();
+    }
+
+    private String getSharedKey() {
+        if (sharedKey == null)
+            sharedKey = select.getSession().getQueryCacheKey(select.getSQL());
+        return sharedKey;
     }
 
     void setResult(LocalResult r) {
-        if (isNotCachable())
+        // 结果本来就是从缓存中取的
+        if (r == lastResult || isNotCachable())
             return;
-        if (!isDeterministic())
+        if (!isDeterministic()) {
             disable();
-        else
-            lastResult = r;
+            return;
+        }
+        lastResult = r;
+        if (isShared()) {
+            SharedResultCache cache = select.getSession().getDatabase().getSharedResultCache();
+            cache.put(getSharedKey(), lastParameters, lastLimit, lastEvaluated, r);
+        }
     }
 
     LocalResult getResult(int limit) {
         if (isNotCachable()) {
             return null;
         } else {
+            ServerSession session = select.getSession();
             Value[] params = getParameterValues();
+            // 要在执行查询前取，执行查询期间有事务提交的话，结果会被当成过期的
             long now = session.getDatabase().getModificationDataId();
-            // 当lastEvaluated != now时，说明数据已经有变化，缓存的结果不能用了
-            if (lastEvaluated == now && lastResult != null && !lastResult.isClosed()
-                    && limit == lastLimit) {
+            if (lastResult != null && !lastResult.isClosed() && limit == lastLimit) {
                 if (sameResultAsLast(params)) {
                     lastResult = lastResult.createShallowCopy(session);
                     if (lastResult != null) {
@@ -65,13 +104,25 @@ class QueryResultCache {
                     }
                 }
             }
-            lastLimit = limit;
-            lastEvaluated = now;
-            lastParameters = params;
             if (lastResult != null) {
                 lastResult.close();
                 lastResult = null;
             }
+            if (isShared() && isIndependent()) {
+                SharedResultCache cache = session.getDatabase().getSharedResultCache();
+                long max = select.getMaxDataModificationId();
+                LocalResult r = cache.get(getSharedKey(), params, limit, max, session);
+                if (r != null) {
+                    lastResult = r;
+                    lastLimit = limit;
+                    lastEvaluated = max;
+                    lastParameters = params;
+                    return r;
+                }
+            }
+            lastLimit = limit;
+            lastEvaluated = now;
+            lastParameters = params;
             return null;
         }
     }
@@ -94,6 +145,16 @@ class QueryResultCache {
     }
 
     private boolean sameResultAsLast(Value[] params) {
+        if (!isIndependent())
+            return false;
+        Database db = select.getSession().getDatabase();
+        if (!sameParamsAsLast(db, params))
+            return false;
+        // 只看查询读过的表，其他表的修改不影响缓存的结果
+        return select.getMaxDataModificationId() <= lastEvaluated;
+    }
+
+    private boolean isIndependent() {
         if (!cacheableChecked) {
             long max = select.getMaxDataModificationId();
             noCache = max == Long.MAX_VALUE;
@@ -102,17 +163,7 @@ class QueryResultCache {
         if (noCache) {
             return false;
         }
-        Database db = session.getDatabase();
-        if (!sameParamsAsLast(db, params))
-            return false;
-        if (!select.accept(ExpressionVisitorFactory.getIndependentVisitor())) {
-            return false;
-        }
-        if (db.getModificationDataId() > lastEvaluated
-                && select.getMaxDataModificationId() > lastEvaluated) {
-            return false;
-        }
-        return true;
+        return select.accept(ExpressionVisitorFactory.getIndependentVisitor());
     }
 
     private boolean sameParamsAsLast(Database db, Value[] params) {
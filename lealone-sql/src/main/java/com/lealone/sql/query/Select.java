@@ -29,6 +29,7 @@ import com.lealone.db.result.Result;
 import com.lealone.db.result.ResultTarget;
 import com.lealone.db.result.SortOrder;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.Session;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
 import com.lealone.db.value.Value;
@@ -42,6 +43,8 @@ import com.lealone.sql.expression.Parameter;
 import com.lealone.sql.expression.SelectOrderBy;
 import com.lealone.sql.expression.condition.Comparison;
 import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.expression.evaluator.CompiledExpressionEvaluator;
+import com.lealone.sql.expression.evaluator.ExpressionCompiler;
 import com.lealone.sql.expression.visitor.ExpressionVisitor;
 import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 import com.lealone.sql.optimizer.ColumnResolver;
@@ -84,10 +87,14 @@ public class Select extends Query {
     boolean isQuickAggregateQuery;
     boolean isDistinctQuery;
     boolean sortUsingIndex;
+    private boolean sortIndexReverse; // 倒序遍历getSortIndex返回的索引
     private double cost;
 
     final QueryResultCache resultCache = new QueryResultCache(this);
 
+    // 流式结果集还没读完时还要用topTableFilter这些状态，语句不能关闭，也不能给其他地方重用
+    private boolean streaming;
+
     public Select(ServerSession session) {
         super(session);
     }
@@ -102,6 +109,28 @@ public class Select extends Query {
         return !isForUpdate;
     }
 
+    @Override
+    public boolean isShareable() {
+        return isCacheable() && accept(ExpressionVisitorFactory.getShareableVisitor());
+    }
+
+    @Override
+    public void bindSession(Session session) {
+        super.bindSession(session);
+        // 上一个session的结果可能包含它自己的事务还没提交的记录
+        resultCache.clear();
+    }
+
+    void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    @Override
+    public void close() {
+        if (!streaming)
+            super.close();
+    }
+
     public void setExpressions(ArrayList<Expression> expressions) {
         this.expressions = expressions;
     }
@@ -515,8 +544,10 @@ public class Select extends Query {
                     // in(select ...) and in(1,2,3) may return the key in
                     // another order
                     sortUsingIndex = true;
+                    topTableFilter.setReverse(sortIndexReverse);
                 }
-            } else if (index.getIndexColumns().length >= current.getIndexColumns().length) {
+            } else if (!sortIndexReverse
+                    && index.getIndexColumns().length >= current.getIndexColumns().length) {
                 IndexColumn[] sortColumns = index.getIndexColumns();
                 IndexColumn[] currentColumns = current.getIndexColumns();
                 boolean swapIndex = false;
@@ -590,6 +621,7 @@ public class Select extends Query {
      * @return the index if one is found
      */
     private Index getSortIndex() {
+        sortIndexReverse = false;
         if (sort == null) {
             return null;
         }
@@ -618,6 +650,7 @@ public class Select extends Query {
             // sort just on constants - can use scan index
             return topTableFilter.getTable().getScanIndex(session);
         }
+        Index reverseIndex = null;
         ArrayList<Index> list = topTableFilter.getTable().getIndexes();
         if (list != null) {
             for (int i = 0, size = list.size(); i < size; i++) {
@@ -634,6 +667,9 @@ public class Select extends Query {
                     continue;
                 }
                 boolean ok = true;
+                // 排序方向全部相反时可以倒序遍历索引，
+                // 不带NULLS FIRST/NULLS LAST时null值的顺序也正好相反
+                boolean reverseOk = index.canScanReverse();
                 for (int j = 0; j < sortCols.length; j++) {
                     // the index and the sort order must start
                     // with the exact same columns
@@ -641,28 +677,51 @@ public class Select extends Query {
                     Column sortCol = sortCols[j];
                     if (idxCol.column != sortCol) {
                         ok = false;
+                        reverseOk = false;
                         break;
                     }
                     if (idxCol.sortType != sortTypes[j]) {
                         // NULL FIRST for ascending and NULLS LAST
                         // for descending would actually match the default
                         ok = false;
-                        break;
+                    }
+                    if (!isReverseSortType(idxCol.sortType, sortTypes[j])) {
+                        reverseOk = false;
                     }
                 }
                 if (ok) {
                     return index;
                 }
+                if (reverseOk && reverseIndex == null) {
+                    reverseIndex = index;
+                }
             }
         }
         if (sortCols.length == 1 && sortCols[0].getColumnId() == -1) {
             // special case: order by _ROWID_
             Index index = topTableFilter.getTable().getScanIndex(session);
             if (index.isRowIdIndex()) {
-                return index;
+                if ((sortTypes[0] & SortOrder.DESCENDING) == 0) {
+                    return index;
+                }
+                if (index.canScanReverse()) {
+                    sortIndexReverse = true;
+                    return index;
+                }
             }
         }
-        return null;
+        if (reverseIndex != null) {
+            sortIndexReverse = true;
+        }
+        return reverseIndex;
+    }
+
+    private static boolean isReverseSortType(int indexSortType, int sortType) {
+        int nulls = SortOrder.NULLS_FIRST | SortOrder.NULLS_LAST;
+        if ((indexSortType & nulls) != 0 || (sortType & nulls) != 0) {
+            return false;
+        }
+        return (indexSortType ^ SortOrder.DESCENDING) == sortType;
     }
 
     private Index getGroupSortedIndex() {
@@ -852,7 +911,10 @@ public class Select extends Query {
             buff.append("\n/* distinct */");
         }
         if (sortUsingIndex) {
-            buff.append("\n/* index sorted */");
+            if (topTableFilter.isReverse())
+                buff.append("\n/* index sorted (reverse) */");
+            else
+                buff.append("\n/* index sorted */");
         }
         if (isGroupQuery) {
             if (isGroupSortedQuery) {
@@ -1013,6 +1075,41 @@ public class Select extends Query {
         return condition;
     }
 
+    // 编译后的where条件，Select作为PreparedSQLStatement缓存在ServerSession的queryCache中，所以它也被缓存了
+    // 在编译线程中设置，所以用volatile
+    private volatile CompiledExpressionEvaluator compiledCondition;
+    private volatile boolean conditionCompileFailed;
+    private boolean conditionCompiling;
+    private long conditionEvaluationCount;
+
+    // 累计执行where条件的次数超过EXPRESSION_COMPILE_THRESHOLD后才编译，0表示不编译
+    // 编译是异步的，编译完成之前返回null，继续解释执行
+    CompiledExpressionEvaluator getCompiledCondition() {
+        int threshold = session.getExpressionCompileThreshold();
+        if (threshold <= 0 || condition == null || conditionCompileFailed) {
+            return null;
+        }
+        CompiledExpressionEvaluator evaluator = compiledCondition;
+        if (evaluator == null && !conditionCompiling && conditionEvaluationCount >= threshold) {
+            conditionCompiling = true;
+            ExpressionCompiler.compileAsync(session, condition, e -> {
+                if (e == null)
+                    conditionCompileFailed = true;
+                else
+                    compiledCondition = e;
+            });
+            evaluator = compiledCondition; // 类已经编译过时会马上返回
+        }
+        if (evaluator != null) {
+            evaluator.setSession(session);
+        }
+        return evaluator;
+    }
+
+    void addConditionEvaluationCount(int count) {
+        conditionEvaluationCount += count;
+    }
+
     @Override
     public void disableCache() {
         resultCache.disable();
@@ -0,0 +1,181 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.ManualCloseable;
+import com.lealone.db.api.ErrorCode;
+import com.lealone.db.lock.DbObjectLock;
+import com.lealone.db.result.DelegatedResult;
+import com.lealone.db.result.LocalResult;
+import com.lealone.db.result.ResultTarget;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Table;
+import com.lealone.db.value.Value;
+import com.lealone.sql.optimizer.TableFilter;
+
+/**
+ * 流式结果集，不把查询结果全放到LocalResult中。
+ *
+ * 语句执行时只准备第一批记录，之后每次客户端取下一批记录时才接着扫描表，
+ * 所以大结果集的导出不需要在服务器端占用很多内存，记录数在读完之前是不知道的。
+ * 列的元数据还是从一个空的LocalResult中获取。
+ *
+ * 只在手动提交的事务中使用，事务结束时还没有读完的流式结果集会被关闭，
+ * 扫描时用到的表被删除或修改了结构也不能再继续读。
+ */
+class StreamingResult extends DelegatedResult implements ResultTarget, ManualCloseable {
+
+    private final Select select;
+    private final QOperator operator;
+    private final ArrayDeque<Value[]> rows = new ArrayDeque<>();
+    private int batchSize;
+    private Value[] currentRow;
+    private int rowId = -1;
+    private int rowCount; // 已经产生的记录数
+    private boolean finished;
+    private boolean closed;
+
+    // 查询用到的表和它们在语句执行时的元数据修改id
+    private final Table[] tables;
+    private final long[] modificationIds;
+
+    StreamingResult(Select select, QOperator operator, LocalResult metaData) {
+        this.select = select;
+        this.operator = operator;
+        this.result = metaData;
+        batchSize = Math.max(1, select.getFetchSize());
+        ArrayList<TableFilter> filters = select.getFilters();
+        tables = new Table[filters.size()];
+        modificationIds = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = filters.get(i).getTable();
+            modificationIds[i] = tables[i].getModificationId();
+        }
+        select.setStreaming(true);
+        select.getSession().addTransactionResource(this);
+    }
+
+    int getProducedRowCount() {
+        return rowCount;
+    }
+
+    boolean isFull() {
+        return rows.size() >= batchSize;
+    }
+
+    // 执行查询直到攒够一批记录或者表已经扫描完了
+    void fill() {
+        if (closed)
+            throw DbException.get(ErrorCode.OBJECT_CLOSED);
+        if (!finished)
+            checkTables();
+        while (!finished && !isFull()) {
+            try {
+                operator.run();
+            } catch (RuntimeException e) {
+                // 这里不能让出，直接重试当前记录
+                if (DbObjectLock.LOCKED_EXCEPTION != e)
+                    throw e;
+                operator.onLockedException();
+            }
+            if (operator.isStopped())
+                finish();
+        }
+    }
+
+    private void checkTables() {
+        for (int i = 0; i < tables.length; i++) {
+            if (tables[i].isInvalid() || tables[i].getModificationId() != modificationIds[i])
+                throw DbException.get(ErrorCode.OBJECT_CLOSED);
+        }
+    }
+
+    private void finish() {
+        if (finished)
+            return;
+        finished = true;
+        ServerSession session = select.getSession();
+        session.removeTransactionResource(this);
+        try {
+            operator.stop();
+        } finally {
+            select.setStreaming(false);
+            select.close();
+        }
+    }
+
+    @Override
+    public boolean addRow(Value[] values) {
+        rows.add(values);
+        rowCount++;
+        return true;
+    }
+
+    @Override
+    public boolean next() {
+        if (rows.isEmpty()) {
+            try {
+                fill();
+            } catch (Throwable e) {
+                close();
+                throw DbException.convert(e);
+            }
+        }
+        currentRow = rows.poll();
+        if (currentRow == null)
+            return false;
+        rowId++;
+        return true;
+    }
+
+    @Override
+    public Value[] currentRow() {
+        return currentRow;
+    }
+
+    @Override
+    public int getRowId() {
+        return rowId;
+    }
+
+    @Override
+    public int getRowCount() {
+        // 读完之前不知道有多少条记录，作为ResultTarget时返回已经产生的记录数
+        return finished && rows.isEmpty() ? rowCount : -1;
+    }
+
+    @Override
+    public void reset() {
+        throw DbException.getUnsupportedException("reset streaming result");
+    }
+
+    @Override
+    public boolean needToClose() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        rows.clear();
+        finish();
+    }
+
+    @Override
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize > 0)
+            batchSize = fetchSize;
+    }
+
+    @Override
+    public int getFetchSize() {
+        return batchSize;
+    }
+}
@@ -25,6 +25,7 @@ public class YieldableSelect extends YieldableQueryBase {
     private final int olapThreshold;
     private boolean olapDisabled;
     private Operator queryOperator;
+    private StreamingResult streamingResult;
 
     public YieldableSelect(Select select, int maxRows, boolean scrollable,
             AsyncHandler<AsyncResult<Result>> asyncHandler, ResultTarget target) {
@@ -36,6 +37,9 @@ public class YieldableSelect extends YieldableQueryBase {
 
     @Override
     public boolean yieldIfNeeded(int rowNumber) {
+        // 流式结果集攒够一批记录就返回，客户端取记录时可能已经不在执行语句的过程中了
+        if (streamingResult != null)
+            return streamingResult.isFull();
         if (!olapDisabled && olapThreshold > 0 && rowNumber > olapThreshold) {
             olapDisabled = true;
             boolean yield = super.yieldIfNeeded(rowNumber);
@@ -82,6 +86,12 @@ public class YieldableSelect extends YieldableQueryBase {
 
     @Override
     protected void stopInternal() {
+        if (streamingResult != null) {
+            // 正常执行完时等流式结果集读完或关闭时再停止
+            if (asyncResult == null)
+                streamingResult.close();
+            return;
+        }
         // 执行startInternal抛异常时queryOperator可能为null
         if (queryOperator != null)
             queryOperator.stop();
@@ -89,6 +99,13 @@ public class YieldableSelect extends YieldableQueryBase {
 
     @Override
     protected void executeInternal() {
+        if (streamingResult != null) {
+            session.setStatus(SessionStatus.STATEMENT_RUNNING);
+            streamingResult.fill();
+            setResult(streamingResult, streamingResult.getProducedRowCount());
+            session.setStatus(SessionStatus.STATEMENT_COMPLETED);
+            return;
+        }
         while (true) {
             session.setStatus(SessionStatus.STATEMENT_RUNNING);
             try {
@@ -140,7 +157,7 @@ public class YieldableSelect extends YieldableQueryBase {
                         queryOperator = new QGroupSorted(select);
                     } else {
                         if (select.groupIndex == null) { // 忽视select.havingIndex
-                            queryOperator = new QAggregate(select);
+                            queryOperator = createAggregateOperator();
                         } else {
                             queryOperator = new QGroup(select);
                         }
@@ -154,6 +171,12 @@ public class YieldableSelect extends YieldableQueryBase {
                 queryOperator = new QEmpty(select);
             }
         }
+        if (cachedResult == null && canStream(queryOperator, limitRows)) {
+            // result是空的，只用来获取列的元数据
+            streamingResult = new StreamingResult(select, queryOperator, result);
+            to = streamingResult;
+            result = null;
+        }
         queryOperator.columnCount = select.expressions.size();
         queryOperator.maxRows = limitRows;
         queryOperator.target = target;
@@ -163,6 +186,25 @@ public class YieldableSelect extends YieldableQueryBase {
         return queryOperator;
     }
 
+    // 只有不需要在服务器端排序、去重、分组和跳过记录的普通查询才能使用流式结果集，
+    // 自动提交模式下语句结束时事务就提交了，后续读取时不能再用这个事务扫描表，所以不使用流式结果集
+    private boolean canStream(QOperator queryOperator, int limitRows) {
+        return session.isLazyQueryExecution() && !session.isAutoCommit() && target == null && asyncHandler != null && !scrollable
+                && queryOperator.getClass() == QFlat.class && limitRows < 0
+                && select.offsetExpr == null && select.sampleSizeExpr == null && !select.isForUpdate
+                && !select.distinct && (select.sort == null || select.sortUsingIndex);
+    }
+
+    private QOperator createAggregateOperator() {
+        int batchSize = session.getOlapBatchSize();
+        if (batchSize <= 0 || !QAggregateBatch.isSupported(select))
+            return new QAggregate(select);
+        int parallelism = session.getOlapParallelism();
+        if (parallelism > 1)
+            return new QAggregateParallel(select, batchSize, parallelism);
+        return new QAggregateBatch(select, batchSize);
+    }
+
     private int getLimitRows(int maxRows) {
         // 按JDBC规范的要求，当调用java.sql.Statement.setMaxRows时，
         // 如果maxRows是0，表示不限制行数，相当于没有调用过setMaxRows一样，
@@ -201,6 +243,15 @@ public class YieldableSelect extends YieldableQueryBase {
         if (limitRows >= 0 || select.offsetExpr != null) {
             result = createLocalResult(result);
         }
+        // 需要排序又有limit时只保留最前面的limit+offset条记录
+        if (limitRows > 0 && result != null && select.sort != null && !select.sortUsingIndex
+                && !select.distinct) {
+            long n = limitRows;
+            if (select.offsetExpr != null)
+                n += Math.max(0, select.offsetExpr.getValue(session).getInt());
+            if (n <= Integer.MAX_VALUE)
+                result.setTopN((int) n);
+        }
         return result;
     }
 
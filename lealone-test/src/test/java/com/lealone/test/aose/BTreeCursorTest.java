@@ -0,0 +1,82 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import org.junit.Test;
+
+import com.lealone.storage.CursorParameters;
+import com.lealone.storage.StorageMapCursor;
+import com.lealone.storage.aose.btree.page.PageReadAhead;
+
+public class BTreeCursorTest extends AoseTestBase {
+
+    private static final int COUNT = 3000;
+
+    @Test
+    public void run() {
+        init(true);
+        for (int i = 1; i <= COUNT; i++) {
+            if (i % 5 != 0)
+                map.put(i, "value" + i);
+        }
+        map.save();
+        // 重新打开后page都要从chunk文件中读取，游标会预读下一个leaf page
+        map.close();
+        openMap();
+
+        testRange(null, null);
+        testRange(100, 2000);
+        testRange(99, 2001);
+        testRange(null, 37);
+        testRange(2950, null);
+        testRange(1500, 1500);
+        testRange(1505, 1505);
+        testRange(2000, 100);
+        testRange(COUNT + 1, null);
+        testReadAheadClose();
+    }
+
+    // 每个BTreeStorage有自己的预读线程，关闭时要停止
+    private void testReadAheadClose() {
+        map.close();
+        openMap();
+        testRange(null, null, false);
+        PageReadAhead readAhead = map.getBTreeStorage().getPageReadAhead();
+        if (PageReadAhead.isEnabled())
+            assertTrue(readAhead.isRunning());
+        map.close();
+        assertFalse(readAhead.isRunning());
+    }
+
+    private void testRange(Integer from, Integer to) {
+        testRange(from, to, false);
+        testRange(from, to, true);
+    }
+
+    private void testRange(Integer from, Integer to, boolean reverse) {
+        CursorParameters<Integer> p = new CursorParameters<>(from, to, null, true, reverse);
+        StorageMapCursor<Integer, String> cursor = map.cursor(p);
+        int min = from == null ? 1 : from;
+        int max = to == null ? COUNT : to;
+        int key = reverse ? max : min;
+        int step = reverse ? -1 : 1;
+        int count = 0;
+        while (cursor.next()) {
+            while (key % 5 == 0)
+                key += step;
+            assertEquals(key, cursor.getKey().intValue());
+            assertEquals("value" + key, cursor.getValue());
+            key += step;
+            count++;
+        }
+        int expected = 0;
+        for (int i = min; i <= max; i++) {
+            if (i % 5 != 0)
+                expected++;
+        }
+        assertEquals(expected, count);
+    }
+}
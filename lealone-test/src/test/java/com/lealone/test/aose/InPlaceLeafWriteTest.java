@@ -0,0 +1,137 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.lealone.storage.CursorParameters;
+import com.lealone.storage.StorageMapCursor;
+import com.lealone.storage.aose.AOStorageBuilder;
+import com.lealone.storage.aose.btree.page.Page;
+
+public class InPlaceLeafWriteTest extends AoseTestBase {
+
+    private static final int COUNT = 2000;
+
+    @Test
+    public void run() throws Exception {
+        openInPlaceMap();
+        map.clear();
+        testInPlace();
+        testConcurrentReads();
+        testReopen();
+    }
+
+    private void openInPlaceMap() {
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.pageSize(pageSize);
+        builder.inPlaceLeafWrite(true);
+        // 按storagePath缓存AOStorage，用单独的目录才不会拿到其他测试打开的AOStorage
+        storage = openStorage(builder, joinDirs("aose_in_place"));
+        map = storage.openBTreeMap(getClass().getSimpleName());
+    }
+
+    // 插入和删除都直接修改原来的leaf page
+    private void testInPlace() {
+        map.put(1, "a");
+        map.put(3, "c");
+        Page p = map.getRootPage();
+        assertTrue(p.isInPlaceWritable());
+        map.put(2, "b");
+        assertTrue(p == map.getRootPage());
+        assertEquals(3, p.getKeyCount());
+        assertEquals("b", map.get(2));
+        map.remove(1);
+        assertTrue(p == map.getRootPage());
+        assertEquals(2, p.getKeyCount());
+        assertNull(map.get(1));
+        assertEquals(Integer.valueOf(2), map.firstKey());
+        assertEquals(Integer.valueOf(3), map.lastKey());
+        map.clear();
+    }
+
+    // 偶数key一直都在，写线程不断插入和删除奇数key，读线程必须总能读到所有的偶数key
+    private void testConcurrentReads() throws Exception {
+        for (int i = 0; i < COUNT; i += 2)
+            map.put(i, "value" + i);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int round = 0; round < 5; round++) {
+                    for (int i = 1; i < COUNT; i += 2)
+                        map.put(i, "value" + i);
+                    for (int i = 1; i < COUNT; i += 2)
+                        map.remove(i);
+                }
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            } finally {
+                stop.set(true);
+            }
+        });
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            boolean reverse = r == 1;
+            readers[r] = new Thread(() -> {
+                try {
+                    while (!stop.get()) {
+                        for (int i = 0; i < COUNT; i += 50)
+                            assertEquals("value" + i, map.get(i));
+                        scan(reverse);
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+        }
+        writer.start();
+        for (Thread t : readers)
+            t.start();
+        writer.join();
+        for (Thread t : readers)
+            t.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+        assertEquals(COUNT / 2, map.size());
+    }
+
+    private void scan(boolean reverse) {
+        CursorParameters<Integer> p = new CursorParameters<>(null, null, null, true, reverse);
+        StorageMapCursor<Integer, String> cursor = map.cursor(p);
+        int last = reverse ? Integer.MAX_VALUE : -1;
+        int evenCount = 0;
+        while (cursor.next()) {
+            int key = cursor.getKey();
+            assertTrue(reverse ? key < last : key > last);
+            assertEquals("value" + key, cursor.getValue());
+            if (key % 2 == 0)
+                evenCount++;
+            last = key;
+        }
+        assertEquals(COUNT / 2, evenCount);
+    }
+
+    // 刷脏页时写出的是原地修改后的数据
+    private void testReopen() {
+        for (int i = 1; i < COUNT; i += 4)
+            map.put(i, "value" + i);
+        map.save();
+        map.close();
+        storage.close();
+        openInPlaceMap();
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 2 == 0 || i % 4 == 1)
+                assertEquals("value" + i, map.get(i));
+            else
+                assertNull(map.get(i));
+        }
+        scan(false);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.lealone.storage.StorageMapCursor;
+import com.lealone.storage.aose.AOStorageBuilder;
+import com.lealone.storage.aose.btree.page.Page;
+
+public class LeafMergeTest extends AoseTestBase {
+
+    private static final int COUNT = 10000;
+
+    @Test
+    public void run() throws Exception {
+        init();
+        testMerge();
+        testConcurrentReads();
+        testCollapse();
+        testReopen();
+    }
+
+    // 默认不合并leaf page，用单独的目录，避免用到其他测试打开的AOStorage
+    @Override
+    protected void init(String mapName, boolean clearMap) {
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.pageSize(pageSize);
+        builder.leafMergeFillRate(30);
+        storage = openStorage(builder, joinDirs("aose_leaf_merge"));
+        map = storage.openBTreeMap(mapName);
+        if (clearMap)
+            map.clear();
+    }
+
+    // 删除80%的记录后，leaf page的个数要少于原来的一半，树的高度也不能增加
+    private void testMerge() {
+        for (int i = 0; i < COUNT; i++)
+            map.put(i, "value" + i);
+        int leafCount = getLeafCount(map.getRootPage());
+        int height = getHeight();
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 5 != 0)
+                map.remove(i);
+        }
+        assertEquals(COUNT / 5, map.size());
+        assertTrue(getLeafCount(map.getRootPage()) < leafCount / 2);
+        assertTrue(getHeight() <= height);
+        check(5);
+    }
+
+    // 删除时读线程必须总能读到不会被删除的记录
+    private void testConcurrentReads() throws Exception {
+        map.clear();
+        for (int i = 0; i < COUNT; i++)
+            map.put(i, "value" + i);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < COUNT; i++) {
+                    if (i % 10 != 0)
+                        map.remove(i);
+                }
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            } finally {
+                stop.set(true);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try {
+                while (!stop.get()) {
+                    for (int i = 0; i < COUNT; i += 100)
+                        assertEquals("value" + i, map.get(i));
+                    StorageMapCursor<Integer, String> cursor = map.cursor();
+                    int count = 0;
+                    while (cursor.next()) {
+                        if (cursor.getKey() % 10 == 0)
+                            count++;
+                    }
+                    assertEquals(COUNT / 10, count);
+                }
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+        check(10);
+    }
+
+    // 只剩下几条记录时，root page又变回leaf page
+    private void testCollapse() {
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 2000 != 0)
+                map.remove(i);
+        }
+        assertEquals(COUNT / 2000, map.size());
+        assertEquals(1, getHeight());
+        check(2000);
+        for (int i = 0; i < COUNT; i++)
+            map.put(i, "value" + i);
+        check(1);
+    }
+
+    private void testReopen() {
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 3 != 0)
+                map.remove(i);
+        }
+        map.save();
+        map.close();
+        storage.close();
+        init(false);
+        check(3);
+    }
+
+    private void check(int step) {
+        for (int i = 0; i < COUNT; i++) {
+            if (i % step == 0)
+                assertEquals("value" + i, map.get(i));
+            else
+                assertNull(map.get(i));
+        }
+        StorageMapCursor<Integer, String> cursor = map.cursor();
+        int key = 0;
+        while (cursor.next()) {
+            assertEquals(key, cursor.getKey().intValue());
+            key += step;
+        }
+        assertEquals((COUNT + step - 1) / step * step, key);
+    }
+
+    private static int getLeafCount(Page p) {
+        if (p.isLeaf())
+            return 1;
+        int count = 0;
+        for (int i = 0; i < p.getRawChildPageCount(); i++)
+            count += getLeafCount(p.getChildPage(i));
+        return count;
+    }
+
+    private int getHeight() {
+        int height = 1;
+        Page p = map.getRootPage();
+        while (p.isNode()) {
+            p = p.getChildPage(0);
+            height++;
+        }
+        return height;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.lealone.storage.aose.AOStorageBuilder;
+import com.lealone.storage.aose.btree.page.Page;
+import com.lealone.storage.aose.btree.page.PageReference;
+import com.lealone.storage.fs.FileStorage;
+import com.lealone.storage.fs.FileUtils;
+
+public class MmapReadTest extends AoseTestBase {
+
+    @Test
+    public void run() {
+        testFileStorage();
+        testBTreeMap();
+    }
+
+    private void testFileStorage() {
+        String fileName = joinDirs("aose", "MmapReadTest.db");
+        FileUtils.createDirectories(FileUtils.getParent(fileName));
+        FileUtils.delete(fileName);
+        FileStorage fs = FileStorage.open(fileName, new HashMap<>());
+        try {
+            fs.writeFully(0, ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+            fs.setMmapRead(true);
+            ByteBuffer buff = fs.readFully(1, 2);
+            assertTrue(buff.isDirect());
+            assertEquals(2, buff.remaining());
+            assertEquals(2, buff.get());
+            assertEquals(3, buff.get());
+
+            // 文件变大后要重新映射
+            fs.writeFully(4, ByteBuffer.wrap(new byte[] { 5, 6 }));
+            buff = fs.readFully(4, 2);
+            assertTrue(buff.isDirect());
+            assertEquals(5, buff.get());
+
+            fs.setMmapRead(false);
+            assertFalse(fs.readFully(0, 4).isDirect());
+        } finally {
+            fs.close();
+            FileUtils.delete(fileName);
+        }
+    }
+
+    private void testBTreeMap() {
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.pageSize(pageSize);
+        builder.mmapRead(true);
+        long mmapUsedMemory = readAll(builder, "mmap");
+
+        builder = new AOStorageBuilder();
+        builder.pageSize(pageSize);
+        long heapUsedMemory = readAll(builder, "heap");
+
+        // 用内存映射读时，page的字节数据由操作系统的page cache缓存，不计入已使用的内存
+        // (堆外page缓存返回的buff也要计入)
+        assertTrue(mmapUsedMemory > 0);
+        assertTrue(mmapUsedMemory < heapUsedMemory);
+    }
+
+    private long readAll(AOStorageBuilder builder, String dir) {
+        storage = openStorage(builder, joinDirs("aose", "MmapReadTest", dir));
+        map = storage.openBTreeMap("MmapReadTest");
+        map.clear();
+        int count = 5000;
+        for (int i = 1; i <= count; i++) {
+            map.put(i, "value-" + i);
+        }
+        map.save();
+        map.close();
+
+        map = storage.openBTreeMap("MmapReadTest");
+        for (int i = 1; i <= count; i++) {
+            assertEquals("value-" + i, map.get(i));
+        }
+        assertEquals(count, map.size());
+        // 内存映射文件的slice不能保存在PageInfo中，chunk文件被删除或截断后再访问会导致进程崩溃
+        if (dir.equals("mmap")) {
+            Page root = map.getRootPage();
+            assertTrue(root.isNode());
+            for (PageReference ref : root.getChildren())
+                assertNull(ref.getPageInfo().buff);
+        }
+        long usedMemory = map.getBTreeStorage().getBTreeGC().getUsedMemory();
+        map.remove();
+        return usedMemory;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.lealone.storage.aose.btree.page.PageCache;
+import com.lealone.storage.aose.btree.page.PageInfo;
+import com.lealone.storage.aose.btree.page.PageUtils;
+import com.lealone.test.TestBase;
+
+public class PageCacheTest extends TestBase {
+
+    private static ByteBuffer createPage(int len, byte b) {
+        ByteBuffer buff = ByteBuffer.allocate(len);
+        for (int i = 0; i < len; i++)
+            buff.put(b);
+        buff.flip();
+        return buff;
+    }
+
+    private static long pos(int chunkId, int offset) {
+        return PageUtils.getPagePos(chunkId, offset, PageUtils.PAGE_TYPE_LEAF);
+    }
+
+    @Test
+    public void run() {
+        PageCache cache = new PageCache(300, 1);
+        int storageId = PageCache.nextStorageId();
+
+        ByteBuffer buff = cache.put(storageId, pos(1, 0), createPage(100, (byte) 1));
+        assertTrue(buff.isDirect());
+        assertEquals(100, buff.remaining());
+        assertEquals(1, buff.get(0));
+        assertEquals(100, cache.getUsedMemory());
+
+        assertNull(cache.get(storageId, pos(1, 100)));
+        assertNotNull(cache.get(storageId, pos(1, 0)));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.put(storageId, pos(1, 100), createPage(100, (byte) 2));
+        cache.put(storageId, pos(2, 0), createPage(100, (byte) 3));
+        assertEquals(300, cache.getUsedMemory());
+
+        // 第1个page访问过，第2个page没有访问过，所以先淘汰第2个
+        cache.get(storageId, pos(1, 0));
+        cache.put(storageId, pos(2, 100), createPage(100, (byte) 4));
+        assertEquals(300, cache.getUsedMemory());
+        assertNotNull(cache.get(storageId, pos(1, 0)));
+        assertNull(cache.get(storageId, pos(1, 100)));
+
+        // 太大的page不缓存
+        ByteBuffer large = createPage(400, (byte) 5);
+        assertTrue(cache.put(storageId, pos(3, 0), large) == large);
+
+        cache.removeChunk(storageId, 2);
+        assertNull(cache.get(storageId, pos(2, 0)));
+        assertNull(cache.get(storageId, pos(2, 100)));
+        assertEquals(100, cache.getUsedMemory());
+
+        cache.removeStorage(storageId);
+        assertNull(cache.get(storageId, pos(1, 0)));
+        assertEquals(0, cache.getUsedMemory());
+
+        // 淘汰后PageInfo还引用着直接内存，所以要计入BTreeGC
+        PageInfo pInfo = new PageInfo();
+        pInfo.buff = buff;
+        assertEquals(100, pInfo.getBuffMemory());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aote;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.lealone.storage.Storage;
+import com.lealone.storage.fs.FileUtils;
+import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionMap;
+import com.lealone.transaction.aote.AOTransactionEngine;
+import com.lealone.transaction.aote.log.LogSyncService;
+
+public class RedoLogPerSchedulerTest extends AoteTestBase {
+
+    private static String baseDir;
+    private static AOTransactionEngine te;
+    private static Storage storage;
+
+    @BeforeClass
+    public static void beforeClass() { // 不会触发父类的before
+        baseDir = joinDirs("aote", "RedoLogPerSchedulerTest");
+        Map<String, String> config = getDefaultConfig(baseDir);
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_INSTANT);
+        config.put("redo_log_per_scheduler", "true");
+
+        // 避免覆盖存在的TransactionEngine
+        config.put("plugin_name", "RedoLogPerSchedulerTest");
+        te = new AOTransactionEngine();
+        te.init(config);
+        storage = getStorage();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        te.close(false);
+    }
+
+    @Test
+    public void run() {
+        LogSyncService logSyncService = te.getLogSyncService();
+        assertTrue(logSyncService.isPerSchedulerStream());
+        int streamCount = logSyncService.getStreamCount();
+        for (int i = 1; i < streamCount; i++) {
+            String dir = baseDir + File.separator + "redo_log" + File.separator + "stream_" + i;
+            assertTrue(FileUtils.exists(dir));
+        }
+
+        Transaction t = te.beginTransaction();
+        TransactionMap<String, String> map = t.openMap(mapName, storage);
+        map.remove();
+        t.commit();
+
+        // 每个事务会轮流绑定到不同的scheduler，从而写到不同的redo log流
+        int count = streamCount * 10;
+        for (int i = 0; i < count; i++) {
+            t = te.beginTransaction();
+            map = t.openMap(mapName, storage);
+            map.put("key" + i, "value" + i);
+            t.commit();
+        }
+        assertEquals(count, map.size());
+
+        // 所有的流都切换文件后checkpoint才能完成
+        te.checkpoint();
+        long sleep = 0;
+        while (map.getDiskSpaceUsed() <= 0 && sleep < 3000) {
+            try {
+                Thread.sleep(100); // 等待后端检查点线程完成数据保存
+            } catch (InterruptedException e) {
+            }
+            sleep += 100;
+        }
+        assertTrue(map.getDiskSpaceUsed() > 0);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.lealone.common.util.IOUtils;
+import com.lealone.db.Constants;
+import com.lealone.storage.Storage;
+import com.lealone.storage.StorageBuilder;
+import com.lealone.storage.StorageEngine;
+import com.lealone.storage.StorageMap;
+import com.lealone.storage.fs.FileUtils;
+import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionMap;
+import com.lealone.transaction.aote.AOTransactionEngine;
+import com.lealone.transaction.aote.log.LogSyncService;
+
+public class RedoLogRecoveryTest extends AoteTestBase {
+
+    private static final int COUNT = 300;
+
+    @Test
+    public void run() {
+        // 块比一些记录还小，读的时候要扩大块，chunk文件也很小，要跨多个chunk文件读
+        System.setProperty("lealone.redoLog.readBlockSize", "1024");
+        testRecover("no");
+        testRecover("lzf");
+        testRecover("deflate");
+        // 恢复时缓存的记录超过上限后要写到临时文件，redo时再读回来
+        testRecover("no", "2048");
+    }
+
+    private void testRecover(String compress) {
+        testRecover(compress, null);
+    }
+
+    private void testRecover(String compress, String maxPendingSize) {
+        String baseDir = joinDirs("aote", "RedoLogRecoveryTest", compress);
+        AOTransactionEngine te1 = createTransactionEngine(baseDir, "RedoLogRecoveryTest1", compress,
+                null);
+        AOTransactionEngine te2 = null;
+        try {
+            Storage storage1 = openStorage(joinDirs("aote", "RedoLogRecoveryTest", "data1"));
+            Transaction t = te1.beginTransaction();
+            TransactionMap<String, String> map = t.openMap(mapName, storage1);
+            map.remove();
+            t.commit();
+            for (int i = 0; i < COUNT; i++) {
+                t = te1.beginTransaction();
+                map = t.openMap(mapName, storage1);
+                map.put("key" + i, getValue(i));
+                if (i % 3 == 0 && i > 0)
+                    map.remove("key" + (i - 1));
+                t.commit();
+            }
+            Map<String, String> statistics = te1.getRedoLogStatistics();
+            assertEquals(COUNT + 1, Integer.parseInt(statistics.get("RECORD_COUNT")));
+            assertTrue(Integer.parseInt(statistics.get("FSYNC_COUNT")) > 0);
+            double ratio = Double.parseDouble(statistics.get("COMPRESSION_RATIO"));
+            if (compress.equals("no"))
+                assertEquals(1.0, ratio, 0.0);
+            else
+                assertTrue(ratio > 1.0);
+
+            // 复制redo log，模拟崩溃后重启，另一个事务引擎读取复制的redo log，在一个空的map上redo
+            String baseDir2 = joinDirs("aote", "RedoLogRecoveryTest", "copy");
+            copyRedoLog(baseDir, baseDir2);
+            te2 = createTransactionEngine(baseDir2, "RedoLogRecoveryTest2", "no", maxPendingSize);
+            Storage storage2 = openStorage(joinDirs("aote", "RedoLogRecoveryTest", "data2"));
+            t = te2.beginTransaction();
+            TransactionMap<String, String> map2 = t.openMap(mapName, storage2);
+            StorageMap<?, ?> rawMap = map2.getRawMap();
+            rawMap.clear();
+            te2.recover(rawMap, null);
+            t.commit();
+            // redo完后临时文件就删除了
+            String pendingDir = baseDir2 + File.separator + "redo_log" + File.separator + "pending";
+            if (maxPendingSize != null)
+                assertTrue(FileUtils.exists(pendingDir));
+            if (FileUtils.exists(pendingDir))
+                assertTrue(FileUtils.newDirectoryStream(pendingDir).isEmpty());
+
+            int expected = 0;
+            for (int i = 0; i < COUNT; i++) {
+                if (!(i % 3 == 2 && i < COUNT - 1))
+                    expected++;
+            }
+            long sleep = 0;
+            while (rawMap.size() < expected && sleep < 3000) {
+                try {
+                    Thread.sleep(100); // redo是异步执行的
+                } catch (InterruptedException e) {
+                }
+                sleep += 100;
+            }
+            assertEquals(expected, rawMap.size());
+            t = te2.beginTransaction();
+            map2 = t.openMap(mapName, storage2);
+            for (int i = 0; i < COUNT; i++) {
+                if (i % 3 == 2 && i < COUNT - 1)
+                    assertNull(map2.get("key" + i));
+                else
+                    assertEquals(getValue(i), map2.get("key" + i));
+            }
+            t.commit();
+        } finally {
+            if (te2 != null)
+                te2.close(false);
+            te1.close(false);
+        }
+    }
+
+    private static void copyRedoLog(String from, String to) {
+        String fromDir = from + File.separator + "redo_log";
+        String toDir = to + File.separator + "redo_log";
+        FileUtils.deleteRecursive(to, false);
+        FileUtils.createDirectories(toDir);
+        for (String f : FileUtils.newDirectoryStream(fromDir)) {
+            if (FileUtils.isDirectory(f))
+                continue;
+            try (InputStream in = FileUtils.newInputStream(f);
+                    OutputStream out = FileUtils.newOutputStream(
+                            toDir + File.separator + FileUtils.getName(f), false)) {
+                IOUtils.copy(in, out);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static String getValue(int i) {
+        StringBuilder buff = new StringBuilder("value" + i);
+        if (i % 10 == 0) {
+            for (int j = 0; j < 3000; j++)
+                buff.append('x');
+        }
+        return buff.toString();
+    }
+
+    private static AOTransactionEngine createTransactionEngine(String baseDir, String pluginName,
+            String compress, String maxPendingSize) {
+        Map<String, String> config = getDefaultConfig(baseDir);
+        config.put("redo_log_compress", compress);
+        if (maxPendingSize != null)
+            config.put("redo_log_max_pending_size", maxPendingSize);
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_INSTANT);
+        config.put("log_chunk_size", "8192");
+        // 避免覆盖存在的TransactionEngine
+        config.put("plugin_name", pluginName);
+        AOTransactionEngine te = new AOTransactionEngine();
+        te.init(config);
+        return te;
+    }
+
+    private static Storage openStorage(String storagePath) {
+        StorageEngine se = StorageEngine.getDefaultStorageEngine();
+        assertEquals(Constants.DEFAULT_STORAGE_ENGINE_NAME, se.getName());
+        StorageBuilder storageBuilder = se.getStorageBuilder();
+        storageBuilder.storagePath(storagePath);
+        return storageBuilder.openStorage();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.client;
+
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.client.jdbc.JdbcConnection;
+import com.lealone.db.ConnectionSetting;
+import com.lealone.net.TransferOutputStream;
+
+public class NetCompressTest extends ClientTestBase {
+
+    private static final int COUNT = 200;
+
+    @Test
+    public void run() throws Exception {
+        String url = getURL() + ";" + ConnectionSetting.NET_COMPRESS_THRESHOLD.name() + "=1024";
+        try (Connection conn = DriverManager.getConnection(url)) {
+            assertEquals(1024, ((JdbcConnection) conn).getSession().getNetCompressThreshold());
+            Statement stmt = conn.createStatement();
+            stmt.executeUpdate("DROP TABLE IF EXISTS NetCompressTest");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS NetCompressTest(f1 int, f2 varchar)");
+
+            // 批量更新的协议包很大，会被压缩
+            PreparedStatement ps = conn
+                    .prepareStatement("INSERT INTO NetCompressTest(f1, f2) VALUES(?, ?)");
+            for (int i = 1; i <= COUNT; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, getValue(i));
+                ps.addBatch();
+            }
+            int[] result = ps.executeBatch();
+            assertEquals(COUNT, result.length);
+            ps.close();
+
+            // 小的协议包不压缩
+            ResultSet rs = stmt.executeQuery("SELECT count(*) FROM NetCompressTest");
+            assertTrue(rs.next());
+            assertEquals(COUNT, rs.getInt(1));
+            rs.close();
+
+            stmt.setFetchSize(COUNT / 2);
+            rs = stmt.executeQuery("SELECT f1, f2 FROM NetCompressTest ORDER BY f1");
+            for (int i = 1; i <= COUNT; i++) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+                assertEquals(getValue(i), rs.getString(2));
+            }
+            assertFalse(rs.next());
+            rs.close();
+            stmt.close();
+        }
+        testUncompressedConnection();
+    }
+
+    // 没有协商压缩的连接收到压缩过的协议包时直接断开，不会按对端给的长度分配内存
+    private void testUncompressedConnection() throws Exception {
+        try (Socket socket = new Socket(getHost(), getPort())) {
+            socket.setSoTimeout(10000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(5); // 协议包的长度
+            out.writeByte(TransferOutputStream.REQUEST | TransferOutputStream.COMPRESSED);
+            out.writeInt(Integer.MAX_VALUE); // 解压后的长度
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    private static String getValue(int i) {
+        StringBuilder buff = new StringBuilder();
+        for (int j = 0; j < 50; j++)
+            buff.append("value").append(i);
+        return buff.toString();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.client;
+
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.lealone.client.jdbc.JdbcConnection;
+import com.lealone.client.jdbc.JdbcPreparedStatement;
+import com.lealone.client.jdbc.JdbcStatement;
+import com.lealone.db.ConnectionSetting;
+import com.lealone.db.async.Future;
+import com.lealone.net.bio.BioNetFactory;
+
+public class PipelineTest extends ClientTestBase {
+
+    private static final int COUNT = 100;
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS PipelineTest");
+        executeUpdate("CREATE TABLE IF NOT EXISTS PipelineTest(f1 int primary key, f2 int)");
+        testPipeline();
+        setNetFactoryName(BioNetFactory.NAME);
+        testPipeline();
+    }
+
+    private void testPipeline() throws Exception {
+        executeUpdate("DELETE FROM PipelineTest");
+        String url = getURL() + ";" + ConnectionSetting.PIPELINE_SIZE.name() + "=16";
+        try (JdbcConnection conn = (JdbcConnection) DriverManager.getConnection(url)) {
+            JdbcStatement stmt = conn.createStatement();
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 1; i <= COUNT; i++) {
+                futures.add(stmt.executeUpdateAsync(
+                        "INSERT INTO PipelineTest(f1, f2) VALUES(" + i + ", " + i + ")"));
+            }
+            // 主键重复，只有这条语句出错
+            Future<Integer> failed = stmt
+                    .executeUpdateAsync("INSERT INTO PipelineTest(f1, f2) VALUES(1, 1)");
+            // 等待结果时会把缓存的语句一起发出去
+            for (Future<Integer> f : futures)
+                assertEquals(1, f.get().intValue());
+            try {
+                failed.get();
+                fail();
+            } catch (Exception e) {
+            }
+
+            JdbcPreparedStatement ps = (JdbcPreparedStatement) conn
+                    .prepareStatement("UPDATE PipelineTest SET f2 = ? WHERE f1 = ?");
+            futures.clear();
+            for (int i = 1; i <= COUNT; i++) {
+                ps.setInt(1, i * 2);
+                ps.setInt(2, i);
+                futures.add(ps.executeUpdateAsync());
+            }
+            conn.flush();
+            for (Future<Integer> f : futures)
+                assertEquals(1, f.get().intValue());
+            ps.close();
+
+            ResultSet rs = stmt.executeQuery("SELECT count(*), sum(f2) FROM PipelineTest");
+            assertTrue(rs.next());
+            assertEquals(COUNT, rs.getInt(1));
+            assertEquals(COUNT * (COUNT + 1), rs.getInt(2));
+            rs.close();
+            stmt.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.client;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.db.api.ErrorCode;
+
+public class StreamingResultTest extends ClientTestBase {
+
+    private static final int COUNT = 2000;
+
+    @Test
+    public void run() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getURL())) {
+            Statement stmt = conn.createStatement();
+            stmt.executeUpdate("DROP TABLE IF EXISTS StreamingResultTest");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS StreamingResultTest"
+                    + "(f1 int primary key, f2 varchar)");
+            PreparedStatement ps = conn
+                    .prepareStatement("INSERT INTO StreamingResultTest(f1, f2) VALUES(?, ?)");
+            for (int i = 1; i <= COUNT; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, "value" + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            ps.close();
+
+            // 记录数确定的结果集，客户端预取
+            testQuery(stmt, 10);
+            testQuery(stmt, 1);
+
+            // 自动提交模式下不使用流式结果集
+            stmt.executeUpdate("SET LAZY_QUERY_EXECUTION 1");
+            testQuery(stmt, 10);
+
+            // 服务器端流式结果集，记录数在读完之前是不知道的
+            conn.setAutoCommit(false);
+            testQuery(stmt, 10);
+            testQuery(stmt, 1);
+
+            // 没有读完就关闭
+            stmt.setFetchSize(10);
+            ResultSet rs = stmt.executeQuery("SELECT f1 FROM StreamingResultTest ORDER BY f1");
+            for (int i = 1; i <= 25; i++) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+            }
+            rs.close();
+
+            // 需要排序的查询不能用流式结果集
+            rs = stmt.executeQuery("SELECT f1 FROM StreamingResultTest ORDER BY f1 DESC LIMIT 3");
+            assertTrue(rs.next());
+            assertEquals(COUNT, rs.getInt(1));
+            rs.close();
+
+            rs = stmt.executeQuery("SELECT count(*) FROM StreamingResultTest");
+            assertTrue(rs.next());
+            assertEquals(COUNT, rs.getInt(1));
+            rs.close();
+            conn.commit();
+
+            // 事务结束时还没有读完的流式结果集会被关闭
+            testCloseAtTransactionEnd(conn, stmt);
+
+            // 表被删除后不能再继续读
+            testDropTable(conn, stmt);
+
+            conn.setAutoCommit(true);
+            stmt.executeUpdate("SET LAZY_QUERY_EXECUTION 0");
+            stmt.close();
+        }
+    }
+
+    private void testCloseAtTransactionEnd(Connection conn, Statement stmt) throws Exception {
+        stmt.setFetchSize(10);
+        ResultSet rs = stmt.executeQuery("SELECT f1 FROM StreamingResultTest ORDER BY f1");
+        assertTrue(rs.next());
+        conn.commit();
+        assertReadFailed(rs);
+    }
+
+    private void testDropTable(Connection conn, Statement stmt) throws Exception {
+        stmt.setFetchSize(10);
+        ResultSet rs = stmt.executeQuery("SELECT f1 FROM StreamingResultTest ORDER BY f1");
+        assertTrue(rs.next());
+        try (Connection conn2 = DriverManager.getConnection(getURL())) {
+            conn2.createStatement().executeUpdate("DROP TABLE StreamingResultTest");
+        }
+        assertReadFailed(rs);
+        conn.rollback();
+    }
+
+    // 客户端已经取到的记录还能读，之后再取下一批记录时出错
+    private void assertReadFailed(ResultSet rs) throws Exception {
+        try {
+            for (int i = 1; i < COUNT; i++)
+                rs.next();
+            fail();
+        } catch (SQLException e) {
+            assertEquals(ErrorCode.OBJECT_CLOSED, e.getErrorCode());
+        }
+        rs.close();
+    }
+
+    private void testQuery(Statement stmt, int fetchSize) throws Exception {
+        stmt.setFetchSize(fetchSize);
+        ResultSet rs = stmt.executeQuery("SELECT f1, f2 FROM StreamingResultTest ORDER BY f1");
+        for (int i = 1; i <= COUNT; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt(1));
+            assertEquals("value" + i, rs.getString(2));
+        }
+        assertFalse(rs.next());
+        rs.close();
+    }
+}
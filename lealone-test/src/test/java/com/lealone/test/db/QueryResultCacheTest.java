@@ -0,0 +1,66 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.db;
+
+import org.junit.Test;
+
+import com.lealone.db.result.Result;
+import com.lealone.db.result.SharedResultCache;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Table;
+
+public class QueryResultCacheTest extends DbObjectTestBase {
+
+    private static final String SQL = "SELECT count(f2) FROM QueryResultCacheLookup";
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS QueryResultCacheLookup");
+        executeUpdate("DROP TABLE IF EXISTS QueryResultCacheLog");
+        executeUpdate("CREATE TABLE QueryResultCacheLookup(f1 int primary key, f2 int)");
+        executeUpdate("CREATE TABLE QueryResultCacheLog(f1 int primary key, f2 int)");
+        for (int i = 1; i <= 10; i++)
+            executeUpdate("INSERT INTO QueryResultCacheLookup(f1, f2) VALUES(" + i + ", " + i + ")");
+        Table lookup = findTable("QueryResultCacheLookup");
+        SharedResultCache cache = db.getSharedResultCache();
+        cache.clear();
+
+        ServerSession session1 = createSession();
+        ServerSession session2 = createSession();
+        assertEquals(10, count(session1));
+        assertEquals(1, cache.size());
+        assertEquals(10, count(session2));
+
+        // 写其他表不会让缓存的结果失效
+        long id = lookup.getMaxDataModificationId();
+        for (int i = 1; i <= 10; i++)
+            executeUpdate("INSERT INTO QueryResultCacheLog(f1, f2) VALUES(" + i + ", " + i + ")");
+        assertEquals(id, lookup.getMaxDataModificationId());
+        assertEquals(1, cache.size());
+        assertEquals(10, count(session2));
+
+        // 未提交的记录只有自己能读到，提交后缓存的结果失效
+        session2.setAutoCommit(false);
+        session2.executeUpdateLocal("INSERT INTO QueryResultCacheLookup(f1, f2) VALUES(11, 11)");
+        assertEquals(11, count(session2));
+        assertEquals(10, count(session1));
+        assertEquals(id, lookup.getMaxDataModificationId());
+        session2.commit();
+        assertTrue(lookup.getMaxDataModificationId() > id);
+        assertEquals(11, count(session1));
+        assertEquals(11, count(session2));
+        session2.setAutoCommit(true);
+
+        session1.close();
+        session2.close();
+    }
+
+    private static int count(ServerSession session) {
+        Result result = session.executeQueryLocal(SQL);
+        assertTrue(result.next());
+        return result.currentRow()[0].getInt();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.db;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.lealone.db.result.Result;
+import com.lealone.db.stats.LatencyHistogram;
+import com.lealone.db.stats.QueryStatisticsData;
+import com.lealone.db.stats.QueryStatisticsData.QueryEntry;
+import com.lealone.db.value.Value;
+
+public class QueryStatisticsDataTest extends DbObjectTestBase {
+
+    @Test
+    public void run() throws Exception {
+        testHistogram();
+        testConcurrentUpdate();
+        testMetaTable();
+    }
+
+    private void testHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            h.record(i * 1000L);
+        assertEquals(1000, h.getCount());
+        assertApproximately(500 * 1000L, h.getValueAtPercentile(50));
+        assertApproximately(990 * 1000L, h.getValueAtPercentile(99));
+        assertApproximately(999 * 1000L, h.getValueAtPercentile(99.9));
+        assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+    }
+
+    private static void assertApproximately(long expected, long actual) {
+        assertTrue("expected: " + expected + " actual: " + actual,
+                Math.abs(expected - actual) <= expected / 8);
+    }
+
+    private void testConcurrentUpdate() throws Exception {
+        QueryStatisticsData data = new QueryStatisticsData(100);
+        int threadCount = 4;
+        int count = 10000;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 1; i <= count; i++) {
+                    data.update("select 1", i, 1);
+                    data.update("select 2", 100, i % 2);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        List<QueryEntry> queries = data.getQueries();
+        assertEquals(2, queries.size());
+        for (QueryEntry e : queries) {
+            assertEquals(threadCount * count, e.count);
+            if (e.sqlStatement.equals("select 1")) {
+                assertEquals(1, e.executionTimeMinNanos);
+                assertEquals(count, e.executionTimeMaxNanos);
+                assertEquals((long) threadCount * count * (count + 1) / 2,
+                        e.executionTimeCumulativeNanos);
+                assertEquals(threadCount * count, e.rowCountCumulative);
+                assertEquals(0, e.getRowCountStandardDeviation(), 0.001);
+                assertApproximately(count / 2, e.executionTimeP50Nanos);
+                assertApproximately(count * 99 / 100, e.executionTimeP99Nanos);
+                assertTrue(e.executionTimeP999Nanos <= e.executionTimeMaxNanos);
+            } else {
+                assertEquals(100, e.executionTimeP50Nanos);
+                assertEquals(100, e.executionTimeP999Nanos);
+                assertEquals(0, e.getExecutionTimeStandardDeviation(), 0.001);
+                assertEquals(0.5, e.rowCountMean, 0.001);
+                assertEquals(0.5, e.getRowCountStandardDeviation(), 0.001);
+            }
+        }
+
+        // 超过1.5倍的上限时淘汰最老的记录
+        data.setMaxQueryEntries(10);
+        for (int i = 0; i < 100; i++)
+            data.update("select " + (i + 10), 10, 1);
+        assertEquals(10, data.getQueries().size());
+        testEvictAcrossStripes();
+    }
+
+    // 不同线程的记录在不同的分片中，总数也不能超过1.5倍的上限
+    private void testEvictAcrossStripes() throws Exception {
+        QueryStatisticsData data = new QueryStatisticsData(10);
+        for (int t = 0; t < 8; t++) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100; i++)
+                    data.update("select " + id + ", " + i, 10, 1);
+            });
+            thread.start();
+            thread.join();
+            assertTrue(data.getEntryCount() <= 15);
+        }
+        assertEquals(10, data.getQueries().size());
+    }
+
+    private void testMetaTable() {
+        executeUpdate("SET QUERY_STATISTICS 1");
+        executeUpdate("DROP TABLE IF EXISTS QueryStatisticsDataTest");
+        executeUpdate("CREATE TABLE QueryStatisticsDataTest(f1 int)");
+        for (int i = 0; i < 10; i++)
+            executeUpdate("INSERT INTO QueryStatisticsDataTest(f1) VALUES(1)");
+        Result result = session.prepareStatement("SELECT EXECUTION_COUNT, P50_EXECUTION_TIME, "
+                + "P999_EXECUTION_TIME, MAX_EXECUTION_TIME FROM PERFORMANCE_SCHEMA.QUERY_STATISTICS "
+                + "WHERE SQL_STATEMENT = 'INSERT INTO QueryStatisticsDataTest(f1) VALUES(1)'", -1)
+                .executeQuery(-1).get();
+        assertTrue(result.next());
+        Value[] row = result.currentRow();
+        assertEquals(10, row[0].getInt());
+        double p50 = row[1].getDouble();
+        double p999 = row[2].getDouble();
+        double max = row[3].getDouble();
+        assertTrue(p50 > 0 && p50 <= p999 && p999 <= max);
+        result.close();
+        executeUpdate("SET QUERY_STATISTICS 0");
+    }
+}
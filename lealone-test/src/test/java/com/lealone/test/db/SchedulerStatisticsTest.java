@@ -0,0 +1,70 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.lealone.db.result.Result;
+import com.lealone.db.scheduler.Scheduler;
+import com.lealone.db.scheduler.SchedulerBase;
+import com.lealone.db.scheduler.SchedulerStatistics;
+import com.lealone.db.value.Value;
+
+public class SchedulerStatisticsTest extends DbObjectTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS SchedulerStatisticsTest");
+        executeUpdate("CREATE TABLE SchedulerStatisticsTest(f1 int primary key, f2 int)");
+        for (int i = 1; i <= 10; i++)
+            executeUpdate("INSERT INTO SchedulerStatisticsTest(f1, f2) VALUES(" + i + ", " + i + ")");
+
+        Scheduler scheduler = session.getScheduler();
+        assertNotNull(scheduler);
+        String name = scheduler.getName();
+        HashMap<String, String> stats = new HashMap<>();
+        Result result = session.prepareStatement(
+                "SELECT NAME, VALUE FROM PERFORMANCE_SCHEMA.SCHEDULER_STATISTICS WHERE SCHEDULER = '"
+                        + name + "'",
+                -1).executeQuery(-1).get();
+        while (result.next()) {
+            Value[] row = result.currentRow();
+            stats.put(row[0].getString(), row[1].getString());
+        }
+        result.close();
+        assertTrue(Long.parseLong(stats.get("loop_count")) > 0);
+        assertTrue(Long.parseLong(stats.get("statement_count")) > 0);
+        assertNotNull(stats.get("statement_p99_us"));
+        assertNotNull(stats.get("event_loop_time_ms"));
+        assertNotNull(stats.get("yield_count"));
+        assertNotNull(stats.get("page_operation_locked_count"));
+        assertNotNull(stats.get("session_queue_size"));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("com.lealone:type=Scheduler,name=" + name);
+        assertTrue(server.isRegistered(objectName));
+        long loopCount = (Long) server.getAttribute(objectName, "LoopCount");
+        assertTrue(loopCount > 0);
+
+        // 禁用时所有计数器都不更新
+        SchedulerStatistics disabled = new SchedulerStatistics((SchedulerBase) scheduler, false);
+        disabled.onYieldCheck(true);
+        disabled.onLockedRetry();
+        disabled.onRetry();
+        disabled.onLockedPageOperationAdded(1);
+        assertEquals(0, disabled.getYieldCheckCount());
+        assertEquals(0, disabled.getYieldCount());
+        assertEquals(0, disabled.getLockedPageOperationRetryCount());
+        assertEquals(0, disabled.getPageOperationRetryCount());
+        assertEquals(0, disabled.getLockedPageOperationMaxSize());
+    }
+}
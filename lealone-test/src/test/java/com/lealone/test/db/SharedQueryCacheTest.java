@@ -0,0 +1,76 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.db;
+
+import org.junit.Test;
+
+import com.lealone.db.result.Result;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.ValueInt;
+import com.lealone.sql.PreparedSQLStatement;
+
+public class SharedQueryCacheTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS SharedQueryCacheTest");
+        executeUpdate("CREATE TABLE SharedQueryCacheTest(f1 int primary key, f2 int)");
+        for (int i = 1; i <= 10; i++)
+            executeUpdate("INSERT INTO SharedQueryCacheTest(f1, f2) VALUES(" + i + ", " + i * 10 + ")");
+        db.getSharedQueryCache().clear();
+
+        String select = "SELECT f2 FROM SharedQueryCacheTest WHERE f1 = ?";
+        String update = "UPDATE SharedQueryCacheTest SET f2 = ? WHERE f1 = ?";
+        String subQuery = "SELECT f2 FROM SharedQueryCacheTest WHERE f1 IN(SELECT f1 FROM SharedQueryCacheTest)";
+
+        ServerSession session1 = createSession();
+        PreparedSQLStatement ps1 = session1.prepareStatement(select, -1);
+        assertEquals(20, query(ps1, 2));
+        PreparedSQLStatement ps2 = session1.prepareStatement(update, -1);
+        ps2.getParameters().get(0).setValue(ValueInt.get(300));
+        ps2.getParameters().get(1).setValue(ValueInt.get(3));
+        assertEquals(1, ps2.executeUpdate().get().intValue());
+        ps2.close();
+        PreparedSQLStatement ps3 = session1.prepareStatement(subQuery, -1);
+        ps3.close();
+        session1.close();
+        assertEquals(2, db.getSharedQueryCache().size());
+
+        // 新的session直接复用session1留下的语句
+        ServerSession session2 = createSession();
+        PreparedSQLStatement ps = session2.prepareStatement(select, -1);
+        assertTrue(ps == ps1);
+        assertTrue(ps.getSession() == session2);
+        assertEquals(300, query(ps, 3));
+        ps = session2.prepareStatement(update, -1);
+        assertTrue(ps == ps2);
+        assertTrue(ps.getSession() == session2);
+        ps.close();
+        assertTrue(session2.prepareStatement(subQuery, -1) != ps3);
+        assertEquals(0, db.getSharedQueryCache().size());
+        session2.close();
+        assertEquals(2, db.getSharedQueryCache().size());
+
+        // 执行DDL后缓存失效
+        executeUpdate("CREATE INDEX IF NOT EXISTS SharedQueryCacheTestIndex ON SharedQueryCacheTest(f2)");
+        ServerSession session3 = createSession();
+        ps = session3.prepareStatement(select, -1);
+        assertTrue(ps != ps1);
+        assertEquals(0, db.getSharedQueryCache().size());
+        assertEquals(50, query(ps, 5));
+        session3.close();
+    }
+
+    private static int query(PreparedSQLStatement ps, int f1) {
+        ps.getParameters().get(0).setValue(ValueInt.get(f1));
+        Result result = ps.executeQuery(-1).get();
+        assertTrue(result.next());
+        int v = result.currentRow()[0].getInt();
+        result.close();
+        ps.close();
+        return v;
+    }
+}
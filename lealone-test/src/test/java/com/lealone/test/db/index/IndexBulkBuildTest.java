@@ -0,0 +1,106 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.db.index;
+
+import org.junit.Test;
+
+import com.lealone.db.Constants;
+import com.lealone.db.index.Cursor;
+import com.lealone.db.index.Index;
+import com.lealone.db.index.standard.IndexKeySorter;
+import com.lealone.db.index.standard.StandardSecondaryIndex;
+import com.lealone.db.table.Table;
+
+public class IndexBulkBuildTest extends IndexTestBase {
+
+    private static final int ROW_COUNT = 5000;
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS IndexBulkBuildTest");
+        executeUpdate("CREATE TABLE IndexBulkBuildTest (id int primary key, f1 int, f2 varchar)");
+        executeUpdate("INSERT INTO IndexBulkBuildTest SELECT x, CASEWHEN(MOD(x, 17) = 0, null, MOD(x, 100)),"
+                + " CONCAT('v', 10000 - x) FROM SYSTEM_RANGE(1, " + ROW_COUNT + ")");
+        // 内存中的key超过MAX_MEMORY_ROWS时要写到临时文件中
+        executeUpdate("SET MAX_MEMORY_ROWS 300");
+        try {
+            executeUpdate("CREATE INDEX IF NOT EXISTS IndexBulkBuildTest_f1 ON IndexBulkBuildTest(f1)");
+            executeUpdate(
+                    "CREATE UNIQUE INDEX IF NOT EXISTS IndexBulkBuildTest_f2 ON IndexBulkBuildTest(f2)");
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS " + Constants.DEFAULT_MAX_MEMORY_ROWS);
+        }
+        Index f1 = waitBuilt("IndexBulkBuildTest_f1");
+        Index f2 = waitBuilt("IndexBulkBuildTest_f2");
+        assertEquals(ROW_COUNT, f1.getRowCount(session));
+        assertEquals(ROW_COUNT, f2.getRowCount(session));
+
+        int count = 0;
+        for (int x = 1; x <= ROW_COUNT; x++) {
+            if (x % 17 != 0 && x % 100 == 42)
+                count++;
+        }
+        assertEquals(count, getInt("SELECT count(*) FROM IndexBulkBuildTest WHERE f1 = 42", 1));
+        assertEquals(ROW_COUNT / 17,
+                getInt("SELECT count(*) FROM IndexBulkBuildTest WHERE f1 IS NULL", 1));
+        assertEquals(1234, getInt("SELECT id FROM IndexBulkBuildTest WHERE f2 = 'v8766'", 1));
+        assertEquals(ROW_COUNT,
+                getInt("SELECT id FROM IndexBulkBuildTest ORDER BY f2 LIMIT 1", 1));
+
+        // 构建完成后索引还能正常更新
+        executeUpdate("INSERT INTO IndexBulkBuildTest VALUES(" + (ROW_COUNT + 1) + ", 42, 'new')");
+        executeUpdate("DELETE FROM IndexBulkBuildTest WHERE id = 42");
+        assertEquals(count, getInt("SELECT count(*) FROM IndexBulkBuildTest WHERE f1 = 42", 1));
+        assertEquals(ROW_COUNT + 1, getInt("SELECT id FROM IndexBulkBuildTest WHERE f2 = 'new'", 1));
+
+        testConcurrentRemove();
+    }
+
+    // 扫描之后被删除或更新的记录，不能把扫描时得到的key加到索引中
+    private void testConcurrentRemove() {
+        executeUpdate("DROP TABLE IF EXISTS IndexBulkBuildTest2");
+        executeUpdate("CREATE TABLE IndexBulkBuildTest2 (id int primary key, f1 int)");
+        executeUpdate("INSERT INTO IndexBulkBuildTest2 SELECT x, x FROM SYSTEM_RANGE(1, 100)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS IndexBulkBuildTest2_f1 ON IndexBulkBuildTest2(f1)");
+        StandardSecondaryIndex index = (StandardSecondaryIndex) waitBuilt("IndexBulkBuildTest2_f1");
+
+        // 模拟IndexRebuilder: 先扫描，然后有并发的删除和更新，最后才批量加载
+        index.setBulkBuilding(true);
+        IndexKeySorter sorter = index.createKeySorter();
+        Table table = schema.findTableOrView(session, "IndexBulkBuildTest2");
+        Cursor cursor = table.getScanIndex(session).find(session, null, null);
+        while (cursor.next())
+            sorter.add(index.convertToKey(cursor.get()));
+        executeUpdate("DELETE FROM IndexBulkBuildTest2 WHERE id <= 10");
+        executeUpdate("UPDATE IndexBulkBuildTest2 SET f1 = f1 + 1000 WHERE id > 90");
+        session.setUndoLogEnabled(false);
+        try {
+            index.bulkLoad(session, sorter.sort());
+        } finally {
+            session.setUndoLogEnabled(true);
+            sorter.close();
+            index.setBulkBuilding(false);
+        }
+
+        assertEquals(90, index.getRowCount(session));
+        assertEquals(0, getInt("SELECT count(*) FROM IndexBulkBuildTest2 WHERE f1 <= 10", 1));
+        assertEquals(0, getInt("SELECT count(*) FROM IndexBulkBuildTest2 WHERE f1 BETWEEN 91 AND 100", 1));
+        assertEquals(10, getInt("SELECT count(*) FROM IndexBulkBuildTest2 WHERE f1 > 1000", 1));
+    }
+
+    private Index waitBuilt(String indexName) {
+        Index index = getIndex(indexName);
+        for (int i = 0; i < 100 && index.isBuilding(); i++) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        assertFalse(index.isBuilding());
+        return index;
+    }
+}
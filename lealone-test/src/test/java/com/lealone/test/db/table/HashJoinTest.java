@@ -0,0 +1,108 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.db.table;
+
+import org.junit.Test;
+
+import com.lealone.db.Constants;
+import com.lealone.storage.Storage;
+import com.lealone.test.db.DbObjectTestBase;
+
+public class HashJoinTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        init();
+        testInnerJoin();
+        testOuterJoin();
+        try {
+            // build的记录数超过MAX_MEMORY_ROWS时转存到临时表
+            executeUpdate("SET MAX_MEMORY_ROWS 50");
+            testInnerJoin();
+            testOuterJoin();
+            testLob();
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS " + Constants.DEFAULT_MAX_MEMORY_ROWS);
+        }
+    }
+
+    private void init() {
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest1");
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest2");
+        executeUpdate("CREATE TABLE HashJoinTest1 (id int primary key, f1 int, name varchar)");
+        executeUpdate("CREATE TABLE HashJoinTest2 (id int primary key, f2 int, name varchar)");
+        // f1和f2上都没有索引
+        for (int i = 1; i <= 200; i++) {
+            executeUpdate("INSERT INTO HashJoinTest1 VALUES(" + i + ", " + (i % 20) + ", 'a" + i + "')");
+        }
+        for (int i = 1; i <= 100; i++) {
+            String f2 = i % 10 == 0 ? "null" : Integer.toString(i % 40);
+            executeUpdate("INSERT INTO HashJoinTest2 VALUES(" + i + ", " + f2 + ", 'b" + i + "')");
+        }
+    }
+
+    private void testInnerJoin() {
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f2";
+        assertTrue(getString("EXPLAIN " + sql, 1).contains("hash join"));
+        assertEquals(getExpectedCount(false), getInt(sql, 1));
+
+        // 其他条件在probe之后检查
+        sql = "SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.f1 = t2.f2 AND t2.id > 50";
+        int count = 0;
+        for (int i = 1; i <= 200; i++) {
+            for (int j = 51; j <= 100; j++) {
+                if (j % 10 != 0 && i % 20 == j % 40)
+                    count++;
+            }
+        }
+        assertEquals(count, getInt(sql, 1));
+
+        sql = "SELECT t2.name FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f2"
+                + " WHERE t1.id = 3 ORDER BY t2.id";
+        assertEquals("b3", getString(sql, 1));
+    }
+
+    private void testOuterJoin() {
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2 ON t1.f1 = t2.f2";
+        assertEquals(getExpectedCount(true), getInt(sql, 1));
+    }
+
+    // 内表有CLOB字段时临时表也要删除，CLOB字段从原表读取
+    private void testLob() {
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest3");
+        executeUpdate("CREATE TABLE HashJoinTest3 (id int primary key, f3 int, c clob)");
+        for (int i = 1; i <= 100; i++) {
+            executeUpdate("INSERT INTO HashJoinTest3 VALUES(" + i + ", " + (i % 40) + ", 'c" + i + "')");
+        }
+        int mapCount = getMapCount();
+        sql = "SELECT t3.c FROM HashJoinTest1 t1 JOIN HashJoinTest3 t3 ON t1.f1 = t3.f3"
+                + " WHERE t1.id = 3 ORDER BY t3.id";
+        assertTrue(getString("EXPLAIN " + sql, 1).contains("hash join"));
+        assertEquals("c3", getString(sql, 1));
+        assertEquals(mapCount, getMapCount());
+        assertEquals("c43", getString("SELECT c FROM HashJoinTest3 WHERE id = 43", 1));
+    }
+
+    private int getMapCount() {
+        int count = 0;
+        for (Storage storage : db.getStorages())
+            count += storage.getMapNames().size();
+        return count;
+    }
+
+    private int getExpectedCount(boolean outer) {
+        int count = 0;
+        for (int i = 1; i <= 200; i++) {
+            int matched = 0;
+            for (int j = 1; j <= 100; j++) {
+                if (j % 10 != 0 && i % 20 == j % 40)
+                    matched++;
+            }
+            count += (outer && matched == 0) ? 1 : matched;
+        }
+        return count;
+    }
+}
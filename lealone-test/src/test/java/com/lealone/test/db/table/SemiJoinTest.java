@@ -0,0 +1,163 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.db.table;
+
+import org.junit.Test;
+
+import com.lealone.db.Constants;
+import com.lealone.test.db.DbObjectTestBase;
+
+public class SemiJoinTest extends DbObjectTestBase {
+
+    private static final int CUSTOMERS = 100;
+    private static final int ORDERS = 300;
+
+    @Test
+    public void run() {
+        init();
+        testExists(true);
+        testIn();
+        try {
+            // hash表的记录数超过MAX_MEMORY_ROWS时退回到原来的执行方式
+            executeUpdate("SET MAX_MEMORY_ROWS 50");
+            testExists(true);
+            testIn();
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS " + Constants.DEFAULT_MAX_MEMORY_ROWS);
+        }
+        testDataChange();
+        testDelete();
+
+        // 关联字段有索引时不需要转换
+        executeUpdate("CREATE INDEX IF NOT EXISTS SemiJoinTestOrdersIndex ON SemiJoinTestOrders(cust_id)");
+        testExists(false);
+    }
+
+    private void init() {
+        executeUpdate("DROP TABLE IF EXISTS SemiJoinTestCustomers");
+        executeUpdate("DROP TABLE IF EXISTS SemiJoinTestOrders");
+        executeUpdate("CREATE TABLE SemiJoinTestCustomers (id int primary key, grp int)");
+        executeUpdate("CREATE TABLE SemiJoinTestOrders (id int primary key, cust_id int, status int)");
+        for (int i = 1; i <= CUSTOMERS; i++) {
+            String grp = i % 13 == 0 ? "null" : Integer.toString(i % 5);
+            executeUpdate("INSERT INTO SemiJoinTestCustomers VALUES(" + i + ", " + grp + ")");
+        }
+        for (int i = 1; i <= ORDERS; i++) {
+            executeUpdate("INSERT INTO SemiJoinTestOrders VALUES(" + i + ", " + getCustId(i) + ", "
+                    + getStatus(i) + ")");
+        }
+    }
+
+    // 只有一部分客户有订单，还有一些订单的cust_id是NULL
+    private static String getCustId(int orderId) {
+        return orderId % 17 == 0 ? "null" : Integer.toString(orderId % 150);
+    }
+
+    private static String getStatus(int orderId) {
+        return orderId % 11 == 0 ? "null" : Integer.toString(orderId % 4);
+    }
+
+    private static boolean hasOrder(int custId, int status) {
+        for (int i = 1; i <= ORDERS; i++) {
+            if (getCustId(i).equals(Integer.toString(custId))
+                    && (status < 0 || getStatus(i).equals(Integer.toString(status))))
+                return true;
+        }
+        return false;
+    }
+
+    private void testExists(boolean semiJoin) {
+        int exists = 0;
+        int existsWithStatus = 0;
+        for (int c = 1; c <= CUSTOMERS; c++) {
+            if (hasOrder(c, -1))
+                exists++;
+            if (hasOrder(c, 2))
+                existsWithStatus++;
+        }
+        sql = "SELECT count(*) FROM SemiJoinTestCustomers c WHERE EXISTS"
+                + "(SELECT 1 FROM SemiJoinTestOrders o WHERE o.cust_id = c.id)";
+        assertEquals(semiJoin, getString("EXPLAIN " + sql, 1).contains("hash semi join"));
+        assertEquals(exists, getInt(sql, 1));
+
+        sql = "SELECT count(*) FROM SemiJoinTestCustomers c WHERE NOT EXISTS"
+                + "(SELECT 1 FROM SemiJoinTestOrders o WHERE c.id = o.cust_id LIMIT 1)";
+        assertEquals(CUSTOMERS - exists, getInt(sql, 1));
+
+        sql = "SELECT count(*) FROM SemiJoinTestCustomers c WHERE EXISTS"
+                + "(SELECT 1 FROM SemiJoinTestOrders o WHERE o.status = 2 AND o.cust_id = c.id)";
+        assertEquals(existsWithStatus, getInt(sql, 1));
+    }
+
+    private void testIn() {
+        // c.grp IN (...)的值可能是TRUE、FALSE或NULL
+        int in = 0;
+        int notIn = 0;
+        for (int c = 1; c <= CUSTOMERS; c++) {
+            boolean hasRows = false;
+            boolean found = false;
+            boolean hasNull = false;
+            String grp = c % 13 == 0 ? "null" : Integer.toString(c % 5);
+            for (int i = 1; i <= ORDERS; i++) {
+                if (getCustId(i).equals(Integer.toString(c))) {
+                    hasRows = true;
+                    if (getStatus(i).equals("null"))
+                        hasNull = true;
+                    else if (getStatus(i).equals(grp))
+                        found = true;
+                }
+            }
+            if (!hasRows) {
+                notIn++;
+            } else if (!grp.equals("null")) {
+                if (found)
+                    in++;
+                else if (!hasNull)
+                    notIn++;
+            }
+        }
+        sql = "SELECT count(*) FROM SemiJoinTestCustomers c WHERE c.grp IN"
+                + "(SELECT o.status FROM SemiJoinTestOrders o WHERE o.cust_id = c.id)";
+        assertTrue(getString("EXPLAIN " + sql, 1).contains("hash semi join"));
+        assertEquals(in, getInt(sql, 1));
+
+        sql = "SELECT count(*) FROM SemiJoinTestCustomers c WHERE c.grp NOT IN"
+                + "(SELECT o.status FROM SemiJoinTestOrders o WHERE o.cust_id = c.id)";
+        assertEquals(notIn, getInt(sql, 1));
+    }
+
+    // 每次执行语句时重新构建hash表
+    private void testDataChange() {
+        sql = "SELECT count(*) FROM SemiJoinTestCustomers c WHERE EXISTS"
+                + "(SELECT 1 FROM SemiJoinTestOrders o WHERE o.cust_id = c.id AND o.status = 3)";
+        int count = getInt(sql, 1);
+        int custId = 0;
+        for (int c = 1; c <= CUSTOMERS; c++) {
+            if (!hasOrder(c, 3)) {
+                custId = c;
+                break;
+            }
+        }
+        executeUpdate("INSERT INTO SemiJoinTestOrders VALUES(" + (ORDERS + 1) + ", " + custId + ", 3)");
+        assertEquals(count + 1, getInt(sql, 1));
+        executeUpdate("DELETE FROM SemiJoinTestOrders WHERE id = " + (ORDERS + 1));
+        assertEquals(count, getInt(sql, 1));
+    }
+
+    private void testDelete() {
+        int exists = 0;
+        for (int c = 1; c <= CUSTOMERS; c++) {
+            if (hasOrder(c, -1))
+                exists++;
+        }
+        executeUpdate("DROP TABLE IF EXISTS SemiJoinTestCustomers2");
+        executeUpdate("CREATE TABLE SemiJoinTestCustomers2 AS SELECT * FROM SemiJoinTestCustomers");
+        int count = executeUpdate("DELETE FROM SemiJoinTestCustomers2 c WHERE NOT EXISTS"
+                + "(SELECT 1 FROM SemiJoinTestOrders o WHERE o.cust_id = c.id)");
+        assertEquals(CUSTOMERS - exists, count);
+        assertEquals(exists, getInt("SELECT count(*) FROM SemiJoinTestCustomers2", 1));
+    }
+}
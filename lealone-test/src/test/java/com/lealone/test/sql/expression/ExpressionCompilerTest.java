@@ -0,0 +1,77 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.expression;
+
+import org.junit.Test;
+
+import com.lealone.db.result.Result;
+import com.lealone.sql.PreparedSQLStatement;
+import com.lealone.sql.expression.evaluator.CompiledExpressionEvaluator;
+import com.lealone.sql.expression.evaluator.ExpressionCompiler;
+import com.lealone.sql.query.Select;
+import com.lealone.test.db.DbObjectTestBase;
+
+public class ExpressionCompilerTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS ExpressionCompilerTest");
+        executeUpdate("CREATE TABLE ExpressionCompilerTest (id int primary key, f1 int, f2 bigint, name varchar)");
+        for (int i = 1; i <= 100; i++) {
+            String f1 = i % 7 == 0 ? "null" : Integer.toString(i % 60);
+            executeUpdate("INSERT INTO ExpressionCompilerTest VALUES(" + i + ", " + f1 + ", " + (i * 10L)
+                    + ", 'a" + i + "')");
+        }
+        testCondition("f1 > 10 AND f1 <= 50", true);
+        testCondition("f1 = 3 OR name LIKE 'a1%'", true);
+        testCondition("NOT (f1 < 20) AND name LIKE '%5'", true);
+        testCondition("f1 IS NULL OR name LIKE '%2%'", true);
+        testCondition("NOT (f1 < 20 OR f1 IS NULL)", true);
+        testCondition("f1 > 10 AND name = 'a15'", true);
+        testCondition("f1 >= id AND f2 < 500", true);
+        testCondition("f1 > 5.5 AND name <> 'a10'", true);
+        // 没有可以编译的条件
+        testCondition("f1 > 5.5", false);
+        testSharedClass();
+    }
+
+    // 只是常量不同的条件共用同一个类
+    private void testSharedClass() {
+        session.setExpressionCompileThreshold(0);
+        CompiledExpressionEvaluator e1 = compile("f1 > 10 AND name = 'a15' OR name LIKE 'a1%'");
+        CompiledExpressionEvaluator e2 = compile("f1 > 20 AND name = 'a16' OR name LIKE 'a2%'");
+        assertEquals(e1.getClass(), e2.getClass());
+        testCondition("f1 > 20 AND name = 'a16' OR name LIKE 'a2%'", true);
+    }
+
+    private CompiledExpressionEvaluator compile(String condition) {
+        String sql = "SELECT count(*) FROM ExpressionCompilerTest WHERE " + condition;
+        Select select = (Select) session.prepareStatementLocal(sql);
+        return ExpressionCompiler.compile(session, select.getCondition());
+    }
+
+    private void testCondition(String condition, boolean compilable) {
+        String sql = "SELECT count(*) FROM ExpressionCompilerTest WHERE " + condition;
+        session.setExpressionCompileThreshold(0);
+        int expected = getInt(sql, 1);
+
+        PreparedSQLStatement stmt = session.prepareStatementLocal(sql);
+        Select select = (Select) stmt;
+        assertEquals(compilable, ExpressionCompiler.compile(session, select.getCondition()) != null);
+
+        session.setExpressionCompileThreshold(1);
+        try {
+            // 第一次解释执行，上面已经编译过同样结构的条件，所以之后马上就能用编译后的代码执行
+            for (int i = 0; i < 3; i++) {
+                Result result = session.executeQueryLocal(stmt);
+                assertTrue(result.next());
+                assertEquals(expected, result.currentRow()[0].getInt());
+            }
+        } finally {
+            session.setExpressionCompileThreshold(0);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import org.junit.Test;
+
+import com.lealone.db.result.Result;
+import com.lealone.test.db.DbObjectTestBase;
+
+public class BatchAggregateTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS BatchAggregateTest");
+        executeUpdate("CREATE TABLE BatchAggregateTest (id int primary key, f1 int, f2 bigint, name varchar)");
+        for (int i = 1; i <= 100; i++) {
+            String f1 = i % 7 == 0 ? "null" : Integer.toString(i % 60);
+            String f2 = i % 9 == 0 ? "null" : Long.toString(Long.MAX_VALUE / 50 - i);
+            executeUpdate("INSERT INTO BatchAggregateTest VALUES(" + i + ", " + f1 + ", " + f2 + ", 'a"
+                    + i + "')");
+        }
+        testQuery("SELECT count(*), count(f1), sum(f1), min(f1), max(f1) FROM BatchAggregateTest");
+        // bigint的和会溢出long
+        testQuery("SELECT count(f2), sum(f2), min(f2), max(f2) FROM BatchAggregateTest");
+        // 在列向量上计算的条件
+        testQuery("SELECT count(*), sum(f1), max(id) FROM BatchAggregateTest WHERE f1 > 10 AND id <> 50");
+        // 逐行计算的条件
+        testQuery("SELECT count(*), sum(f1) AS s FROM BatchAggregateTest WHERE f1 > 10 OR name LIKE 'a1%'");
+        testQuery("SELECT count(name), min(f1) FROM BatchAggregateTest WHERE f1 > 1000");
+        // 不支持按批执行的查询
+        testQuery("SELECT count(*), avg(f1) FROM BatchAggregateTest");
+        testParallel();
+    }
+
+    // 记录数足够多时才会有node page，按node page中的key分段并行扫描
+    private void testParallel() {
+        executeUpdate("DROP TABLE IF EXISTS ParallelAggregateTest");
+        executeUpdate("CREATE TABLE ParallelAggregateTest (id int primary key, f1 int, f2 bigint)");
+        executeUpdate("INSERT INTO ParallelAggregateTest SELECT x, x % 100, x * 3 FROM SYSTEM_RANGE(1, 20000)");
+        executeUpdate("DELETE FROM ParallelAggregateTest WHERE id % 11 = 0");
+        try {
+            session.setOlapParallelism(4);
+            testQuery("SELECT count(*), count(f1), sum(f2), min(f1), max(f2) FROM ParallelAggregateTest");
+            testQuery("SELECT count(*), sum(f2) FROM ParallelAggregateTest WHERE f1 >= 10 AND id < 15000");
+            // 不能在列向量上计算的条件不能并行
+            testQuery("SELECT count(*), sum(f2) FROM ParallelAggregateTest WHERE f1 >= 10 OR id < 15000");
+        } finally {
+            session.setOlapParallelism(0);
+        }
+    }
+
+    private void testQuery(String sql) {
+        session.setOlapBatchSize(0);
+        Object[] expected = getRow(sql);
+        try {
+            for (int batchSize : new int[] { 1, 16, 1000 }) {
+                session.setOlapBatchSize(batchSize);
+                Object[] row = getRow(sql);
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(sql, expected[i], row[i]);
+                }
+            }
+        } finally {
+            session.setOlapBatchSize(0);
+        }
+    }
+
+    private Object[] getRow(String sql) {
+        Result result = session.executeQueryLocal(session.prepareStatementLocal(sql));
+        assertTrue(result.next());
+        Object[] row = new Object[result.getVisibleColumnCount()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = result.currentRow()[i].getString();
+        }
+        return row;
+    }
+}
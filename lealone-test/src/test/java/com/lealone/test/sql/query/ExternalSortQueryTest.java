@@ -0,0 +1,171 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.lealone.db.result.LocalResult;
+import com.lealone.db.result.Result;
+import com.lealone.db.result.SortOrder;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueInt;
+import com.lealone.db.value.ValueString;
+import com.lealone.test.db.DbObjectTestBase;
+
+public class ExternalSortQueryTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        int maxMemoryRows = db.getMaxMemoryRows();
+        executeUpdate("SET MAX_MEMORY_ROWS 100");
+        try {
+            testLocalResult();
+            testQuery();
+            // 每段10条记录，段数超过SysProperties.SORT_MAX_FAN_IN，需要分多趟归并
+            executeUpdate("SET MAX_MEMORY_ROWS 10");
+            testMultiPassMerge();
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS " + maxMemoryRows);
+        }
+    }
+
+    private void testLocalResult() {
+        int count = 2500;
+        LocalResult result = new LocalResult(session, null, 2);
+        result.setSortOrder(new SortOrder(db, new int[] { 0 }, new int[] { SortOrder.ASCENDING }, null));
+        for (int i = 0; i < count; i++) {
+            result.addRow(new Value[] { ValueInt.get((i * 37) % 50), ValueString.get("v" + i) });
+        }
+        result.setOffset(10);
+        result.done();
+        assertEquals(count - 10, result.getRowCount());
+        assertSorted(result, count - 10);
+
+        // 浅拷贝共用同一个临时文件，各自独立读取
+        LocalResult copy = result.createShallowCopy(session);
+        assertNotNull(copy);
+        copy.reset();
+        result.reset();
+        assertSorted(copy, count - 10);
+        assertSorted(result, count - 10);
+        result.close();
+        copy.reset();
+        assertSorted(copy, count - 10);
+        copy.close();
+
+        // 没有排序时按加入的顺序返回
+        result = new LocalResult(session, null, 1);
+        for (int i = 0; i < count; i++) {
+            result.addRow(new Value[] { ValueInt.get(i) });
+        }
+        result.done();
+        for (int i = 0; i < count; i++) {
+            assertTrue(result.next());
+            assertEquals(i, result.currentRow()[0].getInt());
+        }
+        assertFalse(result.next());
+        result.close();
+    }
+
+    private void testMultiPassMerge() {
+        int count = 10000;
+        LocalResult result = new LocalResult(session, null, 2);
+        result.setSortOrder(new SortOrder(db, new int[] { 0 }, new int[] { SortOrder.ASCENDING }, null));
+        for (int i = 0; i < count; i++) {
+            result.addRow(new Value[] { ValueInt.get((i * 7919) % 1000), ValueString.get("v" + i) });
+        }
+        result.done();
+        assertEquals(count, result.getRowCount());
+        assertSorted(result, count);
+        result.reset();
+        assertSorted(result, count);
+        result.close();
+    }
+
+    // 相等的记录按加入的顺序返回
+    private static void assertSorted(LocalResult result, int count) {
+        int last = -1;
+        int lastSeq = -1;
+        for (int i = 0; i < count; i++) {
+            assertTrue(result.next());
+            Value[] row = result.currentRow();
+            int v = row[0].getInt();
+            int seq = Integer.parseInt(row[1].getString().substring(1));
+            assertTrue(v >= last);
+            if (v == last)
+                assertTrue(seq > lastSeq);
+            last = v;
+            lastSeq = seq;
+        }
+        assertFalse(result.next());
+    }
+
+    private void testQuery() {
+        executeUpdate("DROP TABLE IF EXISTS ExternalSortQueryTest");
+        executeUpdate("CREATE TABLE ExternalSortQueryTest (id int primary key, f1 int, f2 varchar)");
+        executeUpdate("INSERT INTO ExternalSortQueryTest SELECT x, x % 97, 'v' || (x % 331) "
+                + "FROM SYSTEM_RANGE(1, 3000)");
+
+        ArrayList<String> expected = new ArrayList<>();
+        for (int id = 1; id <= 3000; id++)
+            expected.add(String.format("%02d:%04d", id % 97, 3000 - id));
+        Collections.sort(expected);
+        ArrayList<String> actual = new ArrayList<>();
+        for (String[] row : query("SELECT f1, 3000 - id FROM ExternalSortQueryTest ORDER BY f1, id DESC"))
+            actual.add(String.format("%02d:%04d", Integer.parseInt(row[0]), Integer.parseInt(row[1])));
+        assertEquals(expected, actual);
+
+        // 先去重再排序
+        TreeSet<String> distinct = new TreeSet<>(Collections.reverseOrder());
+        for (int id = 1; id <= 3000; id++)
+            distinct.add("v" + (id % 331));
+        ArrayList<String> list = new ArrayList<>();
+        for (String[] row : query("SELECT DISTINCT f2 FROM ExternalSortQueryTest ORDER BY f2 DESC"))
+            list.add(row[0]);
+        assertEquals(new ArrayList<>(distinct), list);
+
+        ArrayList<String> ids = new ArrayList<>();
+        int last = -1;
+        String lastF2 = null;
+        for (String[] row : query("SELECT f2, id FROM ExternalSortQueryTest ORDER BY f2, id")) {
+            String f2 = row[0];
+            int id = Integer.parseInt(row[1]);
+            if (lastF2 != null) {
+                int c = lastF2.compareTo(f2);
+                assertTrue(c < 0 || c == 0 && last < id);
+            }
+            lastF2 = f2;
+            last = id;
+            ids.add(row[1]);
+        }
+        assertEquals(3000, ids.size());
+        ArrayList<String> page = new ArrayList<>();
+        String sql = "SELECT id FROM ExternalSortQueryTest ORDER BY f2, id LIMIT 1500 OFFSET 1000";
+        for (String[] row : query(sql))
+            page.add(row[0]);
+        assertEquals(ids.subList(1000, 2500), page);
+
+        assertEquals(3000, query("SELECT * FROM ExternalSortQueryTest WHERE f1 >= 0").size());
+    }
+
+    private ArrayList<String[]> query(String sql) {
+        Result result = session.executeQueryLocal(session.prepareStatementLocal(sql));
+        ArrayList<String[]> list = new ArrayList<>();
+        while (result.next()) {
+            Value[] row = result.currentRow();
+            String[] a = new String[row.length];
+            for (int i = 0; i < a.length; i++)
+                a[i] = row[i].getString();
+            list.add(a);
+        }
+        result.close();
+        return list;
+    }
+}
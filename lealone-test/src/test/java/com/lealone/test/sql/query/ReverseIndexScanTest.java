@@ -0,0 +1,131 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.lealone.db.index.standard.StandardSecondaryIndex;
+import com.lealone.db.result.Result;
+import com.lealone.test.db.DbObjectTestBase;
+
+public class ReverseIndexScanTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS ReverseIndexScanTest");
+        executeUpdate("CREATE TABLE ReverseIndexScanTest (id int primary key, f1 int, f2 int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS ReverseIndexScanTest_f1 ON ReverseIndexScanTest(f1)");
+        // 记录数足够多时才会有node page
+        executeUpdate("INSERT INTO ReverseIndexScanTest SELECT x, x % 100, x FROM SYSTEM_RANGE(1, 5000)");
+        executeUpdate("DELETE FROM ReverseIndexScanTest WHERE id % 7 = 0");
+        executeUpdate("UPDATE ReverseIndexScanTest SET f1 = null WHERE id % 13 = 0");
+
+        testPrimaryIndex();
+        testSecondaryIndex();
+        testBuildingIndex();
+    }
+
+    private void testPrimaryIndex() {
+        String sql = "SELECT id FROM ReverseIndexScanTest ORDER BY id DESC";
+        assertTrue(getPlan(sql).contains("index sorted (reverse)"));
+        assertEquals(expectedIds(1, 5000, 10), getColumn(sql + " LIMIT 10"));
+        assertEquals(expectedIds(1, 5000, -1), getColumn(sql));
+
+        sql = "SELECT id FROM ReverseIndexScanTest WHERE id >= 100 AND id <= 2000 ORDER BY id DESC";
+        assertTrue(getPlan(sql).contains("index sorted (reverse)"));
+        assertEquals(expectedIds(100, 2000, -1), getColumn(sql));
+        sql = "SELECT id FROM ReverseIndexScanTest WHERE id > 4990 ORDER BY id DESC";
+        assertEquals(expectedIds(4991, 5000, -1), getColumn(sql));
+        sql = "SELECT id FROM ReverseIndexScanTest WHERE id < 20 ORDER BY id DESC LIMIT 5";
+        assertEquals(expectedIds(1, 19, 5), getColumn(sql));
+        sql = "SELECT id FROM ReverseIndexScanTest WHERE id > 6000 ORDER BY id DESC";
+        assertEquals(0, getColumn(sql).size());
+
+        sql = "SELECT id FROM ReverseIndexScanTest ORDER BY _ROWID_ DESC LIMIT 3";
+        assertEquals(expectedIds(1, 5000, 3), getColumn(sql));
+    }
+
+    private void testSecondaryIndex() {
+        String sql = "SELECT f1, id FROM ReverseIndexScanTest ORDER BY f1 DESC";
+        assertTrue(getPlan(sql).contains("index sorted (reverse)"));
+        ArrayList<String> list = getColumn(sql);
+        assertEquals(expectedF1(0, 99, true), list);
+
+        sql = "SELECT f1, id FROM ReverseIndexScanTest WHERE f1 >= 10 AND f1 <= 20 ORDER BY f1 DESC";
+        assertEquals(expectedF1(10, 20, false), getColumn(sql));
+        sql = "SELECT f1, id FROM ReverseIndexScanTest WHERE f1 < 3 ORDER BY f1 DESC";
+        assertEquals(expectedF1(0, 2, false), getColumn(sql));
+        sql = "SELECT f1, id FROM ReverseIndexScanTest WHERE f1 = 50 ORDER BY f1 DESC";
+        assertEquals(expectedF1(50, 50, false), getColumn(sql));
+
+        // 指定了NULLS FIRST时不能倒序遍历索引
+        sql = "SELECT f1, id FROM ReverseIndexScanTest ORDER BY f1 DESC NULLS FIRST";
+        assertFalse(getPlan(sql).contains("index sorted"));
+    }
+
+    // 索引还在构建时不能倒序遍历索引，否则只能看到索引中已有的记录
+    private void testBuildingIndex() {
+        StandardSecondaryIndex index = (StandardSecondaryIndex) schema.getIndex(session,
+                "ReverseIndexScanTest_f1");
+        index.setBuilding(true);
+        index.setBulkBuilding(true);
+        try {
+            String sql = "SELECT f1, id FROM ReverseIndexScanTest ORDER BY f1 DESC";
+            assertFalse(getPlan(sql).contains("index sorted (reverse)"));
+            assertEquals(expectedF1(99, 99, false).subList(0, 3), getColumn(sql + " LIMIT 3"));
+            assertEquals(expectedF1(0, 99, true), getColumn(sql));
+        } finally {
+            index.setBulkBuilding(false);
+            index.setBuilding(false);
+        }
+    }
+
+    // 按id倒序，limit小于0时返回所有记录
+    private static ArrayList<String> expectedIds(int from, int to, int limit) {
+        ArrayList<String> list = new ArrayList<>();
+        for (int id = to; id >= from; id--) {
+            if (id % 7 == 0)
+                continue;
+            if (limit >= 0 && list.size() >= limit)
+                break;
+            list.add(Integer.toString(id));
+        }
+        return list;
+    }
+
+    // 只比较f1，f1相同的记录之间的顺序不确定
+    private static ArrayList<String> expectedF1(int from, int to, boolean nulls) {
+        ArrayList<String> list = new ArrayList<>();
+        for (int f1 = to; f1 >= from; f1--) {
+            for (int id = 1; id <= 5000; id++) {
+                if (id % 7 != 0 && id % 13 != 0 && id % 100 == f1)
+                    list.add(Integer.toString(f1));
+            }
+        }
+        if (nulls) {
+            for (int id = 1; id <= 5000; id++) {
+                if (id % 7 != 0 && id % 13 == 0)
+                    list.add(null);
+            }
+        }
+        return list;
+    }
+
+    private String getPlan(String sql) {
+        return getString("EXPLAIN " + sql, 1);
+    }
+
+    private ArrayList<String> getColumn(String sql) {
+        Result result = session.executeQueryLocal(session.prepareStatementLocal(sql));
+        ArrayList<String> list = new ArrayList<>();
+        while (result.next()) {
+            list.add(result.currentRow()[0].getString());
+        }
+        return list;
+    }
+}
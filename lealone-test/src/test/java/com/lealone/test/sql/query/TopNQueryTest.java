@@ -0,0 +1,94 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.lealone.db.result.LocalResult;
+import com.lealone.db.result.Result;
+import com.lealone.db.result.SortOrder;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueInt;
+import com.lealone.test.db.DbObjectTestBase;
+
+public class TopNQueryTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        testLocalResult();
+        testQuery();
+    }
+
+    private void testLocalResult() {
+        LocalResult result = new LocalResult(session, null, 2);
+        result.setSortOrder(new SortOrder(db, new int[] { 0 }, new int[] { SortOrder.DESCENDING }, null));
+        result.setTopN(10);
+        for (int i = 0; i < 1000; i++) {
+            result.addRow(new Value[] { ValueInt.get((i * 7) % 1000), ValueInt.get(i) });
+            // 任何时候最多只保留10条记录
+            assertTrue(result.getRowCount() <= 10);
+        }
+        result.setOffset(3);
+        result.setLimit(7);
+        result.done();
+        assertEquals(7, result.getRowCount());
+        for (int i = 996; i >= 990; i--) {
+            assertTrue(result.next());
+            assertEquals(i, result.currentRow()[0].getInt());
+        }
+        assertFalse(result.next());
+    }
+
+    private void testQuery() {
+        executeUpdate("DROP TABLE IF EXISTS TopNQueryTest");
+        executeUpdate("CREATE TABLE TopNQueryTest (id int primary key, f1 int, f2 varchar)");
+        executeUpdate("INSERT INTO TopNQueryTest SELECT x, x % 97, 'v' || x FROM SYSTEM_RANGE(1, 3000)");
+        executeUpdate("UPDATE TopNQueryTest SET f1 = null WHERE id % 11 = 0");
+
+        String[] orders = { "f1, id", "f1 DESC, id", "f1 NULLS LAST, id DESC", "f2", "f1 + id DESC, id" };
+        for (String order : orders) {
+            String sql = "SELECT id, f1 FROM TopNQueryTest ORDER BY " + order;
+            ArrayList<String> all = getColumn(sql);
+            assertEquals(3000, all.size());
+            assertEquals(all.subList(0, 1), getColumn(sql + " LIMIT 1"));
+            assertEquals(all.subList(0, 20), getColumn(sql + " LIMIT 20"));
+            assertEquals(all.subList(100, 120), getColumn(sql + " LIMIT 20 OFFSET 100"));
+            assertEquals(all.subList(2990, 3000), getColumn(sql + " LIMIT 20 OFFSET 2990"));
+            assertEquals(all, getColumn(sql + " LIMIT 5000"));
+            assertEquals(0, getColumn(sql + " LIMIT 20 OFFSET 3000").size());
+        }
+
+        // 分组后再排序
+        String sql = "SELECT f1, count(*) FROM TopNQueryTest GROUP BY f1 ORDER BY f1 DESC";
+        ArrayList<String> all = getColumn(sql);
+        assertEquals(all.subList(0, 5), getColumn(sql + " LIMIT 5"));
+
+        // 比maxMemoryRows大时还是用原来的方式
+        int maxMemoryRows = db.getMaxMemoryRows();
+        executeUpdate("SET MAX_MEMORY_ROWS 100");
+        try {
+            sql = "SELECT id, f1 FROM TopNQueryTest ORDER BY f1 DESC, id";
+            all = getColumn(sql);
+            assertEquals(all.subList(0, 50), getColumn(sql + " LIMIT 50"));
+            assertEquals(all.subList(50, 250), getColumn(sql + " LIMIT 200 OFFSET 50"));
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS " + maxMemoryRows);
+        }
+    }
+
+    private ArrayList<String> getColumn(String sql) {
+        Result result = session.executeQueryLocal(session.prepareStatementLocal(sql));
+        ArrayList<String> list = new ArrayList<>();
+        while (result.next()) {
+            Value[] row = result.currentRow();
+            list.add(row[0].getString() + ":" + row[1].getString());
+        }
+        result.close();
+        return list;
+    }
+}